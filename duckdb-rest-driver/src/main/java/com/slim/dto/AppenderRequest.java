@@ -0,0 +1,32 @@
+package com.slim.dto;
+
+public class AppenderRequest {
+    // null pour le schéma par défaut
+    private String schema;
+    private String table;
+
+    public AppenderRequest() {
+        // Constructeur par défaut pour la désérialisation
+    }
+
+    public AppenderRequest(String schema, String table) {
+        this.schema = schema;
+        this.table = table;
+    }
+
+    public String getSchema() {
+        return schema;
+    }
+
+    public void setSchema(String schema) {
+        this.schema = schema;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public void setTable(String table) {
+        this.table = table;
+    }
+}
@@ -3,6 +3,10 @@ package com.slim.dto;
 public class ExecuteRequest {
     private String sql;
     private Object[] params;
+    // Nombre max de lignes par chunk, 0 = résultat complet en une seule réponse
+    private int fetchSize;
+    // Statement préparé via /jdbc/prepare, utilisé à la place de sql
+    private String statementId;
 
     public ExecuteRequest() {
         // Constructeur par défaut pour la désérialisation
@@ -29,4 +33,20 @@ public class ExecuteRequest {
         this.params = params;
     }
 
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    public String getStatementId() {
+        return statementId;
+    }
+
+    public void setStatementId(String statementId) {
+        this.statementId = statementId;
+    }
+
 }
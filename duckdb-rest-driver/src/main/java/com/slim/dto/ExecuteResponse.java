@@ -1,13 +1,24 @@
 package com.slim.dto;
 
+import java.io.InputStream;
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 
 public class ExecuteResponse {
     private ExecuteDuckDBResultSetMetaData metadata;
     private List<List<Object>> data;
     private boolean error = false;
     private String errorMessage = null;
+    // Curseur serveur ouvert quand le résultat est découpé en chunks
+    private String cursorId = null;
+    private boolean hasMore = false;
+    // Identifiant renvoyé par /jdbc/prepare
+    private String statementId = null;
+    // Corps Arrow IPC, encore ouvert, quand le serveur a répondu en application/vnd.apache.arrow.stream
+    @JsonIgnore
+    private InputStream arrowStream = null;
 
     public ExecuteResponse(ExecuteDuckDBResultSetMetaData metadata, List<List<Object>> data) {
         this.metadata = metadata;
@@ -48,5 +59,39 @@ public class ExecuteResponse {
         return error;
     }
 
+    public String getCursorId() {
+        return cursorId;
+    }
 
+    public void setCursorId(String cursorId) {
+        this.cursorId = cursorId;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+
+    public String getStatementId() {
+        return statementId;
+    }
+
+    public void setStatementId(String statementId) {
+        this.statementId = statementId;
+    }
+
+
+
+    @JsonIgnore
+    public InputStream getArrowStream() {
+        return arrowStream;
+    }
+
+    @JsonIgnore
+    public void setArrowStream(InputStream arrowStream) {
+        this.arrowStream = arrowStream;
+    }
 }
@@ -0,0 +1,31 @@
+package com.slim.dto;
+
+public class FetchRequest {
+    private String cursorId;
+    private int fetchSize;
+
+    public FetchRequest() {
+        // Constructeur par défaut pour la désérialisation
+    }
+
+    public FetchRequest(String cursorId, int fetchSize) {
+        this.cursorId = cursorId;
+        this.fetchSize = fetchSize;
+    }
+
+    public String getCursorId() {
+        return cursorId;
+    }
+
+    public void setCursorId(String cursorId) {
+        this.cursorId = cursorId;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+}
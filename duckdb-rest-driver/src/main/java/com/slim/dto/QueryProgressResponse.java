@@ -0,0 +1,55 @@
+package com.slim.dto;
+
+/**
+ * Avancement d'une requête en cours, tel que mesuré par DuckDB ; un
+ * pourcentage de -1 signifie que DuckDB ne peut pas l'estimer.
+ */
+public class QueryProgressResponse {
+    private String queryId;
+    private double percentage = -1;
+    private long rowsProcessed;
+    private long totalRowsToProcess;
+
+    public QueryProgressResponse(String queryId, double percentage, long rowsProcessed, long totalRowsToProcess) {
+        this.queryId = queryId;
+        this.percentage = percentage;
+        this.rowsProcessed = rowsProcessed;
+        this.totalRowsToProcess = totalRowsToProcess;
+    }
+
+    public QueryProgressResponse() {
+        // Default constructor for deserialization
+    }
+
+    public String getQueryId() {
+        return queryId;
+    }
+
+    public void setQueryId(String queryId) {
+        this.queryId = queryId;
+    }
+
+    public double getPercentage() {
+        return percentage;
+    }
+
+    public void setPercentage(double percentage) {
+        this.percentage = percentage;
+    }
+
+    public long getRowsProcessed() {
+        return rowsProcessed;
+    }
+
+    public void setRowsProcessed(long rowsProcessed) {
+        this.rowsProcessed = rowsProcessed;
+    }
+
+    public long getTotalRowsToProcess() {
+        return totalRowsToProcess;
+    }
+
+    public void setTotalRowsToProcess(long totalRowsToProcess) {
+        this.totalRowsToProcess = totalRowsToProcess;
+    }
+}
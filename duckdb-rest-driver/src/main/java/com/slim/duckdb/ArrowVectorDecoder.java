@@ -0,0 +1,512 @@
+package com.slim.duckdb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.arrow.memory.ArrowBuf;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BaseFixedWidthVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.FixedSizeBinaryVector;
+import org.apache.arrow.vector.ValueVector;
+import org.apache.arrow.vector.VarBinaryVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.complex.FixedSizeListVector;
+import org.apache.arrow.vector.complex.ListVector;
+import org.apache.arrow.vector.complex.StructVector;
+import org.apache.arrow.vector.complex.UnionVector;
+import org.apache.arrow.vector.dictionary.DictionaryEncoder;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.slim.dto.ExecuteDuckDBResultSetMetaData;
+
+/**
+ * Décode un flux Arrow IPC renvoyé par /jdbc/execute en {@link DuckDBVector}, un
+ * record batch par chunk, lu dans la réponse HTTP au fur et à mesure : seul le
+ * batch courant est en mémoire. Les types à largeur fixe sont copiés directement depuis
+ * les buffers Arrow (little-endian, comme {@link DuckDBVector#getbuf}) sans passer
+ * par des objets Java intermédiaires. Les types imbriqués (LIST, ARRAY, STRUCT,
+ * MAP, UNION) prennent la forme du driver natif : {@link DuckDBArray} et
+ * {@link DuckDBStruct} sur les vecteurs enfants, décodés de la même façon.
+ * <p>
+ * Arrow est une dépendance optionnelle du driver : cette classe n'est chargée que
+ * si l'option {@code jdbc_arrow_transport} est active et Arrow présent au classpath.
+ */
+final class ArrowVectorDecoder implements AutoCloseable {
+
+    // Clé des métadonnées de schéma posée par le serveur (ArrowResultStream)
+    static final String METADATA_KEY = "duckdb.result.metadata";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private static final Pattern DECIMAL_TYPE = Pattern.compile("DECIMAL\\((\\d+),\\s*(\\d+)\\)");
+    private static BufferAllocator rootAllocator;
+
+    private final BufferAllocator allocator;
+    private final InputStream source;
+    private final ArrowStreamReader reader;
+    private final ExecuteDuckDBResultSetMetaData metadata;
+    // Octets lus avant le premier batch (schéma, dictionnaires), rejoués par detach()
+    private ByteArrayOutputStream header = new ByteArrayOutputStream();
+    private boolean detached = false;
+
+    /**
+     * @param ipcStream flux IPC, fermé avec le décodeur
+     */
+    ArrowVectorDecoder(InputStream ipcStream) throws SQLException {
+        this.allocator = rootAllocator().newChildAllocator("duckdb-rest-result", 0, Long.MAX_VALUE);
+        this.source = ipcStream;
+        this.reader = new ArrowStreamReader(new HeaderRecordingStream(ipcStream), allocator);
+        try {
+            String json = reader.getVectorSchemaRoot().getSchema().getCustomMetadata().get(METADATA_KEY);
+            if (json == null) {
+                throw new SQLException("Flux Arrow sans métadonnées " + METADATA_KEY);
+            }
+            this.metadata = MAPPER.readValue(json, ExecuteDuckDBResultSetMetaData.class);
+        } catch (IOException e) {
+            close();
+            throw new SQLException("Lecture du schéma Arrow en échec", e);
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static synchronized BufferAllocator rootAllocator() {
+        if (rootAllocator == null) {
+            rootAllocator = new RootAllocator();
+        }
+        return rootAllocator;
+    }
+
+    ExecuteDuckDBResultSetMetaData getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * @return les vecteurs du prochain record batch non vide, {@code null} en fin de flux
+     */
+    DuckDBVector[] next(DuckDBResultSetMetaData meta) throws SQLException {
+        header = null;
+        try {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            do {
+                if (!reader.loadNextBatch()) {
+                    return null;
+                }
+            } while (root.getRowCount() == 0);
+
+            int rowCount = root.getRowCount();
+            DuckDBVector[] vectors = new DuckDBVector[meta.getColumnCount()];
+            for (int col = 0; col < vectors.length; col++) {
+                vectors[col] = toVector(meta.getColumnTypeName(col + 1), root.getVector(col), rowCount);
+            }
+            return vectors;
+        } catch (SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException("Décodage Arrow en échec", e);
+        }
+    }
+
+    private DuckDBVector toVector(String type, FieldVector vector, int rowCount) throws Exception {
+        boolean[] nullmask = new boolean[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            nullmask[i] = vector.isNull(i);
+        }
+        DuckDBVector duckVector = new DuckDBVector(nativeTypeName(type), rowCount, nullmask);
+
+        DictionaryEncoding encoding = vector.getField().getDictionary();
+        if (encoding != null) {
+            // ENUM : DuckDB exporte des index dans un dictionnaire
+            try (ValueVector decoded = DictionaryEncoder.decode(vector, reader.lookup(encoding.getId()))) {
+                JdbcUtils.setVarlenData(toStrings(decoded, rowCount), duckVector);
+            }
+            return duckVector;
+        }
+
+        switch (duckVector.duckdb_type) {
+        case BOOLEAN:
+            JdbcUtils.setConstlenData(booleans((BitVector) vector, rowCount), duckVector);
+            break;
+        case TINYINT:
+        case UTINYINT:
+            JdbcUtils.setConstlenData(copyFixedWidth(type, vector, rowCount, 1), duckVector);
+            break;
+        case SMALLINT:
+        case USMALLINT:
+            JdbcUtils.setConstlenData(copyFixedWidth(type, vector, rowCount, 2), duckVector);
+            break;
+        case INTEGER:
+        case UINTEGER:
+        case FLOAT:
+        case DATE:
+            JdbcUtils.setConstlenData(copyFixedWidth(type, vector, rowCount, 4), duckVector);
+            break;
+        case BIGINT:
+        case UBIGINT:
+        case DOUBLE:
+        case TIME:
+        case TIMESTAMP:
+        case TIMESTAMP_MS:
+        case TIMESTAMP_NS:
+        case TIMESTAMP_S:
+        case TIMESTAMP_WITH_TIME_ZONE:
+            JdbcUtils.setConstlenData(copyFixedWidth(type, vector, rowCount, 8), duckVector);
+            break;
+        case HUGEINT:
+        case UHUGEINT:
+            // Exportés en Decimal128(38, 0) : même représentation 128 bits little-endian
+            JdbcUtils.setConstlenData(copyFixedWidth(type, vector, rowCount, 16), duckVector);
+            break;
+        case DECIMAL:
+            JdbcUtils.setConstlenData(decimals(type, vector, rowCount), duckVector);
+            break;
+        case UUID:
+            JdbcUtils.setConstlenData(uuids(vector, rowCount), duckVector);
+            break;
+        case BLOB: {
+            Object[] data = new Object[rowCount];
+            for (int i = 0; i < rowCount; i++) {
+                data[i] = vector.isNull(i) ? null : ((VarBinaryVector) vector).get(i);
+            }
+            JdbcUtils.setVarlenData(data, duckVector);
+            break;
+        }
+        case LIST:
+        case MAP: {
+            // Une MAP est une liste d'entrées STRUCT(key, value), comme dans le driver natif
+            ListVector list = (ListVector) vector;
+            String childType = duckVector.duckdb_type == DuckDBColumnType.MAP
+                ? mapEntryType(type)
+                : type.substring(0, type.length() - 2);
+            FieldVector childVector = list.getDataVector();
+            DuckDBVector child = toVector(childType, childVector, childVector.getValueCount());
+            ArrowBuf offsets = list.getOffsetBuffer();
+            Object[] data = new Object[rowCount];
+            for (int i = 0; i < rowCount; i++) {
+                if (!nullmask[i]) {
+                    int start = offsets.getInt((long) i * ListVector.OFFSET_WIDTH);
+                    int end = offsets.getInt((long) (i + 1) * ListVector.OFFSET_WIDTH);
+                    data[i] = new DuckDBArray(child, start, end - start);
+                }
+            }
+            JdbcUtils.setVarlenData(data, duckVector);
+            break;
+        }
+        case ARRAY: {
+            FixedSizeListVector array = (FixedSizeListVector) vector;
+            int size = array.getListSize();
+            FieldVector childVector = array.getDataVector();
+            DuckDBVector child = toVector(type.substring(0, type.lastIndexOf('[')), childVector, childVector.getValueCount());
+            Object[] data = new Object[rowCount];
+            for (int i = 0; i < rowCount; i++) {
+                if (!nullmask[i]) {
+                    data[i] = new DuckDBArray(child, i * size, size);
+                }
+            }
+            JdbcUtils.setVarlenData(data, duckVector);
+            break;
+        }
+        case STRUCT: {
+            List<String[]> fields = namedFields(type);
+            String[] keys = new String[fields.size()];
+            DuckDBVector[] children = new DuckDBVector[fields.size()];
+            StructVector struct = (StructVector) vector;
+            for (int k = 0; k < children.length; k++) {
+                keys[k] = fields.get(k)[0];
+                children[k] = toVector(fields.get(k)[1], (FieldVector) struct.getChildByOrdinal(k), rowCount);
+            }
+            Object[] data = new Object[rowCount];
+            for (int i = 0; i < rowCount; i++) {
+                if (!nullmask[i]) {
+                    data[i] = new DuckDBStruct(keys, children, i, type);
+                }
+            }
+            JdbcUtils.setVarlenData(data, duckVector);
+            break;
+        }
+        case UNION:
+            JdbcUtils.setVarlenData(unions(type, (UnionVector) vector, rowCount, nullmask), duckVector);
+            break;
+        default:
+            // VARCHAR, JSON, INTERVAL, BIT... lus via getLazyString
+            JdbcUtils.setVarlenData(toStrings(vector, rowCount), duckVector);
+        }
+        return duckVector;
+    }
+
+    /**
+     * Un UNION natif est un STRUCT(tag, membres...) : {@link DuckDBVector#getUnion}
+     * renvoie le membre désigné par le tag. Arrow le transporte en union
+     * « sparse », chaque membre sur toutes les lignes.
+     */
+    private Object[] unions(String type, UnionVector union, int rowCount, boolean[] nullmask) throws Exception {
+        List<String[]> fields = namedFields(type);
+        String[] keys = new String[fields.size() + 1];
+        DuckDBVector[] children = new DuckDBVector[fields.size() + 1];
+        List<FieldVector> members = union.getChildrenFromFields();
+        keys[0] = "tag";
+        for (int k = 0; k < fields.size(); k++) {
+            keys[k + 1] = fields.get(k)[0];
+            children[k + 1] = toVector(fields.get(k)[1], members.get(k), rowCount);
+        }
+        // Les identifiants de type Arrow désignent les membres, le tag DuckDB leur position
+        int[] typeIds = ((ArrowType.Union) union.getField().getType()).getTypeIds();
+        ByteBuffer tags = ByteBuffer.allocate(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            int typeId = nullmask[i] ? 0 : union.getTypeValue(i);
+            int tag = typeId;
+            for (int k = 0; typeIds != null && k < typeIds.length; k++) {
+                if (typeIds[k] == typeId) {
+                    tag = k;
+                }
+            }
+            tags.put((byte) tag);
+        }
+        tags.rewind();
+        children[0] = new DuckDBVector("UTINYINT", rowCount, new boolean[rowCount]);
+        JdbcUtils.setConstlenData(tags, children[0]);
+
+        Object[] data = new Object[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            if (!nullmask[i]) {
+                data[i] = new DuckDBStruct(keys, children, i, type);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * @return les champs {@code {nom, type}} d'un {@code STRUCT(...)} ou d'un {@code UNION(...)}
+     */
+    private static List<String[]> namedFields(String type) {
+        List<String[]> fields = new ArrayList<>();
+        for (String field : splitArguments(type)) {
+            String name;
+            String rest;
+            if (field.startsWith("\"")) {
+                // Nom entre guillemets, "" pour un guillemet
+                int end = 1;
+                while (end < field.length() && (field.charAt(end) != '"' || end + 1 < field.length() && field.charAt(end + 1) == '"')) {
+                    end += field.charAt(end) == '"' ? 2 : 1;
+                }
+                name = field.substring(1, end).replace("\"\"", "\"");
+                rest = field.substring(end + 1);
+            } else {
+                int space = field.indexOf(' ');
+                name = field.substring(0, space);
+                rest = field.substring(space);
+            }
+            fields.add(new String[] {name, rest.trim()});
+        }
+        return fields;
+    }
+
+    /**
+     * {@code MAP(K, V)} : les entrées sont des {@code STRUCT(key K, value V)}.
+     */
+    private static String mapEntryType(String type) {
+        List<String> arguments = splitArguments(type);
+        return "STRUCT(key " + arguments.get(0) + ", value " + arguments.get(1) + ")";
+    }
+
+    /**
+     * Arguments de premier niveau entre les parenthèses d'un type, séparés par
+     * des virgules hors parenthèses, crochets et guillemets.
+     */
+    private static List<String> splitArguments(String type) {
+        String inner = type.substring(type.indexOf('(') + 1, type.lastIndexOf(')'));
+        List<String> arguments = new ArrayList<>();
+        int depth = 0;
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < inner.length(); i++) {
+            char c = inner.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && (c == '(' || c == '[')) {
+                depth++;
+            } else if (!quoted && (c == ')' || c == ']')) {
+                depth--;
+            } else if (!quoted && depth == 0 && c == ',') {
+                arguments.add(inner.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        arguments.add(inner.substring(start).trim());
+        return arguments;
+    }
+
+    /**
+     * Le serveur envoie les DECIMAL sous la forme SQL {@code DECIMAL(p,s)} ;
+     * DuckDBVector attend le détail natif {@code DECIMAL<bits>;p;s}.
+     */
+    private static String nativeTypeName(String type) {
+        Matcher m = DECIMAL_TYPE.matcher(type);
+        if (!m.matches()) {
+            return type;
+        }
+        int precision = Integer.parseInt(m.group(1));
+        int bits = precision <= 4 ? 16 : precision <= 9 ? 32 : precision <= 18 ? 64 : 128;
+        return "DECIMAL" + bits + ";" + precision + ";" + m.group(2);
+    }
+
+    private static ByteBuffer copyFixedWidth(String type, FieldVector vector, int rowCount, int width) throws SQLException {
+        checkWidth(type, vector, width);
+        ByteBuffer buffer = ByteBuffer.allocate(rowCount * width).order(ByteOrder.LITTLE_ENDIAN);
+        vector.getDataBuffer().getBytes(0, buffer);
+        buffer.rewind();
+        return buffer;
+    }
+
+    private static ByteBuffer booleans(BitVector vector, int rowCount) {
+        // Arrow stocke les booléens en bits, DuckDBVector en octets
+        ByteBuffer buffer = ByteBuffer.allocate(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            buffer.put((byte) (vector.isNull(i) ? 0 : vector.get(i)));
+        }
+        buffer.rewind();
+        return buffer;
+    }
+
+    private static ByteBuffer decimals(String type, FieldVector vector, int rowCount) throws SQLException {
+        int width = DuckDBColumnTypeMetaData.parseColumnTypeMetadata(nativeTypeName(type)).type_size / 8;
+        if (width == 16) {
+            return copyFixedWidth(type, vector, rowCount, 16);
+        }
+        // Arrow transporte toujours 128 bits, DuckDBVector lit la largeur physique DuckDB
+        ArrowBuf data = checkWidth(type, vector, 16).getDataBuffer();
+        ByteBuffer buffer = ByteBuffer.allocate(rowCount * width).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < rowCount; i++) {
+            long unscaled = data.getLong((long) i * 16);
+            if (width == 2) {
+                buffer.putShort((short) unscaled);
+            } else if (width == 4) {
+                buffer.putInt((int) unscaled);
+            } else {
+                buffer.putLong(unscaled);
+            }
+        }
+        buffer.rewind();
+        return buffer;
+    }
+
+    private static FieldVector checkWidth(String type, FieldVector vector, int width) throws SQLException {
+        if (!(vector instanceof BaseFixedWidthVector) || ((BaseFixedWidthVector) vector).getTypeWidth() != width) {
+            throw new SQLException("Vecteur Arrow " + vector.getField().getType() + " inattendu pour le type " + type);
+        }
+        return vector;
+    }
+
+    private static ByteBuffer uuids(FieldVector vector, int rowCount) {
+        ByteBuffer buffer = ByteBuffer.allocate(rowCount * 16).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < rowCount; i++) {
+            if (vector.isNull(i)) {
+                buffer.putLong(0L).putLong(0L);
+                continue;
+            }
+            UUID uuid;
+            if (vector instanceof FixedSizeBinaryVector) {
+                ByteBuffer raw = ByteBuffer.wrap(((FixedSizeBinaryVector) vector).get(i));
+                uuid = new UUID(raw.getLong(), raw.getLong());
+            } else {
+                uuid = UUID.fromString(vector.getObject(i).toString());
+            }
+            // Représentation interne DuckDB, cf. DuckDBVector.getUuid
+            buffer.putLong(uuid.getLeastSignificantBits());
+            buffer.putLong(uuid.getMostSignificantBits() ^ Long.MIN_VALUE);
+        }
+        buffer.rewind();
+        return buffer;
+    }
+
+    private static Object[] toStrings(ValueVector vector, int rowCount) {
+        Object[] data = new Object[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            Object value = vector.getObject(i);
+            data[i] = value == null ? null : value.toString();
+        }
+        return data;
+    }
+
+    /**
+     * Rend le flux IPC entier, schéma compris, sans le décoder, et ferme le
+     * décodeur ; possible tant qu'aucun batch n'a été lu.
+     *
+     * @return {@code null} si {@link #next} a déjà été appelé
+     */
+    InputStream detach() {
+        if (header == null) {
+            return null;
+        }
+        byte[] read = header.toByteArray();
+        detached = true;
+        close();
+        return new SequenceInputStream(new ByteArrayInputStream(read), source);
+    }
+
+    /**
+     * Garde une copie des octets lus tant que {@code header} est ouvert, et ne
+     * ferme pas le flux source une fois celui-ci rendu par {@link #detach()}.
+     */
+    private final class HeaderRecordingStream extends FilterInputStream {
+
+        HeaderRecordingStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0 && header != null) {
+                header.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0 && header != null) {
+                header.write(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!detached) {
+                in.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            // suppress
+        }
+        allocator.close();
+    }
+}
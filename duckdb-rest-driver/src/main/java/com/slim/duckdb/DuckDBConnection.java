@@ -34,6 +34,7 @@ import static com.slim.duckdb.DuckDBDriver.JDBC_AUTO_COMMIT;
 import static com.slim.duckdb.JdbcUtils.dbNameFromUrl;
 import static com.slim.duckdb.JdbcUtils.isStringTruish;
 import static com.slim.duckdb.JdbcUtils.removeOption;
+import com.slim.duckdb.client.DuckDBHttpTransport;
 import com.slim.duckdb.user.DuckDBMap;
 import com.slim.duckdb.user.DuckDBUserArray;
 import com.slim.duckdb.user.DuckDBUserStruct;
@@ -298,12 +299,17 @@ public final class DuckDBConnection implements java.sql.Connection {
 
     @Override
     public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface == DuckDBHttpTransport.class) {
+            // Pool HTTP partagé, pour superviser les connexions keep-alive
+            checkOpen();
+            return iface.cast(DuckDBNative.duckdb_jdbc_http_transport(connRef));
+        }
         return JdbcUtils.unwrap(this, iface);
     }
 
     @Override
     public boolean isWrapperFor(Class<?> iface) {
-        return iface.isInstance(this);
+        return iface == DuckDBHttpTransport.class || iface.isInstance(this);
     }
 
     public void abort(Executor executor) throws SQLException {
@@ -518,12 +524,7 @@ public final class DuckDBConnection implements java.sql.Connection {
 
     QueryProgress queryProgress() throws SQLException {
         checkOpen();
-        connRefLock.lock();
-        try {
-            checkOpen();
-            return DuckDBNative.duckdb_jdbc_query_progress(connRef);
-        } finally {
-            connRefLock.unlock();
-        }
+        // Sans connRefLock : l'appel HTTP ne doit pas retarder l'exécution suivante ni un cancel
+        return DuckDBNative.duckdb_jdbc_query_progress(connRef);
     }
 }
@@ -47,7 +47,15 @@ public class DuckDBDriver implements java.sql.Driver {
     public static final String DUCKDB_READONLY_PROPERTY = "duckdb.read_only";
     public static final String DUCKDB_USER_AGENT_PROPERTY = "custom_user_agent";
     public static final String JDBC_STREAM_RESULTS = "jdbc_stream_results";
+    public static final String JDBC_ARROW_TRANSPORT = "jdbc_arrow_transport";
     public static final String JDBC_AUTO_COMMIT = "jdbc_auto_commit";
+    public static final String JDBC_APPENDER_BATCH_SIZE = "jdbc_appender_batch_size";
+    public static final String JDBC_SESSION = "jdbc_session";
+    public static final String HTTP_MAX_CONNECTIONS_PER_ROUTE = "http_max_connections_per_route";
+    public static final String HTTP_MAX_CONNECTIONS = "http_max_connections";
+    public static final String HTTP_IDLE_TIMEOUT_MS = "http_idle_timeout_ms";
+    public static final String HTTP_CONNECT_TIMEOUT_MS = "http_connect_timeout_ms";
+    public static final String HTTP_READ_TIMEOUT_MS = "http_read_timeout_ms";
     public static final String JDBC_PIN_DB = "jdbc_pin_db";
     public static final String JDBC_IGNORE_UNSUPPORTED_OPTIONS = "jdbc_ignore_unsupported_options";
 
@@ -108,15 +116,15 @@ public class DuckDBDriver implements java.sql.Driver {
         if (url != null && url.startsWith("jdbc:duckdb://")) {
             String backendUrl = url.substring("jdbc:duckdb://".length());
             String[] parts = backendUrl.split("\\?", 2);
-            String hostPort = parts[0]; // ex: localhost:8080
+            String hostPort = parts[0].split(";", 2)[0]; // ex: localhost:8080 (options ';' lues plus bas)
             props.put("backendUrl", hostPort); // Ajoute host:port dans les propriétés
 
             if (parts.length > 1) {
-                String[] params = parts[1].split("&");
+                // ex: ?useEncryption=true&jdbc_stream_results=true
+                String[] params = parts[1].split(";", 2)[0].split("&");
                 for (String param : params) {
                     String[] kv = param.split("=", 2);
-                    if (kv.length == 2 &&
-                        ("useEncryption".equals(kv[0]) || "disableCertificateVerification".equals(kv[0]))) {
+                    if (kv.length == 2 && !kv[0].isEmpty()) {
                         props.put(kv[0], kv[1]);
                     }
                 }
@@ -207,7 +215,20 @@ public class DuckDBDriver implements java.sql.Driver {
         list.add(createDriverPropInfo(DUCKDB_READONLY_PROPERTY, "", "Set connection to read-only mode"));
         list.add(createDriverPropInfo(DUCKDB_USER_AGENT_PROPERTY, "", "Custom user agent string"));
         list.add(createDriverPropInfo(JDBC_STREAM_RESULTS, "", "Enable result set streaming"));
+        list.add(createDriverPropInfo(JDBC_ARROW_TRANSPORT, "",
+                                      "Receive results as Arrow IPC streams (requires Apache Arrow on the classpath)"));
         list.add(createDriverPropInfo(JDBC_AUTO_COMMIT, "", "Set default auto-commit mode"));
+        list.add(createDriverPropInfo(JDBC_APPENDER_BATCH_SIZE, "65536", "Rows buffered by an appender before sending them to the backend"));
+        list.add(createDriverPropInfo(JDBC_SESSION, "auto",
+                                      "Pin the connection to one backend DuckDB connection: auto (on SET, BEGIN, temp tables...), true or false"));
+        list.add(createDriverPropInfo(HTTP_MAX_CONNECTIONS_PER_ROUTE, "20",
+                                      "Maximum pooled HTTP connections to the backend, shared by all JDBC connections"));
+        list.add(createDriverPropInfo(HTTP_MAX_CONNECTIONS, "100", "Maximum pooled HTTP connections to the backend, all routes; each backend has its own pool"));
+        list.add(createDriverPropInfo(HTTP_IDLE_TIMEOUT_MS, "30000",
+                                      "Close pooled HTTP connections idle for longer than this (ms)"));
+        list.add(createDriverPropInfo(HTTP_CONNECT_TIMEOUT_MS, "10000",
+                                      "HTTP connect timeout, also bounds the wait for a pooled connection (ms)"));
+        list.add(createDriverPropInfo(HTTP_READ_TIMEOUT_MS, "0", "HTTP read timeout (ms), 0 for none"));
         list.add(createDriverPropInfo(JDBC_PIN_DB, "",
                                       "Do not close the DB instance after all connections to it are closed"));
         list.add(createDriverPropInfo(JDBC_IGNORE_UNSUPPORTED_OPTIONS, "",
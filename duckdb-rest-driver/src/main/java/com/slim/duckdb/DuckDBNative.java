@@ -1,23 +1,33 @@
 package com.slim.duckdb;
 
+import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.math.BigDecimal;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.sql.BatchUpdateException;
 import java.sql.SQLException;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.IdentityHashMap;
+import java.sql.SQLTimeoutException;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
+import org.springframework.web.client.RestClientResponseException;
+
+import com.slim.dto.AppendBatch;
+import com.slim.dto.AppenderResponse;
+import com.slim.dto.ExecuteBatchRequest;
+import com.slim.dto.ExecuteBatchResponse;
+import com.slim.dto.ExecuteDuckDBResultSetMetaData;
 import com.slim.dto.ExecuteResponse;
+import com.slim.dto.QueryProgressResponse;
 import com.slim.duckdb.JdbcUtils.TypeProcessor;
 import com.slim.duckdb.client.DuckDBHttpClient;
+import com.slim.duckdb.client.DuckDBHttpTransport;
 import static com.slim.duckdb.JdbcUtils.TYPE_PROCESSORS;
 
 
@@ -33,48 +43,102 @@ class DuckDBNative {
 
     // results ConnectionHolder reference objectimport java.nio.ByteBuffer;
 
-    private static String backendUrl = "http://localhost:8080"; // Default URL for DuckDB REST server
-    private static final Map<ByteBuffer, DuckDBConnection> connectionMap = new HashMap<>();
-    private static final Map<ByteBuffer, String> statementMap = new HashMap<>();
-    private static final Map<ByteBuffer, Object[]> statementParamsMap = new HashMap<>();
-    private static final Map<ByteBuffer, DuckDBResultSetMetaData> resultMetaMap = new HashMap<>();
-    private static Map<ByteBuffer, List<List<Object>>> resultDataMap = new ConcurrentHashMap<>();
-    private static Set<ByteBuffer> alreadyFetchedResults = Collections.newSetFromMap(new IdentityHashMap<>());
+    // Taille d'un vecteur DuckDB (STANDARD_VECTOR_SIZE), taille de chunk par défaut en mode streaming
+    static final int STANDARD_VECTOR_SIZE = 2048;
+    // Lignes par lot envoyé par un appender distant
+    static final int DEFAULT_APPENDER_BATCH_SIZE = 32 * STANDARD_VECTOR_SIZE;
+
+    // Préfixe de l'erreur serveur pour un statementId inconnu (PreparedStatementService)
+    private static final String UNKNOWN_STATEMENT = "Unknown or expired statement: ";
+    private static final String SESSION_AUTO = "auto";
+    private static final String QUERY_TIMEOUT = "Query timeout exceeded";
+    // Requêtes dont l'effet doit survivre à l'appel : elles ouvrent une session en mode jdbc_session=auto
+    private static final Pattern STATEFUL_SQL = Pattern.compile(
+        "^\\s*(SET|RESET|USE|BEGIN|START\\s+TRANSACTION|PREPARE|CREATE\\s+(OR\\s+REPLACE\\s+)?TEMP(ORARY)?)\\b",
+        Pattern.CASE_INSENSITIVE);
+    private static final String DEFAULT_BACKEND_URL = "http://localhost:8080"; // Default URL for DuckDB REST server
+    private static final Map<ByteBuffer, RemoteConnection> connectionMap = new ConcurrentHashMap<>();
+    private static final Map<ByteBuffer, String> statementMap = new ConcurrentHashMap<>();
+    private static final Map<ByteBuffer, ByteBuffer> statementConnMap = new ConcurrentHashMap<>();
+    private static final Map<ByteBuffer, Object[]> statementParamsMap = new ConcurrentHashMap<>();
+    // Statements décrits via /jdbc/prepare : identifiant serveur et métadonnées
+    private static final Map<ByteBuffer, String> statementHandleMap = new ConcurrentHashMap<>();
+    private static final Map<ByteBuffer, DuckDBResultSetMetaData> statementMetaMap = new ConcurrentHashMap<>();
+    private static final Map<ByteBuffer, DuckDBResultSetMetaData> resultMetaMap = new ConcurrentHashMap<>();
+    private static final Map<ByteBuffer, RemoteResult> resultDataMap = new ConcurrentHashMap<>();
+    private static final Map<ByteBuffer, RemoteAppender> appenderMap = new ConcurrentHashMap<>();
+    // Dernier appender utilisé : évite de hasher le ref à chaque valeur ajoutée
+    private static volatile RemoteAppender lastAppender;
 
 
 
     static ByteBuffer duckdb_jdbc_startup(byte[] path, boolean read_only, Properties props) throws SQLException {
 
 
-        backendUrl = JdbcUtils.removeOption(props, "backendUrl", backendUrl);
+        String backendUrl = JdbcUtils.removeOption(props, "backendUrl", DEFAULT_BACKEND_URL);
         if (backendUrl == null || backendUrl.isEmpty()) {
             throw new SQLException("Backend URL must be specified in properties");
         }
         
         boolean useEncryption= JdbcUtils.isStringTruish(JdbcUtils.removeOption(props, "useEncryption", "false"), false);
-        if(useEncryption) {
+        if (backendUrl.contains("://")) {
+            // URL complète déjà fournie (ex: valeur par défaut)
+        } else if(useEncryption) {
             backendUrl = "https://" + backendUrl; 
         }else{
             backendUrl = "http://" + backendUrl; 
         }
 
-        System.out.println("[DuckDBNative] Backend URL set to: " + backendUrl);
-        // Crée un UUID unique
-        UUID uuid = UUID.randomUUID();
+        boolean streamResults = JdbcUtils.isStringTruish(
+            JdbcUtils.removeOption(props, DuckDBDriver.JDBC_STREAM_RESULTS), false);
 
-        // Place-le dans un ByteBuffer
-        ByteBuffer buffer = ByteBuffer.allocate(16);
-        buffer.putLong(uuid.getMostSignificantBits());
-        buffer.putLong(uuid.getLeastSignificantBits());
+        boolean arrowTransport = JdbcUtils.isStringTruish(
+            JdbcUtils.removeOption(props, DuckDBDriver.JDBC_ARROW_TRANSPORT), false);
+        if (arrowTransport && !isArrowAvailable()) {
+            System.err.println("[DuckDBNative] " + DuckDBDriver.JDBC_ARROW_TRANSPORT
+                               + " ignoré : Apache Arrow (arrow-vector) absent du classpath, transport JSON utilisé.");
+            arrowTransport = false;
+        }
 
-        // Remets le pointeur à zéro pour une lecture future
-        buffer.flip();
-        return buffer;
+        // Pool HTTP partagé par toutes les connexions vers ce backend
+        DuckDBHttpTransport transport = DuckDBHttpTransport.forBackend(backendUrl, new DuckDBHttpTransport.Config(
+            intOption(props, DuckDBDriver.HTTP_MAX_CONNECTIONS_PER_ROUTE, 20),
+            intOption(props, DuckDBDriver.HTTP_MAX_CONNECTIONS, 100),
+            intOption(props, DuckDBDriver.HTTP_IDLE_TIMEOUT_MS, 30000),
+            intOption(props, DuckDBDriver.HTTP_CONNECT_TIMEOUT_MS, 10000),
+            intOption(props, DuckDBDriver.HTTP_READ_TIMEOUT_MS, 0),
+            JdbcUtils.isStringTruish(JdbcUtils.removeOption(props, "disableCertificateVerification"), false)));
+
+        int appenderBatchSize = intOption(props, DuckDBDriver.JDBC_APPENDER_BATCH_SIZE, DEFAULT_APPENDER_BATCH_SIZE);
+        if (appenderBatchSize <= 0) {
+            throw new SQLException("Valeur invalide pour " + DuckDBDriver.JDBC_APPENDER_BATCH_SIZE + " : " + appenderBatchSize);
+        }
+
+        String sessionMode = JdbcUtils.removeOption(props, DuckDBDriver.JDBC_SESSION, SESSION_AUTO).trim().toLowerCase();
+        if (!sessionMode.equals(SESSION_AUTO) && !sessionMode.equals("true") && !sessionMode.equals("false")) {
+            throw new SQLException("Valeur invalide pour " + DuckDBDriver.JDBC_SESSION + " : " + sessionMode);
+        }
+
+        System.out.println("[DuckDBNative] Backend URL set to: " + backendUrl + ", streamResults=" + streamResults
+                           + ", arrowTransport=" + arrowTransport + ", session=" + sessionMode);
+        return registerConnection(backendUrl, streamResults, arrowTransport, transport, appenderBatchSize, sessionMode);
     }
 
 
     // returns conn_ref connection reference object
-    static ByteBuffer duckdb_jdbc_connect(ByteBuffer conn_ref) throws SQLException { return null; }
+    static ByteBuffer duckdb_jdbc_connect(ByteBuffer conn_ref) throws SQLException {
+        RemoteConnection parent = remoteConnection(conn_ref);
+        // La connexion dupliquée aura sa propre session, ouverte à son tour si besoin
+        return registerConnection(parent.backendUrl, parent.streamResults, parent.arrowTransport, parent.transport,
+                                  parent.appenderBatchSize, parent.sessionMode);
+    }
+
+    /**
+     * @return le transport HTTP (pool keep-alive) utilisé par cette connexion
+     */
+    static DuckDBHttpTransport duckdb_jdbc_http_transport(ByteBuffer conn_ref) throws SQLException {
+        return remoteConnection(conn_ref).transport;
+    }
 
     static ByteBuffer duckdb_jdbc_create_db_ref(ByteBuffer conn_ref) throws SQLException { return null; }
 
@@ -83,7 +147,47 @@ class DuckDBNative {
     static void duckdb_jdbc_set_auto_commit(ByteBuffer conn_ref, boolean auto_commit) throws SQLException {}
 
 
-    static void duckdb_jdbc_disconnect(ByteBuffer conn_ref) {}
+    static void duckdb_jdbc_disconnect(ByteBuffer conn_ref) {
+        RemoteConnection remote = conn_ref == null ? null : connectionMap.remove(conn_ref);
+        if (remote == null) {
+            return;
+        }
+        try {
+            remote.client.closeSession();
+        } catch (SQLException e) {
+            // Le serveur la fermera de lui-même une fois inactive
+            System.err.println("[DuckDBNative] Fermeture de la session ignorée : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ouvre la session serveur de la connexion au premier besoin : dès la
+     * première requête avec {@code jdbc_session=true}, à la première requête
+     * à état (SET, BEGIN, table temporaire...) en mode {@code auto}.
+     */
+    private static void ensureSession(RemoteConnection remote, String sql) throws SQLException {
+        if (remote.client.getSessionId() != null || remote.sessionMode.equals("false")) {
+            return;
+        }
+        if (remote.sessionMode.equals("true") || STATEFUL_SQL.matcher(sql).find()) {
+            synchronized (remote) {
+                if (remote.client.getSessionId() == null) {
+                    String sessionId = remote.client.openSession();
+                    System.out.println("[DuckDBNative] Session serveur ouverte : " + sessionId);
+                }
+            }
+        }
+    }
+
+    /**
+     * La session a expiré côté serveur (inactivité, redémarrage) : transaction
+     * et réglages sont perdus, l'erreur est remontée plutôt que de continuer
+     * sans eux sur une connexion quelconque.
+     */
+    private static SQLException sessionLost(RemoteConnection remote, Exception e) {
+        remote.client.forgetSession();
+        return new SQLException("Session serveur expirée : transaction, réglages et tables temporaires perdus", e);
+    }
 
     static void duckdb_jdbc_set_schema(ByteBuffer conn_ref, String schema) {}
 
@@ -97,15 +201,11 @@ class DuckDBNative {
         
 
         // Simule la création d'un statement préparé
-        UUID stmtId = UUID.randomUUID();
-
-        ByteBuffer stmtRef = ByteBuffer.allocate(16);
-        stmtRef.putLong(stmtId.getMostSignificantBits());
-        stmtRef.putLong(stmtId.getLeastSignificantBits());
-        stmtRef.flip();
+        remoteConnection(conn_ref);
+        ByteBuffer stmtRef = newRef();
 
-        
-        statementMap.put(stmtRef, new String(query));
+        statementMap.put(stmtRef, new String(query, StandardCharsets.UTF_8));
+        statementConnMap.put(stmtRef, conn_ref);
 
 
         return stmtRef;
@@ -124,6 +224,18 @@ class DuckDBNative {
             System.err.println("No statement found for the provided reference.");
         }
 
+        ByteBuffer connRef = statementConnMap.remove(stmt_ref);
+        statementMetaMap.remove(stmt_ref);
+        String statementId = statementHandleMap.remove(stmt_ref);
+        RemoteConnection remote = connRef == null ? null : connectionMap.get(connRef);
+        if (statementId != null && remote != null) {
+            try {
+                remote.client.closeStatement(statementId);
+            } catch (SQLException e) {
+                System.err.println("Server statement " + statementId + " could not be released: " + e.getMessage());
+            }
+        }
+
         // Supprime les paramètres associés au statement
         Object[] removedParams = statementParamsMap.remove(stmt_ref);
         if (removedParams != null) {
@@ -143,66 +255,213 @@ class DuckDBNative {
     }
 
 
+    /**
+     * Métadonnées du statement sans l'exécuter : la requête est décrite une
+     * fois par /jdbc/prepare, qui renvoie aussi l'identifiant du statement
+     * serveur réutilisé par les exécutions suivantes.
+     */
     static DuckDBResultSetMetaData duckdb_jdbc_prepared_statement_meta(ByteBuffer stmt_ref, Object[] params) throws SQLException {
-        try {
-            String statement = statementMap.get(stmt_ref);
-            System.out.println("Paramètres reçus pour la récupération des métadonnées : " + (params != null ? params.length : 0));
+        String statement = statementMap.get(stmt_ref);
+        if (statement == null) throw new SQLException("Statement not found for ref");
 
-            System.out.println("Récupération des métadonnées pour le statement : " + statement);    
+        DuckDBResultSetMetaData meta = statementMetaMap.get(stmt_ref);
+        if (meta != null) {
+            return meta;
+        }
 
-            if (statement == null) throw new SQLException("Statement not found for ref");
+        DuckDBHttpClient client = httpClient(statementConnMap.get(stmt_ref));
+        ExecuteResponse response = checkJson(client.prepare(statement, params));
+        meta = response.getMetadata().toDuckDBResultSetMetaData();
+        if (isResolved(meta)) {
+            statementMetaMap.put(stmt_ref, meta);
+        }
+        String previous = response.getStatementId() == null ? null : statementHandleMap.put(stmt_ref, response.getStatementId());
+        if (previous != null) {
+            try {
+                client.closeStatement(previous);
+            } catch (SQLException e) {
+                System.err.println("Server statement " + previous + " could not be released: " + e.getMessage());
+            }
+        }
+        return meta;
+    }
+
+    /**
+     * @return false si le type du résultat dépend de paramètres pas encore
+     *         fournis (DuckDB renvoie alors une unique colonne UNKNOWN)
+     */
+    static boolean isResolved(DuckDBResultSetMetaData meta) {
+        return !(meta.column_count == 1 && meta.column_types[0] == DuckDBColumnType.UNKNOWN);
+    }
 
-            DuckDBHttpClient client = new DuckDBHttpClient(backendUrl);
 
-            // On envoie une exécution à vide juste pour récupérer les métadonnées
-            ExecuteResponse response = client.execute(statement, params);
-            if(response.isError()) {
-                throw new SQLException(response.getErrorMessage());
+    // returns res_ref result reference object
+
+
+    static ByteBuffer duckdb_jdbc_execute(ByteBuffer stmt_ref, Object[] params) throws SQLException {
+        return duckdb_jdbc_execute(stmt_ref, params, 0);
+    }
+
+    private static ExecuteResponse checkJson(ExecuteResponse response) throws SQLException {
+        if (response.isError()) {
+            throw new SQLException(response.getErrorMessage());
+        }
+        return response;
+    }
+
+    /**
+     * executeBatch d'un statement préparé : le SQL part une fois, les jeux de
+     * paramètres en colonnes, et le serveur exécute tout dans une transaction.
+     */
+    static long[] duckdb_jdbc_execute_batch(ByteBuffer stmt_ref, List<Object[]> batchedParams) throws SQLException {
+        String statement = statementMap.get(stmt_ref);
+        if (statement == null) throw new SQLException("Statement not found for ref");
+
+        int rowCount = batchedParams.size();
+        int paramCount = 0;
+        for (Object[] row : batchedParams) {
+            paramCount = Math.max(paramCount, row == null ? 0 : row.length);
+        }
+        Object[][] columns = new Object[paramCount][rowCount];
+        for (int row = 0; row < rowCount; row++) {
+            Object[] values = batchedParams.get(row);
+            for (int col = 0; values != null && col < values.length; col++) {
+                columns[col][row] = values[col];
             }
+        }
+        RemoteConnection remote = remoteConnection(statementConnMap.get(stmt_ref));
+        ensureSession(remote, statement);
+        return checkBatch(remote, remote.client.executeBatch(new ExecuteBatchRequest(statement, columns, rowCount)));
+    }
 
-            return response.getMetadata().toDuckDBResultSetMetaData(); 
+    /**
+     * executeBatch de requêtes hétérogènes (Statement.addBatch(String)), en un seul appel.
+     */
+    static long[] duckdb_jdbc_execute_batch_statements(ByteBuffer conn_ref, List<String> statements) throws SQLException {
+        RemoteConnection remote = remoteConnection(conn_ref);
+        for (String statement : statements) {
+            ensureSession(remote, statement);
+        }
+        return checkBatch(remote, remote.client.executeBatch(new ExecuteBatchRequest(statements)));
+    }
 
-        } catch (Exception e) {
-            throw new SQLException("Erreur HTTP dans duckdb_jdbc_prepared_statement_meta", e);
+    // Le serveur annule tout le batch en cas d'erreur : aucune ligne n'a été modifiée
+    private static long[] checkBatch(RemoteConnection remote, ExecuteBatchResponse response) throws SQLException {
+        if (response.isError()) {
+            if (response.getErrorMessage() != null && response.getErrorMessage().startsWith(DuckDBHttpClient.UNKNOWN_SESSION)) {
+                throw sessionLost(remote, new SQLException(response.getErrorMessage()));
+            }
+            throw new BatchUpdateException(response.getErrorMessage(), null, 0, new long[0], null);
         }
+        return response.getUpdateCounts();
     }
 
+    /**
+     * Exécute via le statement serveur quand il existe ; s'il a expiré (ou si
+     * le backend a redémarré), la requête est renvoyée en SQL.
+     */
+    private static ExecuteResponse executeRemote(ByteBuffer stmt_ref, RemoteConnection remote, String sql,
+                                                 Object[] params, int chunkSize, long timeoutMs) throws SQLException {
+        String statementId = statementHandleMap.get(stmt_ref);
+        // Identifiant de cette exécution, visé par duckdb_jdbc_interrupt
+        String queryId = UUID.randomUUID().toString();
+        remote.runningQueryId = queryId;
+        long start = System.currentTimeMillis();
+        try {
+            return remote.arrowTransport
+                ? remote.client.executeArrow(sql, statementId, params, chunkSize, queryId, timeoutMs)
+                : remote.client.execute(sql, statementId, params, chunkSize, queryId, timeoutMs);
+        } catch (SQLException e) {
+            if (timeoutMs > 0 && (System.currentTimeMillis() - start >= timeoutMs || responseBodyContains(e, QUERY_TIMEOUT))) {
+                throw new SQLTimeoutException(QUERY_TIMEOUT + " (" + timeoutMs + " ms)", e);
+            }
+            if (responseBodyContains(e, DuckDBHttpClient.UNKNOWN_SESSION)) {
+                throw sessionLost(remote, e);
+            }
+            if (statementId == null || !responseBodyContains(e, UNKNOWN_STATEMENT)) {
+                throw e;
+            }
+            statementHandleMap.remove(stmt_ref);
+            return executeRemote(stmt_ref, remote, sql, params, chunkSize, timeoutMs);
+        } finally {
+            remote.runningQueryId = null;
+        }
+    }
 
+    private static boolean responseBodyContains(SQLException e, String message) {
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof RestClientResponseException) {
+                return ((RestClientResponseException) cause).getResponseBodyAsString().contains(message);
+            }
+        }
+        return false;
+    }
 
-    // returns res_ref result reference object
+    private static ByteBuffer registerResult(RemoteResult result, ExecuteDuckDBResultSetMetaData metadata) {
+        // Simuler un result_ref avec UUID
+        ByteBuffer resultRef = newRef();
+        resultDataMap.put(resultRef, result);
+        resultMetaMap.put(resultRef, metadata.toDuckDBResultSetMetaData());
+        return resultRef;
+    }
 
+    /**
+     * @param fetch_size taille de chunk demandée par le statement ; si 0, le
+     *                   mode {@code jdbc_stream_results} de la connexion décide
+     *                   entre un chunk de {@link #STANDARD_VECTOR_SIZE} lignes et
+     *                   un résultat complet en une seule réponse.
+     */
+    static ByteBuffer duckdb_jdbc_execute(ByteBuffer stmt_ref, Object[] params, int fetch_size) throws SQLException {
+        return duckdb_jdbc_execute(stmt_ref, params, fetch_size, 0);
+    }
 
-    static ByteBuffer duckdb_jdbc_execute(ByteBuffer stmt_ref, Object[] params) throws SQLException {
+    /**
+     * @param query_timeout_seconds timeout du statement, transmis au serveur qui
+     *                              interrompt la requête à l'échéance ; 0 pour aucun
+     */
+    static ByteBuffer duckdb_jdbc_execute(ByteBuffer stmt_ref, Object[] params, int fetch_size,
+                                          int query_timeout_seconds) throws SQLException {
         try {
 
             System.out.println("Paramètres reçus pour l'exécution : " + (params != null ? params.length : 0));
             String statement = statementMap.get(stmt_ref);
             if (statement == null) throw new SQLException("Statement not found for ref");
 
-   
-            DuckDBHttpClient client = new DuckDBHttpClient(backendUrl);
-            ExecuteResponse response =   client.execute(statement, params);
-            if(response.isError()) {
-                throw new SQLException(response.getErrorMessage());
+            ByteBuffer connRef = statementConnMap.get(stmt_ref);
+            RemoteConnection remote = remoteConnection(connRef);
+            ensureSession(remote, statement);
+            int chunkSize = fetch_size > 0 ? fetch_size : (remote.streamResults ? duckdb_jdbc_fetch_size() : 0);
+            long timeoutMs = query_timeout_seconds * 1000L;
+
+            if (remote.arrowTransport) {
+                // Le résultat complet arrive en Arrow IPC, découpé en record batches de chunkSize lignes
+                long start = System.currentTimeMillis();
+                ExecuteResponse response = executeRemote(stmt_ref, remote, statement, params, chunkSize, timeoutMs);
+                if (response.getArrowStream() != null) {
+                    RemoteResult result = new RemoteResult(connRef, statement, params, chunkSize);
+                    result.openArrow(response.getArrowStream(), timeoutMs, start);
+                    return registerResult(result, result.arrow.getMetadata());
+                }
+                // DML/DDL : le serveur répond en JSON même quand Arrow est demandé
+                RemoteResult result = new RemoteResult(connRef, statement, params, chunkSize);
+                result.pendingRows = checkJson(response).getData();
+                return registerResult(result, response.getMetadata());
             }
 
+            ExecuteResponse response = checkJson(executeRemote(stmt_ref, remote, statement, params, chunkSize, timeoutMs));
+
             System.out.println("Exécution réussie pour le statement : " + statement);
             
-            System.out.println("Response reçue : " + response.getData().size() + " lignes, " + response.getMetadata().getColumn_count() + " colonnes");
-
-            // Simuler un result_ref avec UUID
-            UUID resultId = UUID.randomUUID();
-            ByteBuffer resultRef = ByteBuffer.allocate(16);
-            resultRef.putLong(resultId.getMostSignificantBits());
-            resultRef.putLong(resultId.getLeastSignificantBits());
-            resultRef.flip();
-
-            resultDataMap.put(resultRef, response.getData());   
-
-            resultMetaMap.put(resultRef, response.getMetadata().toDuckDBResultSetMetaData());
+            System.out.println("Response reçue : " + response.getData().size() + " lignes, " + response.getMetadata().getColumn_count() + " colonnes"
+                               + (response.isHasMore() ? " (curseur " + response.getCursorId() + ")" : ""));
 
-            return resultRef;
+            RemoteResult result = new RemoteResult(connRef, statement, params, chunkSize);
+            result.pendingRows = response.getData();
+            result.cursorId = response.isHasMore() ? response.getCursorId() : null;
+            return registerResult(result, response.getMetadata());
 
+        } catch (SQLException e) {
+            throw e;
         } catch (Exception e) {
             throw new SQLException("Erreur HTTP dans execute", e);
         }
@@ -218,8 +477,9 @@ class DuckDBNative {
         }
 
         // Supprime les données associées au résultat
-        List<List<Object>> removedData = resultDataMap.remove(res_ref);
+        RemoteResult removedData = resultDataMap.remove(res_ref);
         if (removedData != null) {
+            removedData.release();
             System.out.println("Result data has been freed.");
         } else {
             System.err.println("No result data found for the provided reference.");
@@ -233,28 +493,23 @@ class DuckDBNative {
             System.err.println("No result metadata found for the provided reference.");
         }
 
-        // Supprime le résultat de la liste des résultats déjà lus
-        if (alreadyFetchedResults.remove(res_ref)) {
-            System.out.println("Result reference removed from fetched results.");
-        }
-
         // Libère la mémoire associée au ByteBuffer
         res_ref.clear();
     }
 
     public static DuckDBVector[] duckdb_jdbc_fetch(ByteBuffer res_ref, ByteBuffer conn_ref) throws SQLException {
-        if (alreadyFetchedResults.contains(res_ref)) {
-            return new DuckDBVector[0];
-        }
-
-        List<List<Object>> rows = resultDataMap.get(res_ref);
+        RemoteResult result = resultDataMap.get(res_ref);
         DuckDBResultSetMetaData meta = resultMetaMap.get(res_ref);
 
-        if (rows == null || meta == null) {
+        if (result == null || meta == null) {
             throw new SQLException("Résultat non trouvé pour ce ref");
         }
 
-        alreadyFetchedResults.add(res_ref);
+        DuckDBVector[] vectors = result.nextVectors(meta);
+        return vectors == null ? new DuckDBVector[0] : vectors;
+    }
+
+    private static DuckDBVector[] toVectors(List<List<Object>> rows, DuckDBResultSetMetaData meta) throws SQLException {
         int columnCount = meta.getColumnCount();
         int rowCount = rows.size();
         DuckDBVector[] vectors = new DuckDBVector[columnCount];
@@ -304,49 +559,165 @@ class DuckDBNative {
 
 
 
-    static int duckdb_jdbc_fetch_size() { return 0; }
+    static int duckdb_jdbc_fetch_size() { return STANDARD_VECTOR_SIZE; }
 
-    static long duckdb_jdbc_arrow_stream(ByteBuffer res_ref, long batch_size) { return 0; }
+    static void duckdb_jdbc_set_fetch_size(ByteBuffer res_ref, int fetch_size) {
+        RemoteResult result = res_ref == null ? null : resultDataMap.get(res_ref);
+        if (result != null && fetch_size > 0) {
+            result.fetchSize = fetch_size;
+        }
+    }
+
+    /**
+     * Flux Arrow IPC des lignes du résultat, lisible par un ArrowStreamReader.
+     * Si le résultat n'a pas été reçu en Arrow (ou a déjà été entamé), la requête
+     * est ré-exécutée côté serveur en Arrow avec des batches de {@code batch_size} lignes.
+     * Le résultat JDBC est ensuite considéré comme consommé.
+     */
+    static InputStream duckdb_jdbc_arrow_stream(ByteBuffer res_ref, long batch_size) throws SQLException {
+        RemoteResult result = res_ref == null ? null : resultDataMap.get(res_ref);
+        if (result == null) {
+            throw new SQLException("Résultat non trouvé pour ce ref");
+        }
+        return result.exportArrow((int) Math.min(batch_size, Integer.MAX_VALUE));
+    }
 
     static void duckdb_jdbc_arrow_register(ByteBuffer conn_ref, long arrow_array_stream_pointer, byte[] name) {}
 
-    static ByteBuffer duckdb_jdbc_create_appender(ByteBuffer conn_ref, byte[] schema_name, byte[] table_name) throws SQLException { return null; }
+    /**
+     * Appender distant : les lignes sont accumulées en colonnes côté driver et
+     * envoyées par lots de {@code jdbc_appender_batch_size} lignes à
+     * /jdbc/appender/{id}/append, où un Appender DuckDB natif les écrit.
+     */
+    static ByteBuffer duckdb_jdbc_create_appender(ByteBuffer conn_ref, byte[] schema_name, byte[] table_name) throws SQLException {
+        RemoteConnection remote = remoteConnection(conn_ref);
+        String schema = new String(schema_name, StandardCharsets.UTF_8);
+        String table = new String(table_name, StandardCharsets.UTF_8);
+        AppenderResponse response = remote.client.openAppender(schema, table);
+        ByteBuffer ref = newRef();
+        appenderMap.put(ref, new RemoteAppender(ref, remote.client, response.getAppenderId(), response.getColumnCount(),
+                                                remote.appenderBatchSize));
+        return ref;
+    }
 
-    static void duckdb_jdbc_appender_begin_row(ByteBuffer appender_ref) throws SQLException {}
+    static void duckdb_jdbc_appender_begin_row(ByteBuffer appender_ref) throws SQLException {
+        remoteAppender(appender_ref).column = 0;
+    }
 
-    static void duckdb_jdbc_appender_end_row(ByteBuffer appender_ref) throws SQLException {}
+    static void duckdb_jdbc_appender_end_row(ByteBuffer appender_ref) throws SQLException {
+        remoteAppender(appender_ref).endRow();
+    }
 
-    static void duckdb_jdbc_appender_flush(ByteBuffer appender_ref) throws SQLException {}
+    /**
+     * Envoie les lignes en attente puis attend qu'elles soient écrites dans la
+     * table côté serveur.
+     */
+    static void duckdb_jdbc_appender_flush(ByteBuffer appender_ref) throws SQLException {
+        RemoteAppender appender = remoteAppender(appender_ref);
+        appender.send();
+        appender.client.flushAppender(appender.appenderId);
+    }
 
-    static void duckdb_jdbc_interrupt(ByteBuffer conn_ref) {}
+    /**
+     * Interrompt côté serveur l'exécution en cours sur la connexion, s'il y en a une.
+     */
+    static void duckdb_jdbc_interrupt(ByteBuffer conn_ref) throws SQLException {
+        RemoteConnection remote = connectionMap.get(conn_ref);
+        String queryId = remote == null ? null : remote.runningQueryId;
+        if (queryId != null) {
+            remote.client.cancel(queryId);
+        }
+    }
 
-    static QueryProgress duckdb_jdbc_query_progress(ByteBuffer conn_ref) { return null; }
+    /**
+     * Avancement de l'exécution en cours sur la connexion, lu sur le serveur ;
+     * -1 si aucune requête ne tourne ou si DuckDB ne peut pas l'estimer.
+     */
+    static QueryProgress duckdb_jdbc_query_progress(ByteBuffer conn_ref) throws SQLException {
+        RemoteConnection remote = connectionMap.get(conn_ref);
+        String queryId = remote == null ? null : remote.runningQueryId;
+        QueryProgressResponse progress = queryId == null ? null : remote.client.queryProgress(queryId);
+        if (progress == null) {
+            return new QueryProgress(-1, 0, 0);
+        }
+        return new QueryProgress(progress.getPercentage(), progress.getRowsProcessed(), progress.getTotalRowsToProcess());
+    }
 
-    static void duckdb_jdbc_appender_close(ByteBuffer appender_ref) throws SQLException {}
+    static void duckdb_jdbc_appender_close(ByteBuffer appender_ref) throws SQLException {
+        RemoteAppender appender = appenderMap.remove(appender_ref);
+        if (appender == null) {
+            return;
+        }
+        if (lastAppender == appender) {
+            lastAppender = null;
+        }
+        try {
+            appender.send();
+        } finally {
+            // Ferme l'appender serveur même si le dernier lot a échoué
+            appender.client.closeAppender(appender.appenderId);
+        }
+    }
 
-    static void duckdb_jdbc_appender_append_boolean(ByteBuffer appender_ref, boolean value) throws SQLException {}
+    static void duckdb_jdbc_appender_append_boolean(ByteBuffer appender_ref, boolean value) throws SQLException {
+        RemoteAppender appender = remoteAppender(appender_ref);
+        appender.batch.setBoolean(appender.nextColumn(), value);
+    }
 
-    static void duckdb_jdbc_appender_append_byte(ByteBuffer appender_ref, byte value) throws SQLException {}
+    static void duckdb_jdbc_appender_append_byte(ByteBuffer appender_ref, byte value) throws SQLException {
+        RemoteAppender appender = remoteAppender(appender_ref);
+        appender.batch.setLong(appender.nextColumn(), AppendBatch.TINYINT, value);
+    }
 
-    static void duckdb_jdbc_appender_append_short(ByteBuffer appender_ref, short value) throws SQLException {}
+    static void duckdb_jdbc_appender_append_short(ByteBuffer appender_ref, short value) throws SQLException {
+        RemoteAppender appender = remoteAppender(appender_ref);
+        appender.batch.setLong(appender.nextColumn(), AppendBatch.SMALLINT, value);
+    }
 
-    static void duckdb_jdbc_appender_append_int(ByteBuffer appender_ref, int value) throws SQLException {}
+    static void duckdb_jdbc_appender_append_int(ByteBuffer appender_ref, int value) throws SQLException {
+        RemoteAppender appender = remoteAppender(appender_ref);
+        appender.batch.setLong(appender.nextColumn(), AppendBatch.INTEGER, value);
+    }
 
-    static void duckdb_jdbc_appender_append_long(ByteBuffer appender_ref, long value) throws SQLException {}
+    static void duckdb_jdbc_appender_append_long(ByteBuffer appender_ref, long value) throws SQLException {
+        RemoteAppender appender = remoteAppender(appender_ref);
+        appender.batch.setLong(appender.nextColumn(), AppendBatch.BIGINT, value);
+    }
 
-    static void duckdb_jdbc_appender_append_float(ByteBuffer appender_ref, float value) throws SQLException {}
+    static void duckdb_jdbc_appender_append_float(ByteBuffer appender_ref, float value) throws SQLException {
+        RemoteAppender appender = remoteAppender(appender_ref);
+        appender.batch.setDouble(appender.nextColumn(), AppendBatch.FLOAT, value);
+    }
 
-    static void duckdb_jdbc_appender_append_double(ByteBuffer appender_ref, double value) throws SQLException {}
+    static void duckdb_jdbc_appender_append_double(ByteBuffer appender_ref, double value) throws SQLException {
+        RemoteAppender appender = remoteAppender(appender_ref);
+        appender.batch.setDouble(appender.nextColumn(), AppendBatch.DOUBLE, value);
+    }
 
-    static void duckdb_jdbc_appender_append_string(ByteBuffer appender_ref, byte[] value) throws SQLException {}
+    static void duckdb_jdbc_appender_append_string(ByteBuffer appender_ref, byte[] value) throws SQLException {
+        RemoteAppender appender = remoteAppender(appender_ref);
+        appender.batch.setString(appender.nextColumn(), value);
+    }
 
-    static void duckdb_jdbc_appender_append_bytes(ByteBuffer appender_ref, byte[] value) throws SQLException {}
+    static void duckdb_jdbc_appender_append_bytes(ByteBuffer appender_ref, byte[] value) throws SQLException {
+        RemoteAppender appender = remoteAppender(appender_ref);
+        appender.batch.setBytes(appender.nextColumn(), value);
+    }
 
-    static void duckdb_jdbc_appender_append_timestamp(ByteBuffer appender_ref, long value) throws SQLException {}
+    static void duckdb_jdbc_appender_append_timestamp(ByteBuffer appender_ref, long value) throws SQLException {
+        RemoteAppender appender = remoteAppender(appender_ref);
+        appender.batch.setTimestamp(appender.nextColumn(), value);
+    }
 
-    static void duckdb_jdbc_appender_append_decimal(ByteBuffer appender_ref, BigDecimal value) throws SQLException {}
+    static void duckdb_jdbc_appender_append_decimal(ByteBuffer appender_ref, BigDecimal value) throws SQLException {
+        RemoteAppender appender = remoteAppender(appender_ref);
+        appender.batch.setDecimal(appender.nextColumn(), value);
+    }
 
-    static void duckdb_jdbc_appender_append_null(ByteBuffer appender_ref) throws SQLException {}
+    static void duckdb_jdbc_appender_append_null(ByteBuffer appender_ref) throws SQLException {
+        RemoteAppender appender = remoteAppender(appender_ref);
+        appender.batch.setNull(appender.nextColumn());
+    }
 
     static void duckdb_jdbc_create_extension_type(ByteBuffer conn_ref) throws SQLException {}
 
@@ -355,4 +726,270 @@ class DuckDBNative {
     public static void duckdb_jdbc_create_extension_type(DuckDBConnection conn) throws SQLException {
         duckdb_jdbc_create_extension_type(conn.connRef);
     }
+
+    private static ByteBuffer newRef() {
+        // Un UUID dans un ByteBuffer de 16 octets joue le rôle de pointeur natif
+        UUID uuid = UUID.randomUUID();
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+        // Remets le pointeur à zéro pour une lecture future
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String refToString(ByteBuffer ref) {
+        return new UUID(ref.getLong(0), ref.getLong(8)).toString();
+    }
+
+    private static RemoteConnection remoteConnection(ByteBuffer conn_ref) throws SQLException {
+        RemoteConnection remote = conn_ref == null ? null : connectionMap.get(conn_ref);
+        if (remote == null) {
+            throw new SQLException("Connection not found for ref");
+        }
+        return remote;
+    }
+
+    private static RemoteAppender remoteAppender(ByteBuffer appender_ref) throws SQLException {
+        RemoteAppender appender = lastAppender;
+        if (appender != null && appender.ref == appender_ref) {
+            return appender;
+        }
+        appender = appender_ref == null ? null : appenderMap.get(appender_ref);
+        if (appender == null) {
+            throw new SQLException("Appender was closed");
+        }
+        lastAppender = appender;
+        return appender;
+    }
+
+    private static DuckDBHttpClient httpClient(ByteBuffer conn_ref) throws SQLException {
+        return remoteConnection(conn_ref).client;
+    }
+
+    private static ByteBuffer registerConnection(String backendUrl, boolean streamResults, boolean arrowTransport,
+                                                 DuckDBHttpTransport transport, int appenderBatchSize, String sessionMode) {
+        ByteBuffer ref = newRef();
+        DuckDBHttpClient client = new DuckDBHttpClient(transport, refToString(ref));
+        connectionMap.put(ref, new RemoteConnection(backendUrl, streamResults, arrowTransport, transport, client,
+                                                    appenderBatchSize, sessionMode));
+        return ref;
+    }
+
+    private static int intOption(Properties props, String name, int defaultValue) throws SQLException {
+        String value = JdbcUtils.removeOption(props, name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new SQLException("Valeur invalide pour " + name + " : " + value);
+        }
+    }
+
+    private static boolean isArrowAvailable() {
+        try {
+            Class.forName("org.apache.arrow.vector.ipc.ArrowStreamReader");
+            Class.forName("org.apache.arrow.memory.RootAllocator");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * État côté driver d'une connexion REST : backend cible, options de session
+     * et client HTTP (sur le transport partagé du backend).
+     */
+    private static final class RemoteConnection {
+        final String backendUrl;
+        final boolean streamResults;
+        final boolean arrowTransport;
+        final DuckDBHttpTransport transport;
+        final DuckDBHttpClient client;
+        final int appenderBatchSize;
+        // auto, true ou false (jdbc_session)
+        final String sessionMode;
+        // Exécution en cours sur la connexion, null entre deux requêtes
+        volatile String runningQueryId;
+
+        RemoteConnection(String backendUrl, boolean streamResults, boolean arrowTransport,
+                         DuckDBHttpTransport transport, DuckDBHttpClient client, int appenderBatchSize,
+                         String sessionMode) {
+            this.backendUrl = backendUrl;
+            this.streamResults = streamResults;
+            this.arrowTransport = arrowTransport;
+            this.transport = transport;
+            this.client = client;
+            this.appenderBatchSize = appenderBatchSize;
+            this.sessionMode = sessionMode;
+        }
+    }
+
+    /**
+     * Appender côté driver : la ligne en cours et les lignes pas encore
+     * envoyées au serveur.
+     */
+    private static final class RemoteAppender {
+        final ByteBuffer ref;
+        final DuckDBHttpClient client;
+        final String appenderId;
+        final int columnCount;
+        final AppendBatch batch;
+        // Colonne de la prochaine valeur dans la ligne en cours
+        int column;
+
+        RemoteAppender(ByteBuffer ref, DuckDBHttpClient client, String appenderId, int columnCount, int batchSize) {
+            this.ref = ref;
+            this.client = client;
+            this.appenderId = appenderId;
+            this.columnCount = columnCount;
+            this.batch = new AppendBatch(columnCount, batchSize);
+        }
+
+        int nextColumn() throws SQLException {
+            if (column >= columnCount) {
+                throw new SQLException("Too many appends for this row, the table has " + columnCount + " columns");
+            }
+            return column++;
+        }
+
+        void endRow() throws SQLException {
+            if (column != columnCount) {
+                throw new SQLException("Call to EndRow before all columns have been appended to (" + column + "/"
+                                       + columnCount + ")");
+            }
+            column = 0;
+            batch.endRow();
+            if (batch.isFull()) {
+                send();
+            }
+        }
+
+        void send() throws SQLException {
+            if (batch.getRowCount() == 0) {
+                return;
+            }
+            byte[] encoded = batch.encode();
+            batch.clear();
+            client.appendBatch(appenderId, encoded);
+        }
+    }
+
+    /**
+     * Résultat distant, alimenté soit en JSON (le chunk reçu avec la réponse
+     * d'exécution, puis les chunks suivants tirés du curseur serveur à la demande),
+     * soit par un flux Arrow IPC décodé batch par batch.
+     */
+    private static final class RemoteResult {
+        final ByteBuffer connRef;
+        // Requête d'origine, rejouée par exportArrow si besoin
+        final String sql;
+        final Object[] params;
+        List<List<Object>> pendingRows;
+        // null quand le serveur n'a plus de lignes à envoyer
+        String cursorId;
+        volatile int fetchSize;
+        ArrowVectorDecoder arrow;
+        // Timeout du statement, qui couvre aussi la lecture du flux Arrow
+        private long timeoutMs;
+        private long startedAt;
+        private boolean started = false;
+        private boolean exhausted = false;
+
+        RemoteResult(ByteBuffer connRef, String sql, Object[] params, int fetchSize) {
+            this.connRef = connRef;
+            this.sql = sql;
+            this.params = params;
+            this.fetchSize = fetchSize;
+        }
+
+        void openArrow(InputStream ipcStream, long timeoutMs, long startedAt) throws SQLException {
+            this.timeoutMs = timeoutMs;
+            this.startedAt = startedAt;
+            this.arrow = new ArrowVectorDecoder(ipcStream);
+        }
+
+        synchronized DuckDBVector[] nextVectors(DuckDBResultSetMetaData meta) throws SQLException {
+            if (exhausted) {
+                return null;
+            }
+            started = true;
+            if (arrow != null) {
+                try {
+                    return arrow.next(meta);
+                } catch (SQLException e) {
+                    // Le serveur coupe le flux quand le timeout expire pendant l'envoi
+                    if (timeoutMs > 0 && System.currentTimeMillis() - startedAt >= timeoutMs) {
+                        throw new SQLTimeoutException(QUERY_TIMEOUT + " (" + timeoutMs + " ms)", e);
+                    }
+                    throw e;
+                }
+            }
+            List<List<Object>> rows = nextChunk();
+            return rows == null ? null : toVectors(rows, meta);
+        }
+
+        private List<List<Object>> nextChunk() throws SQLException {
+            if (pendingRows != null) {
+                List<List<Object>> rows = pendingRows;
+                pendingRows = null;
+                return rows;
+            }
+            if (cursorId == null) {
+                return null;
+            }
+            ExecuteResponse response = httpClient(connRef).fetch(cursorId, fetchSize);
+            if (response.isError()) {
+                cursorId = null;
+                throw new SQLException(response.getErrorMessage());
+            }
+            if (!response.isHasMore()) {
+                cursorId = null;
+            }
+            List<List<Object>> rows = response.getData();
+            return rows == null || rows.isEmpty() ? null : rows;
+        }
+
+        synchronized InputStream exportArrow(int batchSize) throws SQLException {
+            if (exhausted) {
+                throw new SQLException("Result set already consumed");
+            }
+            InputStream ipcStream = null;
+            if (!started && arrow != null) {
+                // Résultat pas encore lu : le flux reçu est rendu tel quel
+                ipcStream = arrow.detach();
+                arrow = null;
+            }
+            if (ipcStream == null) {
+                ExecuteResponse response = httpClient(connRef).executeArrow(sql, null, params, batchSize);
+                if (response.getArrowStream() == null) {
+                    checkJson(response);
+                    throw new SQLException("Statement did not return a result set");
+                }
+                ipcStream = response.getArrowStream();
+            }
+            release();
+            return ipcStream;
+        }
+
+        synchronized void release() {
+            exhausted = true;
+            pendingRows = null;
+            if (arrow != null) {
+                arrow.close();
+                arrow = null;
+            }
+            // Fermeture anticipée : libère le curseur serveur s'il reste des chunks non lus
+            if (cursorId != null) {
+                try {
+                    httpClient(connRef).closeCursor(cursorId);
+                } catch (SQLException e) {
+                    System.err.println("Server cursor " + cursorId + " could not be closed: " + e.getMessage());
+                }
+                cursorId = null;
+            }
+        }
+    }
 }
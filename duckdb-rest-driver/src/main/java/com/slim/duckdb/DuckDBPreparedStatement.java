@@ -73,6 +73,8 @@ public class DuckDBPreparedStatement implements PreparedStatement {
     private Boolean isBatch = false;
     private Boolean isPreparedStatement = false;
     private int queryTimeoutSeconds = 0;
+    // 0 = taille par défaut (résultat complet, ou chunks de 2048 lignes si jdbc_stream_results)
+    private int fetchSize = 0;
     private ScheduledFuture<?> cancelQueryFuture = null;
 
     public DuckDBPreparedStatement(DuckDBConnection conn) throws SQLException {
@@ -202,7 +204,7 @@ public class DuckDBPreparedStatement implements PreparedStatement {
                     DuckDBDriver.scheduler.schedule(new CancelQueryTask(), queryTimeoutSeconds, SECONDS);
             }
 
-            resultRef = DuckDBNative.duckdb_jdbc_execute(stmtRef, params);
+            resultRef = DuckDBNative.duckdb_jdbc_execute(stmtRef, params, fetchSize, queryTimeoutSeconds);
             cleanupCancelQueryTask();
             DuckDBResultSetMetaData resultMeta = DuckDBNative.duckdb_jdbc_query_result_meta(resultRef);
             selectResult = new DuckDBResultSet(conn, this, resultMeta, resultRef);
@@ -291,14 +293,28 @@ public class DuckDBPreparedStatement implements PreparedStatement {
     public ResultSetMetaData getMetaData() throws SQLException {
         checkOpen();
         checkPrepared();
-        return meta;
+        return describe();
     }
 
     @Override
     public ParameterMetaData getParameterMetaData() throws SQLException {
         checkOpen();
         checkPrepared();
-        return meta.param_meta;
+        return describe().param_meta;
+    }
+
+    // Métadonnées obtenues sans exécuter la requête (/jdbc/prepare), redemandées tant
+    // que le type du résultat dépend de paramètres non fournis
+    private DuckDBResultSetMetaData describe() throws SQLException {
+        stmtRefLock.lock();
+        try {
+            if (meta == null || !DuckDBNative.isResolved(meta)) {
+                meta = DuckDBNative.duckdb_jdbc_prepared_statement_meta(stmtRef, params);
+            }
+            return meta;
+        } finally {
+            stmtRefLock.unlock();
+        }
     }
 
     @Override
@@ -307,7 +323,7 @@ public class DuckDBPreparedStatement implements PreparedStatement {
 
         // Si meta est dispo, on peut valider paramètre indexé
         if (meta != null && meta.param_meta != null) {
-            int paramsCount = getParameterMetaData().getParameterCount();
+            int paramsCount = meta.param_meta.getParameterCount();
             if (parameterIndex < 1 || parameterIndex > paramsCount) {
                 throw new SQLException("Parameter index out of bounds");
             }
@@ -620,12 +636,16 @@ public class DuckDBPreparedStatement implements PreparedStatement {
     @Override
     public void setFetchSize(int rows) throws SQLException {
         checkOpen();
+        if (rows < 0) {
+            throw new SQLException("Fetch size has to be >= 0");
+        }
+        fetchSize = rows;
     }
 
     @Override
     public int getFetchSize() throws SQLException {
         checkOpen();
-        return DuckDBNative.duckdb_jdbc_fetch_size();
+        return fetchSize > 0 ? fetchSize : DuckDBNative.duckdb_jdbc_fetch_size();
     }
 
     @Override
@@ -672,27 +692,21 @@ public class DuckDBPreparedStatement implements PreparedStatement {
         }
     }
 
+    // Un seul appel /jdbc/executeBatch, exécuté par le serveur dans sa propre transaction
     private long[] executeBatchedPreparedStatement() throws SQLException {
         stmtRefLock.lock();
         try {
             checkOpen();
             checkPrepared();
 
-            boolean tranStarted = startTransaction();
-
-            long[] updateCounts = new long[this.batchedParams.size()];
-            for (int i = 0; i < this.batchedParams.size(); i++) {
-                params = this.batchedParams.get(i);
-                execute(false);
-                updateCounts[i] = getUpdateCountInternal();
+            if (this.batchedParams.isEmpty()) {
+                return new long[0];
             }
-            clearBatch();
-
-            if (tranStarted && isConnAutoCommit()) {
-                this.conn.commit();
+            try {
+                return DuckDBNative.duckdb_jdbc_execute_batch(stmtRef, this.batchedParams);
+            } finally {
+                clearBatch();
             }
-
-            return updateCounts;
         } finally {
             stmtRefLock.unlock();
         }
@@ -703,21 +717,14 @@ public class DuckDBPreparedStatement implements PreparedStatement {
         try {
             checkOpen();
 
-            boolean tranStarted = startTransaction();
-
-            long[] updateCounts = new long[this.batchedStatements.size()];
-            for (int i = 0; i < this.batchedStatements.size(); i++) {
-                prepare(this.batchedStatements.get(i));
-                execute(false);
-                updateCounts[i] = getUpdateCountInternal();
+            if (this.batchedStatements.isEmpty()) {
+                return new long[0];
             }
-            clearBatch();
-
-            if (tranStarted && isConnAutoCommit()) {
-                this.conn.commit();
+            try {
+                return DuckDBNative.duckdb_jdbc_execute_batch_statements(conn.connRef, this.batchedStatements);
+            } finally {
+                clearBatch();
             }
-
-            return updateCounts;
         } finally {
             stmtRefLock.unlock();
         }
@@ -54,6 +54,7 @@ public class DuckDBResultSet implements ResultSet {
     private boolean finished = false;
     private boolean wasNull;
     private boolean hasCurrentRow = false; // pour savoir si une ligne est active
+    private int fetchSize = 0;
 
     public DuckDBResultSet(DuckDBConnection conn, DuckDBPreparedStatement stmt, DuckDBResultSetMetaData meta,
                            ByteBuffer resultRef) throws SQLException {
@@ -160,17 +161,13 @@ public class DuckDBResultSet implements ResultSet {
             if (!buffer_allocator_class.isInstance(arrow_buffer_allocator)) {
                 throw new RuntimeException("Need to pass an Arrow BufferAllocator");
             }
-            Long stream_pointer = DuckDBNative.duckdb_jdbc_arrow_stream(resultRef, arrow_batch_size);
-            Class<?> arrow_array_stream_class = Class.forName("org.apache.arrow.c.ArrowArrayStream");
-            Object arrow_array_stream =
-                arrow_array_stream_class.getMethod("wrap", long.class).invoke(null, stream_pointer);
-
-            Class<?> c_data_class = Class.forName("org.apache.arrow.c.Data");
-
-            return c_data_class.getMethod("importArrayStream", buffer_allocator_class, arrow_array_stream_class)
-                .invoke(null, arrow_buffer_allocator, arrow_array_stream);
+            InputStream ipc_stream = DuckDBNative.duckdb_jdbc_arrow_stream(resultRef, arrow_batch_size);
+            // Le serveur renvoie déjà de l'Arrow IPC : pas d'ArrowArrayStream natif côté driver
+            Class<?> arrow_stream_reader_class = Class.forName("org.apache.arrow.vector.ipc.ArrowStreamReader");
+            return arrow_stream_reader_class.getConstructor(InputStream.class, buffer_allocator_class)
+                .newInstance(ipc_stream, arrow_buffer_allocator);
         } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException | SecurityException |
-                 ClassNotFoundException e) {
+                 ClassNotFoundException | InstantiationException e) {
             throw new RuntimeException(e);
         }
     }
@@ -687,11 +684,14 @@ public class DuckDBResultSet implements ResultSet {
         if (rows < 0) {
             throw new SQLException("Fetch size has to be >= 0");
         }
+        fetchSize = rows;
+        // S'applique aux prochains chunks tirés du curseur serveur
+        DuckDBNative.duckdb_jdbc_set_fetch_size(resultRef, rows);
     }
 
     public int getFetchSize() throws SQLException {
         checkOpen();
-        return DuckDBNative.duckdb_jdbc_fetch_size();
+        return fetchSize > 0 ? fetchSize : DuckDBNative.duckdb_jdbc_fetch_size();
     }
 
     public int getType() throws SQLException {
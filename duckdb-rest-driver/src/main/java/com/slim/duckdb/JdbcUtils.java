@@ -282,12 +282,18 @@ final class JdbcUtils {
         f.set(vector, buffer);
     }
 
-    private static void setVarlenData(Object[] data, DuckDBVector vector) throws Exception {
+    static void setVarlenData(Object[] data, DuckDBVector vector) throws Exception {
         Field f = DuckDBVector.class.getDeclaredField("varlen_data");
         f.setAccessible(true);
         f.set(vector, data);
     }
 
+    static void setConstlenData(ByteBuffer buffer, DuckDBVector vector) throws Exception {
+        Field f = DuckDBVector.class.getDeclaredField("constlen_data");
+        f.setAccessible(true);
+        f.set(vector, buffer);
+    }
+
     private static void handleTimestamp(Object[] data, DuckDBVector vector) throws Exception {
         ByteBuffer buffer = ByteBuffer.allocate(data.length * Long.BYTES).order(ByteOrder.nativeOrder());
         for (int i = 0; i < data.length; i++) {
@@ -1,38 +1,180 @@
 package com.slim.duckdb.client;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
 import java.sql.SQLException;
+import java.util.Arrays;
 
+import org.apache.http.conn.EofSensorInputStream;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestTemplate;
 
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.slim.dto.AppendBatch;
+import com.slim.dto.AppenderRequest;
+import com.slim.dto.AppenderResponse;
+import com.slim.dto.ExecuteBatchRequest;
+import com.slim.dto.ExecuteBatchResponse;
 import com.slim.dto.ExecuteRequest;
 import com.slim.dto.ExecuteResponse;
+import com.slim.dto.FetchRequest;
+import com.slim.dto.QueryProgressResponse;
+import com.slim.dto.SessionResponse;
 
 public class DuckDBHttpClient {
 
-    private String backendUrl = "http://localhost:8080/";
+    /**
+     * Identifiant de la connexion JDBC, envoyé sur chaque appel pour que le
+     * load balancer route toutes les requêtes d'une connexion (fetch de curseur
+     * compris) vers le même backend.
+     */
+    public static final String CONNECTION_ID_HEADER = "X-DuckDB-Connection-Id";
+
+    /**
+     * Identifiant de l'exécution, qui permet de l'interrompre via
+     * {@link #cancel(String)}, et timeout du statement : le serveur interrompt
+     * lui-même la requête à l'échéance.
+     */
+    public static final String QUERY_ID_HEADER = "X-DuckDB-Query-Id";
+    public static final String QUERY_TIMEOUT_HEADER = "X-DuckDB-Query-Timeout-Ms";
+
+    /**
+     * Session serveur ouverte par {@link #openSession()} : tant qu'elle est
+     * renseignée, toutes les requêtes s'exécutent sur la même connexion DuckDB.
+     */
+    public static final String SESSION_ID_HEADER = "X-DuckDB-Session-Id";
+    public static final String UNKNOWN_SESSION = "Unknown or expired session: ";
+
+    public static final String ARROW_STREAM_MEDIA_TYPE = "application/vnd.apache.arrow.stream";
+    private static final MediaType ARROW_STREAM = MediaType.parseMediaType(ARROW_STREAM_MEDIA_TYPE);
+    // Marqueur de fin d'un flux Arrow IPC : continuation 0xFFFFFFFF puis longueur 0
+    private static final byte[] ARROW_END_OF_STREAM = {-1, -1, -1, -1, 0, 0, 0, 0};
+    private static final MediaType APPEND_BATCH = MediaType.parseMediaType(AppendBatch.MEDIA_TYPE);
+    // Pause avant de renvoyer un lot refusé par un appender saturé, doublée à chaque refus
+    private static final long APPEND_RETRY_MIN_MS = 10;
+    private static final long APPEND_RETRY_MAX_MS = 1000;
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final String backendUrl;
+    private final String connectionId;
+    private volatile String sessionId;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    // Partagé entre toutes les connexions du même backend (pool keep-alive)
+    private final RestTemplate restTemplate;
+
+    public DuckDBHttpClient(DuckDBHttpTransport transport, String connectionId) {
+        this.backendUrl = transport.getBackendUrl();
+        this.restTemplate = transport.restTemplate();
+        this.connectionId = connectionId;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
 
-    public DuckDBHttpClient(String backendUrl) {
-        if (backendUrl != null && !backendUrl.isEmpty()) {
-            this.backendUrl = backendUrl;
+    /**
+     * Ouvre une session serveur ; les appels suivants de ce client y sont rattachés.
+     */
+    public String openSession() throws SQLException {
+        SessionResponse response;
+        try {
+            response = restTemplate.exchange(
+                    this.backendUrl + "/jdbc/session",
+                    HttpMethod.POST,
+                    new HttpEntity<>(jsonHeaders()),
+                    SessionResponse.class
+            ).getBody();
+        } catch (HttpStatusCodeException e) {
+            // Le corps porte le motif du refus (trop de sessions, ...)
+            try {
+                response = MAPPER.readValue(e.getResponseBodyAsByteArray(), SessionResponse.class);
+            } catch (Exception parseError) {
+                throw new SQLException("Erreur lors de l'appel REST vers /session", e);
+            }
+        } catch (Exception e) {
+            throw new SQLException("Erreur lors de l'appel REST vers /session", e);
+        }
+        if (response == null || response.isError()) {
+            throw new SQLException(response == null ? "Empty response from /session" : response.getErrorMessage());
         }
+        sessionId = response.getSessionId();
+        return sessionId;
+    }
+
+    /**
+     * Détache le client de sa session et la ferme côté serveur, ce qui annule
+     * une transaction restée ouverte.
+     */
+    public void closeSession() throws SQLException {
+        String id = sessionId;
+        if (id == null) {
+            return;
+        }
+        sessionId = null;
+        try {
+            restTemplate.exchange(
+                    this.backendUrl + "/jdbc/session/" + id,
+                    HttpMethod.DELETE,
+                    new HttpEntity<>(jsonHeaders()),
+                    Void.class
+            );
+        } catch (HttpClientErrorException.NotFound e) {
+            // Session déjà expirée côté serveur
+        } catch (Exception e) {
+            throw new SQLException("Erreur lors de la fermeture de la session " + id, e);
+        }
+    }
+
+    /**
+     * Oublie la session sans appeler le serveur, quand celui-ci l'a déjà fermée.
+     */
+    public void forgetSession() {
+        sessionId = null;
     }
 
     public ExecuteResponse execute(String sql, Object[] params) throws SQLException {
+        return execute(sql, params, 0);
+    }
+
+    public ExecuteResponse execute(String sql, Object[] params, int fetchSize) throws SQLException {
+        return execute(sql, null, params, fetchSize);
+    }
+
+    /**
+     * @param statementId statement préparé via {@link #prepare(String, Object[])} ; si
+     *                    renseigné, le serveur ignore {@code sql}
+     */
+    public ExecuteResponse execute(String sql, String statementId, Object[] params, int fetchSize) throws SQLException {
+        return execute(sql, statementId, params, fetchSize, null, 0);
+    }
+
+    /**
+     * @param queryId   identifiant de l'exécution pour {@link #cancel(String)}, facultatif
+     * @param timeoutMs délai au-delà duquel le serveur interrompt la requête, 0 pour aucun
+     */
+    public ExecuteResponse execute(String sql, String statementId, Object[] params, int fetchSize,
+                                   String queryId, long timeoutMs) throws SQLException {
         try {
             String executeUrl = this.backendUrl+"/jdbc/execute"; // Direct access to DuckDB REST server
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-
-            ExecuteRequest request = new ExecuteRequest(sql, params);
-            HttpEntity<ExecuteRequest> entity = new HttpEntity<>(request, headers);
+            ExecuteRequest request = new ExecuteRequest(statementId == null ? sql : null, params);
+            request.setStatementId(statementId);
+            request.setFetchSize(fetchSize);
+            HttpEntity<ExecuteRequest> entity = new HttpEntity<>(request, queryHeaders(queryId, timeoutMs));
 
             ResponseEntity<ExecuteResponse> response = restTemplate.exchange(
                     executeUrl,
@@ -47,4 +189,351 @@ public class DuckDBHttpClient {
             throw new SQLException("Erreur lors de l'appel REST vers /execute", e);
         }
     }
+
+    /**
+     * Exécution négociée en Arrow IPC : si le serveur répond en
+     * {@value #ARROW_STREAM_MEDIA_TYPE}, le corps est placé, encore ouvert, dans
+     * {@link ExecuteResponse#getArrowStream()} et lu au fil du décodage ; les
+     * DML/DDL restent en JSON. Le flux doit être fermé pour libérer la connexion HTTP.
+     */
+    public ExecuteResponse executeArrow(String sql, String statementId, Object[] params, int batchSize) throws SQLException {
+        return executeArrow(sql, statementId, params, batchSize, null, 0);
+    }
+
+    public ExecuteResponse executeArrow(String sql, String statementId, Object[] params, int batchSize,
+                                        String queryId, long timeoutMs) throws SQLException {
+        ClientHttpResponse response = null;
+        try {
+            ExecuteRequest request = new ExecuteRequest(statementId == null ? sql : null, params);
+            request.setStatementId(statementId);
+            request.setFetchSize(batchSize);
+            HttpHeaders headers = queryHeaders(queryId, timeoutMs);
+            headers.setAccept(Arrays.asList(ARROW_STREAM, MediaType.APPLICATION_JSON));
+
+            // RestTemplate.execute fermerait la réponse au retour : la requête est envoyée à la main
+            URI url = restTemplate.getUriTemplateHandler().expand(this.backendUrl + "/jdbc/execute");
+            ClientHttpRequest httpRequest = restTemplate.getRequestFactory().createRequest(url, HttpMethod.POST);
+            restTemplate.httpEntityCallback(new HttpEntity<>(request, headers)).doWithRequest(httpRequest);
+            response = httpRequest.execute();
+            if (restTemplate.getErrorHandler().hasError(response)) {
+                restTemplate.getErrorHandler().handleError(url, HttpMethod.POST, response);
+            }
+            if (ARROW_STREAM.includes(response.getHeaders().getContentType())) {
+                ExecuteResponse arrowResponse = new ExecuteResponse();
+                arrowResponse.setArrowStream(new ArrowResponseStream(response));
+                response = null;
+                return arrowResponse;
+            }
+            return MAPPER.readValue(response.getBody(), ExecuteResponse.class);
+        } catch (Exception e) {
+            throw new SQLException("Erreur lors de l'appel REST vers /execute (Arrow)", e);
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Interrompt l'exécution en cours sous cet identifiant. Si le serveur ne la
+     * connaît pas encore, il retient le cancel pour l'appliquer à son arrivée.
+     */
+    public void cancel(String queryId) throws SQLException {
+        try {
+            restTemplate.exchange(
+                    this.backendUrl + "/jdbc/cancel/" + queryId,
+                    HttpMethod.POST,
+                    new HttpEntity<>(jsonHeaders()),
+                    Void.class
+            );
+        } catch (HttpClientErrorException.NotFound e) {
+            // Requête déjà terminée, ou pas encore arrivée
+        } catch (Exception e) {
+            throw new SQLException("Erreur lors de l'annulation de la requête " + queryId, e);
+        }
+    }
+
+    /**
+     * @return l'avancement de l'exécution, ou {@code null} si elle est terminée
+     *         (ou pas encore arrivée)
+     */
+    public QueryProgressResponse queryProgress(String queryId) throws SQLException {
+        try {
+            return restTemplate.exchange(
+                    this.backendUrl + "/jdbc/progress/" + queryId,
+                    HttpMethod.GET,
+                    new HttpEntity<>(jsonHeaders()),
+                    QueryProgressResponse.class
+            ).getBody();
+        } catch (HttpClientErrorException.NotFound e) {
+            return null;
+        } catch (Exception e) {
+            throw new SQLException("Erreur lors de la lecture de l'avancement de la requête " + queryId, e);
+        }
+    }
+
+    /**
+     * executeBatch en un seul aller-retour ; le serveur exécute tout le batch
+     * dans une transaction et renvoie les nombres de lignes modifiées.
+     */
+    public ExecuteBatchResponse executeBatch(ExecuteBatchRequest request) throws SQLException {
+        try {
+            ResponseEntity<ExecuteBatchResponse> response = restTemplate.exchange(
+                    this.backendUrl + "/jdbc/executeBatch",
+                    HttpMethod.POST,
+                    new HttpEntity<>(request, jsonHeaders()),
+                    ExecuteBatchResponse.class
+            );
+            return response.getBody();
+        } catch (HttpStatusCodeException e) {
+            // Le corps porte le message d'erreur SQL du serveur
+            try {
+                return MAPPER.readValue(e.getResponseBodyAsByteArray(), ExecuteBatchResponse.class);
+            } catch (Exception parseError) {
+                throw new SQLException("Erreur lors de l'appel REST vers /executeBatch", e);
+            }
+        } catch (Exception e) {
+            throw new SQLException("Erreur lors de l'appel REST vers /executeBatch", e);
+        }
+    }
+
+    /**
+     * Décrit la requête côté serveur sans l'exécuter ; la réponse porte les
+     * métadonnées (colonnes et paramètres) et un statementId réutilisable.
+     * Les paramètres, facultatifs, ne servent qu'aux requêtes dont le type de
+     * résultat en dépend.
+     */
+    public ExecuteResponse prepare(String sql, Object[] params) throws SQLException {
+        try {
+            ResponseEntity<ExecuteResponse> response = restTemplate.exchange(
+                    this.backendUrl + "/jdbc/prepare",
+                    HttpMethod.POST,
+                    new HttpEntity<>(new ExecuteRequest(sql, params), jsonHeaders()),
+                    ExecuteResponse.class
+            );
+            return response.getBody();
+        } catch (Exception e) {
+            throw new SQLException("Erreur lors de l'appel REST vers /prepare", e);
+        }
+    }
+
+    public void closeStatement(String statementId) throws SQLException {
+        try {
+            restTemplate.exchange(
+                    this.backendUrl + "/jdbc/statement/" + statementId,
+                    HttpMethod.DELETE,
+                    new HttpEntity<>(jsonHeaders()),
+                    Void.class
+            );
+        } catch (Exception e) {
+            throw new SQLException("Erreur lors de la libération du statement " + statementId, e);
+        }
+    }
+
+    public AppenderResponse openAppender(String schema, String table) throws SQLException {
+        return appenderCall(this.backendUrl + "/jdbc/appender", HttpMethod.POST,
+                            new HttpEntity<>(new AppenderRequest(schema, table), jsonHeaders()));
+    }
+
+    /**
+     * Envoie un lot encodé ({@link AppendBatch#encode()}). Tant que le serveur
+     * le refuse faute de place (503), le lot est renvoyé après une pause
+     * croissante : le producteur avance au rythme de l'écriture côté serveur.
+     */
+    public AppenderResponse appendBatch(String appenderId, byte[] batch) throws SQLException {
+        HttpHeaders headers = jsonHeaders();
+        headers.setContentType(APPEND_BATCH);
+        headers.setAccept(Arrays.asList(MediaType.APPLICATION_JSON));
+        HttpEntity<byte[]> entity = new HttpEntity<>(batch, headers);
+        long pauseMs = APPEND_RETRY_MIN_MS;
+        while (true) {
+            try {
+                return appenderCall(this.backendUrl + "/jdbc/appender/" + appenderId + "/append", HttpMethod.POST, entity);
+            } catch (AppenderBusyException e) {
+                try {
+                    Thread.sleep(pauseMs);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for appender " + appenderId, interrupted);
+                }
+                pauseMs = Math.min(pauseMs * 2, APPEND_RETRY_MAX_MS);
+            }
+        }
+    }
+
+    public AppenderResponse flushAppender(String appenderId) throws SQLException {
+        return appenderCall(this.backendUrl + "/jdbc/appender/" + appenderId + "/flush", HttpMethod.POST,
+                            new HttpEntity<>(jsonHeaders()));
+    }
+
+    public AppenderResponse closeAppender(String appenderId) throws SQLException {
+        return appenderCall(this.backendUrl + "/jdbc/appender/" + appenderId, HttpMethod.DELETE,
+                            new HttpEntity<>(jsonHeaders()));
+    }
+
+    private AppenderResponse appenderCall(String url, HttpMethod method, HttpEntity<?> entity) throws SQLException {
+        try {
+            return restTemplate.exchange(url, method, entity, AppenderResponse.class).getBody();
+        } catch (HttpStatusCodeException e) {
+            if (e.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE) {
+                throw new AppenderBusyException();
+            }
+            // Le corps porte le message d'erreur SQL du serveur
+            AppenderResponse response;
+            try {
+                response = MAPPER.readValue(e.getResponseBodyAsByteArray(), AppenderResponse.class);
+            } catch (Exception parseError) {
+                throw new SQLException("Erreur lors de l'appel REST vers " + url, e);
+            }
+            throw new SQLException(response.getErrorMessage());
+        } catch (Exception e) {
+            throw new SQLException("Erreur lors de l'appel REST vers " + url, e);
+        }
+    }
+
+    private static final class AppenderBusyException extends RuntimeException {
+        AppenderBusyException() {
+            super(null, null, false, false);
+        }
+    }
+
+    public ExecuteResponse fetch(String cursorId, int fetchSize) throws SQLException {
+        try {
+            HttpEntity<FetchRequest> entity = new HttpEntity<>(new FetchRequest(cursorId, fetchSize), jsonHeaders());
+            ResponseEntity<ExecuteResponse> response = restTemplate.exchange(
+                    this.backendUrl + "/jdbc/fetch",
+                    HttpMethod.POST,
+                    entity,
+                    ExecuteResponse.class
+            );
+            return response.getBody();
+        } catch (Exception e) {
+            throw new SQLException("Erreur lors de l'appel REST vers /fetch", e);
+        }
+    }
+
+    public void closeCursor(String cursorId) throws SQLException {
+        try {
+            restTemplate.exchange(
+                    this.backendUrl + "/jdbc/cursor/" + cursorId,
+                    HttpMethod.DELETE,
+                    new HttpEntity<>(jsonHeaders()),
+                    Void.class
+            );
+        } catch (Exception e) {
+            throw new SQLException("Erreur lors de la fermeture du curseur " + cursorId, e);
+        }
+    }
+
+    private HttpHeaders queryHeaders(String queryId, long timeoutMs) {
+        HttpHeaders headers = jsonHeaders();
+        if (queryId != null) {
+            headers.set(QUERY_ID_HEADER, queryId);
+        }
+        if (timeoutMs > 0) {
+            headers.set(QUERY_TIMEOUT_HEADER, Long.toString(timeoutMs));
+        }
+        return headers;
+    }
+
+    private HttpHeaders jsonHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        if (connectionId != null) {
+            headers.set(CONNECTION_ID_HEADER, connectionId);
+        }
+        String session = sessionId;
+        if (session != null) {
+            headers.set(SESSION_ID_HEADER, session);
+        }
+        return headers;
+    }
+
+    /**
+     * Corps Arrow d'une réponse, lu au fil de l'eau. Une requête interrompue
+     * côté serveur (cancel, timeout) arrête le flux sans marqueur de fin Arrow :
+     * atteindre la fin du corps sans lui est une erreur, et non la fin du
+     * résultat. Fermé avant le marqueur, le flux coupe la connexion HTTP au lieu
+     * de lire le reste du résultat.
+     */
+    private static final class ArrowResponseStream extends FilterInputStream {
+
+        private final ClientHttpResponse response;
+        // Derniers octets lus, comparés au marqueur de fin
+        private final byte[] tail = new byte[ARROW_END_OF_STREAM.length];
+        private long count;
+
+        ArrowResponseStream(ClientHttpResponse response) throws IOException {
+            super(response.getBody());
+            this.response = response;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                checkEnd();
+                return b;
+            }
+            System.arraycopy(tail, 1, tail, 0, tail.length - 1);
+            tail[tail.length - 1] = (byte) b;
+            count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n < 0) {
+                checkEnd();
+                return n;
+            }
+            if (n >= tail.length) {
+                System.arraycopy(b, off + n - tail.length, tail, 0, tail.length);
+            } else {
+                System.arraycopy(tail, n, tail, 0, tail.length - n);
+                System.arraycopy(b, off, tail, tail.length - n, n);
+            }
+            count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Par read, pour garder les derniers octets
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read < 0) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        private boolean complete() {
+            return count >= tail.length && Arrays.equals(tail, ARROW_END_OF_STREAM);
+        }
+
+        private void checkEnd() throws IOException {
+            if (!complete()) {
+                throw new IOException("Flux Arrow incomplet (" + count + " octets) : requête interrompue côté serveur");
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!complete() && in instanceof EofSensorInputStream) {
+                // HttpComponents lirait sinon tout le reste du corps pour garder la connexion
+                try {
+                    ((EofSensorInputStream) in).abortConnection();
+                } catch (IOException e) {
+                    // suppress
+                }
+            }
+            response.close();
+        }
+    }
 }
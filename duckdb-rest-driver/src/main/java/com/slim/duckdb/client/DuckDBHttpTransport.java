@@ -0,0 +1,191 @@
+package com.slim.duckdb.client;
+
+import java.security.GeneralSecurityException;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.TrustAllStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.ssl.SSLContexts;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Transport HTTP partagé par toutes les connexions JDBC vers un même backend :
+ * un pool de connexions keep-alive borné (Apache HttpClient) derrière un seul
+ * RestTemplate, pour réutiliser les sockets et les sessions TLS d'une requête
+ * à l'autre.
+ * <p>
+ * Accessible depuis une connexion via
+ * {@code connection.unwrap(DuckDBHttpTransport.class)} pour lire les
+ * statistiques du pool.
+ */
+public final class DuckDBHttpTransport implements AutoCloseable {
+
+    // Une instance par backend et par configuration de pool
+    private static final Map<String, DuckDBHttpTransport> TRANSPORTS = new ConcurrentHashMap<>();
+
+    private final String backendUrl;
+    private final Config config;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final RestTemplate restTemplate;
+
+    /**
+     * Paramètres du pool, lus depuis les propriétés de l'URL JDBC.
+     */
+    public static final class Config {
+        final int maxConnectionsPerRoute;
+        final int maxConnections;
+        final long idleTimeoutMs;
+        final int connectTimeoutMs;
+        final int readTimeoutMs;
+        final boolean disableCertificateVerification;
+
+        public Config(int maxConnectionsPerRoute, int maxConnections, long idleTimeoutMs,
+                      int connectTimeoutMs, int readTimeoutMs, boolean disableCertificateVerification) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            this.maxConnections = Math.max(maxConnections, maxConnectionsPerRoute);
+            this.idleTimeoutMs = idleTimeoutMs;
+            this.connectTimeoutMs = connectTimeoutMs;
+            this.readTimeoutMs = readTimeoutMs;
+            this.disableCertificateVerification = disableCertificateVerification;
+        }
+
+        String key() {
+            return maxConnectionsPerRoute + "/" + maxConnections + "/" + idleTimeoutMs + "/" + connectTimeoutMs + "/"
+                + readTimeoutMs + "/" + disableCertificateVerification;
+        }
+    }
+
+    /**
+     * Retourne le transport partagé pour ce backend, créé au premier appel.
+     */
+    public static DuckDBHttpTransport forBackend(String backendUrl, Config config) throws SQLException {
+        String key = backendUrl + "#" + config.key();
+        DuckDBHttpTransport transport = TRANSPORTS.get(key);
+        if (transport != null) {
+            return transport;
+        }
+        synchronized (TRANSPORTS) {
+            transport = TRANSPORTS.get(key);
+            if (transport == null) {
+                transport = new DuckDBHttpTransport(backendUrl, config);
+                TRANSPORTS.put(key, transport);
+            }
+            return transport;
+        }
+    }
+
+    private DuckDBHttpTransport(String backendUrl, Config config) throws SQLException {
+        this.backendUrl = backendUrl;
+        this.config = config;
+
+        RegistryBuilder<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+            .register("http", PlainConnectionSocketFactory.getSocketFactory());
+        if (config.disableCertificateVerification) {
+            try {
+                SSLContext sslContext = SSLContexts.custom().loadTrustMaterial(null, TrustAllStrategy.INSTANCE).build();
+                registry.register("https", new SSLConnectionSocketFactory(sslContext, NoopHostnameVerifier.INSTANCE));
+            } catch (GeneralSecurityException e) {
+                throw new SQLException("Impossible de désactiver la vérification des certificats", e);
+            }
+        } else {
+            registry.register("https", SSLConnectionSocketFactory.getSocketFactory());
+        }
+        Registry<ConnectionSocketFactory> socketFactories = registry.build();
+
+        this.connectionManager = new PoolingHttpClientConnectionManager(
+            socketFactories, null, null, null, -1, TimeUnit.MILLISECONDS);
+        connectionManager.setDefaultMaxPerRoute(config.maxConnectionsPerRoute);
+        connectionManager.setMaxTotal(config.maxConnections);
+        // Revalide une connexion restée inactive avant de la réutiliser (backend redémarré, LB...)
+        connectionManager.setValidateAfterInactivity(2000);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(config.connectTimeoutMs)
+            .setConnectionRequestTimeout(config.connectTimeoutMs)
+            .setSocketTimeout(config.readTimeoutMs)
+            .build();
+
+        this.httpClient = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .evictExpiredConnections()
+            .evictIdleConnections(config.idleTimeoutMs, TimeUnit.MILLISECONDS)
+            .build();
+        this.restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+
+        System.out.println("[DuckDBHttpTransport] Pool HTTP créé pour " + backendUrl + " : " + config.maxConnectionsPerRoute
+                           + " connexions max par route, " + config.maxConnections + " au total, éviction après "
+                           + config.idleTimeoutMs + " ms d'inactivité");
+    }
+
+    RestTemplate restTemplate() {
+        return restTemplate;
+    }
+
+    public String getBackendUrl() {
+        return backendUrl;
+    }
+
+    /**
+     * @return statistiques globales du pool (connexions louées, disponibles, en attente, max)
+     */
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    public int getLeasedConnections() {
+        return getPoolStats().getLeased();
+    }
+
+    public int getAvailableConnections() {
+        return getPoolStats().getAvailable();
+    }
+
+    public int getPendingRequests() {
+        return getPoolStats().getPending();
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return config.maxConnectionsPerRoute;
+    }
+
+    public int getMaxConnections() {
+        return config.maxConnections;
+    }
+
+    /**
+     * Ferme le pool et le retire du registre ; les connexions JDBC qui
+     * l'utilisent encore échoueront sur leur prochain appel.
+     */
+    @Override
+    public void close() {
+        TRANSPORTS.values().remove(this);
+        try {
+            httpClient.close();
+        } catch (Exception e) {
+            System.err.println("[DuckDBHttpTransport] Fermeture du pool en échec: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DuckDBHttpTransport[" + backendUrl + ", " + getPoolStats() + "]";
+    }
+}
@@ -0,0 +1,137 @@
+package example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Aller-retour par le cache Parquet pour chaque type que l'Appender écrit
+ * (CacheWriter), et pour INTERVAL, écrit par {@code COPY (requête)}. Le niveau
+ * mémoire est désactivé : la seconde exécution lit le fichier Parquet, et sa
+ * réponse JSON (valeurs et types) est comparée à celle de la première. Les
+ * requêtes passent par /jdbc/execute plutôt que par le driver, qui ne décode
+ * pas tous ces types.
+ * <p>
+ * La dernière requête regroupe les types que Parquet convertit, Appender ou
+ * non : HUGEINT et UHUGEINT reviennent en DOUBLE, TIMETZ en UTC, TIMESTAMP_S
+ * et TIMESTAMP_MS en TIMESTAMP. Sa différence est attendue.
+ *
+ * Argument : chemin du jar du serveur (duckdb-rest-server/target/duckdb-rest-server-1.0.0.jar par défaut).
+ */
+public class DuckCacheTypesExample {
+
+    private static final int PORT = 8095;
+    private static final String[] QUERIES = {
+            "SELECT i % 2 = 0 AS c_boolean, i::TINYINT AS c_tinyint, i::SMALLINT AS c_smallint, i::INTEGER AS c_integer, "
+                    + "(i * 10000000000)::BIGINT AS c_bigint, i::UTINYINT AS c_utinyint, i::USMALLINT AS c_usmallint, "
+                    + "i::UINTEGER AS c_uinteger, (i * 18446744073709551)::UBIGINT AS c_ubigint, "
+                    + "(i / 3)::FLOAT AS c_float, i / 3 AS c_double, (i * 12.345)::DECIMAL(9, 3) AS c_decimal9, "
+                    + "(i * 123456789012.345678)::DECIMAL(38, 6) AS c_decimal38, 'é' || i AS c_varchar, "
+                    + "('00000000-0000-0000-0000-00000000000' || i)::UUID AS c_uuid, DATE '2024-02-28' + i::INTEGER AS c_date, "
+                    + "TIME '12:34:56.789' AS c_time, TIMESTAMP '2024-02-28 12:34:56.123456' + i * INTERVAL 1 DAY AS c_timestamp, "
+                    + "TIMESTAMPTZ '2024-02-28 12:34:56.123+01' AS c_timestamptz, "
+                    + "TIMESTAMP_NS '2024-02-28 12:34:56.123456789' AS c_timestamp_ns "
+                    + "FROM range(3) t(i) UNION ALL SELECT NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL, "
+                    + "NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL, NULL ORDER BY c_integer NULLS LAST",
+            // Type hors de l'Appender : écrit par COPY (requête)
+            "SELECT i, INTERVAL 1 DAY * i + INTERVAL 90 MINUTE AS c_interval FROM range(3) t(i) ORDER BY i",
+            // Types convertis par Parquet : différence attendue
+            "SELECT i, (i * 170141183460469231731687303715884105)::HUGEINT AS c_hugeint, "
+                    + "(i * 340282366920938463463374607431768211)::UHUGEINT AS c_uhugeint, TIMETZ '12:34:56+02' AS c_timetz, "
+                    + "TIMESTAMP_S '2024-02-28 12:34:56' AS c_timestamp_s, TIMESTAMP_MS '2024-02-28 12:34:56.123' AS c_timestamp_ms "
+                    + "FROM range(3) t(i) ORDER BY i"
+    };
+
+    public static void main(String[] args) {
+        String jar = args.length > 0 ? args[0] : "duckdb-rest-server/target/duckdb-rest-server-1.0.0.jar";
+        Process node = null;
+        try {
+            File work = Files.createTempDirectory("cachetypes").toFile();
+            node = start(jar, work);
+            waitFor();
+
+            for (int i = 0; i < QUERIES.length; i++) {
+                String sql = QUERIES[i];
+                String computed = run(sql);
+                // Le fichier Parquet du cache est écrit en arrière-plan
+                Thread.sleep(2000);
+                String cached = run(sql);
+                System.out.println(cached);
+                if (computed.equals(cached)) {
+                    System.out.println("=> identique après le cache Parquet");
+                } else {
+                    System.out.println((i == QUERIES.length - 1 ? "=> converti par Parquet, avant le cache :\n" : "=> DIFFÉRENT avant le cache :\n") + computed);
+                }
+            }
+
+            System.out.println("---- /ui/cache/stats ----");
+            System.out.println(get("http://localhost:" + PORT + "/ui/cache/stats"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (node != null) {
+                node.destroy();
+            }
+        }
+    }
+
+    private static Process start(String jar, File work) throws Exception {
+        ProcessBuilder builder = new ProcessBuilder("java", "--add-opens=java.base/java.nio=ALL-UNNAMED", "-jar", new File(jar).getAbsolutePath(),
+                "--server.port=" + PORT,
+                "--app.init-sql-path=",
+                "--spring.datasource.url=jdbc:duckdb:" + new File(work, "node.db").getAbsolutePath());
+        // Tout résultat entre en cache, lu ensuite depuis Parquet seulement
+        builder.environment().put("CACHE_ADMISSION_POLICY", "always");
+        builder.environment().put("CACHE_MEMORY_MAX_MB", "0");
+        builder.directory(work);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(new File(work, "node.log"));
+        return builder.start();
+    }
+
+    private static void waitFor() throws Exception {
+        for (int i = 0; i < 300; i++) {
+            try {
+                get("http://localhost:" + PORT + "/ui/cache/stats");
+                return;
+            } catch (Exception e) {
+                Thread.sleep(1000);
+            }
+        }
+        throw new IllegalStateException("Serveur " + PORT + " non démarré");
+    }
+
+    private static String run(String sql) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + PORT + "/jdbc/execute").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(("{\"sql\": \"" + sql.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+        return read(connection);
+    }
+
+    private static String get(String url) throws Exception {
+        return read((HttpURLConnection) new URL(url).openConnection());
+    }
+
+    private static String read(HttpURLConnection connection) throws Exception {
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
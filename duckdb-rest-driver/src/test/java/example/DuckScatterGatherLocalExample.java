@@ -0,0 +1,146 @@
+package example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exécution répartie sur trois serveurs locaux : le nœud 1 coordonne
+ * (SCATTER_NODES), les nœuds 2 et 3 exécutent les fragments. Le résultat
+ * réparti est comparé à celui d'un nœud seul, puis le nœud 3 est arrêté pour
+ * montrer la relance de ses fragments sur les nœuds restants.
+ *
+ * Argument : chemin du jar du serveur (duckdb-rest-server/target/duckdb-rest-server-1.0.0.jar par défaut).
+ */
+public class DuckScatterGatherLocalExample {
+
+    private static final int[] PORTS = {8091, 8092, 8093};
+    private static final String[] QUERIES = {
+            "SELECT region, count(*) AS n, sum(amount) AS total, avg(amount) FROM read_parquet('%s/**/*.parquet') GROUP BY region ORDER BY region",
+            "SELECT id, region, amount FROM read_parquet('%s/**/*.parquet') ORDER BY amount DESC, id LIMIT 5"
+    };
+
+    public static void main(String[] args) {
+        String jar = args.length > 0 ? args[0] : "duckdb-rest-server/target/duckdb-rest-server-1.0.0.jar";
+        List<Process> nodes = new ArrayList<>();
+        try {
+            Class.forName("com.slim.duckdb.DuckDBDriver");
+            File work = Files.createTempDirectory("scatter").toFile();
+            String data = new File(work, "data").getAbsolutePath();
+
+            String cluster = "http://localhost:" + PORTS[0] + ",http://localhost:" + PORTS[1] + ",http://localhost:" + PORTS[2];
+            for (int port : PORTS) {
+                nodes.add(start(jar, port, work, port == PORTS[0] ? cluster : null));
+            }
+            for (int port : PORTS) {
+                waitFor(port);
+            }
+
+            // Données partitionnées : 5 années x 3 régions = 15 fichiers
+            try (Connection conn = connect(PORTS[1]); Statement stmt = conn.createStatement()) {
+                stmt.execute("COPY (SELECT i AS id, 2020 + i % 5 AS year, ['APAC', 'EU', 'US'][1 + i % 3] AS region, "
+                        + "(i * 7919 % 100000) / 100.0 AS amount FROM range(3000000) t(i)) "
+                        + "TO '" + data + "' (FORMAT parquet, PARTITION_BY (year, region))");
+            }
+
+            for (String template : QUERIES) {
+                String sql = String.format(template, data);
+                String local = run(PORTS[1], sql);
+                String scattered = run(PORTS[0], sql);
+                System.out.println(scattered);
+                System.out.println(local.equals(scattered) ? "=> identique au nœud seul" : "=> DIFFÉRENT du nœud seul :\n" + local);
+            }
+
+            System.out.println("---- arrêt du nœud " + PORTS[2] + " ----");
+            nodes.get(2).destroy();
+            nodes.get(2).waitFor();
+            System.out.println(run(PORTS[0], String.format(QUERIES[0], data)));
+
+            System.out.println("---- /ui/query/scatter du coordinateur ----");
+            System.out.println(get("http://localhost:" + PORTS[0] + "/ui/query/scatter"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            for (Process node : nodes) {
+                node.destroy();
+            }
+        }
+    }
+
+    private static Process start(String jar, int port, File work, String cluster) throws Exception {
+        ProcessBuilder builder = new ProcessBuilder("java", "--add-opens=java.base/java.nio=ALL-UNNAMED", "-jar", jar,
+                "--server.port=" + port,
+                "--app.init-sql-path=",
+                "--spring.datasource.url=jdbc:duckdb:" + new File(work, "node" + port + ".db").getAbsolutePath());
+        // Cache désactivé pour que chaque exécution passe réellement par les nœuds
+        builder.environment().put("CACHE_TTL_MINUTES", "0");
+        builder.environment().put("PARTITION_SPLIT_MODE", "off");
+        if (cluster != null) {
+            builder.environment().put("SCATTER_NODES", cluster);
+            builder.environment().put("SCATTER_SELF", "http://localhost:" + port);
+        }
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(new File(work, "node" + port + ".log"));
+        return builder.start();
+    }
+
+    private static void waitFor(int port) throws Exception {
+        for (int i = 0; i < 300; i++) {
+            try {
+                get("http://localhost:" + port + "/ui/query/scatter");
+                return;
+            } catch (Exception e) {
+                Thread.sleep(1000);
+            }
+        }
+        throw new IllegalStateException("Nœud " + port + " non démarré");
+    }
+
+    private static Connection connect(int port) throws Exception {
+        return DriverManager.getConnection("jdbc:duckdb://localhost:" + port + "?useEncryption=false");
+    }
+
+    private static String run(int port, String sql) throws Exception {
+        long start = System.currentTimeMillis();
+        StringBuilder out = new StringBuilder();
+        try (Connection conn = connect(port);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            ResultSetMetaData meta = rs.getMetaData();
+            while (rs.next()) {
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    out.append(i > 1 ? " | " : "").append(rs.getObject(i));
+                }
+                out.append('\n');
+            }
+        }
+        System.out.println("Nœud " + port + " : " + (System.currentTimeMillis() - start) + " ms");
+        return out.toString();
+    }
+
+    private static String get(String url) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+
+/**
+ * Réponse depuis un résultat en cache plus large, quand un alias de ce
+ * résultat masque une colonne source : {@code upper(s) AS s} ne doit pas servir
+ * pour la colonne {@code s} d'une requête suivante. Chaque requête est comparée
+ * à la même requête sur un FROM enveloppé, que le cache ne sait pas rapprocher.
+ *
+ * Argument : chemin du jar du serveur (duckdb-rest-server/target/duckdb-rest-server-1.0.0.jar par défaut).
+ */
+public class DuckSubsumptionAliasExample {
+
+    private static final int PORT = 8094;
+    private static final String VIEW = "SELECT upper(s) AS s, id FROM %s";
+    private static final String[] QUERIES = {
+            // s est la colonne source : le cache ne contient que upper(s)
+            "SELECT s FROM %s WHERE id < 3 ORDER BY id",
+            "SELECT id FROM %s WHERE s = 'name1'",
+            // Même expression que l'entrée : répondue depuis le cache
+            "SELECT upper(s) AS s FROM %s WHERE id < 3 ORDER BY id"
+    };
+
+    public static void main(String[] args) {
+        String jar = args.length > 0 ? args[0] : "duckdb-rest-server/target/duckdb-rest-server-1.0.0.jar";
+        Process node = null;
+        try {
+            Class.forName("com.slim.duckdb.DuckDBDriver");
+            File work = Files.createTempDirectory("subsumption").toFile();
+            String file = new File(work, "names.parquet").getAbsolutePath();
+            node = start(jar, work);
+            waitFor();
+
+            String source = "read_parquet('" + file + "')";
+            String wrapped = "(SELECT * FROM " + source + ") AS t";
+            try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
+                stmt.execute("COPY (SELECT i AS id, 'name' || i AS s FROM range(10) t(i)) TO '" + file + "' (FORMAT parquet)");
+            }
+            run(String.format(VIEW, source));
+            // Le fichier Parquet du cache est écrit en arrière-plan
+            Thread.sleep(2000);
+
+            for (String template : QUERIES) {
+                String cached = run(String.format(template, source));
+                String expected = run(String.format(template, wrapped));
+                System.out.println(cached);
+                System.out.println(expected.equals(cached) ? "=> identique à la source" : "=> DIFFÉRENT de la source :\n" + expected);
+            }
+
+            System.out.println("---- /ui/cache/stats ----");
+            System.out.println(get("http://localhost:" + PORT + "/ui/cache/stats"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (node != null) {
+                node.destroy();
+            }
+        }
+    }
+
+    private static Process start(String jar, File work) throws Exception {
+        ProcessBuilder builder = new ProcessBuilder("java", "--add-opens=java.base/java.nio=ALL-UNNAMED", "-jar", new File(jar).getAbsolutePath(),
+                "--server.port=" + PORT,
+                "--app.init-sql-path=",
+                "--spring.datasource.url=jdbc:duckdb:" + new File(work, "node.db").getAbsolutePath());
+        // Tout résultat entre en cache, même rapide
+        builder.environment().put("CACHE_ADMISSION_POLICY", "always");
+        builder.directory(work);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(new File(work, "node.log"));
+        return builder.start();
+    }
+
+    private static void waitFor() throws Exception {
+        for (int i = 0; i < 300; i++) {
+            try {
+                get("http://localhost:" + PORT + "/ui/cache/stats");
+                return;
+            } catch (Exception e) {
+                Thread.sleep(1000);
+            }
+        }
+        throw new IllegalStateException("Serveur " + PORT + " non démarré");
+    }
+
+    private static Connection connect() throws Exception {
+        return DriverManager.getConnection("jdbc:duckdb://localhost:" + PORT + "?useEncryption=false");
+    }
+
+    private static String run(String sql) throws Exception {
+        StringBuilder out = new StringBuilder();
+        try (Connection conn = connect();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            ResultSetMetaData meta = rs.getMetaData();
+            while (rs.next()) {
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    out.append(i > 1 ? " | " : "").append(rs.getObject(i));
+                }
+                out.append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private static String get(String url) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
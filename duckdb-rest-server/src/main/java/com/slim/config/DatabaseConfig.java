@@ -9,11 +9,14 @@ import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 
 import javax.sql.DataSource;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.sql.SQLException;
+import java.util.Properties;
 import java.util.stream.Collectors;
 
 @Configuration
@@ -21,6 +24,13 @@ public class DatabaseConfig {
 
     private static final Logger logger = LoggerFactory.getLogger(DatabaseConfig.class);
 
+    // Suivi d'avancement des requêtes (/jdbc/progress), sans affichage de la barre sur la sortie standard
+    private static final boolean QUERY_PROGRESS_ENABLED = Boolean.parseBoolean(System.getenv().getOrDefault("QUERY_PROGRESS_ENABLED", "true"));
+    private static final String QUERY_PROGRESS_SQL = "SET enable_progress_bar = true; SET enable_progress_bar_print = false;";
+    // Limites de la base partagée, donc du nœud entier (vide : défaut DuckDB)
+    private static final String DUCKDB_MEMORY_LIMIT = System.getenv().getOrDefault("DUCKDB_MEMORY_LIMIT", "");
+    private static final String DUCKDB_THREADS = System.getenv().getOrDefault("DUCKDB_THREADS", "");
+
     // Injection de la propriété depuis application.yml (facultatif)
     @Value("${app.init-sql-path:}")
     private String initSqlPath;
@@ -31,40 +41,69 @@ public class DatabaseConfig {
         return new HikariConfig();
     }
 
-    @Bean
-    public DataSource hikariDataSource(HikariConfig hikariConfig, DataSourceProperties dataSourceProperties) {
-        hikariConfig.setJdbcUrl(dataSourceProperties.getUrl());
-        hikariConfig.setDriverClassName(dataSourceProperties.getDriverClassName());
-        hikariConfig.setUsername(dataSourceProperties.getUsername());
-        hikariConfig.setPassword(dataSourceProperties.getPassword());
-
-        logger.info("HikariConfig - JDBC URL: {}", hikariConfig.getJdbcUrl());
-        logger.info("HikariConfig - Driver Class Name: {}", hikariConfig.getDriverClassName());
-        logger.info("HikariConfig - Username: {}", hikariConfig.getUsername());
-        logger.info("HikariConfig - Maximum Pool Size: {}", hikariConfig.getMaximumPoolSize());
-        logger.info("HikariConfig - Connection Timeout: {}", hikariConfig.getConnectionTimeout());
+    /**
+     * Base DuckDB unique du serveur ; le pool Hikari n'en distribue que des
+     * connexions dupliquées.
+     */
+    @Bean(destroyMethod = "close")
+    public DuckDBDataSource duckDBDataSource(HikariConfig hikariConfig, DataSourceProperties dataSourceProperties) throws SQLException {
+        if (dataSourceProperties.getDriverClassName() != null) {
+            try {
+                Class.forName(dataSourceProperties.getDriverClassName());
+            } catch (ClassNotFoundException e) {
+                throw new SQLException("Driver class not found: " + dataSourceProperties.getDriverClassName(), e);
+            }
+        }
+        // Options de la base : data-source-properties de application.yml, plus les limites du nœud
+        Properties properties = new Properties();
+        properties.putAll(hikariConfig.getDataSourceProperties());
+        if (!DUCKDB_MEMORY_LIMIT.isEmpty()) {
+            properties.setProperty("memory_limit", DUCKDB_MEMORY_LIMIT);
+        }
+        if (!DUCKDB_THREADS.isEmpty()) {
+            properties.setProperty("threads", DUCKDB_THREADS);
+        }
+        DuckDBDataSource duckDBDataSource = new DuckDBDataSource(dataSourceProperties.getUrl(), properties);
 
-        // Charger le script SQL d'initialisation SI le chemin est fourni
+        // Charger le script SQL d'initialisation SI le chemin est fourni ; il n'est exécuté qu'une fois pour toute la base
         if (initSqlPath != null && !initSqlPath.trim().isEmpty()) {
             File initFile = new File(initSqlPath);
             if (!initFile.exists() || !initFile.isFile()) {
                 logger.error("Initialization script not found at path: {}", initSqlPath);
+                duckDBDataSource.close();
                 throw new RuntimeException("Initialization script not found at path: " + initSqlPath);
             }
             try (BufferedReader reader = new BufferedReader(new FileReader(initFile))) {
                 String initSql = reader.lines().collect(Collectors.joining("\n"));
                 logger.info("Initialization script loaded successfully from {}:\n{}", initSqlPath, initSql);
-                hikariConfig.setConnectionInitSql(initSql);
+                duckDBDataSource.runInitSql(initSql);
             } catch (Exception e) {
-                logger.error("Failed to load initialization script from {}", initSqlPath, e);
-                throw new RuntimeException("Failed to load initialization script", e);
+                logger.error("Failed to run initialization script from {}", initSqlPath, e);
+                duckDBDataSource.close();
+                throw new RuntimeException("Failed to run initialization script", e);
             }
         } else {
             logger.info("No initialization script configured (app.init-sql-path is empty or missing).");
         }
+        return duckDBDataSource;
+    }
+
+    @Bean
+    @Primary
+    public DataSource hikariDataSource(HikariConfig hikariConfig, DuckDBDataSource duckDBDataSource) {
+        hikariConfig.setDataSource(duckDBDataSource);
+
+        logger.info("HikariConfig - DuckDB URL: {}", duckDBDataSource.getUrl());
+        logger.info("HikariConfig - Maximum Pool Size: {}", hikariConfig.getMaximumPoolSize());
+        logger.info("HikariConfig - Connection Timeout: {}", hikariConfig.getConnectionTimeout());
+
+        // Réglages de session, propres à chaque connexion : DuckDB refuse enable_progress_bar comme propriété de connexion
+        if (QUERY_PROGRESS_ENABLED) {
+            hikariConfig.setConnectionInitSql(QUERY_PROGRESS_SQL);
+        }
 
         HikariDataSource dataSource = new HikariDataSource(hikariConfig);
         logger.info("HikariDataSource created successfully.");
         return dataSource;
     }
-}
\ No newline at end of file
+}
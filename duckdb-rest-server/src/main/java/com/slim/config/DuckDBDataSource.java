@@ -0,0 +1,112 @@
+package com.slim.config;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.duckdb.DuckDBConnection;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Une seule base DuckDB par serveur : la connexion racine ouvre la base, et
+ * chaque {@link #getConnection()} en renvoie une duplication. Toutes les
+ * connexions du pool partagent ainsi le buffer manager, le pool de threads,
+ * le cache de métadonnées httpfs et l'état créé par le script d'initialisation,
+ * au lieu d'ouvrir chacune sa propre base en mémoire.
+ * <p>
+ * {@code memory_limit} et {@code threads} s'appliquent donc au nœud entier.
+ */
+public class DuckDBDataSource implements DataSource, AutoCloseable {
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(DuckDBDataSource.class);
+
+    private final String url;
+    private final DuckDBConnection root;
+
+    /**
+     * @param properties options DuckDB de la base (memory_limit, threads,
+     *                   jdbc_stream_results...), appliquées une fois à l'ouverture
+     */
+    public DuckDBDataSource(String url, Properties properties) throws SQLException {
+        this.url = url;
+        this.root = DriverManager.getConnection(url, properties).unwrap(DuckDBConnection.class);
+        logger.info("Base DuckDB ouverte : {} (options {}).", url, properties.stringPropertyNames());
+    }
+
+    /**
+     * Exécute le SQL d'initialisation une seule fois, sur la connexion racine.
+     * Les réglages {@code SET} y sont globaux et valent pour toutes les connexions.
+     */
+    public void runInitSql(String sql) throws SQLException {
+        try (Statement stmt = root.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return root.duplicate();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getConnection();
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Ferme la connexion racine ; la base est libérée quand la dernière
+     * connexion dupliquée est fermée à son tour.
+     */
+    @Override
+    public void close() throws SQLException {
+        root.close();
+        logger.info("Base DuckDB fermée : {}.", url);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return 0;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+}
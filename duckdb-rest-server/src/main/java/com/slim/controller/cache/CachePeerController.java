@@ -0,0 +1,83 @@
+package com.slim.controller.cache;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.slim.service.CacheManifest;
+import com.slim.service.PeerCache;
+
+/**
+ * Échanges du cache partagé entre backends ({@link PeerCache}) : un pair lit
+ * ici les résultats dont ce nœud est propriétaire, et y envoie ceux qu'il a
+ * calculés pour lui.
+ */
+@RestController
+@RequestMapping("/cache/peer")
+public class CachePeerController {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachePeerController.class);
+
+    private static final long TTL_MS = Long.parseLong(System.getenv().getOrDefault("CACHE_TTL_MINUTES", "60")) * 60_000L;
+
+    private final PeerCache peerCache;
+    private final CacheManifest manifest;
+
+    public CachePeerController(PeerCache peerCache, CacheManifest manifest) {
+        this.peerCache = peerCache;
+        this.manifest = manifest;
+    }
+
+    /**
+     * Le résultat {@code hash}, en trame {@value PeerCache#MEDIA_TYPE} ; 404
+     * s'il n'est pas dans le cache Parquet de ce nœud.
+     */
+    @GetMapping("/{hash}")
+    public ResponseEntity<StreamingResponseBody> get(@PathVariable String hash,
+                                                     @RequestHeader(value = PeerCache.TOKEN_HEADER, required = false) String token) {
+        if (!peerCache.accepts(token)) {
+            return ResponseEntity.status(403).build();
+        }
+        CacheManifest.Entry entry = peerCache.isEnabled() ? manifest.get(hash, TTL_MS) : null;
+        if (entry == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(PeerCache.MEDIA_TYPE))
+            .body(out -> {
+                if (!peerCache.serve(entry, out)) {
+                    throw new IOException("Fichier de cache disparu : " + entry.getPath());
+                }
+            });
+    }
+
+    @PutMapping("/{hash}")
+    public ResponseEntity<Void> put(@PathVariable String hash, HttpServletRequest request,
+                                    @RequestHeader(value = PeerCache.TOKEN_HEADER, required = false) String token) {
+        if (!peerCache.accepts(token)) {
+            return ResponseEntity.status(403).build();
+        }
+        if (!peerCache.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            peerCache.receive(hash, request.getInputStream(), TTL_MS);
+            return ResponseEntity.noContent().build();
+        } catch (IOException e) {
+            logger.warn("Résultat {} reçu d'un pair illisible : {}", hash, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+    }
+}
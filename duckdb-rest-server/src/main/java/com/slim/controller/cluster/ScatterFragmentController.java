@@ -0,0 +1,44 @@
+package com.slim.controller.cluster;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.slim.dto.ExecuteRequest;
+import com.slim.dto.ExecuteResponse;
+import com.slim.service.QueryRegistry;
+import com.slim.service.QueryService;
+import com.slim.service.ScatterGatherCoordinator;
+
+/**
+ * Fragments d'une requête répartie ({@link ScatterGatherCoordinator}) : le
+ * coordinateur envoie ici la requête réécrite sur une partie des fichiers, et
+ * l'annule via /jdbc/cancel/{queryId} quand il n'en a plus besoin.
+ */
+@RestController
+@RequestMapping("/cluster")
+public class ScatterFragmentController {
+
+    private final QueryService queryService;
+    private final ScatterGatherCoordinator scatterGather;
+
+    public ScatterFragmentController(QueryService queryService, ScatterGatherCoordinator scatterGather) {
+        this.queryService = queryService;
+        this.scatterGather = scatterGather;
+    }
+
+    @PostMapping("/fragment")
+    public ResponseEntity<ExecuteResponse> fragment(@RequestBody ExecuteRequest request,
+                                                    @RequestHeader(value = ScatterGatherCoordinator.TOKEN_HEADER, required = false) String token,
+                                                    @RequestHeader(value = QueryRegistry.QUERY_ID_HEADER, required = false) String queryId,
+                                                    @RequestHeader(value = QueryRegistry.QUERY_TIMEOUT_HEADER, required = false) Long timeoutMs) {
+        if (!scatterGather.accepts(token)) {
+            return ResponseEntity.status(403).build();
+        }
+        ExecuteResponse response = queryService.executeFragment(request, queryId, timeoutMs);
+        return ResponseEntity.status(response.isError() ? 500 : 200).body(response);
+    }
+}
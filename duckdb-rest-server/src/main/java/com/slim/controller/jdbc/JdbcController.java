@@ -3,15 +3,34 @@ package com.slim.controller.jdbc;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.slim.dto.AppendBatch;
+import com.slim.dto.AppenderRequest;
+import com.slim.dto.AppenderResponse;
+import com.slim.dto.ExecuteBatchRequest;
+import com.slim.dto.ExecuteBatchResponse;
 import com.slim.dto.ExecuteRequest;
 import com.slim.dto.ExecuteResponse;
+import com.slim.dto.FetchRequest;
+import com.slim.dto.QueryProgressResponse;
+import com.slim.dto.SessionResponse;
+import com.slim.service.AppenderService;
+import com.slim.service.ArrowResultStream;
+import com.slim.service.BatchService;
+import com.slim.service.QueryRegistry;
 import com.slim.service.QueryService;
+import com.slim.service.SessionService;
 
 
 /**
@@ -26,14 +45,64 @@ public class JdbcController {
 
     private final QueryService queryService;
 
+    private final BatchService batchService;
+
+    private final AppenderService appenderService;
+
+    private final QueryRegistry queryRegistry;
+
+    private final SessionService sessionService;
+
     @Autowired
-    public JdbcController(QueryService queryService) {
+    public JdbcController(QueryService queryService, BatchService batchService, AppenderService appenderService,
+                          QueryRegistry queryRegistry, SessionService sessionService) {
         this.queryService = queryService;
+        this.batchService = batchService;
+        this.appenderService = appenderService;
+        this.queryRegistry = queryRegistry;
+        this.sessionService = sessionService;
     }
 
+    /**
+     * Le driver identifie l'exécution par {@value QueryRegistry#QUERY_ID_HEADER},
+     * pour pouvoir l'annuler via /cancel/{queryId}, et transmet le timeout du
+     * statement dans {@value QueryRegistry#QUERY_TIMEOUT_HEADER}. Avec
+     * {@value SessionService#SESSION_ID_HEADER}, la requête s'exécute sur la
+     * connexion de la session.
+     */
     @PostMapping("/execute")
-    public ResponseEntity<ExecuteResponse> execute(@RequestBody ExecuteRequest request) {
-        ExecuteResponse response = queryService.execute(request);
+    public ResponseEntity<ExecuteResponse> execute(@RequestBody ExecuteRequest request,
+                                                   @RequestHeader(value = SessionService.SESSION_ID_HEADER, required = false) String sessionId,
+                                                   @RequestHeader(value = QueryRegistry.QUERY_ID_HEADER, required = false) String queryId,
+                                                   @RequestHeader(value = QueryRegistry.QUERY_TIMEOUT_HEADER, required = false) Long timeoutMs) {
+        return jsonResponse(request, queryService.execute(request, sessionId, queryId, timeoutMs));
+    }
+
+    /**
+     * Même endpoint, choisi quand le client accepte Arrow IPC. Les DML/DDL et
+     * les erreurs répondent quand même en JSON.
+     */
+    @PostMapping(value = "/execute", produces = ArrowResultStream.MEDIA_TYPE)
+    public ResponseEntity<StreamingResponseBody> executeArrow(@RequestBody ExecuteRequest request,
+                                                              @RequestHeader(value = SessionService.SESSION_ID_HEADER, required = false) String sessionId,
+                                                              @RequestHeader(value = QueryRegistry.QUERY_ID_HEADER, required = false) String queryId,
+                                                              @RequestHeader(value = QueryRegistry.QUERY_TIMEOUT_HEADER, required = false) Long timeoutMs) {
+        ArrowResultStream stream = queryService.executeArrow(request, sessionId, queryId, timeoutMs);
+        if (stream.hasArrowData()) {
+            return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(ArrowResultStream.MEDIA_TYPE))
+                .body(stream);
+        }
+        ExecuteResponse response = stream.getJsonResponse();
+        if (response.isError()) {
+            logger.error("Erreur lors de l'exécution de la requête SQL: {}", response.getErrorMessage());
+        }
+        return ResponseEntity.status(response.isError() ? 500 : 200)
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(stream);
+    }
+
+    private ResponseEntity<ExecuteResponse> jsonResponse(ExecuteRequest request, ExecuteResponse response) {
         if (response.isError()) {
             logger.error("Erreur lors de l'exécution de la requête SQL: {}", response.getErrorMessage());
             return ResponseEntity.status(500).body(response);
@@ -41,4 +110,138 @@ public class JdbcController {
         logger.info("Requête SQL exécutée avec succès: {}", request.getSql());
         return ResponseEntity.ok(response);
     }
+
+    /**
+     * Ouvre une session : une connexion DuckDB réservée, sur laquelle
+     * transactions, SET et tables temporaires persistent d'une requête à l'autre.
+     */
+    @PostMapping("/session")
+    public ResponseEntity<SessionResponse> openSession() {
+        SessionResponse response = sessionService.open();
+        if (response.isError()) {
+            logger.error("Erreur à l'ouverture de la session: {}", response.getErrorMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Ferme la session ; une transaction encore ouverte est annulée.
+     */
+    @DeleteMapping("/session/{sessionId}")
+    public ResponseEntity<Void> closeSession(@PathVariable String sessionId) {
+        boolean closed = sessionService.close(sessionId);
+        return closed ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Interrompt la requête en cours (DuckDB interrupt). Un cancel arrivé avant
+     * la requête elle-même est retenu : 404, mais la requête sera annulée à son arrivée.
+     */
+    @PostMapping("/cancel/{queryId}")
+    public ResponseEntity<Void> cancel(@PathVariable String queryId) {
+        boolean cancelled = queryRegistry.cancel(queryId);
+        return cancelled ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Avancement de la requête en cours, pour {@code getQueryProgress()} côté driver.
+     */
+    @GetMapping("/progress/{queryId}")
+    public ResponseEntity<QueryProgressResponse> progress(@PathVariable String queryId) {
+        QueryProgressResponse progress = queryRegistry.progress(queryId);
+        return progress != null ? ResponseEntity.ok(progress) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * executeBatch JDBC en un seul appel : SQL une fois, paramètres en colonnes,
+     * le tout dans une transaction.
+     */
+    @PostMapping("/executeBatch")
+    public ResponseEntity<ExecuteBatchResponse> executeBatch(@RequestBody ExecuteBatchRequest request,
+                                                             @RequestHeader(value = SessionService.SESSION_ID_HEADER, required = false) String sessionId) {
+        ExecuteBatchResponse response = batchService.executeBatch(request, sessionId);
+        if (response.isError()) {
+            logger.error("Erreur lors de l'exécution du batch: {}", response.getErrorMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Ouvre un Appender DuckDB sur la table, alimenté ensuite par des lots
+     * binaires ({@link AppendBatch}) sur /appender/{appenderId}/append.
+     */
+    @PostMapping("/appender")
+    public ResponseEntity<AppenderResponse> openAppender(@RequestBody AppenderRequest request) {
+        return appenderResponse(appenderService.open(request));
+    }
+
+    /**
+     * 503 avec Retry-After quand l'appender n'a pas fini d'écrire les lots
+     * précédents : le driver attend puis renvoie le même lot.
+     */
+    @PostMapping(value = "/appender/{appenderId}/append", consumes = AppendBatch.MEDIA_TYPE)
+    public ResponseEntity<AppenderResponse> append(@PathVariable String appenderId, @RequestBody byte[] body) {
+        AppenderResponse response = appenderService.append(appenderId, body);
+        if (response.isBusy()) {
+            return ResponseEntity.status(503).header("Retry-After", "1").body(response);
+        }
+        return appenderResponse(response);
+    }
+
+    @PostMapping("/appender/{appenderId}/flush")
+    public ResponseEntity<AppenderResponse> flushAppender(@PathVariable String appenderId) {
+        return appenderResponse(appenderService.flush(appenderId));
+    }
+
+    @DeleteMapping("/appender/{appenderId}")
+    public ResponseEntity<AppenderResponse> closeAppender(@PathVariable String appenderId) {
+        return appenderResponse(appenderService.close(appenderId));
+    }
+
+    private ResponseEntity<AppenderResponse> appenderResponse(AppenderResponse response) {
+        if (response.isError()) {
+            logger.error("Erreur de l'appender: {}", response.getErrorMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Prépare la requête sans l'exécuter : métadonnées du résultat et des
+     * paramètres, plus un statementId à passer aux appels /execute suivants.
+     */
+    @PostMapping("/prepare")
+    public ResponseEntity<ExecuteResponse> prepare(@RequestBody ExecuteRequest request,
+                                                   @RequestHeader(value = SessionService.SESSION_ID_HEADER, required = false) String sessionId) {
+        ExecuteResponse response = queryService.prepare(request, sessionId);
+        if (response.isError()) {
+            logger.error("Erreur lors de la préparation de la requête SQL: {}", response.getErrorMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+        return ResponseEntity.ok(response);
+    }
+
+    @DeleteMapping("/statement/{statementId}")
+    public ResponseEntity<Void> closeStatement(@PathVariable String statementId) {
+        boolean closed = queryService.closeStatement(statementId);
+        return closed ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    @PostMapping("/fetch")
+    public ResponseEntity<ExecuteResponse> fetch(@RequestBody FetchRequest request) {
+        ExecuteResponse response = queryService.fetch(request);
+        if (response.isError()) {
+            logger.error("Erreur lors du fetch du curseur {}: {}", request.getCursorId(), response.getErrorMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+        return ResponseEntity.ok(response);
+    }
+
+    @DeleteMapping("/cursor/{cursorId}")
+    public ResponseEntity<Void> closeCursor(@PathVariable String cursorId) {
+        boolean closed = queryService.closeCursor(cursorId);
+        return closed ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
 }
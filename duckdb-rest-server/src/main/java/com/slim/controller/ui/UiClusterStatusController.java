@@ -3,6 +3,15 @@ package com.slim.controller.ui;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.http.ResponseEntity;
 
+import com.slim.service.CacheRevalidator;
+import com.slim.service.CacheService;
+import com.slim.service.ParquetFooterIndex;
+import com.slim.service.PartitionSplitExecutor;
+import com.slim.service.PeerCache;
+import com.slim.service.QueryRewriter;
+import com.slim.service.QueryStats;
+import com.slim.service.ScatterGatherCoordinator;
+
 import java.io.File;
 import java.io.FileWriter;
 import java.lang.management.ManagementFactory;
@@ -10,12 +19,36 @@ import java.lang.management.OperatingSystemMXBean;
 import java.net.InetAddress;
 import java.nio.file.Files;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 @RestController
 @RequestMapping("/ui")
 public class UiClusterStatusController {
 
+    private final CacheService cacheService;
+    private final QueryStats queryStats;
+    private final CacheRevalidator cacheRevalidator;
+    private final PeerCache peerCache;
+    private final PartitionSplitExecutor partitionSplit;
+    private final ScatterGatherCoordinator scatterGather;
+    private final QueryRewriter queryRewriter;
+    private final ParquetFooterIndex footerIndex;
+
+    public UiClusterStatusController(CacheService cacheService, QueryStats queryStats, CacheRevalidator cacheRevalidator,
+                                     PeerCache peerCache, PartitionSplitExecutor partitionSplit,
+                                     ScatterGatherCoordinator scatterGather, QueryRewriter queryRewriter,
+                                     ParquetFooterIndex footerIndex) {
+        this.cacheService = cacheService;
+        this.queryStats = queryStats;
+        this.cacheRevalidator = cacheRevalidator;
+        this.peerCache = peerCache;
+        this.partitionSplit = partitionSplit;
+        this.scatterGather = scatterGather;
+        this.queryRewriter = queryRewriter;
+        this.footerIndex = footerIndex;
+    }
+
     @GetMapping("/status")
     public ResponseEntity<?> getStatus() {
         try {
@@ -58,6 +91,70 @@ public class UiClusterStatusController {
         }
     }
 
+    @GetMapping("/cache/stats")
+    public Map<String, Object> cacheStats() {
+        Map<String, Object> stats = cacheService.stats();
+        stats.put("revalidation", cacheRevalidator.stats());
+        return stats;
+    }
+
+    /**
+     * Retire du cache les résultats qui lisent des fichiers sous {@code prefix},
+     * par exemple après le rechargement d'une partition. L'invalidation est
+     * transmise aux autres nœuds du cache partagé, sauf avec {@code propagate=false}.
+     */
+    @PostMapping("/cache/invalidate")
+    public ResponseEntity<?> invalidateCache(@RequestParam String prefix,
+                                             @RequestParam(defaultValue = "true") boolean propagate) {
+        if (prefix.trim().isEmpty()) {
+            return ResponseEntity.badRequest().body(new HashMap<String, Object>() {{
+                put("error", "prefix is required");
+            }});
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("prefix", prefix);
+        result.put("invalidated", cacheService.invalidatePrefix(prefix));
+        if (propagate) {
+            result.put("peers", peerCache.broadcastInvalidate(prefix));
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * Revalide tout de suite les résultats en cache contre leurs fichiers sources.
+     */
+    @PostMapping("/cache/revalidate")
+    public Map<String, Object> revalidateCache() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("invalidated", cacheRevalidator.revalidate());
+        return result;
+    }
+
+    @GetMapping("/query/stats")
+    public List<Map<String, Object>> queryStats(@RequestParam(defaultValue = "50") int limit) {
+        return queryStats.top(limit);
+    }
+
+    @GetMapping("/query/split")
+    public Map<String, Object> partitionSplit() {
+        return partitionSplit.stats();
+    }
+
+    @GetMapping("/query/scatter")
+    public Map<String, Object> scatterGather() {
+        return scatterGather.stats();
+    }
+
+    @GetMapping("/query/rewrites")
+    public Map<String, Object> queryRewrites() {
+        return queryRewriter.stats();
+    }
+
+    @GetMapping("/query/footers")
+    public Map<String, Object> queryFooters() {
+        return footerIndex.stats();
+    }
+
     @GetMapping("/live")
     public Map<String, Object> livenessCheck() {
         return new HashMap<String, Object>() {{
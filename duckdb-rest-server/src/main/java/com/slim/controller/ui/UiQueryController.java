@@ -5,6 +5,13 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+
+import com.slim.service.CacheAdmission;
+import com.slim.service.ParquetFooterIndex;
+import com.slim.service.QueryFingerprint;
+import com.slim.service.QueryRewriter;
+import com.slim.service.QueryStats;
+
 import javax.sql.DataSource;
 import java.io.File;
 import java.math.BigDecimal;
@@ -12,7 +19,6 @@ import java.nio.file.Files;
 import java.sql.*;
 import java.time.*;
 import java.util.*;
-import java.util.regex.Pattern;
 
 @RestController
 @RequestMapping("/ui")
@@ -23,6 +29,21 @@ public class UiQueryController {
     @Autowired
     private DataSource dataSource;
 
+    @Autowired
+    private CacheAdmission cacheAdmission;
+
+    @Autowired
+    private QueryFingerprint fingerprint;
+
+    @Autowired
+    private QueryStats queryStats;
+
+    @Autowired
+    private QueryRewriter queryRewriter;
+
+    @Autowired
+    private ParquetFooterIndex footerIndex;
+
     @PostMapping("/query")
     public ResponseEntity<?> executeQuery(@RequestBody Map<String, Object> req) {
         String query = ((String) req.get("query")).trim().replaceAll(";$", "");
@@ -52,12 +73,18 @@ public class UiQueryController {
                 }
             }
 
-            // Ajout LIMIT si SELECT sans LIMIT
-            if (Pattern.compile("(?i)^select\\b").matcher(query).find() &&
-                !Pattern.compile("(?i)\\blimit\\b").matcher(query).find()) {
-                query += " LIMIT " + maxRows;
+            // Ajout LIMIT si requête sans LIMIT
+            String limited = queryRewriter.limit(query, maxRows);
+            if (!limited.equals(query)) {
+                query = limited;
                 logger.info("Appended LIMIT {}", maxRows);
             }
+            // Texte exécuté : réponse lue dans les pieds Parquet (sauf profiling), sinon requête réécrite ;
+            // le cache reste indexé sur la requête de la console
+            String executed = profiling ? null : footerIndex.answer(con, query);
+            if (executed == null) {
+                executed = queryRewriter.rewrite(con, query);
+            }
 
             // Profiling
             if (profiling) {
@@ -67,7 +94,7 @@ public class UiQueryController {
                     st.execute("SET profiling_output = '" + profilePath + "'");
                     File f = new File(profilePath);
                     if (f.exists()) f.delete();
-                    st.execute(query);
+                    st.execute(executed);
                     long waitStart = System.currentTimeMillis();
                     while (!f.exists()) {
                         if (System.currentTimeMillis() - waitStart > 2000)
@@ -94,6 +121,8 @@ public class UiQueryController {
                 rows = tryReadCache(con, query, columns);
                 if (rows != null) {
                     logger.info("Cache hit for query.");
+                    cacheAdmission.hit(query);
+                    queryStats.recordCacheHit(fingerprint.fingerprint(query), query);
                     double execTime = (System.currentTimeMillis() - startTime) / 1000.0;
                     Map<String, Object> resp = new HashMap<>();
                     resp.put("columns", columns);
@@ -108,7 +137,7 @@ public class UiQueryController {
 
             // Exécution SQL
             logger.info("Executing SQL query...");
-            try (PreparedStatement stmt = con.prepareStatement(query)) {
+            try (PreparedStatement stmt = con.prepareStatement(executed)) {
                 boolean hasResultSet = stmt.execute();
                 columns = new ArrayList<>();
                 rows = new ArrayList<>();
@@ -125,11 +154,14 @@ public class UiQueryController {
                     }
                 }
             }
-            double execTime = (System.currentTimeMillis() - startTime) / 1000.0;
-            logger.info("Returned {} rows in {} seconds", rows != null ? rows.size() : 0, execTime);
-            // Cache si lent
-            if (execTime > 0.005) {
-                logger.info("Query duration > 0.5s, caching result...");
+            long execMs = System.currentTimeMillis() - startTime;
+            double execTime = execMs / 1000.0;
+            logger.info("Returned {} rows in {} seconds", rows.size(), execTime);
+            // Cache si la politique d'admission l'accepte (durée, taille, réutilisation)
+            long resultBytes = CacheAdmission.estimateBytes(rows);
+            queryStats.recordExecution(fingerprint.fingerprint(query), query, execMs, rows.size(), resultBytes);
+            if (shouldUseCache(query) && cacheAdmission.admit(query, execMs, resultBytes)) {
+                logger.info("Query admitted to the cache ({} ms, ~{} bytes), caching result...", execMs, resultBytes);
                 performCache(con, query);
             }
 
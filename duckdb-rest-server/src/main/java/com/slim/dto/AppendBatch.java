@@ -0,0 +1,477 @@
+package com.slim.dto;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Lot de lignes envoyé à /jdbc/appender/{id}/append, stocké en colonnes et
+ * sérialisé dans un format binaire compact (big-endian) :
+ * <pre>
+ * int version, int rowCount, int columnCount
+ * pour chaque colonne : byte type, byte hasNulls, [bitmap des NULL], valeurs non nulles
+ * </pre>
+ * Chaque type correspond à une méthode append de l'Appender DuckDB, qui se
+ * charge de la conversion vers le type de la colonne. Une colonne qui reçoit
+ * des valeurs de types différents dans un même lot est élargie (entiers vers
+ * BIGINT, numériques vers DOUBLE) ou, à défaut, passée en VARCHAR.
+ */
+public class AppendBatch {
+
+    public static final String MEDIA_TYPE = "application/vnd.duckdb.append-batch";
+
+    private static final int VERSION = 1;
+
+    public static final byte NULL = 0;
+    public static final byte BOOLEAN = 1;
+    public static final byte TINYINT = 2;
+    public static final byte SMALLINT = 3;
+    public static final byte INTEGER = 4;
+    public static final byte BIGINT = 5;
+    public static final byte FLOAT = 6;
+    public static final byte DOUBLE = 7;
+    public static final byte VARCHAR = 8;
+    public static final byte BLOB = 9;
+    public static final byte TIMESTAMP = 10;
+    public static final byte DECIMAL = 11;
+
+    private final Column[] columns;
+    private final int capacity;
+    private int rowCount;
+
+    public AppendBatch(int columnCount, int capacity) {
+        this.capacity = capacity;
+        this.columns = new Column[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columns[i] = new Column(capacity);
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public boolean isFull() {
+        return rowCount >= capacity;
+    }
+
+    /**
+     * Valide la ligne en cours : les valeurs posées par les appels set* sur
+     * l'index {@link #getRowCount()} en font désormais partie.
+     */
+    public void endRow() {
+        rowCount++;
+    }
+
+    public void clear() {
+        rowCount = 0;
+        for (Column column : columns) {
+            column.clear();
+        }
+    }
+
+    public void setNull(int col) {
+        columns[col].nulls[rowCount] = true;
+        columns[col].hasNulls = true;
+    }
+
+    public void setBoolean(int col, boolean value) throws SQLException {
+        columns[col].setLong(rowCount, BOOLEAN, value ? 1 : 0);
+    }
+
+    public void setLong(int col, byte type, long value) throws SQLException {
+        columns[col].setLong(rowCount, type, value);
+    }
+
+    public void setDouble(int col, byte type, double value) throws SQLException {
+        columns[col].setDouble(rowCount, type, value);
+    }
+
+    public void setTimestamp(int col, long micros) throws SQLException {
+        columns[col].setLong(rowCount, TIMESTAMP, micros);
+    }
+
+    public void setString(int col, byte[] utf8) throws SQLException {
+        columns[col].setObject(rowCount, VARCHAR, utf8);
+    }
+
+    public void setBytes(int col, byte[] value) throws SQLException {
+        columns[col].setObject(rowCount, BLOB, value);
+    }
+
+    public void setDecimal(int col, BigDecimal value) throws SQLException {
+        columns[col].setObject(rowCount, DECIMAL, value);
+    }
+
+    public byte getType(int col) {
+        return columns[col].type;
+    }
+
+    public boolean isNull(int col, int row) {
+        return columns[col].nulls[row] || columns[col].type == NULL;
+    }
+
+    public long getLong(int col, int row) {
+        return columns[col].longs[row];
+    }
+
+    public double getDouble(int col, int row) {
+        return columns[col].doubles[row];
+    }
+
+    /**
+     * @return la valeur d'une colonne VARCHAR, BLOB (byte[]) ou DECIMAL (BigDecimal)
+     */
+    public Object getObject(int col, int row) {
+        return columns[col].objects[row];
+    }
+
+    public static LocalDateTime microsToLocalDateTime(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                                           (int) Math.floorMod(micros, 1_000_000L) * 1000, ZoneOffset.UTC);
+    }
+
+    public byte[] encode() {
+        int size = 12;
+        for (Column column : columns) {
+            size += column.encodedSize(rowCount);
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(VERSION).putInt(rowCount).putInt(columns.length);
+        for (Column column : columns) {
+            column.encode(out, rowCount);
+        }
+        return out.array();
+    }
+
+    public static AppendBatch decode(byte[] body) throws SQLException {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(body);
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new SQLException("Unsupported append batch version: " + version);
+            }
+            int rows = in.getInt();
+            AppendBatch batch = new AppendBatch(in.getInt(), rows);
+            for (Column column : batch.columns) {
+                column.decode(in, rows);
+            }
+            batch.rowCount = rows;
+            return batch;
+        } catch (RuntimeException e) {
+            throw new SQLException("Malformed append batch", e);
+        }
+    }
+
+    private static boolean isIntegral(byte type) {
+        return type >= TINYINT && type <= BIGINT;
+    }
+
+    private static boolean isNumeric(byte type) {
+        return type >= TINYINT && type <= DOUBLE;
+    }
+
+    private static int fixedWidth(byte type) {
+        switch (type) {
+            case BOOLEAN:
+            case TINYINT:
+                return 1;
+            case SMALLINT:
+                return 2;
+            case INTEGER:
+            case FLOAT:
+                return 4;
+            case BIGINT:
+            case DOUBLE:
+            case TIMESTAMP:
+                return 8;
+            default:
+                return -1;
+        }
+    }
+
+    private static final class Column {
+        byte type = NULL;
+        boolean hasNulls;
+        final boolean[] nulls;
+        long[] longs;
+        double[] doubles;
+        Object[] objects;
+
+        Column(int capacity) {
+            this.nulls = new boolean[capacity];
+        }
+
+        void clear() {
+            if (hasNulls) {
+                Arrays.fill(nulls, false);
+            }
+            hasNulls = false;
+            type = NULL;
+        }
+
+        void setLong(int row, byte valueType, long value) throws SQLException {
+            clearNull(row);
+            if (type != valueType && !(isIntegral(type) && isIntegral(valueType))) {
+                widen(row, valueType);
+            }
+            if (type == DOUBLE || type == FLOAT) {
+                doubles[row] = value;
+            } else if (type == VARCHAR) {
+                objects[row] = text(valueType, value, 0, null);
+            } else {
+                if (isIntegral(type) && valueType > type) {
+                    type = valueType;
+                }
+                longs[row] = value;
+            }
+        }
+
+        void setDouble(int row, byte valueType, double value) throws SQLException {
+            clearNull(row);
+            if (type != valueType) {
+                widen(row, valueType);
+            }
+            if (type == VARCHAR) {
+                objects[row] = text(valueType, 0, value, null);
+            } else {
+                doubles[row] = value;
+            }
+        }
+
+        void setObject(int row, byte valueType, Object value) throws SQLException {
+            clearNull(row);
+            if (type != valueType) {
+                widen(row, valueType);
+            }
+            objects[row] = type == VARCHAR && valueType != VARCHAR ? text(valueType, 0, 0, value) : value;
+        }
+
+        // Une ligne abandonnée avant endRow peut avoir laissé un NULL à cet index
+        private void clearNull(int row) {
+            if (hasNulls) {
+                nulls[row] = false;
+            }
+        }
+
+        /**
+         * Adapte la colonne pour accueillir une valeur de type {@code valueType}
+         * en convertissant les {@code row} premières lignes.
+         */
+        private void widen(int row, byte valueType) throws SQLException {
+            if (type == NULL) {
+                type = valueType;
+                allocate(type);
+                return;
+            }
+            if (type == BLOB || valueType == BLOB) {
+                throw new SQLException("Cannot mix BLOB and other value types in the same appender column");
+            }
+            if (isNumeric(type) && isNumeric(valueType)) {
+                if (type == DOUBLE || valueType == DOUBLE || isIntegral(type)) {
+                    if (isIntegral(type)) {
+                        allocate(DOUBLE);
+                        for (int i = 0; i < row; i++) {
+                            doubles[i] = longs[i];
+                        }
+                    }
+                    type = DOUBLE;
+                }
+                return;
+            }
+            if (type != VARCHAR) {
+                byte previous = type;
+                allocate(VARCHAR);
+                for (int i = 0; i < row; i++) {
+                    if (!nulls[i]) {
+                        objects[i] = text(previous, longs == null ? 0 : longs[i], doubles == null ? 0 : doubles[i], objects[i]);
+                    }
+                }
+                type = VARCHAR;
+            }
+        }
+
+        private void allocate(byte forType) {
+            int capacity = nulls.length;
+            if (forType == FLOAT || forType == DOUBLE) {
+                if (doubles == null) {
+                    doubles = new double[capacity];
+                }
+            } else if (forType == VARCHAR || forType == BLOB || forType == DECIMAL) {
+                if (objects == null) {
+                    objects = new Object[capacity];
+                }
+            } else if (longs == null) {
+                longs = new long[capacity];
+            }
+        }
+
+        // Texte UTF-8 d'une valeur, que DuckDB convertira vers le type de la colonne
+        private static byte[] text(byte valueType, long longValue, double doubleValue, Object objectValue) {
+            String text;
+            switch (valueType) {
+                case BOOLEAN:
+                    text = longValue != 0 ? "true" : "false";
+                    break;
+                case FLOAT:
+                    text = Float.toString((float) doubleValue);
+                    break;
+                case DOUBLE:
+                    text = Double.toString(doubleValue);
+                    break;
+                case TIMESTAMP:
+                    text = microsToLocalDateTime(longValue).toString();
+                    break;
+                case DECIMAL:
+                    text = ((BigDecimal) objectValue).toPlainString();
+                    break;
+                case VARCHAR:
+                    return (byte[]) objectValue;
+                default:
+                    text = Long.toString(longValue);
+                    break;
+            }
+            return text.getBytes(StandardCharsets.UTF_8);
+        }
+
+        int encodedSize(int rows) {
+            int size = 2 + (hasNulls ? (rows + 7) / 8 : 0);
+            int width = fixedWidth(type);
+            if (type == NULL) {
+                return size;
+            }
+            for (int i = 0; i < rows; i++) {
+                if (nulls[i]) {
+                    continue;
+                }
+                if (width > 0) {
+                    size += width;
+                } else if (type == DECIMAL) {
+                    size += 8 + ((BigDecimal) objects[i]).unscaledValue().bitLength() / 8 + 1;
+                } else {
+                    size += 4 + ((byte[]) objects[i]).length;
+                }
+            }
+            return size;
+        }
+
+        void encode(ByteBuffer out, int rows) {
+            out.put(type).put((byte) (hasNulls ? 1 : 0));
+            if (hasNulls) {
+                for (int i = 0; i < rows; i += 8) {
+                    int bits = 0;
+                    for (int j = i; j < Math.min(i + 8, rows); j++) {
+                        bits |= (nulls[j] ? 1 : 0) << (j - i);
+                    }
+                    out.put((byte) bits);
+                }
+            }
+            if (type == NULL) {
+                return;
+            }
+            for (int i = 0; i < rows; i++) {
+                if (nulls[i]) {
+                    continue;
+                }
+                switch (type) {
+                    case BOOLEAN:
+                    case TINYINT:
+                        out.put((byte) longs[i]);
+                        break;
+                    case SMALLINT:
+                        out.putShort((short) longs[i]);
+                        break;
+                    case INTEGER:
+                        out.putInt((int) longs[i]);
+                        break;
+                    case BIGINT:
+                    case TIMESTAMP:
+                        out.putLong(longs[i]);
+                        break;
+                    case FLOAT:
+                        out.putFloat((float) doubles[i]);
+                        break;
+                    case DOUBLE:
+                        out.putDouble(doubles[i]);
+                        break;
+                    case DECIMAL:
+                        BigDecimal decimal = (BigDecimal) objects[i];
+                        byte[] unscaled = decimal.unscaledValue().toByteArray();
+                        out.putInt(decimal.scale()).putInt(unscaled.length).put(unscaled);
+                        break;
+                    default:
+                        byte[] bytes = (byte[]) objects[i];
+                        out.putInt(bytes.length).put(bytes);
+                        break;
+                }
+            }
+        }
+
+        void decode(ByteBuffer in, int rows) {
+            type = in.get();
+            hasNulls = in.get() != 0;
+            if (hasNulls) {
+                for (int i = 0; i < rows; i += 8) {
+                    int bits = in.get();
+                    for (int j = i; j < Math.min(i + 8, rows); j++) {
+                        nulls[j] = (bits & (1 << (j - i))) != 0;
+                    }
+                }
+            }
+            if (type == NULL) {
+                return;
+            }
+            allocate(type);
+            for (int i = 0; i < rows; i++) {
+                if (nulls[i]) {
+                    continue;
+                }
+                switch (type) {
+                    case BOOLEAN:
+                    case TINYINT:
+                        longs[i] = in.get();
+                        break;
+                    case SMALLINT:
+                        longs[i] = in.getShort();
+                        break;
+                    case INTEGER:
+                        longs[i] = in.getInt();
+                        break;
+                    case BIGINT:
+                    case TIMESTAMP:
+                        longs[i] = in.getLong();
+                        break;
+                    case FLOAT:
+                        doubles[i] = in.getFloat();
+                        break;
+                    case DOUBLE:
+                        doubles[i] = in.getDouble();
+                        break;
+                    case DECIMAL:
+                        int scale = in.getInt();
+                        byte[] unscaled = new byte[in.getInt()];
+                        in.get(unscaled);
+                        objects[i] = new BigDecimal(new BigInteger(unscaled), scale);
+                        break;
+                    case VARCHAR:
+                    case BLOB:
+                        byte[] bytes = new byte[in.getInt()];
+                        in.get(bytes);
+                        objects[i] = bytes;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown append value type: " + type);
+                }
+            }
+        }
+    }
+}
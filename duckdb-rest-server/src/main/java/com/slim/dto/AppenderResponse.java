@@ -0,0 +1,70 @@
+package com.slim.dto;
+
+public class AppenderResponse {
+    private String appenderId;
+    private int columnCount;
+    // Lignes reçues (append) ou écrites dans la table (flush, close)
+    private long rowCount;
+    // Lot refusé parce que le serveur n'a pas fini d'écrire les précédents
+    private boolean busy = false;
+    private boolean error = false;
+    private String errorMessage = null;
+
+    public AppenderResponse(String appenderId, int columnCount, long rowCount) {
+        this.appenderId = appenderId;
+        this.columnCount = columnCount;
+        this.rowCount = rowCount;
+    }
+
+    public AppenderResponse(String errorMessage) {
+        this.error = true;
+        this.errorMessage = errorMessage;
+    }
+
+    public AppenderResponse() {
+        // Default constructor for deserialization
+    }
+
+    public static AppenderResponse busy(String appenderId) {
+        AppenderResponse response = new AppenderResponse();
+        response.appenderId = appenderId;
+        response.busy = true;
+        return response;
+    }
+
+    public String getAppenderId() {
+        return appenderId;
+    }
+
+    public void setAppenderId(String appenderId) {
+        this.appenderId = appenderId;
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    public void setColumnCount(int columnCount) {
+        this.columnCount = columnCount;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public void setRowCount(long rowCount) {
+        this.rowCount = rowCount;
+    }
+
+    public boolean isBusy() {
+        return busy;
+    }
+
+    public boolean isError() {
+        return error;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+}
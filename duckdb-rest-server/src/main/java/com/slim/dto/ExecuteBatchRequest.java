@@ -0,0 +1,59 @@
+package com.slim.dto;
+
+import java.util.List;
+
+public class ExecuteBatchRequest {
+    // Statement préparé exécuté une fois par jeu de paramètres
+    private String sql;
+    // Paramètres en colonnes : columns[i][row] = valeur du paramètre i+1 pour la ligne row
+    private Object[][] columns;
+    private int rowCount;
+    // Batch hétérogène (Statement.addBatch(String)), exclusif de sql
+    private List<String> statements;
+
+    public ExecuteBatchRequest() {
+        // Constructeur par défaut pour la désérialisation
+    }
+
+    public ExecuteBatchRequest(String sql, Object[][] columns, int rowCount) {
+        this.sql = sql;
+        this.columns = columns;
+        this.rowCount = rowCount;
+    }
+
+    public ExecuteBatchRequest(List<String> statements) {
+        this.statements = statements;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public void setSql(String sql) {
+        this.sql = sql;
+    }
+
+    public Object[][] getColumns() {
+        return columns;
+    }
+
+    public void setColumns(Object[][] columns) {
+        this.columns = columns;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public void setRowCount(int rowCount) {
+        this.rowCount = rowCount;
+    }
+
+    public List<String> getStatements() {
+        return statements;
+    }
+
+    public void setStatements(List<String> statements) {
+        this.statements = statements;
+    }
+}
@@ -0,0 +1,36 @@
+package com.slim.dto;
+
+public class ExecuteBatchResponse {
+    private long[] updateCounts;
+    private boolean error = false;
+    private String errorMessage = null;
+
+    public ExecuteBatchResponse(long[] updateCounts) {
+        this.updateCounts = updateCounts;
+    }
+
+    public ExecuteBatchResponse(String errorMessage) {
+        this.error = true;
+        this.errorMessage = errorMessage;
+    }
+
+    public ExecuteBatchResponse() {
+        // Default constructor for deserialization
+    }
+
+    public long[] getUpdateCounts() {
+        return updateCounts;
+    }
+
+    public void setUpdateCounts(long[] updateCounts) {
+        this.updateCounts = updateCounts;
+    }
+
+    public boolean isError() {
+        return error;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+}
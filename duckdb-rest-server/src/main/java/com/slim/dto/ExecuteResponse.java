@@ -8,6 +8,11 @@ public class ExecuteResponse {
     private List<List<Object>> data;
     private boolean error = false;
     private String errorMessage = null;
+    // Curseur serveur ouvert quand le résultat est découpé en chunks
+    private String cursorId = null;
+    private boolean hasMore = false;
+    // Identifiant renvoyé par /jdbc/prepare
+    private String statementId = null;
 
     public ExecuteResponse(ExecuteDuckDBResultSetMetaData metadata, List<List<Object>> data) {
         this.metadata = metadata;
@@ -48,5 +53,29 @@ public class ExecuteResponse {
         return error;
     }
 
+    public String getCursorId() {
+        return cursorId;
+    }
+
+    public void setCursorId(String cursorId) {
+        this.cursorId = cursorId;
+    }
+
+    public boolean isHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+
+    public String getStatementId() {
+        return statementId;
+    }
+
+    public void setStatementId(String statementId) {
+        this.statementId = statementId;
+    }
+
 
 }
@@ -0,0 +1,41 @@
+package com.slim.dto;
+
+public class SessionResponse {
+    private String sessionId;
+    private boolean error = false;
+    private String errorMessage = null;
+
+    public SessionResponse(String sessionId, boolean error, String errorMessage) {
+        this.sessionId = sessionId;
+        this.error = error;
+        this.errorMessage = errorMessage;
+    }
+
+    public SessionResponse() {
+        // Default constructor for deserialization
+    }
+
+    public static SessionResponse opened(String sessionId) {
+        return new SessionResponse(sessionId, false, null);
+    }
+
+    public static SessionResponse error(String errorMessage) {
+        return new SessionResponse(null, true, errorMessage);
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public boolean isError() {
+        return error;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+}
@@ -0,0 +1,343 @@
+package com.slim.service;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import org.duckdb.DuckDBAppender;
+import org.duckdb.DuckDBConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.slim.dto.AppendBatch;
+import com.slim.dto.AppenderRequest;
+import com.slim.dto.AppenderResponse;
+
+/**
+ * Appenders distants : le driver envoie des lots de lignes en colonnes, écrits
+ * dans la table par un {@link DuckDBAppender} natif sur une connexion dédiée
+ * (dupliquée depuis le pool, elle n'en occupe pas une place).
+ * <p>
+ * Chaque appender a son thread d'écriture et une file bornée de
+ * {@code APPENDER_QUEUE_BATCHES} lots : le décodage d'un lot se fait pendant
+ * que le précédent est écrit, et quand la file est pleine la requête attend
+ * au plus {@code APPENDER_OFFER_TIMEOUT_MS} avant d'être refusée (503), ce qui
+ * ralentit le producteur au rythme de l'écriture.
+ */
+@Service
+public class AppenderService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AppenderService.class);
+
+    public static final String UNKNOWN_APPENDER = "Unknown or expired appender: ";
+
+    private static final int MAX_APPENDERS = Integer.parseInt(System.getenv().getOrDefault("APPENDER_MAX_OPEN", "16"));
+    private static final int QUEUE_BATCHES = Integer.parseInt(System.getenv().getOrDefault("APPENDER_QUEUE_BATCHES", "4"));
+    private static final long OFFER_TIMEOUT_MS = Long.parseLong(System.getenv().getOrDefault("APPENDER_OFFER_TIMEOUT_MS", "2000"));
+    private static final long IDLE_TIMEOUT_MS = Long.parseLong(System.getenv().getOrDefault("APPENDER_IDLE_TIMEOUT_SECONDS", "600")) * 1000L;
+
+    private final DataSource dataSource;
+    private final Map<String, AppenderSession> appenders = new ConcurrentHashMap<>();
+
+    public AppenderService(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public AppenderResponse open(AppenderRequest request) {
+        if (appenders.size() >= MAX_APPENDERS) {
+            return new AppenderResponse("Too many open appenders (" + MAX_APPENDERS + "), close appenders or raise APPENDER_MAX_OPEN");
+        }
+        String schema = request.getSchema() == null ? DuckDBConnection.DEFAULT_SCHEMA : request.getSchema();
+        Connection connection = null;
+        try {
+            int columnCount;
+            try (Connection pooled = dataSource.getConnection()) {
+                // Requête sur la connexion du pool : avec jdbc_stream_results, une requête sur la
+                // connexion dédiée y laisserait une transaction ouverte que l'Appender rejoindrait
+                columnCount = columnCount(pooled, schema, request.getTable());
+                if (columnCount == 0) {
+                    throw new SQLException("Table not found: " + schema + "." + request.getTable());
+                }
+                connection = pooled.unwrap(DuckDBConnection.class).duplicate();
+            }
+            DuckDBAppender appender = connection.unwrap(DuckDBConnection.class).createAppender(schema, request.getTable());
+
+            String appenderId = UUID.randomUUID().toString();
+            appenders.put(appenderId, new AppenderSession(appenderId, connection, appender, columnCount));
+            logger.info("Appender {} ouvert sur {}.{} ({} colonnes).", appenderId, schema, request.getTable(), columnCount);
+            return new AppenderResponse(appenderId, columnCount, 0);
+        } catch (SQLException e) {
+            logger.error("[AppenderService] Ouverture en échec: {}", e.getMessage());
+            closeQuietly(connection);
+            return new AppenderResponse(e.getMessage());
+        }
+    }
+
+    /**
+     * Met le lot en file d'écriture. Renvoie une réponse {@code busy} si la
+     * file est restée pleine pendant {@code APPENDER_OFFER_TIMEOUT_MS}.
+     */
+    public AppenderResponse append(String appenderId, byte[] body) {
+        AppenderSession session = appenders.get(appenderId);
+        if (session == null) {
+            return new AppenderResponse(UNKNOWN_APPENDER + appenderId);
+        }
+        session.lastAccess = System.currentTimeMillis();
+        if (session.failure != null) {
+            return new AppenderResponse(session.failure.getMessage());
+        }
+        try {
+            AppendBatch batch = AppendBatch.decode(body);
+            if (batch.getColumnCount() != session.columnCount) {
+                return new AppenderResponse("Append batch has " + batch.getColumnCount() + " columns, table has " + session.columnCount);
+            }
+            if (!session.slots.tryAcquire(OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                logger.debug("Appender {} saturé, lot de {} lignes refusé.", appenderId, batch.getRowCount());
+                return AppenderResponse.busy(appenderId);
+            }
+            try {
+                session.worker.execute(() -> session.write(batch));
+            } catch (RejectedExecutionException e) {
+                session.slots.release();
+                return new AppenderResponse(UNKNOWN_APPENDER + appenderId);
+            }
+            return new AppenderResponse(appenderId, session.columnCount, session.receivedRows.addAndGet(batch.getRowCount()));
+        } catch (SQLException e) {
+            return new AppenderResponse(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new AppenderResponse("Interrupted while waiting for appender " + appenderId);
+        }
+    }
+
+    /**
+     * Attend l'écriture des lots en file puis vide l'Appender : les lignes
+     * reçues jusque-là sont visibles dans la table.
+     */
+    public AppenderResponse flush(String appenderId) {
+        AppenderSession session = appenders.get(appenderId);
+        if (session == null) {
+            return new AppenderResponse(UNKNOWN_APPENDER + appenderId);
+        }
+        session.lastAccess = System.currentTimeMillis();
+        try {
+            return new AppenderResponse(appenderId, session.columnCount, session.submit(false));
+        } catch (SQLException e) {
+            logger.error("[AppenderService] Flush de l'appender {} en échec: {}", appenderId, e.getMessage());
+            return new AppenderResponse(e.getMessage());
+        }
+    }
+
+    /**
+     * Écrit les lots en file, ferme l'Appender (ce qui le vide) et sa connexion.
+     */
+    public AppenderResponse close(String appenderId) {
+        AppenderSession session = appenders.remove(appenderId);
+        if (session == null) {
+            return new AppenderResponse(UNKNOWN_APPENDER + appenderId);
+        }
+        try {
+            long rows = session.submit(true);
+            logger.info("Appender {} fermé, {} lignes écrites.", appenderId, rows);
+            return new AppenderResponse(appenderId, session.columnCount, rows);
+        } catch (SQLException e) {
+            logger.error("[AppenderService] Fermeture de l'appender {} en échec: {}", appenderId, e.getMessage());
+            return new AppenderResponse(e.getMessage());
+        } finally {
+            session.worker.shutdown();
+            closeQuietly(session.connection);
+        }
+    }
+
+    public int openAppenderCount() {
+        return appenders.size();
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdleAppenders() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, AppenderSession>> it = appenders.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, AppenderSession> entry = it.next();
+            if (now - entry.getValue().lastAccess > IDLE_TIMEOUT_MS) {
+                logger.warn("Appender {} inactif depuis plus de {} ms, fermeture.", entry.getKey(), IDLE_TIMEOUT_MS);
+                close(entry.getKey());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        for (String appenderId : new ArrayList<>(appenders.keySet())) {
+            close(appenderId);
+        }
+    }
+
+    private static int columnCount(Connection connection, String schema, String table) throws SQLException {
+        String sql = "SELECT count(*) FROM duckdb_columns() WHERE database_name = current_database()"
+            + " AND schema_name = ? AND table_name = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, schema);
+            stmt.setString(2, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.debug("Fermeture ignorée: {}", e.getMessage());
+        }
+    }
+
+    private static final class AppenderSession {
+        final String id;
+        final Connection connection;
+        final DuckDBAppender appender;
+        final int columnCount;
+        // Un seul thread d'écriture : les lots sont appliqués dans l'ordre de réception
+        final ExecutorService worker;
+        // Lots en file ou en cours d'écriture
+        final Semaphore slots = new Semaphore(QUEUE_BATCHES);
+        final AtomicLong receivedRows = new AtomicLong();
+        final AtomicLong writtenRows = new AtomicLong();
+        volatile SQLException failure;
+        volatile long lastAccess = System.currentTimeMillis();
+
+        AppenderSession(String id, Connection connection, DuckDBAppender appender, int columnCount) {
+            this.id = id;
+            this.connection = connection;
+            this.appender = appender;
+            this.columnCount = columnCount;
+            this.worker = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "appender-" + id.substring(0, 8));
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        void write(AppendBatch batch) {
+            try {
+                if (failure == null) {
+                    appendRows(batch);
+                    writtenRows.addAndGet(batch.getRowCount());
+                }
+            } catch (SQLException e) {
+                logger.error("[AppenderService] Écriture de l'appender {} en échec: {}", id, e.getMessage());
+                failure = e;
+            } catch (RuntimeException e) {
+                logger.error("[AppenderService] Écriture de l'appender {} en échec: {}", id, e.getMessage(), e);
+                failure = new SQLException(e.getMessage(), e);
+            } finally {
+                slots.release();
+            }
+        }
+
+        private void appendRows(AppendBatch batch) throws SQLException {
+            byte[] types = new byte[columnCount];
+            for (int col = 0; col < columnCount; col++) {
+                types[col] = batch.getType(col);
+            }
+            for (int row = 0; row < batch.getRowCount(); row++) {
+                appender.beginRow();
+                for (int col = 0; col < columnCount; col++) {
+                    if (batch.isNull(col, row)) {
+                        appender.append((String) null);
+                        continue;
+                    }
+                    switch (types[col]) {
+                        case AppendBatch.BOOLEAN:
+                            appender.append(batch.getLong(col, row) != 0);
+                            break;
+                        case AppendBatch.TINYINT:
+                            appender.append((byte) batch.getLong(col, row));
+                            break;
+                        case AppendBatch.SMALLINT:
+                            appender.append((short) batch.getLong(col, row));
+                            break;
+                        case AppendBatch.INTEGER:
+                            appender.append((int) batch.getLong(col, row));
+                            break;
+                        case AppendBatch.BIGINT:
+                            appender.append(batch.getLong(col, row));
+                            break;
+                        case AppendBatch.FLOAT:
+                            appender.append((float) batch.getDouble(col, row));
+                            break;
+                        case AppendBatch.DOUBLE:
+                            appender.append(batch.getDouble(col, row));
+                            break;
+                        case AppendBatch.TIMESTAMP:
+                            appender.appendLocalDateTime(AppendBatch.microsToLocalDateTime(batch.getLong(col, row)));
+                            break;
+                        case AppendBatch.DECIMAL:
+                            appender.appendBigDecimal((BigDecimal) batch.getObject(col, row));
+                            break;
+                        case AppendBatch.BLOB:
+                            appender.append((byte[]) batch.getObject(col, row));
+                            break;
+                        default:
+                            appender.append(new String((byte[]) batch.getObject(col, row), StandardCharsets.UTF_8));
+                            break;
+                    }
+                }
+                appender.endRow();
+            }
+        }
+
+        /**
+         * Passe derrière les lots en file puis vide (ou ferme) l'Appender.
+         *
+         * @return nombre total de lignes écrites
+         */
+        long submit(boolean close) throws SQLException {
+            try {
+                return worker.submit(() -> {
+                    if (close) {
+                        appender.close();
+                    } else {
+                        appender.flush();
+                    }
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    return writtenRows.get();
+                }).get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof SQLException ? (SQLException) cause : new SQLException(cause.getMessage(), cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for appender " + id, e);
+            } catch (RejectedExecutionException e) {
+                throw new SQLException(UNKNOWN_APPENDER + id, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.slim.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Collections;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowReader;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.duckdb.DuckDBResultSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.slim.dto.ExecuteDuckDBResultSetMetaData;
+import com.slim.dto.ExecuteResponse;
+
+/**
+ * Résultat de /jdbc/execute au format Arrow IPC stream, produit directement par
+ * l'export Arrow natif de DuckDB (aucune conversion ligne par ligne).
+ * <p>
+ * Les métadonnées JDBC voyagent dans les métadonnées du schéma Arrow, sous la
+ * clé {@link #METADATA_KEY}, pour que le flux reste lisible tel quel par pandas ou Spark.
+ * Les requêtes sans ResultSet (DML/DDL) gardent une réponse JSON classique.
+ */
+public class ArrowResultStream implements StreamingResponseBody {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArrowResultStream.class);
+
+    public static final String MEDIA_TYPE = "application/vnd.apache.arrow.stream";
+    public static final String METADATA_KEY = "duckdb.result.metadata";
+
+    private static final BufferAllocator ROOT_ALLOCATOR = new RootAllocator();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Pattern DECIMAL_TYPE = Pattern.compile("DECIMAL\\((\\d+),\\s*(\\d+)\\)");
+
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultSet;
+    private final ExecuteDuckDBResultSetMetaData metadata;
+    private final long batchSize;
+    private final ExecuteResponse jsonResponse;
+    private final QueryRegistry.RunningQuery query;
+
+    ArrowResultStream(Connection connection, PreparedStatement statement, ResultSet resultSet,
+                      ExecuteDuckDBResultSetMetaData metadata, long batchSize, QueryRegistry.RunningQuery query) {
+        this.connection = connection;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.metadata = metadata;
+        this.batchSize = batchSize;
+        this.jsonResponse = null;
+        this.query = query;
+    }
+
+    ArrowResultStream(ExecuteResponse jsonResponse) {
+        this.connection = null;
+        this.statement = null;
+        this.resultSet = null;
+        this.metadata = null;
+        this.batchSize = 0;
+        this.jsonResponse = jsonResponse;
+        this.query = null;
+    }
+
+    /**
+     * @return false si la réponse est un {@link ExecuteResponse} JSON (DML/DDL ou erreur)
+     */
+    public boolean hasArrowData() {
+        return jsonResponse == null;
+    }
+
+    public ExecuteResponse getJsonResponse() {
+        return jsonResponse;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (jsonResponse != null) {
+            out.write(MAPPER.writeValueAsBytes(jsonResponse));
+            return;
+        }
+        try (BufferAllocator allocator = ROOT_ALLOCATOR.newChildAllocator("arrow-result", 0, Long.MAX_VALUE);
+             ArrowReader reader = (ArrowReader) resultSet.unwrap(DuckDBResultSet.class).arrowExportStream(allocator, batchSize)) {
+            VectorSchemaRoot source = reader.getVectorSchemaRoot();
+            Schema schema = new Schema(source.getSchema().getFields(), schemaMetadata(metadata));
+            // Même vecteurs que le reader, seul le schéma porte en plus les métadonnées JDBC
+            VectorSchemaRoot root = new VectorSchemaRoot(schema, source.getFieldVectors(), 0);
+
+            long batches = 0;
+            // Pas de try-with-resources : close() écrirait la fin de flux, et un
+            // résultat interrompu passerait pour complet côté client
+            ArrowStreamWriter writer = new ArrowStreamWriter(root, reader, Channels.newChannel(out));
+            writer.start();
+            while (reader.loadNextBatch()) {
+                root.setRowCount(source.getRowCount());
+                writer.writeBatch();
+                batches++;
+            }
+            // Un flux DuckDB interrompu se termine sans erreur : seul le registre sait qu'il manque des lignes
+            if (query != null && query.isCancelled()) {
+                logger.warn("Résultat Arrow interrompu après {} batch(s) : {}.", batches, query.getCancelReason());
+                return;
+            }
+            writer.end();
+            logger.info("Résultat Arrow envoyé : {} batch(s) de {} lignes max.", batches, batchSize);
+        } catch (Exception e) {
+            if (query != null && query.isCancelled()) {
+                logger.warn("Résultat Arrow interrompu : {}.", query.getCancelReason());
+                return;
+            }
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            throw new IOException("Export Arrow en échec: " + e.getMessage(), e);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * DuckDB exporte les DECIMAL de précision &lt;= 18 en Decimal Arrow 32/64 bits,
+     * que Arrow Java ne sait pas lire (128 et 256 bits uniquement). Ces colonnes,
+     * ou ces champs dans un STRUCT, une LIST ou une MAP, sont donc élargis en
+     * DECIMAL(38, s) pour l'export ; les métadonnées JDBC
+     * envoyées au client gardent le type d'origine. Les colonnes sont reprises
+     * par position ({@code #n}) : deux colonnes de même nom (jointure) restent
+     * distinctes. Le saut de ligne avant la parenthèse fermante protège d'un
+     * commentaire {@code --} final.
+     *
+     * @return la requête à exporter, ou {@code null} si aucune colonne n'est concernée
+     */
+    static String widenSmallDecimals(String sql, ExecuteDuckDBResultSetMetaData meta) {
+        StringBuilder select = new StringBuilder();
+        boolean widened = false;
+        for (int i = 0; i < meta.getColumn_count(); i++) {
+            String column = "\"" + meta.getColumn_names()[i].replace("\"", "\"\"") + "\"";
+            String type = meta.getColumn_types_string()[i];
+            String wide = widenSmallDecimals(type);
+            select.append(i == 0 ? "" : ", ");
+            if (!wide.equals(type)) {
+                select.append("CAST(#").append(i + 1).append(" AS ").append(wide).append(')');
+                widened = true;
+            } else {
+                select.append('#').append(i + 1);
+            }
+            select.append(" AS ").append(column);
+        }
+        if (!widened) {
+            return null;
+        }
+        return "SELECT " + select + " FROM (" + sql.trim().replaceAll(";+$", "") + "\n)";
+    }
+
+    /**
+     * @return {@code type} où chaque DECIMAL de précision &lt;= 18 devient DECIMAL(38, s)
+     */
+    private static String widenSmallDecimals(String type) {
+        Matcher m = DECIMAL_TYPE.matcher(type);
+        StringBuffer wide = new StringBuffer();
+        while (m.find()) {
+            String replacement = Integer.parseInt(m.group(1)) <= 18 ? "DECIMAL(38, " + m.group(2) + ")" : m.group();
+            m.appendReplacement(wide, Matcher.quoteReplacement(replacement));
+        }
+        return m.appendTail(wide).toString();
+    }
+
+    private void close() {
+        for (AutoCloseable c : new AutoCloseable[] {query, resultSet, statement, connection}) {
+            if (c == null) {
+                continue;
+            }
+            try {
+                c.close();
+            } catch (Exception e) {
+                logger.debug("Fermeture ignorée: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static Map<String, String> schemaMetadata(ExecuteDuckDBResultSetMetaData metadata) throws JsonProcessingException {
+        return Collections.singletonMap(METADATA_KEY, MAPPER.writeValueAsString(metadata));
+    }
+}
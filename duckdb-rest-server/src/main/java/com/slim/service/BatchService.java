@@ -0,0 +1,319 @@
+package com.slim.service;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.duckdb.DuckDBAppender;
+import org.duckdb.DuckDBConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import com.slim.dto.ExecuteBatchRequest;
+import com.slim.dto.ExecuteBatchResponse;
+
+/**
+ * Exécution de JDBC executeBatch en un seul appel : tous les jeux de paramètres
+ * (ou toutes les requêtes d'un batch hétérogène) passent dans une transaction
+ * sur une même connexion.
+ * <p>
+ * Pour un {@code INSERT INTO t VALUES (?, ...)} couvrant toutes les colonnes de
+ * la table, les lignes passent par l'Appender DuckDB ; pour les autres INSERT
+ * ... VALUES, par des VALUES multi-lignes ; sinon par un batch JDBC côté serveur.
+ * <p>
+ * Dans une session dont la transaction est déjà ouverte, le batch s'y exécute
+ * sans la valider : commit et rollback restent à la charge du client.
+ */
+@Service
+public class BatchService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchService.class);
+
+    // Nombre max de paramètres liés par INSERT multi-lignes
+    private static final int MAX_PARAMS_PER_INSERT = Integer.parseInt(System.getenv().getOrDefault("BATCH_MAX_PARAMS_PER_INSERT", "2048"));
+
+    // INSERT INTO cible [(colonnes)] VALUES (tuple), sans ON CONFLICT ni RETURNING
+    private static final Pattern INSERT_VALUES = Pattern.compile(
+        "(?is)^\\s*insert\\s+into\\s+((?:\"[^\"]+\"|[\\w$]+)(?:\\s*\\.\\s*(?:\"[^\"]+\"|[\\w$]+)){0,2})\\s*(\\([^)]*\\))?\\s*values\\s*(\\(.*\\))\\s*;?\\s*$");
+    private static final Pattern NOT_SIMPLE_INSERT = Pattern.compile("(?i)\\b(on\\s+conflict|returning|select)\\b");
+    private static final Pattern PLACEHOLDERS_ONLY = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)");
+
+    private final SessionService sessionService;
+
+    public BatchService(SessionService sessionService) {
+        this.sessionService = sessionService;
+    }
+
+    public ExecuteBatchResponse executeBatch(ExecuteBatchRequest request) {
+        return executeBatch(request, null);
+    }
+
+    /**
+     * @param sessionId session sur laquelle exécuter le batch, {@code null} pour une connexion du pool
+     */
+    public ExecuteBatchResponse executeBatch(ExecuteBatchRequest request, String sessionId) {
+        long start = System.currentTimeMillis();
+        try (Connection connection = sessionService.getConnection(sessionId)) {
+            // Ouvre la transaction tout de suite : l'Appender n'y participe que si elle est déjà active
+            boolean ownTransaction = begin(connection);
+            try {
+                long[] counts = request.getStatements() != null
+                    ? executeStatements(connection, request.getStatements())
+                    : executePrepared(connection, request.getSql(), request.getColumns(), request.getRowCount());
+                if (ownTransaction) {
+                    execute(connection, "COMMIT");
+                }
+                logger.info("Batch de {} entrées exécuté en {} ms.", counts.length, System.currentTimeMillis() - start);
+                return new ExecuteBatchResponse(counts);
+            } catch (Exception e) {
+                if (ownTransaction) {
+                    rollback(connection);
+                }
+                throw e;
+            }
+        } catch (Exception e) {
+            logger.error("[BatchService] Erreur: {}", e.getMessage(), e);
+            return new ExecuteBatchResponse(e.getMessage());
+        }
+    }
+
+    private static long[] executeStatements(Connection connection, List<String> statements) throws SQLException {
+        long[] counts = new long[statements.size()];
+        try (Statement stmt = connection.createStatement()) {
+            for (int i = 0; i < counts.length; i++) {
+                if (stmt.execute(statements.get(i))) {
+                    throw new SQLException("Batch entry " + i + " returned a result set: " + statements.get(i));
+                }
+                counts[i] = Math.max(stmt.getUpdateCount(), 0);
+            }
+        }
+        return counts;
+    }
+
+    private static long[] executePrepared(Connection connection, String sql, Object[][] columns, int rowCount) throws SQLException {
+        Object[][] cols = columns == null ? new Object[0][] : columns;
+        long[] counts = new long[rowCount];
+        if (rowCount == 0) {
+            return counts;
+        }
+
+        Matcher insert = INSERT_VALUES.matcher(sql);
+        if (insert.matches() && !NOT_SIMPLE_INSERT.matcher(insert.group(3)).find() && isSingleTuple(insert.group(3))) {
+            String[] table = insert.group(2) == null && PLACEHOLDERS_ONLY.matcher(insert.group(3)).matches()
+                ? appenderTarget(connection, insert.group(1), cols.length) : null;
+            if (table != null) {
+                appendRows(connection, table[0], table[1], cols, rowCount);
+                logger.debug("Batch inséré via Appender : {} lignes.", rowCount);
+            } else {
+                insertMultiRow(connection, sql, insert, cols, rowCount);
+                logger.debug("Batch inséré via VALUES multi-lignes : {} lignes.", rowCount);
+            }
+            Arrays.fill(counts, 1L);
+            return counts;
+        }
+
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (int row = 0; row < rowCount; row++) {
+                bindRow(stmt, 0, cols, row);
+                stmt.addBatch();
+            }
+            int[] batchCounts = stmt.executeBatch();
+            for (int i = 0; i < rowCount; i++) {
+                counts[i] = Math.max(batchCounts[i], 0);
+            }
+        }
+        return counts;
+    }
+
+    private static void appendRows(Connection connection, String schema, String table, Object[][] cols, int rowCount)
+        throws SQLException {
+        try (DuckDBAppender appender = connection.unwrap(DuckDBConnection.class).createAppender(schema, table)) {
+            for (int row = 0; row < rowCount; row++) {
+                appender.beginRow();
+                for (Object[] col : cols) {
+                    append(appender, col[row]);
+                }
+                appender.endRow();
+            }
+        }
+    }
+
+    // DuckDB convertit la valeur vers le type de la colonne ; les valeurs composées
+    // (listes, structs, maps) n'ont pas de forme texte fiable et sont refusées
+    static void append(DuckDBAppender appender, Object value) throws SQLException {
+        if (value == null) {
+            appender.append((String) null);
+        } else if (value instanceof Boolean) {
+            appender.append((boolean) (Boolean) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            appender.append(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            appender.append((long) (Long) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            appender.append(((Number) value).doubleValue());
+        } else if (value instanceof BigDecimal) {
+            appender.appendBigDecimal((BigDecimal) value);
+        } else if (value instanceof byte[]) {
+            appender.append((byte[]) value);
+        } else if (value instanceof Collection || value instanceof Map || value.getClass().isArray()) {
+            throw new SQLException("Unsupported value type for appender: " + value.getClass().getName());
+        } else {
+            appender.append(value.toString());
+        }
+    }
+
+    private static void insertMultiRow(Connection connection, String sql, Matcher insert, Object[][] cols, int rowCount)
+        throws SQLException {
+        String head = sql.substring(0, insert.start(3));
+        String tuple = insert.group(3);
+        int rowsPerInsert = Math.max(1, MAX_PARAMS_PER_INSERT / Math.max(1, cols.length));
+
+        PreparedStatement full = null;
+        try {
+            for (int from = 0; from < rowCount; from += rowsPerInsert) {
+                int rows = Math.min(rowsPerInsert, rowCount - from);
+                PreparedStatement stmt;
+                if (rows == rowsPerInsert && full != null) {
+                    stmt = full;
+                } else {
+                    stmt = connection.prepareStatement(head + repeatTuple(tuple, rows));
+                    if (rows == rowsPerInsert) {
+                        full = stmt;
+                    }
+                }
+                try {
+                    for (int i = 0; i < rows; i++) {
+                        bindRow(stmt, i * cols.length, cols, from + i);
+                    }
+                    stmt.execute();
+                } finally {
+                    if (stmt != full) {
+                        stmt.close();
+                    }
+                }
+            }
+        } finally {
+            if (full != null) {
+                full.close();
+            }
+        }
+    }
+
+    private static void bindRow(PreparedStatement stmt, int offset, Object[][] cols, int row) throws SQLException {
+        for (int col = 0; col < cols.length; col++) {
+            stmt.setObject(offset + col + 1, cols[col][row]);
+        }
+    }
+
+    private static String repeatTuple(String tuple, int rows) {
+        StringBuilder values = new StringBuilder(tuple.length() * rows + rows * 2);
+        for (int i = 0; i < rows; i++) {
+            values.append(i == 0 ? "" : ", ").append(tuple);
+        }
+        return values.toString();
+    }
+
+    // Vrai si le texte est un unique tuple parenthésé : "(a, f(b))" mais pas "(a), (b)"
+    private static boolean isSingleTuple(String values) {
+        int depth = 0;
+        boolean inString = false;
+        for (int i = 0; i < values.length(); i++) {
+            char c = values.charAt(i);
+            if (c == '\'') {
+                inString = !inString;
+            } else if (!inString && c == '(') {
+                depth++;
+            } else if (!inString && c == ')') {
+                depth--;
+                if (depth == 0 && i < values.length() - 1) {
+                    return false;
+                }
+            }
+        }
+        return depth == 0 && !inString;
+    }
+
+    /**
+     * @return {schéma, table} si la cible est une table de la base courante dont
+     *         le nombre de colonnes correspond aux paramètres, sinon {@code null}
+     */
+    private static String[] appenderTarget(Connection connection, String name, int paramCount) throws SQLException {
+        String[] parts = splitQualifiedName(name);
+        if (parts.length > 2) {
+            // L'Appender ne prend pas de catalogue
+            return null;
+        }
+        String sql = "SELECT schema_name, count(*) FROM duckdb_columns() WHERE database_name = current_database()"
+            + " AND table_name = ? AND schema_name = " + (parts.length > 1 ? "?" : "current_schema()") + " GROUP BY schema_name";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, parts[parts.length - 1]);
+            if (parts.length > 1) {
+                stmt.setString(2, parts[0]);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next() && rs.getInt(2) == paramCount) {
+                    return new String[] {rs.getString(1), parts[parts.length - 1]};
+                }
+                return null;
+            }
+        }
+    }
+
+    private static String[] splitQualifiedName(String name) {
+        String[] parts = name.split("\\s*\\.\\s*");
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i].startsWith("\"") && parts[i].endsWith("\"")) {
+                parts[i] = parts[i].substring(1, parts[i].length() - 1).replace("\"\"", "\"");
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * @return false si une transaction (celle d'une session) est déjà ouverte sur la connexion
+     */
+    private static boolean begin(Connection connection) throws SQLException {
+        // Un BEGIN de trop ferait échouer la transaction de la session : on la détecte avant
+        if (transactionId(connection) == transactionId(connection)) {
+            return false;
+        }
+        execute(connection, "BEGIN TRANSACTION");
+        return true;
+    }
+
+    /**
+     * En autocommit chaque requête a sa propre transaction ; deux lectures
+     * identiques signifient qu'une transaction explicite est en cours.
+     */
+    private static long transactionId(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT txid_current()")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static void rollback(Connection connection) {
+        try {
+            execute(connection, "ROLLBACK");
+        } catch (SQLException e) {
+            logger.warn("[BatchService] Rollback en échec: {}", e.getMessage());
+        }
+    }
+}
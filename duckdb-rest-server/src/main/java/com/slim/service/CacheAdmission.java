@@ -0,0 +1,267 @@
+package com.slim.service;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Admission dans le cache de résultats : un résultat n'y entre que si ce qu'il
+ * fera gagner dépasse ce qu'il coûte à garder.
+ * <p>
+ * Politiques ({@code CACHE_ADMISSION_POLICY}) :
+ * <ul>
+ * <li>{@code always} : tout résultat est admis (comportement historique) ;</li>
+ * <li>{@code duration} : les requêtes d'au moins {@code CACHE_ADMISSION_MIN_MS}
+ * millisecondes ;</li>
+ * <li>{@code cost} (défaut) : gain attendu = relectures attendues pendant le
+ * TTL × durée de calcul ; coût = taille en Mo × {@code CACHE_ADMISSION_MS_PER_MB}
+ * (prix, en millisecondes de calcul, d'un Mo gardé pendant un TTL). Les
+ * relectures attendues viennent de {@link QueryStats} pour l'empreinte de la
+ * requête : (demandes passées − 1 + {@code CACHE_ADMISSION_PRIOR_REUSES}) /
+ * (1 + ancienneté / TTL).</li>
+ * </ul>
+ * Au-delà de {@code CACHE_ADMISSION_MAX_MB}, aucun résultat n'est admis.
+ * <p>
+ * Chaque décision est prise par les trois politiques ; seule celle configurée
+ * s'applique, et aucune avec {@code CACHE_ADMISSION_DRY_RUN=true} (tout est
+ * admis). Pour chacune, {@link #stats()} compte les résultats admis et refusés,
+ * puis ce qu'il advient de leurs clés pendant le TTL : les résultats admis
+ * redemandés (gain), ceux jamais redemandés (octets gardés pour rien) et les
+ * résultats refusés redemandés (recalculs qu'elle aurait imposés).
+ */
+@Service
+public class CacheAdmission {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheAdmission.class);
+
+    private static final Policy POLICY = Policy.valueOf(System.getenv().getOrDefault("CACHE_ADMISSION_POLICY", "cost").toUpperCase(Locale.ROOT));
+    private static final boolean DRY_RUN = Boolean.parseBoolean(System.getenv().getOrDefault("CACHE_ADMISSION_DRY_RUN", "false"));
+    private static final long MIN_MS = Long.parseLong(System.getenv().getOrDefault("CACHE_ADMISSION_MIN_MS", "500"));
+    private static final double MS_PER_MB = Double.parseDouble(System.getenv().getOrDefault("CACHE_ADMISSION_MS_PER_MB", "20"));
+    private static final double PRIOR_REUSES = Double.parseDouble(System.getenv().getOrDefault("CACHE_ADMISSION_PRIOR_REUSES", "0.5"));
+    private static final long MAX_BYTES = Long.parseLong(System.getenv().getOrDefault("CACHE_ADMISSION_MAX_MB", "1024")) * 1024L * 1024L;
+    private static final long TTL_MS = Long.parseLong(System.getenv().getOrDefault("CACHE_TTL_MINUTES", "60")) * 60_000L;
+    // Clés suivies par politique pour mesurer a posteriori ses décisions
+    private static final int TRACKED_KEYS = 10_000;
+
+    enum Policy {
+        ALWAYS, DURATION, COST
+    }
+
+    private final QueryFingerprint fingerprint;
+    private final QueryStats queryStats;
+    private final Map<Policy, Outcomes> outcomes = new EnumMap<>(Policy.class);
+
+    public CacheAdmission(QueryFingerprint fingerprint, QueryStats queryStats) {
+        this.fingerprint = fingerprint;
+        this.queryStats = queryStats;
+        for (Policy policy : Policy.values()) {
+            outcomes.put(policy, new Outcomes());
+        }
+    }
+
+    /**
+     * Décide si le résultat de {@code query}, qui vient d'être calculé, entre
+     * dans le cache. L'exécution doit déjà être comptée dans {@link QueryStats}.
+     *
+     * @param bytes taille estimée du résultat
+     */
+    public boolean admit(String query, long computeMs, long bytes) {
+        String key = fingerprint.canonical(query);
+        long now = System.currentTimeMillis();
+        // Un recalcul est aussi une redemande de la clé
+        requested(key, now);
+        double expectedReuses = expectedReuses(fingerprint.fingerprint(query), now);
+        boolean admitted = true;
+        for (Policy policy : Policy.values()) {
+            boolean decision = admits(policy, computeMs, bytes, expectedReuses);
+            outcomes.get(policy).record(key, decision, computeMs, bytes, now);
+            if (policy == POLICY) {
+                admitted = decision;
+            }
+        }
+        if (!admitted) {
+            logger.debug("Résultat non admis dans le cache ({}{}) : {} ms, {} octets, {} relectures attendues : {}",
+                         POLICY.name().toLowerCase(Locale.ROOT), DRY_RUN ? ", dry-run" : "", computeMs, bytes,
+                         String.format(Locale.ROOT, "%.2f", expectedReuses), query);
+        }
+        return admitted || DRY_RUN;
+    }
+
+    /**
+     * Lecture de {@code query} depuis le cache.
+     */
+    public void hit(String query) {
+        requested(fingerprint.canonical(query), System.currentTimeMillis());
+    }
+
+    /**
+     * Taille estimée d'un résultat, pour {@link #admit}.
+     */
+    public static long estimateBytes(List<List<Object>> rows) {
+        return MemoryResultCache.estimateBytes(rows);
+    }
+
+    private void requested(String key, long now) {
+        for (Outcomes outcome : outcomes.values()) {
+            outcome.requested(key, now);
+        }
+    }
+
+    private double expectedReuses(String queryFingerprint, long now) {
+        QueryStats.Usage usage = queryStats.usage(queryFingerprint);
+        if (usage == null) {
+            return PRIOR_REUSES;
+        }
+        double reuses = Math.max(0, usage.requests - 1);
+        double age = Math.max(0, now - usage.firstSeen) / (double) Math.max(1, TTL_MS);
+        return (reuses + PRIOR_REUSES) / (1 + age);
+    }
+
+    private static boolean admits(Policy policy, long computeMs, long bytes, double expectedReuses) {
+        if (bytes > MAX_BYTES) {
+            return false;
+        }
+        switch (policy) {
+            case ALWAYS:
+                return true;
+            case DURATION:
+                return computeMs >= MIN_MS;
+            default:
+                return expectedReuses * computeMs > bytes / (1024.0 * 1024.0) * MS_PER_MB;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("policy", POLICY.name().toLowerCase(Locale.ROOT));
+        stats.put("dry_run", DRY_RUN);
+        stats.put("min_ms", MIN_MS);
+        stats.put("ms_per_mb", MS_PER_MB);
+        stats.put("prior_reuses", PRIOR_REUSES);
+        stats.put("max_bytes", MAX_BYTES);
+        Map<String, Object> policies = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Policy, Outcomes> entry : outcomes.entrySet()) {
+            policies.put(entry.getKey().name().toLowerCase(Locale.ROOT), entry.getValue().stats(now));
+        }
+        stats.put("policies", policies);
+        return stats;
+    }
+
+    /**
+     * Décisions d'une politique et leur suite : chaque clé décidée est suivie
+     * pendant un TTL.
+     */
+    private static final class Outcomes {
+        private final LinkedHashMap<String, Decision> tracked = new LinkedHashMap<>(256, 0.75f, false);
+        private long admitted;
+        private long admittedBytes;
+        private long rejected;
+        private long rejectedBytes;
+        private long reused;
+        private long savedMs;
+        private long unused;
+        private long unusedBytes;
+        private long missed;
+        private long missedMs;
+
+        synchronized void record(String key, boolean admit, long computeMs, long bytes, long now) {
+            expire(now);
+            if (admit) {
+                admitted++;
+                admittedBytes += bytes;
+            } else {
+                rejected++;
+                rejectedBytes += bytes;
+            }
+            Decision previous = tracked.remove(key);
+            if (previous != null) {
+                previous.close(this);
+            }
+            tracked.put(key, new Decision(admit, computeMs, bytes, now));
+            if (tracked.size() > TRACKED_KEYS) {
+                // Sortie du suivi avant son terme : ni gain ni perte comptés
+                Iterator<Decision> eldest = tracked.values().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+
+        synchronized void requested(String key, long now) {
+            Decision decision = tracked.get(key);
+            if (decision == null || now - decision.at > TTL_MS) {
+                return;
+            }
+            decision.requests++;
+            if (decision.admitted) {
+                reused++;
+                savedMs += decision.computeMs;
+            } else {
+                missed++;
+                missedMs += decision.computeMs;
+            }
+        }
+
+        private void expire(long now) {
+            Iterator<Decision> it = tracked.values().iterator();
+            while (it.hasNext()) {
+                Decision decision = it.next();
+                if (now - decision.at <= TTL_MS) {
+                    break;
+                }
+                decision.close(this);
+                it.remove();
+            }
+        }
+
+        synchronized Map<String, Object> stats(long now) {
+            expire(now);
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("admitted", admitted);
+            stats.put("admitted_bytes", admittedBytes);
+            stats.put("rejected", rejected);
+            stats.put("rejected_bytes", rejectedBytes);
+            stats.put("reused", reused);
+            stats.put("saved_ms", savedMs);
+            stats.put("unused", unused);
+            stats.put("unused_bytes", unusedBytes);
+            stats.put("missed", missed);
+            stats.put("missed_ms", missedMs);
+            return stats;
+        }
+    }
+
+    private static final class Decision {
+        final boolean admitted;
+        final long computeMs;
+        final long bytes;
+        final long at;
+        long requests;
+
+        Decision(boolean admitted, long computeMs, long bytes, long at) {
+            this.admitted = admitted;
+            this.computeMs = computeMs;
+            this.bytes = bytes;
+            this.at = at;
+        }
+
+        /**
+         * Fin du suivi : un résultat admis jamais redemandé a occupé le cache
+         * pour rien.
+         */
+        void close(Outcomes outcomes) {
+            if (admitted && requests == 0) {
+                outcomes.unused++;
+                outcomes.unusedBytes += bytes;
+            }
+        }
+    }
+}
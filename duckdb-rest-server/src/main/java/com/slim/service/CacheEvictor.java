@@ -0,0 +1,158 @@
+package com.slim.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Ménage du niveau Parquet du cache, en tâche de fond, dans le répertoire local
+ * ou le préfixe S3 de {@code CACHE_OUTPUT_BASE} :
+ * <ol>
+ * <li>les entrées expirées ({@code CACHE_TTL_MINUTES}) sont supprimées ;</li>
+ * <li>les fichiers absents du manifeste (anciennes partitions
+ * {@code cached_date=...}, écritures interrompues) sont supprimés une fois plus
+ * vieux que le TTL ;</li>
+ * <li>au-delà de {@code CACHE_DISK_MAX_MB} ou de {@code CACHE_DISK_MAX_FILES},
+ * les entrées de moindre valeur sont évincées.</li>
+ * </ol>
+ * La valeur d'une entrée suit GDSF (Greedy-Dual-Size-Frequency) : lectures
+ * et coût de recalcul par octet, diminués par le temps écoulé depuis la
+ * dernière lecture. Un gros résultat rapide à recalculer et jamais relu part
+ * en premier.
+ */
+@Service
+public class CacheEvictor {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheEvictor.class);
+
+    private static final long MAX_BYTES = Long.parseLong(System.getenv().getOrDefault("CACHE_DISK_MAX_MB", "10240")) * 1024L * 1024L;
+    private static final int MAX_FILES = Integer.parseInt(System.getenv().getOrDefault("CACHE_DISK_MAX_FILES", "10000"));
+    private static final long TTL_MS = Long.parseLong(System.getenv().getOrDefault("CACHE_TTL_MINUTES", "60")) * 60_000L;
+    // Un fichier hors manifeste plus récent peut être une écriture en cours
+    private static final long ORPHAN_GRACE_MS = Math.max(TTL_MS, 10 * 60_000L);
+
+    private final CacheManifest manifest;
+
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong orphans = new AtomicLong();
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+    private final AtomicLong runs = new AtomicLong();
+    private volatile long lastRunMs;
+    private volatile String lastError;
+
+    public CacheEvictor(CacheManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public synchronized void evict() {
+        long start = System.currentTimeMillis();
+        long reclaimedBefore = bytesReclaimed.get();
+        try {
+            removeExpired(start);
+            removeOrphans(start);
+            enforceBudget(start);
+            lastError = null;
+        } catch (IOException | RuntimeException e) {
+            lastError = e.getMessage();
+            logger.warn("Ménage du cache {} en échec : {}", CacheManifest.CACHE_OUTPUT_BASE, e.getMessage());
+        }
+        runs.incrementAndGet();
+        lastRunMs = System.currentTimeMillis() - start;
+        long reclaimed = bytesReclaimed.get() - reclaimedBefore;
+        if (reclaimed > 0) {
+            logger.info("Ménage du cache : {} octets libérés en {} ms ({} entrées, {} octets restants).",
+                        reclaimed, lastRunMs, manifest.size(), manifest.totalBytes());
+        }
+    }
+
+    private void removeExpired(long now) {
+        for (CacheManifest.Entry entry : new ArrayList<>(manifest.entries())) {
+            if (now - entry.getCreatedAt() > TTL_MS && removed(manifest.remove(entry.getHash()))) {
+                expired.incrementAndGet();
+            }
+        }
+    }
+
+    private void removeOrphans(long now) throws IOException {
+        Set<String> known = new HashSet<>();
+        for (CacheManifest.Entry entry : manifest.entries()) {
+            known.add(entry.getPath());
+        }
+        CacheStorage storage = manifest.storage();
+        for (CacheStorage.StoredFile file : storage.list()) {
+            String name = file.name();
+            boolean cacheFile = name.endsWith(".parquet") || name.endsWith(".parquet.tmp");
+            if (cacheFile && !known.contains(file.path) && now - file.lastModified > ORPHAN_GRACE_MS && storage.delete(file.path)) {
+                orphans.incrementAndGet();
+                bytesReclaimed.addAndGet(file.size);
+            }
+        }
+    }
+
+    private void enforceBudget(long now) {
+        if (manifest.totalBytes() <= MAX_BYTES && manifest.size() <= MAX_FILES) {
+            return;
+        }
+        List<CacheManifest.Entry> candidates = new ArrayList<>(manifest.entries());
+        candidates.sort(Comparator.comparingDouble(entry -> value(entry, now)));
+        long bytes = manifest.totalBytes();
+        int files = manifest.size();
+        for (CacheManifest.Entry entry : candidates) {
+            if (bytes <= MAX_BYTES && files <= MAX_FILES) {
+                break;
+            }
+            if (removed(manifest.remove(entry.getHash()))) {
+                evicted.incrementAndGet();
+                bytes -= Math.max(0, entry.getSizeBytes());
+                files--;
+            }
+        }
+    }
+
+    private boolean removed(CacheManifest.Entry entry) {
+        if (entry == null) {
+            return false;
+        }
+        bytesReclaimed.addAndGet(Math.max(0, entry.getSizeBytes()));
+        return true;
+    }
+
+    /**
+     * Valeur d'une entrée : (lectures + 1) × coût de recalcul / taille, divisée
+     * par l'inactivité mesurée en TTL.
+     */
+    static double value(CacheManifest.Entry entry, long now) {
+        double frequency = entry.getHits() + 1;
+        double cost = Math.max(1, entry.getComputeMs());
+        double size = Math.max(1, entry.getSizeBytes());
+        double idle = Math.max(0, now - entry.getLastAccess()) / (double) Math.max(1, TTL_MS);
+        return frequency * cost / size / (1 + idle);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("max_bytes", MAX_BYTES);
+        stats.put("max_files", MAX_FILES);
+        stats.put("expired", expired.get());
+        stats.put("evicted", evicted.get());
+        stats.put("orphans_deleted", orphans.get());
+        stats.put("bytes_reclaimed", bytesReclaimed.get());
+        stats.put("runs", runs.get());
+        stats.put("last_run_ms", lastRunMs);
+        stats.put("last_error", lastError);
+        return stats;
+    }
+}
@@ -0,0 +1,513 @@
+package com.slim.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Index des fichiers Parquet du cache : empreinte de la requête vers chemin,
+ * date de calcul, taille, nombre de lignes, schéma, coût de calcul, nombre de
+ * lectures et dernier accès. Une
+ * recherche est une lecture de map ; un absent ou un expiré ne coûte aucun
+ * appel DuckDB, et l'âge d'un résultat se lit ici plutôt que dans le fichier.
+ * <p>
+ * L'index est sauvegardé en JSON ({@code CACHE_MANIFEST_PATH}, par défaut
+ * {@code manifest.json} sous {@code CACHE_OUTPUT_BASE}) quand il a changé, et
+ * rechargé au démarrage. Il est alors confronté au contenu de
+ * {@code CACHE_OUTPUT_BASE} (répertoire local ou préfixe S3, voir
+ * {@link CacheStorage}) : les entrées sans fichier sont retirées, les
+ * fichiers {@code db_cache_*.parquet} absents de l'index sont repris avec leur
+ * date de modification.
+ * <p>
+ * Avec {@code CACHE_SHARED_MANIFEST} (par défaut quand {@code CACHE_OUTPUT_BASE}
+ * est un préfixe S3), l'index est commun à tous les nœuds qui partagent la
+ * base : chaque ajout ou retrait est publié dans un journal sous
+ * {@code _manifest/} ({@link ManifestLog}), que chaque nœud relit toutes les
+ * {@code CACHE_SHARED_SYNC_MS} millisecondes. Un résultat est écrit sous un nom
+ * qui lui est propre ({@link #newPath}) et n'est visible des autres nœuds
+ * qu'une fois son entrée publiée : deux nœuds qui calculent la même requête
+ * n'écrivent jamais le même fichier. Un nœud qui démarre relit le dernier
+ * instantané puis les lots suivants.
+ */
+@Service
+public class CacheManifest {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheManifest.class);
+
+    static final String CACHE_OUTPUT_BASE = System.getenv().getOrDefault("CACHE_OUTPUT_BASE", "./db_cache").replaceAll("/$", "");
+    private static final String MANIFEST_PATH = System.getenv().getOrDefault("CACHE_MANIFEST_PATH",
+        isRemote(CACHE_OUTPUT_BASE) ? "./db_cache_manifest.json" : CACHE_OUTPUT_BASE + "/manifest.json");
+    // Un fichier du manifeste partagé porte en plus le nœud et la date de son écriture
+    private static final Pattern CACHE_FILE = Pattern.compile("db_cache_([0-9a-f]{64})(?:-[0-9A-Za-z_.-]+)?\\.parquet");
+    static final boolean SHARED = Boolean.parseBoolean(System.getenv().getOrDefault("CACHE_SHARED_MANIFEST",
+        String.valueOf(isRemote(CACHE_OUTPUT_BASE))));
+    private static final long SYNC_MS = Long.parseLong(System.getenv().getOrDefault("CACHE_SHARED_SYNC_MS", "2000"));
+    private static final long SNAPSHOT_MS = Long.parseLong(System.getenv().getOrDefault("CACHE_SHARED_SNAPSHOT_MINUTES", "10")) * 60_000L;
+    static final String NODE_ID = nodeId();
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final CacheStorage storage = CacheStorage.forBase(CACHE_OUTPUT_BASE);
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    private final ManifestLog log = SHARED ? new ManifestLog(storage, CACHE_OUTPUT_BASE, NODE_ID) : null;
+    // Ajouts et retraits pas encore publiés
+    private final Queue<ManifestLog.Record> unpublished = new ConcurrentLinkedQueue<>();
+    private long lastSync;
+    private volatile long lastPoll;
+    private long snapshotSlot;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+    private final AtomicLong syncFailures = new AtomicLong();
+    private volatile String lastSyncError;
+
+    private static String nodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "node";
+        }
+        // Suffixe aléatoire : un nœud redémarré ne reprend pas les noms de son prédécesseur
+        return host.replaceAll("[^0-9A-Za-z_.]", "_") + "_" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    static boolean isRemote(String path) {
+        return path.contains("://");
+    }
+
+    CacheStorage storage() {
+        return storage;
+    }
+
+    /**
+     * @return le nom de fichier d'un résultat du cache, s'il en suit le
+     *         format, avec son empreinte ; {@code null} sinon
+     */
+    static String hashOf(String fileName) {
+        Matcher m = CACHE_FILE.matcher(fileName);
+        return m.matches() ? m.group(1) : null;
+    }
+
+    /**
+     * Chemin du fichier d'un résultat : il ne dépend que de l'empreinte, pas
+     * du jour du calcul.
+     */
+    static String pathFor(String hash) {
+        return CACHE_OUTPUT_BASE + "/db_cache_" + hash + ".parquet";
+    }
+
+    /**
+     * Chemin d'un nouveau fichier pour {@code hash} : {@link #pathFor}, ou avec
+     * le manifeste partagé un nom propre à ce nœud et à cette écriture.
+     */
+    static String newPath(String hash) {
+        return SHARED ? CACHE_OUTPUT_BASE + "/db_cache_" + hash + "-" + NODE_ID + "-" + System.currentTimeMillis() + ".parquet"
+                      : pathFor(hash);
+    }
+
+    /**
+     * @return l'entrée de {@code hash}, ou {@code null} si le résultat n'est
+     *         pas en cache ou a dépassé {@code ttlMs} (l'entrée et son fichier
+     *         sont alors supprimés)
+     */
+    public Entry get(String hash, long ttlMs) {
+        Entry entry = entries.get(hash);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.getCreatedAt() > ttlMs) {
+            remove(hash);
+            return null;
+        }
+        entry.touch();
+        return entry;
+    }
+
+    /**
+     * Comme {@link #get}, sans contrôle du TTL ni accès compté.
+     */
+    Entry peek(String hash) {
+        return entries.get(hash);
+    }
+
+    public void put(Entry entry) {
+        entries.put(entry.getHash(), entry);
+        dirty = true;
+        if (SHARED) {
+            unpublished.add(ManifestLog.Record.put(entry));
+        }
+    }
+
+    /**
+     * Retire l'entrée et supprime son fichier.
+     *
+     * @return l'entrée retirée, ou {@code null}
+     */
+    public Entry remove(String hash) {
+        Entry entry = entries.remove(hash);
+        if (entry == null) {
+            return null;
+        }
+        dirty = true;
+        if (SHARED) {
+            unpublished.add(ManifestLog.Record.remove(entry));
+        }
+        try {
+            storage.delete(entry.getPath());
+        } catch (IOException e) {
+            logger.warn("Suppression du fichier de cache {} en échec : {}", entry.getPath(), e.getMessage());
+        }
+        return entry;
+    }
+
+    /**
+     * Fichier illisible : retiré comme par {@link #remove}, sauf avec le
+     * manifeste partagé, où l'entrée n'est oubliée que par ce nœud (l'échec
+     * peut n'être que passager, et le fichier sert aux autres).
+     */
+    public Entry discard(String hash) {
+        return SHARED ? entries.remove(hash) : remove(hash);
+    }
+
+    public Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long totalBytes() {
+        long total = 0;
+        for (Entry entry : entries.values()) {
+            total += Math.max(0, entry.getSizeBytes());
+        }
+        return total;
+    }
+
+    @PostConstruct
+    public void load() {
+        if (SHARED) {
+            try {
+                restore();
+            } catch (IOException | RuntimeException e) {
+                syncFailures.incrementAndGet();
+                lastSyncError = e.getMessage();
+                logger.warn("Manifeste partagé {} illisible, cache vide jusqu'à la prochaine relecture : {}",
+                            CACHE_OUTPUT_BASE, e.getMessage());
+            }
+            return;
+        }
+        File manifest = new File(MANIFEST_PATH);
+        if (manifest.isFile()) {
+            try {
+                List<Entry> saved = MAPPER.readValue(manifest, new TypeReference<List<Entry>>() { });
+                for (Entry entry : saved) {
+                    entries.put(entry.getHash(), entry);
+                }
+            } catch (IOException e) {
+                logger.warn("Manifeste du cache illisible ({}), reconstruction depuis {} : {}", MANIFEST_PATH, CACHE_OUTPUT_BASE, e.getMessage());
+            }
+        }
+        try {
+            reconcile(storage.list());
+        } catch (IOException e) {
+            logger.warn("Contenu du cache {} illisible, manifeste gardé tel quel : {}", CACHE_OUTPUT_BASE, e.getMessage());
+        }
+        logger.info("Manifeste du cache : {} entrées ({} octets).", entries.size(), totalBytes());
+    }
+
+    private void reconcile(List<CacheStorage.StoredFile> files) {
+        Set<String> present = new HashSet<>();
+        int recovered = 0;
+        for (CacheStorage.StoredFile file : files) {
+            present.add(file.path);
+            String hash = hashOf(file.name());
+            if (hash != null && pathFor(hash).equals(file.path) && !entries.containsKey(hash)) {
+                // Nombre de lignes, schéma et coût inconnus
+                entries.put(hash, new Entry(hash, file.path, file.lastModified, file.size, -1, null, null, 0));
+                recovered++;
+            }
+        }
+        int dropped = 0;
+        for (Entry entry : new ArrayList<>(entries.values())) {
+            if (!present.contains(entry.getPath())) {
+                entries.remove(entry.getHash());
+                dropped++;
+            }
+        }
+        if (dropped > 0 || recovered > 0) {
+            dirty = true;
+            logger.info("Manifeste du cache : {} entrées sans fichier retirées, {} fichiers repris.", dropped, recovered);
+        }
+    }
+
+    /**
+     * Dernier instantané du manifeste partagé, puis les lots publiés depuis.
+     * Les compteurs d'accès locaux des entrées inchangées sont gardés.
+     */
+    private synchronized void restore() throws IOException {
+        ManifestLog.Snapshot snapshot = log.restore();
+        Map<String, Entry> restored = new HashMap<>();
+        if (snapshot != null) {
+            for (Entry entry : snapshot.entries) {
+                restored.put(entry.getHash(), entry);
+            }
+        }
+        for (ManifestLog.Record record : log.poll()) {
+            apply(restored, record);
+        }
+        for (Entry entry : restored.values()) {
+            Entry known = entries.get(entry.getHash());
+            if (known != null && known.getPath().equals(entry.getPath())) {
+                entry.setHits(known.getHits());
+                entry.setLastAccess(known.getLastAccess());
+            }
+        }
+        entries.keySet().retainAll(restored.keySet());
+        entries.putAll(restored);
+        lastPoll = System.currentTimeMillis();
+        logger.info("Manifeste partagé {} relu : {} entrées (nœud {}).", CACHE_OUTPUT_BASE, entries.size(), NODE_ID);
+    }
+
+    /**
+     * Un ajout remplace une entrée plus ancienne ; un retrait ne vaut que pour
+     * le fichier qu'il nomme, pas pour un calcul publié depuis.
+     *
+     * @return false si l'enregistrement était sans effet
+     */
+    private static boolean apply(Map<String, Entry> target, ManifestLog.Record record) {
+        if ("put".equals(record.op) && record.entry != null) {
+            Entry known = target.get(record.entry.getHash());
+            if (known == null || record.entry.getCreatedAt() > known.getCreatedAt()) {
+                record.entry.setHits(0);
+                record.entry.setLastAccess(record.entry.getCreatedAt());
+                target.put(record.entry.getHash(), record.entry);
+                return true;
+            }
+        } else if ("remove".equals(record.op)) {
+            Entry known = target.get(record.hash);
+            if (known != null && known.getPath().equals(record.path)) {
+                target.remove(record.hash);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Manifeste partagé : publie les changements de ce nœud, applique ceux des
+     * autres, et écrit l'instantané de la période si aucun nœud ne l'a fait.
+     * Un nœud resté sans relecture plus d'une période repart de l'instantané :
+     * les lots qu'il n'a pas lus ont pu être supprimés.
+     */
+    @Scheduled(fixedDelay = 500)
+    public synchronized void sync() {
+        long now = System.currentTimeMillis();
+        if (!SHARED || now - lastSync < SYNC_MS) {
+            return;
+        }
+        lastSync = now;
+        try {
+            publish();
+            if (now - lastPoll > SNAPSHOT_MS) {
+                restore();
+            } else {
+                int changed = 0;
+                for (ManifestLog.Record record : log.poll()) {
+                    if (apply(entries, record)) {
+                        changed++;
+                    }
+                }
+                applied.addAndGet(changed);
+                lastPoll = now;
+                if (changed > 0) {
+                    logger.debug("Manifeste partagé : {} changements d'autres nœuds appliqués.", changed);
+                }
+            }
+            long slot = now / SNAPSHOT_MS * SNAPSHOT_MS;
+            if (slot > snapshotSlot) {
+                snapshotSlot = slot;
+                if (log.snapshot(slot - ManifestLog.LOOKBACK_MS, new ArrayList<>(entries.values()))) {
+                    snapshots.incrementAndGet();
+                    logger.info("Instantané du manifeste partagé écrit : {} entrées.", entries.size());
+                }
+            }
+            lastSyncError = null;
+        } catch (IOException | RuntimeException e) {
+            syncFailures.incrementAndGet();
+            lastSyncError = e.getMessage();
+            logger.warn("Synchronisation du manifeste partagé {} en échec : {}", CACHE_OUTPUT_BASE, e.getMessage());
+        }
+    }
+
+    private void publish() throws IOException {
+        List<ManifestLog.Record> batch = new ArrayList<>();
+        for (ManifestLog.Record record = unpublished.peek(); record != null; record = unpublished.peek()) {
+            batch.add(record);
+            unpublished.poll();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            log.append(batch);
+            published.addAndGet(batch.size());
+        } catch (IOException | RuntimeException e) {
+            // Republié à la synchronisation suivante
+            unpublished.addAll(batch);
+            throw e;
+        }
+    }
+
+    public Map<String, Object> sharedStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", SHARED);
+        if (!SHARED) {
+            return stats;
+        }
+        stats.put("node", NODE_ID);
+        stats.put("unpublished", unpublished.size());
+        stats.put("published", published.get());
+        stats.put("applied", applied.get());
+        stats.put("snapshots_written", snapshots.get());
+        stats.put("lag_ms", lastPoll == 0 ? -1 : System.currentTimeMillis() - lastPoll);
+        stats.put("failures", syncFailures.get());
+        stats.put("last_error", lastSyncError);
+        return stats;
+    }
+
+    @Scheduled(fixedDelay = 10000)
+    public void persistIfDirty() {
+        if (dirty) {
+            persist();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void persist() {
+        dirty = false;
+        if (SHARED) {
+            // Rien de local à sauvegarder : seuls les changements non publiés comptent
+            try {
+                publish();
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Publication du manifeste partagé {} en échec : {}", CACHE_OUTPUT_BASE, e.getMessage());
+            }
+            return;
+        }
+        Path target = Paths.get(MANIFEST_PATH);
+        Path tmp = Paths.get(MANIFEST_PATH + ".tmp");
+        try {
+            if (target.getParent() != null) {
+                Files.createDirectories(target.getParent());
+            }
+            MAPPER.writeValue(tmp.toFile(), new ArrayList<>(entries.values()));
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true;
+            logger.warn("Sauvegarde du manifeste du cache {} en échec : {}", MANIFEST_PATH, e.getMessage());
+        }
+    }
+
+    /**
+     * Un fichier du cache. Les setters servent à la relecture du manifeste.
+     */
+    public static class Entry {
+        private String hash;
+        private String path;
+        private long createdAt;
+        private long sizeBytes;
+        private long rowCount;
+        private String[] columnNames;
+        private String[] columnTypes;
+        private long computeMs;
+        // Requête d'origine, pour répondre aux requêtes plus étroites (SubsumptionCache)
+        private String sql;
+        // Motif de fichiers lu par la requête -> état à l'écriture (SourceFiles), pour la revalidation
+        private Map<String, String> sources;
+        private final AtomicLong hits = new AtomicLong();
+        private volatile long lastAccess;
+
+        public Entry() {
+        }
+
+        public Entry(String hash, String path, long createdAt, long sizeBytes, long rowCount,
+                     String[] columnNames, String[] columnTypes, long computeMs) {
+            this.hash = hash;
+            this.path = path;
+            this.createdAt = createdAt;
+            this.sizeBytes = sizeBytes;
+            this.rowCount = rowCount;
+            this.columnNames = columnNames;
+            this.columnTypes = columnTypes;
+            this.computeMs = computeMs;
+            this.lastAccess = createdAt;
+        }
+
+        void touch() {
+            hits.incrementAndGet();
+            lastAccess = System.currentTimeMillis();
+        }
+
+        public String getHash() { return hash; }
+        public void setHash(String hash) { this.hash = hash; }
+        public String getPath() { return path; }
+        public void setPath(String path) { this.path = path; }
+        public long getCreatedAt() { return createdAt; }
+        public void setCreatedAt(long createdAt) { this.createdAt = createdAt; }
+        public long getSizeBytes() { return sizeBytes; }
+        public void setSizeBytes(long sizeBytes) { this.sizeBytes = sizeBytes; }
+        public long getRowCount() { return rowCount; }
+        public void setRowCount(long rowCount) { this.rowCount = rowCount; }
+        public String[] getColumnNames() { return columnNames; }
+        public void setColumnNames(String[] columnNames) { this.columnNames = columnNames; }
+        public String[] getColumnTypes() { return columnTypes; }
+        public void setColumnTypes(String[] columnTypes) { this.columnTypes = columnTypes; }
+        public long getComputeMs() { return computeMs; }
+        public void setComputeMs(long computeMs) { this.computeMs = computeMs; }
+        public String getSql() { return sql; }
+        public void setSql(String sql) { this.sql = sql; }
+        public Map<String, String> getSources() { return sources; }
+        public void setSources(Map<String, String> sources) { this.sources = sources; }
+        public long getHits() { return hits.get(); }
+        public void setHits(long hits) { this.hits.set(hits); }
+        public long getLastAccess() { return lastAccess; }
+        public void setLastAccess(long lastAccess) { this.lastAccess = lastAccess; }
+    }
+}
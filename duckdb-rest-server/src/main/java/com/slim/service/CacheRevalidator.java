@@ -0,0 +1,110 @@
+package com.slim.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Revalidation périodique des résultats en cache contre leurs fichiers
+ * sources : toutes les {@code CACHE_REVALIDATE_SECONDS} secondes (0 désactive),
+ * l'état de chaque motif de fichiers lu par une entrée Parquet est relevé une
+ * fois ({@link SourceFiles#snapshot}) et comparé à celui de l'écriture. Les
+ * entrées dont les fichiers ont changé sont retirées, avec les résultats en
+ * mémoire qui lisent ces fichiers.
+ * <p>
+ * Un relevé : un LIST par motif S3, un HEAD par URL, un parcours de répertoire
+ * en local. Un motif illisible (réseau, droits) n'invalide rien.
+ */
+@Service
+public class CacheRevalidator {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheRevalidator.class);
+
+    private static final long INTERVAL_MS = Long.parseLong(System.getenv().getOrDefault("CACHE_REVALIDATE_SECONDS", "60")) * 1000L;
+
+    private final CacheManifest manifest;
+    private final CacheService cacheService;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong patternsChecked = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long lastRun;
+
+    public CacheRevalidator(CacheManifest manifest, CacheService cacheService) {
+        this.manifest = manifest;
+        this.cacheService = cacheService;
+    }
+
+    @Scheduled(fixedDelay = 5000)
+    public synchronized void scheduled() {
+        if (INTERVAL_MS > 0 && System.currentTimeMillis() - lastRun >= INTERVAL_MS) {
+            revalidate();
+        }
+    }
+
+    /**
+     * @return le nombre de résultats retirés
+     */
+    public synchronized int revalidate() {
+        long start = System.currentTimeMillis();
+        lastRun = start;
+        Map<String, List<CacheManifest.Entry>> byPattern = new LinkedHashMap<>();
+        for (CacheManifest.Entry entry : manifest.entries()) {
+            if (entry.getSources() != null) {
+                for (String pattern : entry.getSources().keySet()) {
+                    byPattern.computeIfAbsent(pattern, p -> new ArrayList<>()).add(entry);
+                }
+            }
+        }
+        List<CacheManifest.Entry> stale = new ArrayList<>();
+        Set<String> changed = new HashSet<>();
+        for (Map.Entry<String, List<CacheManifest.Entry>> group : byPattern.entrySet()) {
+            String pattern = group.getKey();
+            SourceFiles.Snapshot snapshot;
+            try {
+                snapshot = SourceFiles.snapshot(pattern);
+            } catch (IOException | RuntimeException e) {
+                failures.incrementAndGet();
+                logger.warn("Revalidation de {} impossible : {}", pattern, e.getMessage());
+                continue;
+            }
+            patternsChecked.incrementAndGet();
+            if (snapshot == null) {
+                continue;
+            }
+            for (CacheManifest.Entry entry : group.getValue()) {
+                if (!snapshot.signature.equals(entry.getSources().get(pattern))) {
+                    stale.add(entry);
+                    changed.add(pattern);
+                }
+            }
+        }
+        runs.incrementAndGet();
+        if (changed.isEmpty()) {
+            return 0;
+        }
+        int removed = cacheService.invalidateChanged(stale, changed);
+        logger.info("Revalidation du cache : {} fichiers sources modifiés, {} résultats retirés en {} ms.",
+                    changed.size(), removed, System.currentTimeMillis() - start);
+        return removed;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("interval_seconds", INTERVAL_MS / 1000);
+        stats.put("runs", runs.get());
+        stats.put("patterns_checked", patternsChecked.get());
+        stats.put("failures", failures.get());
+        return stats;
+    }
+}
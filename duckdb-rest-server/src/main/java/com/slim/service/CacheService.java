@@ -1,83 +1,178 @@
 package com.slim.service;
 
-import java.io.File;
-import java.security.MessageDigest;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
+import org.duckdb.StatementReturnType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import com.slim.dto.ExecuteDuckDBResultSetMetaData;
+import com.slim.dto.ExecuteResponse;
+
+/**
+ * Cache des résultats SELECT sans paramètres, sur deux niveaux : les
+ * résultats récents en mémoire ({@link MemoryResultCache}), puis des fichiers
+ * Parquet sous {@code CACHE_OUTPUT_BASE}. Un résultat lu depuis Parquet est
+ * promu en mémoire ; évincé de la mémoire, il reste servi par son fichier
+ * Parquet jusqu'à expiration.
+ * <p>
+ * Les fichiers Parquet sont retrouvés par le {@link CacheManifest} : une
+ * requête absente ou expirée ne touche pas DuckDB. Une requête plus étroite
+ * qu'un résultat en cache (filtre, colonnes ou regroupement en moins) est
+ * calculée sur son fichier ({@link SubsumptionCache}). Avec plusieurs
+ * backends, un résultat absent est ensuite demandé au nœud qui possède sa clé
+ * ({@link PeerCache}).
+ * <p>
+ * Un résultat calculé n'entre dans le cache que si {@link CacheAdmission}
+ * l'admet.
+ * <p>
+ * Les résultats qui lisent des fichiers ({@link SourceFiles}) sont retirés
+ * des deux niveaux quand ces fichiers changent ({@link CacheRevalidator}), ou
+ * sur demande pour un préfixe de chemins ({@link #invalidatePrefix}).
+ */
 @Service
 public class CacheService {
         // --- Cache config (copié de UiQueryController) ---
         
     private static final Logger logger = LoggerFactory.getLogger(CacheService.class);
-    private static final String CACHE_OUTPUT_BASE = System.getenv().getOrDefault("CACHE_OUTPUT_BASE", "./db_cache");
     private static final int MAX_CACHE_AGE_MINUTES = Integer.parseInt(System.getenv().getOrDefault("CACHE_TTL_MINUTES", "60"));
+    // Niveau mémoire : budget total, et taille maximale d'un résultat (0 désactive ce niveau)
+    private static final long CACHE_MEMORY_MAX_BYTES = Long.parseLong(System.getenv().getOrDefault("CACHE_MEMORY_MAX_MB", "256")) * 1024L * 1024L;
+    private static final long CACHE_MEMORY_MAX_ENTRY_BYTES = Long.parseLong(System.getenv().getOrDefault("CACHE_MEMORY_MAX_ENTRY_MB", "32")) * 1024L * 1024L;
+
+    private final MemoryResultCache memoryTier =
+        new MemoryResultCache(CACHE_MEMORY_MAX_BYTES, CACHE_MEMORY_MAX_ENTRY_BYTES, MAX_CACHE_AGE_MINUTES * 60_000L);
+
+    private final CacheWriter cacheWriter;
+    private final CacheManifest manifest;
+    private final CacheEvictor evictor;
+    private final QueryFingerprint fingerprint;
+    private final SubsumptionCache subsumption;
+    private final CacheAdmission admission;
+    private final PeerCache peerCache;
+    private final AtomicLong invalidatedBySource = new AtomicLong();
+    private final AtomicLong invalidatedByPrefix = new AtomicLong();
+
+    public CacheService(CacheWriter cacheWriter, CacheManifest manifest, CacheEvictor evictor, QueryFingerprint fingerprint,
+                        SubsumptionCache subsumption, CacheAdmission admission, PeerCache peerCache) {
+        this.cacheWriter = cacheWriter;
+        this.manifest = manifest;
+        this.evictor = evictor;
+        this.fingerprint = fingerprint;
+        this.subsumption = subsumption;
+        this.admission = admission;
+        this.peerCache = peerCache;
+    }
+
+    /**
+     * Clé du cache : la forme canonique de la requête, partagée par les
+     * écritures d'une même requête qui ne diffèrent que par la mise en forme.
+     */
+    private String normalize(String query) {
+        return fingerprint.canonical(query);
+    }
 
-    // --- Ajout gestion du cache ---
-    private String getParquetCachePath(String query) {
-        try {
-            String normalizedQuery = query.trim().replaceAll(";$", "");
-            String queryHash = sha256(normalizedQuery);
-            String cachedDate = LocalDate.now().toString();
-            return CACHE_OUTPUT_BASE.replaceAll("/$", "") + "/cached_date=" + cachedDate + "/db_cache_" + queryHash + ".parquet";
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to compute cache path", e);
+    private String queryHash(String query) {
+        return QueryFingerprint.sha256(normalize(query));
+    }
+
+    /**
+     * Niveau mémoire seul : ne demande ni connexion ni lecture de fichier.
+     *
+     * @return le résultat en cache, ou {@code null}
+     */
+    public ExecuteResponse readMemory(String query) {
+        ExecuteResponse cached = memoryTier.isEnabled() ? memoryTier.get(normalize(query)) : null;
+        if (cached != null) {
+            admission.hit(query);
         }
+        return cached;
     }
 
-    private String sha256(String base) throws Exception {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        byte[] hash = digest.digest(base.getBytes("UTF-8"));
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : hash) {
-            String hex = Integer.toHexString(0xff & b);
-            if(hex.length() == 1) hexString.append('0');
-            hexString.append(hex);
+    /**
+     * Niveau Parquet : le fichier de la requête, ou à défaut celui d'un
+     * résultat plus large dont elle se déduit. Un résultat trouvé est promu
+     * dans le niveau mémoire, avec l'âge de son fichier.
+     *
+     * @return le résultat en cache, ou {@code null}
+     */
+    public ExecuteResponse tryReadCache(Connection con, String query) {
+        String hash = queryHash(query);
+        CacheManifest.Entry entry = manifest.get(hash, MAX_CACHE_AGE_MINUTES * 60_000L);
+        if (entry != null) {
+            admission.hit(query);
+            return readEntry(con, query, entry);
         }
-        return hexString.toString();
+        SubsumptionCache.Derivation derivation = subsumption.derive(con, query, MAX_CACHE_AGE_MINUTES * 60_000L);
+        if (derivation != null) {
+            logger.debug("Requête déduite du résultat en cache {} : {}", derivation.source.getHash(), derivation.sql);
+            return read(con, query, derivation.sql, derivation.source, true);
+        }
+        // Le fichier reçu du propriétaire est installé dans le manifeste local
+        if (peerCache.fetch(hash) != null) {
+            entry = manifest.get(hash, MAX_CACHE_AGE_MINUTES * 60_000L);
+            if (entry != null) {
+                admission.hit(query);
+                logger.debug("Résultat reçu du nœud propriétaire : {}", query);
+                return readEntry(con, query, entry);
+            }
+        }
+        return null;
     }
 
+    private ExecuteResponse readEntry(Connection con, String query, CacheManifest.Entry entry) {
+        // cached_at sert à reconstruire le manifeste, il n'est pas renvoyé au client
+        return read(con, query, "SELECT * EXCLUDE (cached_at) FROM read_parquet('" + entry.getPath() + "')", entry, false);
+    }
 
-    public List<List<Object>> tryReadCache(Connection con, String query, List<String> columnsOut, List<String> columnTypesOut, List<String> columnDetailsOut) {
-        String parquetPath = getParquetCachePath(query);
-        String sql = "SELECT * EXCLUDE (cached_at, cached_date) FROM read_parquet('" + parquetPath + "') " +
-                     "WHERE cached_at >= NOW() - INTERVAL '" + MAX_CACHE_AGE_MINUTES + " minutes'";
+    private ExecuteResponse read(Connection con, String query, String sql, CacheManifest.Entry entry, boolean derived) {
         try (Statement st = con.createStatement()) {
             ResultSet rs = st.executeQuery(sql);
             ResultSetMetaData meta = rs.getMetaData();
             int colCount = meta.getColumnCount();
-            columnsOut.clear();
-            columnTypesOut.clear();
-            columnDetailsOut.clear();
+            String[] columnNames = new String[colCount];
+            String[] types = new String[colCount];
+            String[] details = new String[colCount];
             for (int i = 1; i <= colCount; i++) {
-                columnsOut.add(meta.getColumnName(i));
-                columnTypesOut.add(meta.getColumnTypeName(i));
-                columnDetailsOut.add(meta.getColumnClassName(i));
+                columnNames[i - 1] = meta.getColumnName(i);
+                types[i - 1] = meta.getColumnTypeName(i);
+                details[i - 1] = meta.getColumnClassName(i);
             }
             List<List<Object>> rows = new ArrayList<>();
             while (rs.next()) {
-                List<Object> row = new ArrayList<>();
+                List<Object> row = new ArrayList<>(colCount);
                 for (int i = 1; i <= colCount; i++) {
                     row.add(rs.getObject(i));
                 }
                 rows.add(row);
             }
-            if (!rows.isEmpty()) {
-                return rows;
+            ExecuteDuckDBResultSetMetaData metadata = new ExecuteDuckDBResultSetMetaData(
+                0, colCount, columnNames, types, details,
+                StatementReturnType.QUERY_RESULT.name(), types, details);
+            if (memoryTier.put(normalize(query), metadata, rows, entry.getCreatedAt())) {
+                logger.debug("Résultat promu du cache Parquet vers le cache mémoire : {}", query);
             }
+            return new ExecuteResponse(metadata, rows);
         }
          catch (SQLException sqle) {
             logger.warn("Cache read failed for query '{}': {}", query, sqle.getMessage());
+            if (!derived) {
+                // Fichier supprimé ou illisible : l'entrée est retirée, la requête sera recalculée
+                manifest.discard(entry.getHash());
+            }
         }
         catch (Exception e) {
             logger.warn("Cache read failed for query '{}': {}", query, e.getMessage(), e);
@@ -85,24 +180,114 @@ public class CacheService {
         return null;
     }
 
-    public void performCache(Connection con, String query) {
-        String parquetPath = getParquetCachePath(query);
-        boolean isS3 = parquetPath.contains("://");
-        File outFile = new File(parquetPath);
-        if (!isS3) {
-            outFile.getParentFile().mkdirs();
+    /**
+     * Met en cache un résultat qui vient d'être calculé, s'il est admis : en
+     * mémoire avec ses métadonnées d'origine, et dans le niveau Parquet en
+     * arrière-plan, à partir des mêmes lignes ({@link CacheWriter}).
+     *
+     * @param bytes taille estimée du résultat ({@link MemoryResultCache#estimateBytes})
+     */
+    public void cacheResult(String query, ExecuteDuckDBResultSetMetaData metadata, List<List<Object>> rows, long computeMs,
+                            long bytes) {
+        if (!admission.admit(query, computeMs, bytes)) {
+            return;
         }
-        String cacheSql = "COPY (SELECT subq.*, NOW() AS cached_at FROM (" + query + ") AS subq) TO '" +
-                parquetPath + "' (FORMAT PARQUET, OVERWRITE_OR_IGNORE TRUE)";
-        try (Statement st = con.createStatement()) {
-            st.execute(cacheSql);
-        } catch (Exception e) {
-            // TODO
-            logger.error("Failed to cache query results: {}", e.getMessage(), e);
+        long cachedAt = System.currentTimeMillis();
+        String key = normalize(query);
+        memoryTier.put(key, metadata, rows, cachedAt);
+        cacheWriter.submit(queryHash(query), query, metadata, rows, cachedAt, computeMs, () -> memoryTier.invalidate(key));
+    }
+
+    /**
+     * Retire des deux niveaux les résultats qui lisent des fichiers sous
+     * {@code prefix} (chemin local, {@code s3://...} ou URL).
+     *
+     * @return le nombre de résultats retirés
+     */
+    public int invalidatePrefix(String prefix) {
+        SourceFiles.forgetListings(prefix);
+        int removed = invalidateSources(pattern -> SourceFiles.overlaps(pattern, prefix), manifest.entries());
+        invalidatedByPrefix.addAndGet(removed);
+        logger.info("Cache invalidé pour le préfixe {} : {} résultats retirés.", prefix, removed);
+        return removed;
+    }
+
+    /**
+     * Revalidation : retire les entrées Parquet {@code stale}, dont les
+     * fichiers ont changé, et les résultats en mémoire qui lisent un des
+     * motifs {@code changed}.
+     *
+     * @return le nombre de résultats retirés
+     */
+    public int invalidateChanged(Collection<CacheManifest.Entry> stale, Set<String> changed) {
+        int removed = invalidateSources(changed::contains, stale);
+        invalidatedBySource.addAndGet(removed);
+        return removed;
+    }
+
+    /**
+     * Retire les entrées de {@code candidates} et les résultats en mémoire
+     * dont un motif de fichiers satisfait {@code matches}.
+     */
+    private int invalidateSources(Predicate<String> matches, Collection<CacheManifest.Entry> candidates) {
+        int removed = 0;
+        for (CacheManifest.Entry entry : new ArrayList<>(candidates)) {
+            if (entry.getSql() == null) {
+                continue;
+            }
+            Collection<String> patterns = entry.getSources() != null ? entry.getSources().keySet() : SourceFiles.patterns(entry.getSql());
+            if (patterns.stream().anyMatch(matches) && manifest.remove(entry.getHash()) != null) {
+                memoryTier.invalidate(normalize(entry.getSql()));
+                removed++;
+            }
         }
+        // La clé du niveau mémoire est la forme canonique, qui garde les chemins
+        for (String key : memoryTier.keys()) {
+            if (SourceFiles.patterns(key).stream().anyMatch(matches) && memoryTier.invalidate(key)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Compteurs des deux niveaux, de l'écriture en arrière-plan et du ménage.
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> memory = new LinkedHashMap<>();
+        memory.put("entries", memoryTier.size());
+        memory.put("used_bytes", memoryTier.usedBytes());
+        memory.put("max_bytes", CACHE_MEMORY_MAX_BYTES);
+        memory.put("hits", memoryTier.hits());
+        memory.put("misses", memoryTier.misses());
+        memory.put("evictions", memoryTier.evictions());
+        Map<String, Object> parquet = new LinkedHashMap<>();
+        parquet.put("base", CacheManifest.CACHE_OUTPUT_BASE);
+        parquet.put("entries", manifest.size());
+        parquet.put("bytes", manifest.totalBytes());
+        parquet.put("queued_writes", cacheWriter.queuedWrites());
+        parquet.put("written", cacheWriter.writtenCount());
+        parquet.put("dropped_writes", cacheWriter.droppedCount());
+        parquet.put("failed_writes", cacheWriter.failedCount());
+        parquet.put("source_changed_writes", cacheWriter.sourceChangedCount());
+        parquet.put("skipped_writes", cacheWriter.skippedCount());
+        parquet.put("eviction", evictor.stats());
+        parquet.put("subsumption", subsumption.stats());
+        parquet.put("peers", peerCache.stats());
+        parquet.put("shared", manifest.sharedStats());
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ttl_minutes", MAX_CACHE_AGE_MINUTES);
+        stats.put("admission", admission.stats());
+        Map<String, Object> invalidation = new LinkedHashMap<>();
+        invalidation.put("by_source_change", invalidatedBySource.get());
+        invalidation.put("by_prefix", invalidatedByPrefix.get());
+        stats.put("invalidation", invalidation);
+        stats.put("memory", memory);
+        stats.put("parquet", parquet);
+        return stats;
     }
 
     public boolean shouldUseCache(String query) {
-        return query.trim().toLowerCase().startsWith("select") && MAX_CACHE_AGE_MINUTES > 0 && !CACHE_OUTPUT_BASE.isEmpty();
+        return query.trim().toLowerCase().startsWith("select") && MAX_CACHE_AGE_MINUTES > 0 && !CacheManifest.CACHE_OUTPUT_BASE.isEmpty();
     }
 }
@@ -0,0 +1,82 @@
+package com.slim.service;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Stockage des fichiers du cache sous {@code CACHE_OUTPUT_BASE} : répertoire
+ * local ou préfixe S3 ({@code s3://bucket/prefix}). DuckDB lit et écrit les
+ * fichiers lui-même ; le stockage sert à ce que DuckDB ne sait pas faire :
+ * lister avec tailles et dates, et supprimer.
+ */
+interface CacheStorage {
+
+    static CacheStorage forBase(String base) {
+        return base.startsWith("s3://") ? new S3CacheStorage(base) : new LocalCacheStorage(base);
+    }
+
+    /**
+     * Tous les fichiers sous la base, sous-répertoires compris.
+     */
+    List<StoredFile> list() throws IOException;
+
+    /**
+     * Fichiers du répertoire {@code dir} de la base (sous-répertoires compris)
+     * dont le chemin suit {@code startAfter}, triés par chemin : une liste
+     * incrémentale quand les noms croissent.
+     *
+     * @param startAfter chemin complet, ou {@code null} pour tout lister
+     */
+    List<StoredFile> list(String dir, String startAfter) throws IOException;
+
+    /**
+     * @return le contenu du fichier, ou {@code null} s'il n'existe pas
+     */
+    byte[] read(String path) throws IOException;
+
+    /**
+     * Écrit un fichier entier ; une lecture concurrente voit l'ancien contenu
+     * ou le nouveau, jamais un fichier partiel.
+     *
+     * @param exclusive ne pas remplacer un fichier existant (création
+     *                  conditionnelle, {@code If-None-Match: *} sur S3)
+     * @return false si {@code exclusive} et que le fichier existait déjà
+     */
+    boolean write(String path, byte[] content, boolean exclusive) throws IOException;
+
+    /**
+     * @return false si le fichier n'existait pas
+     */
+    boolean delete(String path) throws IOException;
+
+    /**
+     * @return la taille du fichier, ou -1 s'il n'existe pas
+     */
+    long size(String path) throws IOException;
+
+    /**
+     * Un fichier du stockage, avec son chemin complet tel que DuckDB le lit.
+     */
+    final class StoredFile {
+        final String path;
+        final long size;
+        final long lastModified;
+        // ETag S3 ou HTTP, null en local
+        final String etag;
+
+        StoredFile(String path, long size, long lastModified) {
+            this(path, size, lastModified, null);
+        }
+
+        StoredFile(String path, long size, long lastModified, String etag) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.etag = etag;
+        }
+
+        String name() {
+            return path.substring(path.lastIndexOf('/') + 1);
+        }
+    }
+}
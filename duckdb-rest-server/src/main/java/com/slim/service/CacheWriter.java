@@ -0,0 +1,310 @@
+package com.slim.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import org.duckdb.DuckDBAppender;
+import org.duckdb.DuckDBConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import com.slim.dto.ExecuteDuckDBResultSetMetaData;
+
+/**
+ * Écriture des fichiers Parquet du cache en arrière-plan, à partir des lignes
+ * déjà envoyées au client : la requête n'est pas exécutée une seconde fois et
+ * la réponse n'attend jamais l'écriture.
+ * <p>
+ * Les lignes passent par un Appender DuckDB dans une table temporaire, copiée
+ * ensuite en Parquet. Les résultats à colonnes imbriquées (STRUCT, LIST, MAP...),
+ * binaires ou INTERVAL, que l'Appender ne sait pas écrire, retombent sur un
+ * {@code COPY (requête)}, exécuté lui aussi en arrière-plan.
+ * <p>
+ * La file est bornée ({@code CACHE_WRITER_QUEUE}) : quand elle est pleine,
+ * l'écriture est abandonnée. Le résultat reste dans le cache mémoire et sera
+ * écrit à un prochain calcul.
+ * <p>
+ * Avant l'écriture, l'état des fichiers lus par la requête ({@link SourceFiles})
+ * est relevé et gardé dans l'entrée, pour la revalidation. Si l'un d'eux a été
+ * modifié depuis le début du calcul, le résultat n'est pas écrit.
+ * <p>
+ * En local, le fichier est écrit à côté puis renommé : une lecture concurrente
+ * voit l'ancien fichier ou le nouveau, jamais un fichier partiel. Il n'entre
+ * dans le {@link CacheManifest} qu'une fois écrit, puis est envoyé au nœud qui
+ * possède sa clé ({@link PeerCache}).
+ */
+@Service
+public class CacheWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheWriter.class);
+
+    private static final int QUEUE_SIZE = Integer.parseInt(System.getenv().getOrDefault("CACHE_WRITER_QUEUE", "16"));
+
+    // Types que l'Appender écrit directement, ou sous forme texte convertie par DuckDB
+    private static final Set<String> APPENDABLE_TYPES = new HashSet<>(Arrays.asList(
+        "BOOLEAN", "TINYINT", "SMALLINT", "INTEGER", "BIGINT", "HUGEINT",
+        "UTINYINT", "USMALLINT", "UINTEGER", "UBIGINT", "UHUGEINT",
+        "FLOAT", "DOUBLE", "DECIMAL", "VARCHAR", "UUID",
+        "DATE", "TIME", "TIME WITH TIME ZONE", "TIMESTAMP", "TIMESTAMP WITH TIME ZONE",
+        "TIMESTAMP_S", "TIMESTAMP_MS", "TIMESTAMP_NS"));
+
+    private final DataSource dataSource;
+    private final CacheManifest manifest;
+    private final PeerCache peerCache;
+    private final ThreadPoolExecutor executor;
+    // Empreintes en attente ou en cours d'écriture : un second remplissage identique est inutile
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicLong tableCounter = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong sourceChanged = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    public CacheWriter(DataSource dataSource, CacheManifest manifest, PeerCache peerCache) {
+        this.dataSource = dataSource;
+        this.manifest = manifest;
+        this.peerCache = peerCache;
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(Math.max(1, QUEUE_SIZE)),
+                                               r -> {
+                                                   Thread thread = new Thread(r, "cache-writer");
+                                                   thread.setDaemon(true);
+                                                   return thread;
+                                               });
+    }
+
+    /**
+     * Planifie l'écriture du résultat de la requête d'empreinte {@code hash},
+     * sans attendre.
+     *
+     * @param query     requête d'origine, réexécutée seulement si les lignes ne
+     *                  peuvent pas passer par l'Appender
+     * @param computeMs durée du calcul, qui sert au choix des entrées à évincer
+     * @param onSourceChanged appelé, au lieu de l'écriture, si un fichier lu par
+     *                  la requête a changé pendant le calcul
+     * @return false si l'écriture a été abandonnée (file pleine, ou fichier déjà en cours)
+     */
+    public boolean submit(String hash, String query, ExecuteDuckDBResultSetMetaData metadata,
+                          List<List<Object>> rows, long cachedAt, long computeMs, Runnable onSourceChanged) {
+        String parquetPath = CacheManifest.newPath(hash);
+        if (!pending.add(hash)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    CacheManifest.Entry known = manifest.peek(hash);
+                    if (known != null && known.getCreatedAt() >= cachedAt - computeMs) {
+                        // Déjà écrit, par exemple par un autre nœud du manifeste partagé, d'un calcul au moins aussi récent
+                        skipped.incrementAndGet();
+                        return;
+                    }
+                    Map<String, String> sources = sources(query, cachedAt - computeMs);
+                    if (sources == null) {
+                        sourceChanged.incrementAndGet();
+                        onSourceChanged.run();
+                        return;
+                    }
+                    long rowCount = write(parquetPath, query, metadata, rows, cachedAt);
+                    CacheManifest.Entry entry = new CacheManifest.Entry(hash, parquetPath, cachedAt, manifest.storage().size(parquetPath),
+                                                                        rowCount, metadata.getColumn_names(), metadata.getColumn_types_string(), computeMs);
+                    entry.setSql(query);
+                    entry.setSources(sources.isEmpty() ? null : sources);
+                    manifest.put(entry);
+                    written.incrementAndGet();
+                    peerCache.replicate(entry);
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    logger.error("Failed to cache query results: {}", e.getMessage(), e);
+                } finally {
+                    pending.remove(hash);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            pending.remove(hash);
+            dropped.incrementAndGet();
+            logger.warn("File d'écriture du cache pleine ({} écritures en attente), résultat gardé en mémoire seulement : {}",
+                        executor.getQueue().size(), query);
+            return false;
+        }
+    }
+
+    public int queuedWrites() {
+        return executor.getQueue().size();
+    }
+
+    public long writtenCount() {
+        return written.get();
+    }
+
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    public long failedCount() {
+        return failed.get();
+    }
+
+    public long skippedCount() {
+        return skipped.get();
+    }
+
+    public long sourceChangedCount() {
+        return sourceChanged.get();
+    }
+
+    /**
+     * État des fichiers lus par {@code query}. Un motif dont l'état ne peut
+     * pas être relevé n'est pas revalidé : le résultat vaut jusqu'au TTL.
+     *
+     * @param startedAt début du calcul
+     * @return {@code null} si un fichier a été modifié depuis {@code startedAt}
+     */
+    private static Map<String, String> sources(String query, long startedAt) {
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (String pattern : SourceFiles.patterns(query)) {
+            SourceFiles.Snapshot snapshot;
+            try {
+                snapshot = SourceFiles.snapshot(pattern);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("État des fichiers {} illisible, résultat gardé jusqu'au TTL : {}", pattern, e.getMessage());
+                continue;
+            }
+            if (snapshot == null) {
+                continue;
+            }
+            if (snapshot.lastModified > startedAt) {
+                logger.info("Fichiers {} modifiés pendant le calcul, résultat non mis en cache : {}", pattern, query);
+                return null;
+            }
+            sources.put(pattern, snapshot.signature);
+        }
+        return sources;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            logger.warn("{} écritures du cache abandonnées à l'arrêt.", executor.shutdownNow().size());
+        }
+    }
+
+    /**
+     * @return le nombre de lignes écrites
+     */
+    private long write(String parquetPath, String query, ExecuteDuckDBResultSetMetaData metadata,
+                       List<List<Object>> rows, long cachedAt) throws SQLException, IOException {
+        boolean local = !CacheManifest.isRemote(parquetPath);
+        String target = local ? parquetPath + ".tmp" : parquetPath;
+        if (local) {
+            new File(parquetPath).getParentFile().mkdirs();
+        }
+        long start = System.currentTimeMillis();
+        long rowCount;
+        try (Connection connection = dataSource.getConnection()) {
+            if (!isAppendable(metadata)) {
+                // Fallback : même écriture qu'avant, mais hors du chemin de la réponse
+                rowCount = copy(connection, "SELECT subq.*, to_timestamp(" + cachedAt + " / 1000.0) AS cached_at FROM (" + query + ") AS subq", target);
+                logger.info("Cache Parquet écrit par réexécution (types non supportés par l'Appender) : {}", parquetPath);
+            } else {
+                String table = "cache_fill_" + tableCounter.incrementAndGet();
+                execute(connection, createTable(table, metadata));
+                try {
+                    try (DuckDBAppender appender = connection.unwrap(DuckDBConnection.class).createAppender("main", table)) {
+                        for (List<Object> row : rows) {
+                            appender.beginRow();
+                            for (Object value : row) {
+                                BatchService.append(appender, value);
+                            }
+                            appender.endRow();
+                        }
+                    }
+                    rowCount = copy(connection, "SELECT t.*, to_timestamp(" + cachedAt + " / 1000.0) AS cached_at FROM " + table + " t", target);
+                } finally {
+                    execute(connection, "DROP TABLE IF EXISTS " + table);
+                }
+                logger.info("Cache Parquet écrit en {} ms ({} lignes) : {}", System.currentTimeMillis() - start, rows.size(), parquetPath);
+            }
+        }
+        if (local) {
+            Files.move(new File(target).toPath(), new File(parquetPath).toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return rowCount;
+    }
+
+    private static long copy(Connection connection, String select, String target) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            // COPY renvoie le nombre de lignes écrites
+            return stmt.executeUpdate("COPY (" + select + ") TO '" + target + "' (FORMAT PARQUET, OVERWRITE_OR_IGNORE TRUE)");
+        }
+    }
+
+    private static boolean isAppendable(ExecuteDuckDBResultSetMetaData metadata) {
+        for (String type : metadata.getColumn_types_string()) {
+            String base = type == null ? "" : type.toUpperCase(Locale.ROOT);
+            int paren = base.indexOf('(');
+            if (paren > 0 && base.startsWith("DECIMAL")) {
+                base = "DECIMAL";
+            }
+            if (!APPENDABLE_TYPES.contains(base)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Table temporaire aux types du résultat ; les noms de colonnes en double
+     * (SELECT 1, 1) sont suffixés.
+     */
+    private static String createTable(String table, ExecuteDuckDBResultSetMetaData metadata) {
+        StringBuilder sql = new StringBuilder("CREATE TEMP TABLE ").append(table).append(" (");
+        Map<String, Integer> seen = new HashMap<>();
+        String[] names = metadata.getColumn_names();
+        String[] types = metadata.getColumn_types_string();
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            int count = seen.merge(name.toLowerCase(Locale.ROOT), 1, Integer::sum);
+            if (count > 1) {
+                name = name + "_" + (count - 1);
+            }
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append('"').append(name.replace("\"", "\"\"")).append("\" ").append(types[i]);
+        }
+        return sql.append(')').toString();
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+}
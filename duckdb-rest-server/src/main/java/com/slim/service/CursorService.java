@@ -0,0 +1,189 @@
+package com.slim.service;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.slim.dto.ExecuteDuckDBResultSetMetaData;
+import com.slim.dto.ExecuteResponse;
+
+/**
+ * Curseurs serveur : garde le ResultSet ouvert (avec sa connexion) et renvoie
+ * les lignes par chunks bornés au lieu de tout matérialiser en une réponse.
+ * <p>
+ * Hors session, la connexion d'un curseur est dupliquée hors du pool
+ * ({@link SessionService#getCursorConnection}) : les curseurs ouverts, jusqu'à
+ * {@code CURSOR_MAX_OPEN}, ne prennent aucune connexion au pool Hikari.
+ */
+@Service
+public class CursorService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CursorService.class);
+
+    // Taille d'un vecteur DuckDB, utilisée quand le client ne précise rien
+    public static final int DEFAULT_FETCH_SIZE = 2048;
+    private static final int MAX_FETCH_SIZE = Integer.parseInt(System.getenv().getOrDefault("CURSOR_MAX_FETCH_SIZE", "100000"));
+    private static final int MAX_OPEN_CURSORS = Integer.parseInt(System.getenv().getOrDefault("CURSOR_MAX_OPEN", "32"));
+    private static final long CURSOR_IDLE_TIMEOUT_MS = Long.parseLong(System.getenv().getOrDefault("CURSOR_IDLE_TIMEOUT_SECONDS", "300")) * 1000L;
+
+    private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+
+    /**
+     * Lit au plus {@code maxRows} lignes du ResultSet (toutes si {@code maxRows <= 0}).
+     */
+    static List<List<Object>> readRows(ResultSet rs, int colCount, int maxRows) throws SQLException {
+        List<List<Object>> rows = new ArrayList<>(maxRows > 0 ? maxRows : 16);
+        while ((maxRows <= 0 || rows.size() < maxRows) && rs.next()) {
+            List<Object> row = new ArrayList<>(colCount);
+            for (int i = 1; i <= colCount; i++) {
+                row.add(rs.getObject(i));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Lit le premier chunk et, s'il reste des lignes, enregistre un curseur qui
+     * devient propriétaire de la connexion, du statement et du ResultSet.
+     * Sinon tout est fermé ici et la réponse est complète.
+     */
+    public ExecuteResponse open(Connection connection, Statement statement, ResultSet rs,
+                                ExecuteDuckDBResultSetMetaData metadata, int fetchSize) throws SQLException {
+        int chunkSize = effectiveFetchSize(fetchSize);
+        List<List<Object>> rows = readRows(rs, metadata.getColumn_count(), chunkSize);
+        ExecuteResponse response = new ExecuteResponse(metadata, rows);
+
+        if (rows.size() < chunkSize) {
+            closeQuietly(rs, statement, connection);
+            return response;
+        }
+        if (cursors.size() >= MAX_OPEN_CURSORS) {
+            closeQuietly(rs, statement, connection);
+            throw new SQLException("Too many open cursors (" + MAX_OPEN_CURSORS + "), close result sets or raise CURSOR_MAX_OPEN");
+        }
+
+        String cursorId = UUID.randomUUID().toString();
+        cursors.put(cursorId, new Cursor(connection, statement, rs, metadata));
+        response.setCursorId(cursorId);
+        response.setHasMore(true);
+        logger.info("Curseur {} ouvert, premier chunk de {} lignes.", cursorId, rows.size());
+        return response;
+    }
+
+    public ExecuteResponse fetch(String cursorId, int fetchSize) {
+        Cursor cursor = cursors.get(cursorId);
+        if (cursor == null) {
+            return new ExecuteResponse("Unknown or expired cursor: " + cursorId);
+        }
+        int chunkSize = effectiveFetchSize(fetchSize);
+        synchronized (cursor) {
+            try {
+                if (cursor.closed) {
+                    return new ExecuteResponse("Cursor already closed: " + cursorId);
+                }
+                cursor.lastAccess = System.currentTimeMillis();
+                List<List<Object>> rows = readRows(cursor.resultSet, cursor.metadata.getColumn_count(), chunkSize);
+                ExecuteResponse response = new ExecuteResponse(cursor.metadata, rows);
+                response.setCursorId(cursorId);
+                if (rows.size() < chunkSize) {
+                    close(cursorId);
+                } else {
+                    response.setHasMore(true);
+                }
+                return response;
+            } catch (SQLException e) {
+                logger.error("Erreur de lecture du curseur {}: {}", cursorId, e.getMessage());
+                close(cursorId);
+                return new ExecuteResponse(e.getMessage());
+            }
+        }
+    }
+
+    public boolean close(String cursorId) {
+        Cursor cursor = cursors.remove(cursorId);
+        if (cursor == null) {
+            return false;
+        }
+        synchronized (cursor) {
+            cursor.closed = true;
+            closeQuietly(cursor.resultSet, cursor.statement, cursor.connection);
+        }
+        logger.debug("Curseur {} fermé.", cursorId);
+        return true;
+    }
+
+    public int openCursorCount() {
+        return cursors.size();
+    }
+
+    @Scheduled(fixedDelay = 30000)
+    public void evictIdleCursors() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Cursor>> it = cursors.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Cursor> entry = it.next();
+            if (now - entry.getValue().lastAccess > CURSOR_IDLE_TIMEOUT_MS) {
+                logger.warn("Curseur {} inactif depuis plus de {} ms, fermeture.", entry.getKey(), CURSOR_IDLE_TIMEOUT_MS);
+                close(entry.getKey());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        for (String cursorId : new ArrayList<>(cursors.keySet())) {
+            close(cursorId);
+        }
+    }
+
+    private static int effectiveFetchSize(int fetchSize) {
+        if (fetchSize <= 0) {
+            return DEFAULT_FETCH_SIZE;
+        }
+        return Math.min(fetchSize, MAX_FETCH_SIZE);
+    }
+
+    private static void closeQuietly(AutoCloseable... closeables) {
+        for (AutoCloseable c : closeables) {
+            if (c == null) {
+                continue;
+            }
+            try {
+                c.close();
+            } catch (Exception e) {
+                logger.debug("Fermeture ignorée: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static final class Cursor {
+        final Connection connection;
+        final Statement statement;
+        final ResultSet resultSet;
+        final ExecuteDuckDBResultSetMetaData metadata;
+        volatile long lastAccess = System.currentTimeMillis();
+        boolean closed = false;
+
+        Cursor(Connection connection, Statement statement, ResultSet resultSet, ExecuteDuckDBResultSetMetaData metadata) {
+            this.connection = connection;
+            this.statement = statement;
+            this.resultSet = resultSet;
+            this.metadata = metadata;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.slim.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Cache sur disque local. Les répertoires vidés par une suppression (anciennes
+ * partitions {@code cached_date=...}) sont retirés avec leur dernier fichier.
+ */
+class LocalCacheStorage implements CacheStorage {
+
+    private final Path base;
+
+    LocalCacheStorage(String base) {
+        this.base = Paths.get(base);
+    }
+
+    @Override
+    public List<StoredFile> list() throws IOException {
+        List<StoredFile> files = new ArrayList<>();
+        if (!Files.isDirectory(base)) {
+            return files;
+        }
+        try (Stream<Path> paths = Files.walk(base)) {
+            paths.forEach(path -> {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attrs.isRegularFile()) {
+                        files.add(new StoredFile(path.toString(), attrs.size(), attrs.lastModifiedTime().toMillis()));
+                    }
+                } catch (IOException e) {
+                    // Fichier supprimé pendant le parcours
+                }
+            });
+        }
+        return files;
+    }
+
+    @Override
+    public List<StoredFile> list(String dir, String startAfter) throws IOException {
+        List<StoredFile> files = new ArrayList<>();
+        Path root = base.resolve(dir);
+        if (!Files.isDirectory(root)) {
+            return files;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.forEach(path -> {
+                if (startAfter != null && path.toString().compareTo(startAfter) <= 0) {
+                    return;
+                }
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attrs.isRegularFile() && !path.toString().endsWith(".tmp")) {
+                        files.add(new StoredFile(path.toString(), attrs.size(), attrs.lastModifiedTime().toMillis()));
+                    }
+                } catch (IOException e) {
+                    // Fichier supprimé pendant le parcours
+                }
+            });
+        }
+        files.sort(Comparator.comparing(file -> file.path));
+        return files;
+    }
+
+    @Override
+    public byte[] read(String path) throws IOException {
+        try {
+            return Files.readAllBytes(Paths.get(path));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean write(String path, byte[] content, boolean exclusive) throws IOException {
+        Path target = Paths.get(path);
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        Path tmp = Paths.get(path + "." + UUID.randomUUID() + ".tmp");
+        Files.write(tmp, content);
+        try {
+            if (!exclusive) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            }
+            // Un lien échoue, atomiquement, si la cible existe déjà
+            Files.createLink(target, tmp);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public boolean delete(String path) throws IOException {
+        Path file = Paths.get(path);
+        boolean deleted = Files.deleteIfExists(file);
+        Path parent = file.getParent();
+        if (deleted && parent != null && !parent.equals(base) && parent.startsWith(base)) {
+            String[] remaining = parent.toFile().list();
+            if (remaining != null && remaining.length == 0) {
+                Files.deleteIfExists(parent);
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public long size(String path) {
+        File file = new File(path);
+        return file.isFile() ? file.length() : -1;
+    }
+}
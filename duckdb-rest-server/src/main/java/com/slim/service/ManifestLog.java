@@ -0,0 +1,214 @@
+package com.slim.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Journal du manifeste partagé entre les nœuds d'un même
+ * {@code CACHE_OUTPUT_BASE}, sous {@code _manifest/} :
+ * <ul>
+ * <li>{@code log/<ms>-<nœud>-<n>.json} : un lot d'ajouts et de retraits
+ * d'entrées. Un nœud n'écrit que de nouveaux fichiers, jamais créés deux fois
+ * ; les noms croissent avec le temps, et chaque nœud ne liste que ceux qui
+ * suivent le dernier lu ;</li>
+ * <li>{@code snapshot/<ms>.json} : toutes les entrées, à relire avant les lots
+ * écrits depuis cette date. Créé par un seul nœud par période (création
+ * conditionnelle), il permet de supprimer les anciens lots.</li>
+ * </ul>
+ * Les horloges des nœuds peuvent différer : chaque lecture reprend les lots
+ * des {@link #LOOKBACK_MS} dernières millisecondes déjà vus, sans les
+ * réappliquer.
+ * <p>
+ * Non synchronisé : {@link CacheManifest} l'utilise sous son propre verrou.
+ */
+final class ManifestLog {
+
+    static final String DIR = "_manifest";
+    static final long LOOKBACK_MS = 60_000L;
+
+    private static final String LOG = DIR + "/log";
+    private static final String SNAPSHOTS = DIR + "/snapshot";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final CacheStorage storage;
+    private final String base;
+    private final String node;
+    private final AtomicLong sequence = new AtomicLong();
+    // Lots déjà appliqués dans la fenêtre de relecture -> leur date
+    private final Map<String, Long> applied = new HashMap<>();
+    // Date du lot le plus récent lu
+    private long cursor;
+
+    ManifestLog(CacheStorage storage, String base, String node) {
+        this.storage = storage;
+        this.base = base;
+        this.node = node;
+    }
+
+    /**
+     * Publie un lot ; il ne sera pas relu par ce nœud.
+     */
+    void append(List<Record> records) throws IOException {
+        long now = System.currentTimeMillis();
+        String path = base + "/" + LOG + "/" + pad(now) + "-" + node + "-" + sequence.incrementAndGet() + ".json";
+        Batch batch = new Batch();
+        batch.node = node;
+        batch.records = records;
+        if (!storage.write(path, MAPPER.writeValueAsBytes(batch), true)) {
+            throw new IOException("Lot du manifeste déjà présent : " + path);
+        }
+        applied.put(path, now);
+    }
+
+    /**
+     * @return les enregistrements des lots publiés par les autres nœuds depuis
+     *         la lecture précédente, dans l'ordre des lots
+     */
+    List<Record> poll() throws IOException {
+        List<Record> records = new ArrayList<>();
+        String startAfter = base + "/" + LOG + "/" + pad(Math.max(0, cursor - LOOKBACK_MS));
+        for (CacheStorage.StoredFile file : storage.list(LOG, startAfter)) {
+            long at = timeOf(file);
+            if (at < 0 || applied.containsKey(file.path)) {
+                continue;
+            }
+            byte[] content = storage.read(file.path);
+            applied.put(file.path, at);
+            cursor = Math.max(cursor, at);
+            if (content != null) {
+                records.addAll(MAPPER.readValue(content, Batch.class).records);
+            }
+        }
+        Iterator<Long> dates = applied.values().iterator();
+        while (dates.hasNext()) {
+            if (dates.next() < cursor - LOOKBACK_MS) {
+                dates.remove();
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Le dernier instantané, et la relecture repositionnée juste avant lui.
+     *
+     * @return {@code null} s'il n'y en a pas encore (relecture depuis le début)
+     */
+    Snapshot restore() throws IOException {
+        applied.clear();
+        cursor = 0;
+        List<CacheStorage.StoredFile> snapshots = storage.list(SNAPSHOTS, null);
+        for (int i = snapshots.size() - 1; i >= 0; i--) {
+            byte[] content = storage.read(snapshots.get(i).path);
+            if (content != null) {
+                Snapshot snapshot = MAPPER.readValue(content, Snapshot.class);
+                cursor = snapshot.upTo;
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Écrit l'instantané de la période {@code upTo}, sauf si un autre nœud l'a
+     * déjà fait ; le nœud qui l'écrit supprime les lots que plus aucun
+     * instantané conservé ne demande de relire.
+     *
+     * @return false si un autre nœud a écrit cet instantané
+     */
+    boolean snapshot(long upTo, Collection<CacheManifest.Entry> entries) throws IOException {
+        Snapshot snapshot = new Snapshot();
+        snapshot.upTo = upTo;
+        snapshot.entries = new ArrayList<>(entries);
+        if (!storage.write(base + "/" + SNAPSHOTS + "/" + pad(upTo) + ".json", MAPPER.writeValueAsBytes(snapshot), true)) {
+            return false;
+        }
+        // Deux instantanés gardés : un nœud peut relire le précédent pendant l'écriture du nouveau
+        List<CacheStorage.StoredFile> snapshots = storage.list(SNAPSHOTS, null);
+        if (snapshots.size() < 2) {
+            return true;
+        }
+        for (int i = 0; i < snapshots.size() - 2; i++) {
+            storage.delete(snapshots.get(i).path);
+        }
+        long keepFrom = timeOf(snapshots.get(snapshots.size() - 2)) - LOOKBACK_MS;
+        for (CacheStorage.StoredFile file : storage.list(LOG, null)) {
+            long at = timeOf(file);
+            if (at < 0 || at >= keepFrom) {
+                break;
+            }
+            storage.delete(file.path);
+        }
+        return true;
+    }
+
+    long cursor() {
+        return cursor;
+    }
+
+    /**
+     * @return la date en tête du nom de fichier, ou -1
+     */
+    private static long timeOf(CacheStorage.StoredFile file) {
+        String name = file.name();
+        int end = 0;
+        while (end < name.length() && Character.isDigit(name.charAt(end))) {
+            end++;
+        }
+        return end == 13 ? Long.parseLong(name.substring(0, end)) : -1;
+    }
+
+    /**
+     * Date sur 13 chiffres : l'ordre des noms est celui des dates.
+     */
+    private static String pad(long millis) {
+        return String.format("%013d", millis);
+    }
+
+    /**
+     * Ajout ({@code put}, avec l'entrée) ou retrait ({@code remove}, avec
+     * l'empreinte et le fichier retiré) d'une entrée.
+     */
+    static final class Record {
+        public String op;
+        public CacheManifest.Entry entry;
+        public String hash;
+        public String path;
+
+        static Record put(CacheManifest.Entry entry) {
+            Record record = new Record();
+            record.op = "put";
+            record.entry = entry;
+            return record;
+        }
+
+        static Record remove(CacheManifest.Entry entry) {
+            Record record = new Record();
+            record.op = "remove";
+            record.hash = entry.getHash();
+            record.path = entry.getPath();
+            return record;
+        }
+    }
+
+    static final class Batch {
+        public String node;
+        public List<Record> records;
+    }
+
+    static final class Snapshot {
+        // Les lots plus anciens sont pris en compte
+        public long upTo;
+        public List<CacheManifest.Entry> entries;
+    }
+}
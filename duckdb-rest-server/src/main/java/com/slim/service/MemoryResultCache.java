@@ -0,0 +1,399 @@
+package com.slim.service;
+
+import java.math.BigDecimal;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.slim.dto.ExecuteDuckDBResultSetMetaData;
+import com.slim.dto.ExecuteResponse;
+
+/**
+ * Premier niveau du cache de résultats : les résultats récents, gardés en
+ * mémoire sous forme de colonnes (tableaux primitifs pour les entiers et les
+ * flottants), devant les fichiers Parquet de {@link CacheService}.
+ * <p>
+ * Le budget est exprimé en octets ({@code CACHE_MEMORY_MAX_MB}) ; au-delà, les
+ * entrées les moins récemment lues sont évincées (LRU). Un résultat plus gros
+ * que {@code CACHE_MEMORY_MAX_ENTRY_MB} n'y entre pas et reste servi par le
+ * niveau Parquet.
+ */
+class MemoryResultCache {
+
+    // Coût fixe d'une entrée (clé, métadonnées, objets de la map), estimation
+    private static final long ENTRY_OVERHEAD_BYTES = 512;
+    private static final int SAMPLE_ROWS = 256;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final long ttlMs;
+
+    private final LinkedHashMap<String, CachedResult> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long usedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    MemoryResultCache(long maxBytes, long maxEntryBytes, long ttlMs) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+        this.ttlMs = ttlMs;
+    }
+
+    boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * @return une réponse qui lit directement les colonnes en cache, ou
+     *         {@code null} si la requête n'y est pas (ou plus)
+     */
+    synchronized ExecuteResponse get(String key) {
+        CachedResult result = entries.get(key);
+        if (result == null) {
+            misses++;
+            return null;
+        }
+        if (System.currentTimeMillis() - result.cachedAt > ttlMs) {
+            remove(key);
+            misses++;
+            return null;
+        }
+        hits++;
+        return new ExecuteResponse(result.metadata, result.rows());
+    }
+
+    /**
+     * @param cachedAt date du calcul du résultat : une entrée promue depuis le
+     *                 niveau Parquet garde l'âge de son fichier
+     * @return false si le résultat dépasse la taille maximale d'une entrée
+     */
+    boolean put(String key, ExecuteDuckDBResultSetMetaData metadata, List<List<Object>> rows, long cachedAt) {
+        if (!isEnabled()) {
+            return false;
+        }
+        // Conversion en colonnes hors verrou : c'est la partie coûteuse
+        CachedResult result = CachedResult.of(metadata, rows, cachedAt, maxEntryBytes);
+        if (result == null) {
+            return false;
+        }
+        synchronized (this) {
+            remove(key);
+            entries.put(key, result);
+            usedBytes += result.weight;
+            Iterator<Map.Entry<String, CachedResult>> eldest = entries.entrySet().iterator();
+            while (usedBytes > maxBytes && eldest.hasNext()) {
+                CachedResult evicted = eldest.next().getValue();
+                eldest.remove();
+                usedBytes -= evicted.weight;
+                evictions++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return false si la clé n'était pas en cache
+     */
+    synchronized boolean invalidate(String key) {
+        boolean present = entries.containsKey(key);
+        remove(key);
+        return present;
+    }
+
+    synchronized List<String> keys() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    synchronized void invalidateAll() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Taille approximative de {@code rows} une fois en mémoire, estimée sur un
+     * échantillon d'au plus {@code SAMPLE_ROWS} lignes réparties dans le
+     * résultat.
+     */
+    static long estimateBytes(List<List<Object>> rows) {
+        int count = rows.size();
+        if (count == 0) {
+            return ENTRY_OVERHEAD_BYTES;
+        }
+        int step = Math.max(1, count / SAMPLE_ROWS);
+        long sampled = 0;
+        int sampleCount = 0;
+        for (int i = 0; i < count; i += step) {
+            for (Object value : rows.get(i)) {
+                sampled += 8 + ObjectColumn.estimate(value);
+            }
+            sampleCount++;
+        }
+        return ENTRY_OVERHEAD_BYTES + sampled * count / sampleCount;
+    }
+
+    private void remove(String key) {
+        CachedResult previous = entries.remove(key);
+        if (previous != null) {
+            usedBytes -= previous.weight;
+        }
+    }
+
+    /**
+     * Résultat stocké par colonnes ; {@link #rows()} en donne une vue par
+     * lignes sans recopie, que Jackson sérialise comme une liste ordinaire.
+     */
+    private static final class CachedResult {
+        final ExecuteDuckDBResultSetMetaData metadata;
+        final int rowCount;
+        final Column[] columns;
+        final long weight;
+        final long cachedAt;
+
+        private CachedResult(ExecuteDuckDBResultSetMetaData metadata, int rowCount, Column[] columns, long weight, long cachedAt) {
+            this.metadata = metadata;
+            this.rowCount = rowCount;
+            this.columns = columns;
+            this.weight = weight;
+            this.cachedAt = cachedAt;
+        }
+
+        /**
+         * @return {@code null} dès que le poids dépasse {@code maxWeight}
+         */
+        static CachedResult of(ExecuteDuckDBResultSetMetaData metadata, List<List<Object>> rows, long cachedAt, long maxWeight) {
+            int columnCount = metadata.getColumn_count();
+            int rowCount = rows.size();
+            Column[] columns = new Column[columnCount];
+            long weight = ENTRY_OVERHEAD_BYTES;
+            for (int c = 0; c < columnCount; c++) {
+                columns[c] = Column.of(rows, c);
+                weight += columns[c].weight();
+                if (weight > maxWeight) {
+                    return null;
+                }
+            }
+            return new CachedResult(metadata, rowCount, columns, weight, cachedAt);
+        }
+
+        List<List<Object>> rows() {
+            return new AbstractList<List<Object>>() {
+                @Override
+                public List<Object> get(int row) {
+                    return new AbstractList<Object>() {
+                        @Override
+                        public Object get(int column) {
+                            return columns[column].get(row);
+                        }
+
+                        @Override
+                        public int size() {
+                            return columns.length;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return rowCount;
+                }
+            };
+        }
+    }
+
+    private abstract static class Column {
+        final BitSet nulls;
+
+        Column(BitSet nulls) {
+            this.nulls = nulls;
+        }
+
+        abstract Object get(int row);
+
+        abstract long weight();
+
+        /**
+         * Colonne primitive quand toutes les valeurs non nulles sont du même
+         * type numérique, tableau d'objets sinon.
+         */
+        static Column of(List<List<Object>> rows, int c) {
+            Class<?> type = null;
+            for (List<Object> row : rows) {
+                Object value = row.get(c);
+                if (value == null) {
+                    continue;
+                }
+                if (type == null) {
+                    type = value.getClass();
+                } else if (type != value.getClass()) {
+                    type = Object.class;
+                    break;
+                }
+            }
+            int n = rows.size();
+            BitSet nulls = new BitSet();
+            if (type == Long.class) {
+                long[] values = new long[n];
+                for (int r = 0; r < n; r++) {
+                    Object value = rows.get(r).get(c);
+                    if (value == null) {
+                        nulls.set(r);
+                    } else {
+                        values[r] = (Long) value;
+                    }
+                }
+                return new LongColumn(values, nulls);
+            }
+            if (type == Integer.class) {
+                int[] values = new int[n];
+                for (int r = 0; r < n; r++) {
+                    Object value = rows.get(r).get(c);
+                    if (value == null) {
+                        nulls.set(r);
+                    } else {
+                        values[r] = (Integer) value;
+                    }
+                }
+                return new IntColumn(values, nulls);
+            }
+            if (type == Double.class) {
+                double[] values = new double[n];
+                for (int r = 0; r < n; r++) {
+                    Object value = rows.get(r).get(c);
+                    if (value == null) {
+                        nulls.set(r);
+                    } else {
+                        values[r] = (Double) value;
+                    }
+                }
+                return new DoubleColumn(values, nulls);
+            }
+            Object[] values = new Object[n];
+            for (int r = 0; r < n; r++) {
+                values[r] = rows.get(r).get(c);
+            }
+            return new ObjectColumn(values);
+        }
+    }
+
+    private static final class LongColumn extends Column {
+        private final long[] values;
+
+        LongColumn(long[] values, BitSet nulls) {
+            super(nulls);
+            this.values = values;
+        }
+
+        @Override
+        Object get(int row) {
+            return nulls.get(row) ? null : values[row];
+        }
+
+        @Override
+        long weight() {
+            return 16L + 8L * values.length + nulls.size() / 8;
+        }
+    }
+
+    private static final class IntColumn extends Column {
+        private final int[] values;
+
+        IntColumn(int[] values, BitSet nulls) {
+            super(nulls);
+            this.values = values;
+        }
+
+        @Override
+        Object get(int row) {
+            return nulls.get(row) ? null : values[row];
+        }
+
+        @Override
+        long weight() {
+            return 16L + 4L * values.length + nulls.size() / 8;
+        }
+    }
+
+    private static final class DoubleColumn extends Column {
+        private final double[] values;
+
+        DoubleColumn(double[] values, BitSet nulls) {
+            super(nulls);
+            this.values = values;
+        }
+
+        @Override
+        Object get(int row) {
+            return nulls.get(row) ? null : values[row];
+        }
+
+        @Override
+        long weight() {
+            return 16L + 8L * values.length + nulls.size() / 8;
+        }
+    }
+
+    private static final class ObjectColumn extends Column {
+        private final Object[] values;
+
+        ObjectColumn(Object[] values) {
+            super(null);
+            this.values = values;
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        long weight() {
+            long weight = 16L + 8L * values.length;
+            for (Object value : values) {
+                weight += estimate(value);
+            }
+            return weight;
+        }
+
+        private static long estimate(Object value) {
+            if (value == null) {
+                return 0;
+            }
+            if (value instanceof String) {
+                return 40L + 2L * ((String) value).length();
+            }
+            if (value instanceof BigDecimal) {
+                return 64;
+            }
+            if (value instanceof Number || value instanceof Boolean) {
+                return 16;
+            }
+            // Dates, UUID, structures DuckDB... : estimation par leur forme texte
+            return 48L + 2L * value.toString().length();
+        }
+    }
+}
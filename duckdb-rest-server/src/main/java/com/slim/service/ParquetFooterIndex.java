@@ -0,0 +1,1038 @@
+package com.slim.service;
+
+import com.slim.dto.ExecuteDuckDBResultSetMetaData;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.calcite.sql.SqlAbstractDateTimeLiteral;
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlLiteral;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.SqlNumericLiteral;
+import org.apache.calcite.sql.SqlOrderBy;
+import org.apache.calcite.sql.SqlSelect;
+import org.apache.calcite.sql.fun.SqlBetweenOperator;
+import org.apache.calcite.sql.type.SqlTypeFamily;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Réponses lues dans les pieds des fichiers Parquet, sans lire de page de
+ * données : {@code count(*)}, {@code count(col)}, {@code min(col)} et
+ * {@code max(col)} sur {@code read_parquet('glob')}, sans {@code GROUP BY}.
+ * <p>
+ * Les pieds (lignes et statistiques de chaque groupe de lignes, lus via
+ * {@code parquet_metadata}) sont gardés par fichier avec sa taille et son
+ * ETag, à défaut sa date de modification ({@link SourceFiles}) : un fichier
+ * réécrit est relu. Seules les colonnes citées par les requêtes sont
+ * chargées. {@code FOOTER_INDEX_MAX_FILES} borne le nombre de fichiers
+ * indexés ; 0 désactive ces réponses.
+ * <p>
+ * Le {@code WHERE} (comparaisons à des littéraux, {@code IN},
+ * {@code BETWEEN}, {@code IS [NOT] NULL}, {@code AND}, {@code OR}) est évalué
+ * par groupe de lignes : exactement sur les colonnes hive, par le min et le
+ * max du groupe sur les autres. Un groupe où il n'est ni vrai pour toutes les
+ * lignes ni faux pour toutes, une statistique absente, une colonne flottante
+ * (les NaN échappent aux statistiques) ou une chaîne aux bornes tronquées
+ * renvoient la requête vers l'exécution normale.
+ * <p>
+ * La réponse est une requête de littéraux ({@code SELECT CAST('v' AS type) AS
+ * "nom"}) aux noms et types de colonnes de la requête d'origine : elle
+ * s'exécute par le chemin normal (curseur, Arrow, cache).
+ */
+@Service
+public class ParquetFooterIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParquetFooterIndex.class);
+
+    private static final int MAX_FILES = Integer.parseInt(System.getenv().getOrDefault("FOOTER_INDEX_MAX_FILES", "100000"));
+    // Fichiers lus par appel à parquet_metadata
+    private static final int BATCH = 500;
+
+    private static final Set<String> READERS = new HashSet<>(Arrays.asList("read_parquet", "parquet_scan"));
+    // Options de read_parquet sans effet sur les lignes ni sur les types
+    private static final Set<String> NEUTRAL_OPTIONS = new HashSet<>(Arrays.asList(
+        "hive_partitioning", "filename", "file_row_number"));
+    private static final Set<String> NUMBER_TYPES = new HashSet<>(Arrays.asList(
+        "TINYINT", "SMALLINT", "INTEGER", "BIGINT", "HUGEINT", "UTINYINT", "USMALLINT", "UINTEGER", "UBIGINT", "UHUGEINT"));
+    private static final Set<String> TIMESTAMP_TYPES = new HashSet<>(Arrays.asList(
+        "TIMESTAMP", "TIMESTAMP_S", "TIMESTAMP_MS", "TIMESTAMP_NS"));
+    private static final Pattern DATE_TEXT = Pattern.compile("[0-9]{4}-[0-9]{2}-[0-9]{2}");
+    private static final Pattern TIMESTAMP_TEXT = Pattern.compile("([0-9]{4}-[0-9]{2}-[0-9]{2} [0-9]{2}:[0-9]{2}:[0-9]{2})(?:\\.([0-9]{1,9}))?");
+    // Les statistiques TIMESTAMPTZ sont écrites en UTC
+    private static final String UTC_SUFFIX = "+00";
+
+    private final QueryFingerprint fingerprint;
+
+    // Pieds par chemin de fichier, du moins au plus récemment utilisé
+    private final Map<String, Footer> footers = new LinkedHashMap<String, Footer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Footer> eldest) {
+            return size() > MAX_FILES;
+        }
+    };
+    private final AtomicLong answered = new AtomicLong();
+    private final AtomicLong declined = new AtomicLong();
+    private final AtomicLong footerReads = new AtomicLong();
+    private final AtomicLong answerMs = new AtomicLong();
+
+    public ParquetFooterIndex(QueryFingerprint fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Répond à {@code sql} par les pieds de ses fichiers Parquet.
+     *
+     * @return une requête de littéraux équivalente, ou {@code null} si la
+     *         requête doit s'exécuter normalement
+     */
+    public String answer(Connection connection, String sql) {
+        if (MAX_FILES <= 0 || !candidate(sql)) {
+            return null;
+        }
+        Plan plan = Plan.of(fingerprint.source(sql));
+        if (plan == null) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        String answer;
+        try {
+            answer = answer(connection, sql, plan);
+        } catch (IOException | SQLException e) {
+            logger.debug("Pieds Parquet non lus, exécution normale : {}", e.getMessage());
+            answer = null;
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        answerMs.addAndGet(elapsed);
+        if (answer == null) {
+            declined.incrementAndGet();
+            return null;
+        }
+        answered.incrementAndGet();
+        logger.info("Réponse lue dans les pieds Parquet de {} en {} ms.", plan.glob, elapsed);
+        return answer;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (footers) {
+            stats.put("files", footers.size());
+        }
+        stats.put("max_files", MAX_FILES);
+        stats.put("answered", answered.get());
+        stats.put("declined", declined.get());
+        stats.put("footer_reads", footerReads.get());
+        stats.put("answer_ms", answerMs.get());
+        return stats;
+    }
+
+    /**
+     * Filtre sur le texte : évite d'analyser les requêtes qui ne peuvent pas
+     * avoir la forme attendue.
+     */
+    private static boolean candidate(String sql) {
+        String lower = sql.toLowerCase(Locale.ROOT);
+        return (lower.contains("read_parquet") || lower.contains("parquet_scan"))
+            && (lower.contains("count") || lower.contains("min") || lower.contains("max"))
+            && !lower.contains("group");
+    }
+
+    private String answer(Connection connection, String sql, Plan plan) throws IOException, SQLException {
+        List<CacheStorage.StoredFile> files = SourceFiles.list(plan.glob);
+        if (files == null || files.isEmpty()) {
+            return null;
+        }
+        List<Map<String, String>> partitions = new ArrayList<>();
+        for (CacheStorage.StoredFile file : files) {
+            partitions.add(SourceFiles.partitions(file.path));
+        }
+        // Colonnes hive : clés portées par les répertoires de tous les fichiers
+        Set<String> hive = new HashSet<>();
+        if (!Boolean.FALSE.equals(plan.hive)) {
+            hive.addAll(partitions.get(0).keySet());
+            for (Map<String, String> partition : partitions) {
+                hive.retainAll(partition.keySet());
+            }
+        }
+
+        Map<String, Kind> kinds = new HashMap<>();
+        if (!plan.columns.isEmpty()) {
+            List<String> quoted = new ArrayList<>();
+            for (String column : plan.columns) {
+                quoted.add(SubsumptionCache.quote(column));
+            }
+            ExecuteDuckDBResultSetMetaData described = PreparedStatementService.describe(connection,
+                "SELECT " + String.join(", ", quoted) + " FROM " + plan.from(), null);
+            int i = 0;
+            for (String column : plan.columns) {
+                Kind kind = Kind.of(described.getColumn_types_string()[i++]);
+                // Type sans statistiques sûres : la colonne ne peut qu'être comptée
+                if (kind == null && plan.compared.contains(column)) {
+                    return null;
+                }
+                kinds.put(column, kind);
+            }
+        }
+        ExecuteDuckDBResultSetMetaData result = PreparedStatementService.describe(connection, sql, null);
+        if (result.getColumn_count() != plan.aggregates.size()) {
+            return null;
+        }
+        for (int i = 0; i < plan.aggregates.size(); i++) {
+            Aggregate aggregate = plan.aggregates.get(i);
+            String type = result.getColumn_types_string()[i];
+            if (aggregate.function == Function.COUNT ? !"BIGINT".equals(type)
+                : Kind.of(type) != kinds.get(aggregate.column)) {
+                return null;
+            }
+        }
+
+        Map<String, Footer> read = footers(connection, files, plan.columns);
+        Map<String, String> physical = new HashMap<>();
+        Object[] values = new Object[plan.aggregates.size()];
+        String[] texts = new String[plan.aggregates.size()];
+        long[] counts = new long[plan.aggregates.size()];
+        for (int f = 0; f < files.size(); f++) {
+            Footer footer = read.get(files.get(f).path);
+            if (footer == null) {
+                return null;
+            }
+            Map<String, Range> fileRanges = new HashMap<>();
+            for (String column : plan.columns) {
+                Column stats = footer.columns.get(column);
+                if (hive.contains(column)) {
+                    // Colonne hive et colonne du fichier à la fois : laissée à DuckDB
+                    String text = partitions.get(f).get(column);
+                    if (stats != Column.ABSENT || !plainPartition(text)) {
+                        return null;
+                    }
+                    Kind kind = kinds.get(column);
+                    Object key = kind == null ? null : kind.key(text);
+                    if (key == null && kind != null) {
+                        return null;
+                    }
+                    fileRanges.put(column, new Range(key, key, text, text, 0L));
+                } else if (footer.rows.length > 0) {
+                    if (stats == null || stats == Column.ABSENT || stats == Column.AMBIGUOUS) {
+                        return null;
+                    }
+                    // Sans union_by_name, DuckDB suppose le même type dans tous les fichiers
+                    String known = physical.putIfAbsent(column, stats.physical);
+                    if (known != null && !known.equals(stats.physical)) {
+                        return null;
+                    }
+                }
+            }
+            for (int g = 0; g < footer.rows.length; g++) {
+                long rows = footer.rows[g];
+                Map<String, Range> ranges = new HashMap<>(fileRanges);
+                for (String column : plan.columns) {
+                    if (!ranges.containsKey(column)) {
+                        Range range = footer.columns.get(column).range(g, kinds.get(column));
+                        if (range == null) {
+                            return null;
+                        }
+                        ranges.put(column, range);
+                    }
+                }
+                Rows matched = plan.where == null ? Rows.ALL : new Group(plan.alias, ranges, kinds, rows).eval(plan.where);
+                if (matched == Rows.SOME) {
+                    return null;
+                }
+                if (matched == Rows.NONE || rows == 0) {
+                    continue;
+                }
+                for (int i = 0; i < plan.aggregates.size(); i++) {
+                    Aggregate aggregate = plan.aggregates.get(i);
+                    Range range = aggregate.column == null ? null : ranges.get(aggregate.column);
+                    if (aggregate.function == Function.COUNT) {
+                        if (range != null && range.nulls == null) {
+                            return null;
+                        }
+                        counts[i] += range == null ? rows : rows - range.nulls;
+                        continue;
+                    }
+                    if (range.nulls != null && range.nulls == rows) {
+                        continue;
+                    }
+                    boolean min = aggregate.function == Function.MIN;
+                    Object bound = min ? range.min : range.max;
+                    if (bound == null) {
+                        return null;
+                    }
+                    if (values[i] == null || (min ? compare(bound, values[i]) < 0 : compare(bound, values[i]) > 0)) {
+                        values[i] = bound;
+                        texts[i] = min ? range.minText : range.maxText;
+                    }
+                }
+            }
+        }
+
+        StringBuilder answer = new StringBuilder("SELECT ");
+        for (int i = 0; i < plan.aggregates.size(); i++) {
+            String value = plan.aggregates.get(i).function == Function.COUNT ? String.valueOf(counts[i])
+                : texts[i] == null ? "NULL" : SplitAggregate.literal(texts[i]);
+            answer.append(i > 0 ? ", " : "").append("CAST(").append(value).append(" AS ")
+                  .append(result.getColumn_types_string()[i]).append(") AS ")
+                  .append(SubsumptionCache.quote(result.getColumn_names()[i]));
+        }
+        return answer.toString();
+    }
+
+    /**
+     * Pieds de {@code files} avec les statistiques de {@code columns} ; les
+     * fichiers absents de l'index, modifiés depuis ou sans l'une de ces
+     * colonnes sont lus.
+     */
+    private Map<String, Footer> footers(Connection connection, List<CacheStorage.StoredFile> files,
+                                        Set<String> columns) throws SQLException {
+        Map<String, Footer> result = new HashMap<>();
+        List<CacheStorage.StoredFile> missing = new ArrayList<>();
+        for (CacheStorage.StoredFile file : files) {
+            Footer footer;
+            synchronized (footers) {
+                footer = footers.get(file.path);
+            }
+            if (footer != null && footer.matches(file) && footer.columns.keySet().containsAll(columns)) {
+                result.put(file.path, footer);
+            } else {
+                missing.add(file);
+            }
+        }
+        for (int from = 0; from < missing.size(); from += BATCH) {
+            List<CacheStorage.StoredFile> batch = missing.subList(from, Math.min(missing.size(), from + BATCH));
+            Map<String, Footer> fresh = read(connection, batch, columns);
+            synchronized (footers) {
+                footers.putAll(fresh);
+            }
+            result.putAll(fresh);
+        }
+        return result;
+    }
+
+    /**
+     * Lit par {@code parquet_metadata} les groupes de lignes de {@code files}
+     * et les statistiques de {@code columns}, complétées des colonnes déjà
+     * indexées pour la même version du fichier.
+     */
+    private Map<String, Footer> read(Connection connection, List<CacheStorage.StoredFile> files,
+                                     Set<String> columns) throws SQLException {
+        Set<String> wanted = new LinkedHashSet<>(columns);
+        List<String> paths = new ArrayList<>();
+        synchronized (footers) {
+            for (CacheStorage.StoredFile file : files) {
+                paths.add(SplitAggregate.literal(file.path));
+                Footer footer = footers.get(file.path);
+                if (footer != null && footer.matches(file)) {
+                    wanted.addAll(footer.columns.keySet());
+                }
+            }
+        }
+        List<String> names = new ArrayList<>();
+        for (String column : wanted) {
+            names.add(SplitAggregate.literal(column));
+        }
+        String sql = "SELECT file_name, row_group_id, row_group_num_rows, column_id, path_in_schema, type, stats_null_count, "
+            + "stats_min_value, stats_max_value, min_is_exact, max_is_exact FROM parquet_metadata([" + String.join(", ", paths) + "])"
+            + " WHERE column_id = 0" + (names.isEmpty() ? "" : " OR lower(path_in_schema) IN (" + String.join(", ", names) + ")");
+
+        // Par fichier : lignes par groupe, puis statistiques par colonne et par groupe
+        Map<String, TreeMap<Long, Long>> rows = new HashMap<>();
+        Map<String, Map<String, Map<Long, Object[]>>> stats = new HashMap<>();
+        Map<String, Map<String, String>> spelled = new HashMap<>();
+        Set<String> ambiguous = new HashSet<>();
+        Set<String> listed = new HashSet<>();
+        for (CacheStorage.StoredFile file : files) {
+            listed.add(file.path);
+        }
+        try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                String file = rs.getString(1);
+                if (!listed.contains(file)) {
+                    // Chemin réécrit par DuckDB : un fichier sans ligne ne se distinguerait plus d'un fichier vide
+                    throw new SQLException("Fichier inattendu dans parquet_metadata : " + file);
+                }
+                long group = rs.getLong(2);
+                rows.computeIfAbsent(file, k -> new TreeMap<>()).put(group, rs.getLong(3));
+                String path = rs.getString(5);
+                String column = path.toLowerCase(Locale.ROOT);
+                if (!wanted.contains(column)) {
+                    continue;
+                }
+                String known = spelled.computeIfAbsent(file, k -> new HashMap<>()).putIfAbsent(column, path);
+                if (known != null && !known.equals(path)) {
+                    // Deux colonnes ne différant que par la casse
+                    ambiguous.add(file + '\0' + column);
+                }
+                Long nulls = rs.getLong(7);
+                if (rs.wasNull()) {
+                    nulls = null;
+                }
+                boolean exact = rs.getBoolean(10) && rs.getBoolean(11);
+                stats.computeIfAbsent(file, k -> new HashMap<>()).computeIfAbsent(column, k -> new HashMap<>())
+                     .put(group, new Object[] {rs.getString(6), nulls, rs.getString(8), rs.getString(9), exact});
+            }
+        }
+        footerReads.addAndGet(files.size());
+
+        Map<String, Footer> read = new HashMap<>();
+        for (CacheStorage.StoredFile file : files) {
+            TreeMap<Long, Long> groups = rows.getOrDefault(file.path, new TreeMap<>());
+            long[] counts = new long[groups.size()];
+            int g = 0;
+            for (long count : groups.values()) {
+                counts[g++] = count;
+            }
+            Map<String, Column> indexed = new HashMap<>();
+            Map<String, Map<Long, Object[]>> fileStats = stats.getOrDefault(file.path, Collections.emptyMap());
+            for (String column : wanted) {
+                if (!fileStats.containsKey(column)) {
+                    indexed.put(column, Column.ABSENT);
+                } else if (ambiguous.contains(file.path + '\0' + column)) {
+                    indexed.put(column, Column.AMBIGUOUS);
+                } else {
+                    indexed.put(column, Column.of(groups, fileStats.get(column)));
+                }
+            }
+            read.put(file.path, new Footer(file.size, version(file), counts, indexed));
+        }
+        return read;
+    }
+
+    /**
+     * Valeur de répertoire hive que DuckDB lit telle quelle : ni NULL, ni
+     * encodée.
+     */
+    private static boolean plainPartition(String value) {
+        return value != null && !"NULL".equalsIgnoreCase(value) && !"__HIVE_DEFAULT_PARTITION__".equals(value)
+            && value.indexOf('%') < 0;
+    }
+
+    private static String version(CacheStorage.StoredFile file) {
+        return file.etag != null ? file.etag : String.valueOf(file.lastModified);
+    }
+
+    /**
+     * Comparaison de deux clés de même type ; les chaînes dans l'ordre de
+     * leurs octets UTF-8, comme DuckDB et les statistiques Parquet.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compare(Object a, Object b) {
+        if (a instanceof String) {
+            String x = (String) a;
+            String y = (String) b;
+            int i = 0;
+            int j = 0;
+            while (i < x.length() && j < y.length()) {
+                int cx = x.codePointAt(i);
+                int cy = y.codePointAt(j);
+                if (cx != cy) {
+                    return Integer.compare(cx, cy);
+                }
+                i += Character.charCount(cx);
+                j += Character.charCount(cy);
+            }
+            return Integer.compare(x.length() - i, y.length() - j);
+        }
+        return ((Comparable) a).compareTo(b);
+    }
+
+    private enum Function {
+        COUNT, MIN, MAX
+    }
+
+    /**
+     * Lignes d'un groupe qui vérifient une condition : toutes, aucune, ou
+     * certaines seulement (la condition ne se décide pas sur les statistiques).
+     */
+    private enum Rows {
+        ALL, NONE, SOME
+    }
+
+    /**
+     * Types DuckDB dont les statistiques Parquet se comparent sûrement, et
+     * clé de comparaison d'une valeur écrite en texte.
+     */
+    private enum Kind {
+        NUMBER, DATE, TIMESTAMP, TIMESTAMP_TZ, STRING, BOOLEAN;
+
+        static Kind of(String type) {
+            if (NUMBER_TYPES.contains(type) || type.startsWith("DECIMAL")) {
+                return NUMBER;
+            }
+            if (TIMESTAMP_TYPES.contains(type)) {
+                return TIMESTAMP;
+            }
+            switch (type) {
+                case "DATE":
+                    return DATE;
+                case "TIMESTAMP WITH TIME ZONE":
+                    return TIMESTAMP_TZ;
+                case "VARCHAR":
+                    return STRING;
+                case "BOOLEAN":
+                    return BOOLEAN;
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * @return la clé de {@code text}, ou {@code null} s'il n'a pas la
+         *         forme attendue
+         */
+        Object key(String text) {
+            if (text == null) {
+                return null;
+            }
+            switch (this) {
+                case NUMBER:
+                    try {
+                        return new BigDecimal(text);
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                case DATE:
+                    return DATE_TEXT.matcher(text).matches() ? text : null;
+                case TIMESTAMP:
+                    return timestamp(text);
+                case TIMESTAMP_TZ:
+                    return text.endsWith(UTC_SUFFIX) ? timestamp(text.substring(0, text.length() - UTC_SUFFIX.length())) : null;
+                case STRING:
+                    return text;
+                default:
+                    return "true".equals(text) ? Boolean.TRUE : "false".equals(text) ? Boolean.FALSE : null;
+            }
+        }
+
+        /**
+         * Horodatage à fraction de neuf chiffres : l'ordre du texte devient
+         * celui des instants.
+         */
+        private static String timestamp(String text) {
+            Matcher matcher = TIMESTAMP_TEXT.matcher(text);
+            if (!matcher.matches()) {
+                return null;
+            }
+            String fraction = matcher.group(2) == null ? "" : matcher.group(2);
+            return matcher.group(1) + "." + (fraction + "000000000").substring(0, 9);
+        }
+    }
+
+    /**
+     * {@code count(*)}, {@code count(col)}, {@code min(col)} ou
+     * {@code max(col)} ; {@code column} en minuscules, {@code null} pour
+     * compter les lignes.
+     */
+    private static final class Aggregate {
+        final Function function;
+        final String column;
+
+        Aggregate(Function function, String column) {
+            this.function = function;
+            this.column = column;
+        }
+    }
+
+    /**
+     * Requête reconnue : agrégats, source et condition.
+     */
+    private static final class Plan {
+        String glob;
+        // null : détection des partitions hive par DuckDB
+        Boolean hive;
+        String alias;
+        SqlNode where;
+        final List<Aggregate> aggregates = new ArrayList<>();
+        // Colonnes citées, en minuscules ; comparées : dans le WHERE, un min ou un max
+        final Set<String> columns = new LinkedHashSet<>();
+        final Set<String> compared = new HashSet<>();
+
+        /**
+         * @return {@code null} si la requête n'a pas la forme
+         *         {@code SELECT agrégats FROM read_parquet('glob') [WHERE ...] [LIMIT n]}
+         */
+        static Plan of(QueryFingerprint.Source source) {
+            if (source == null) {
+                return null;
+            }
+            SqlNode node = source.node;
+            if (node instanceof SqlOrderBy) {
+                // Une seule ligne : seul LIMIT 0 ou OFFSET la changerait
+                SqlOrderBy orderBy = (SqlOrderBy) node;
+                if (orderBy.offset != null || orderBy.fetch != null && (!(orderBy.fetch instanceof SqlNumericLiteral)
+                    || ((SqlNumericLiteral) orderBy.fetch).bigDecimalValue().signum() <= 0)) {
+                    return null;
+                }
+                node = orderBy.query;
+            }
+            if (!(node instanceof SqlSelect)) {
+                return null;
+            }
+            SqlSelect select = (SqlSelect) node;
+            if (select.isDistinct() || select.getGroup() != null || select.getHaving() != null
+                || (select.getWindowList() != null && select.getWindowList().size() > 0) || select.getQualify() != null) {
+                return null;
+            }
+            Plan plan = new Plan();
+            if (!plan.from(select.getFrom())) {
+                return null;
+            }
+            for (SqlNode item : select.getSelectList()) {
+                Aggregate aggregate = plan.aggregate(SubsumptionCache.stripAlias(item));
+                if (aggregate == null) {
+                    return null;
+                }
+                plan.aggregates.add(aggregate);
+            }
+            plan.where = select.getWhere();
+            if (plan.where != null && !plan.columns(plan.where)) {
+                return null;
+            }
+            return plan;
+        }
+
+        /**
+         * {@code read_parquet('glob', options) [AS alias]}.
+         */
+        private boolean from(SqlNode from) {
+            if (from != null && from.getKind() == SqlKind.AS && ((SqlCall) from).operandCount() == 2) {
+                alias = ((SqlCall) from).operand(1).toString();
+                from = ((SqlCall) from).operand(0);
+            }
+            if (from == null || from.getKind() != SqlKind.COLLECTION_TABLE) {
+                return false;
+            }
+            SqlNode call = ((SqlCall) from).operand(0);
+            if (!(call instanceof SqlCall) || !READERS.contains(SubsumptionCache.functionName((SqlCall) call))) {
+                return false;
+            }
+            List<SqlNode> operands = ((SqlCall) call).getOperandList();
+            if (operands.isEmpty() || !(operands.get(0) instanceof SqlLiteral)
+                || ((SqlLiteral) operands.get(0)).getTypeName().getFamily() != SqlTypeFamily.CHARACTER) {
+                return false;
+            }
+            glob = ((SqlLiteral) operands.get(0)).getValueAs(String.class);
+            for (SqlNode option : operands.subList(1, operands.size())) {
+                if (option.getKind() != SqlKind.EQUALS
+                    || !NEUTRAL_OPTIONS.contains(((SqlCall) option).operand(0).toString().toLowerCase(Locale.ROOT))) {
+                    return false;
+                }
+                if ("hive_partitioning".equalsIgnoreCase(((SqlCall) option).operand(0).toString())) {
+                    String value = SubsumptionCache.canonical(((SqlCall) option).operand(1));
+                    if (!"TRUE".equalsIgnoreCase(value) && !"FALSE".equalsIgnoreCase(value)) {
+                        return false;
+                    }
+                    hive = "TRUE".equalsIgnoreCase(value);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Source réduite à ce qui fixe les colonnes et leurs types.
+         */
+        String from() {
+            return "read_parquet(" + SplitAggregate.literal(glob) + (hive == null ? "" : ", hive_partitioning = " + hive) + ")";
+        }
+
+        private Aggregate aggregate(SqlNode expr) {
+            if (!(expr instanceof SqlCall) || expr instanceof SqlSelect || ((SqlCall) expr).getFunctionQuantifier() != null
+                || ((SqlCall) expr).operandCount() > 1) {
+                return null;
+            }
+            SqlCall call = (SqlCall) expr;
+            String name = SubsumptionCache.functionName(call);
+            SqlNode operand = call.operandCount() == 0 ? null : call.operand(0);
+            if ("count".equals(name)) {
+                // count(*), count() et count(constante non nulle) comptent les lignes
+                if (operand == null || SubsumptionCache.isBareStar(operand)
+                    || operand instanceof SqlLiteral && ((SqlLiteral) operand).getTypeName() != SqlTypeName.NULL) {
+                    return new Aggregate(Function.COUNT, null);
+                }
+            }
+            String column = column(operand);
+            if (column == null) {
+                return null;
+            }
+            columns.add(column);
+            switch (name) {
+                case "count":
+                    return new Aggregate(Function.COUNT, column);
+                case "min":
+                    compared.add(column);
+                    return new Aggregate(Function.MIN, column);
+                case "max":
+                    compared.add(column);
+                    return new Aggregate(Function.MAX, column);
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * Relève les colonnes de la condition.
+         *
+         * @return {@code false} si elle cite une colonne d'une autre source ou
+         *         contient une sous-requête
+         */
+        private boolean columns(SqlNode node) {
+            if (node instanceof SqlIdentifier) {
+                String column = column(node);
+                if (column == null) {
+                    return false;
+                }
+                columns.add(column);
+                compared.add(column);
+            } else if (node instanceof SqlSelect || node instanceof SqlOrderBy) {
+                return false;
+            } else if (node instanceof SqlNodeList) {
+                for (SqlNode child : (SqlNodeList) node) {
+                    if (!columns(child)) {
+                        return false;
+                    }
+                }
+            } else if (node instanceof SqlCall) {
+                for (SqlNode operand : ((SqlCall) node).getOperandList()) {
+                    if (operand != null && !columns(operand)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        String column(SqlNode node) {
+            return Group.column(node, alias);
+        }
+    }
+
+    /**
+     * Statistiques d'une colonne dans un groupe de lignes ; bornes
+     * {@code null} si elles manquent.
+     */
+    private static final class Range {
+        final Object min;
+        final Object max;
+        final String minText;
+        final String maxText;
+        final Long nulls;
+
+        Range(Object min, Object max, String minText, String maxText, Long nulls) {
+            this.min = min;
+            this.max = max;
+            this.minText = minText;
+            this.maxText = maxText;
+            this.nulls = nulls;
+        }
+    }
+
+    /**
+     * Évaluation d'une condition sur un groupe de lignes.
+     */
+    private static final class Group {
+        final String alias;
+        final Map<String, Range> ranges;
+        final Map<String, Kind> kinds;
+        final long rows;
+
+        Group(String alias, Map<String, Range> ranges, Map<String, Kind> kinds, long rows) {
+            this.alias = alias;
+            this.ranges = ranges;
+            this.kinds = kinds;
+            this.rows = rows;
+        }
+
+        Rows eval(SqlNode node) {
+            SqlCall call = node instanceof SqlCall ? (SqlCall) node : null;
+            if (call == null) {
+                return Rows.SOME;
+            }
+            switch (call.getKind()) {
+                case AND:
+                case OR: {
+                    boolean and = call.getKind() == SqlKind.AND;
+                    boolean some = false;
+                    for (SqlNode operand : call.getOperandList()) {
+                        Rows rows = eval(operand);
+                        if (rows == (and ? Rows.NONE : Rows.ALL)) {
+                            return rows;
+                        }
+                        some |= rows == Rows.SOME;
+                    }
+                    return some ? Rows.SOME : and ? Rows.ALL : Rows.NONE;
+                }
+                case IS_NULL:
+                case IS_NOT_NULL: {
+                    String column = column(call.operand(0), alias);
+                    Range range = column == null ? null : ranges.get(column);
+                    if (range == null || range.nulls == null) {
+                        return Rows.SOME;
+                    }
+                    boolean isNull = call.getKind() == SqlKind.IS_NULL;
+                    if (range.nulls == rows) {
+                        return isNull ? Rows.ALL : Rows.NONE;
+                    }
+                    if (range.nulls == 0) {
+                        return isNull ? Rows.NONE : Rows.ALL;
+                    }
+                    return Rows.SOME;
+                }
+                case IN: {
+                    if (!(call.operand(1) instanceof SqlNodeList)) {
+                        return Rows.SOME;
+                    }
+                    boolean some = false;
+                    boolean all = false;
+                    for (SqlNode value : (SqlNodeList) call.operand(1)) {
+                        Rows rows = compare(SqlKind.EQUALS, call.operand(0), value);
+                        some |= rows == Rows.SOME;
+                        all |= rows == Rows.ALL;
+                    }
+                    return all ? Rows.ALL : some ? Rows.SOME : Rows.NONE;
+                }
+                case BETWEEN: {
+                    SqlBetweenOperator between = (SqlBetweenOperator) call.getOperator();
+                    if (between.isNegated() || between.flag == SqlBetweenOperator.Flag.SYMMETRIC) {
+                        return Rows.SOME;
+                    }
+                    Rows low = compare(SqlKind.GREATER_THAN_OR_EQUAL, call.operand(0), call.operand(1));
+                    Rows high = compare(SqlKind.LESS_THAN_OR_EQUAL, call.operand(0), call.operand(2));
+                    if (low == Rows.NONE || high == Rows.NONE) {
+                        return Rows.NONE;
+                    }
+                    return low == Rows.ALL && high == Rows.ALL ? Rows.ALL : Rows.SOME;
+                }
+                case EQUALS:
+                case NOT_EQUALS:
+                case LESS_THAN:
+                case LESS_THAN_OR_EQUAL:
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQUAL:
+                    if (column(call.operand(0), alias) != null) {
+                        return compare(call.getKind(), call.operand(0), call.operand(1));
+                    }
+                    return compare(call.getKind().reverse(), call.operand(1), call.operand(0));
+                default:
+                    return Rows.SOME;
+            }
+        }
+
+        /**
+         * {@code colonne op littéral} sur le groupe.
+         */
+        private Rows compare(SqlKind op, SqlNode left, SqlNode right) {
+            String column = column(left, alias);
+            Range range = column == null ? null : ranges.get(column);
+            Object value = range == null ? null : literal(right, kinds.get(column));
+            if (value == null) {
+                return Rows.SOME;
+            }
+            if (range.nulls != null && range.nulls == rows) {
+                // Comparer NULL ne retient aucune ligne
+                return Rows.NONE;
+            }
+            if (range.min == null || range.max == null) {
+                return Rows.SOME;
+            }
+            boolean noNulls = range.nulls != null && range.nulls == 0;
+            int low = ParquetFooterIndex.compare(range.min, value);
+            int high = ParquetFooterIndex.compare(range.max, value);
+            boolean all;
+            boolean none;
+            switch (op) {
+                case EQUALS:
+                    all = low == 0 && high == 0;
+                    none = low > 0 || high < 0;
+                    break;
+                case NOT_EQUALS:
+                    all = low > 0 || high < 0;
+                    none = low == 0 && high == 0;
+                    break;
+                case LESS_THAN:
+                    all = high < 0;
+                    none = low >= 0;
+                    break;
+                case LESS_THAN_OR_EQUAL:
+                    all = high <= 0;
+                    none = low > 0;
+                    break;
+                case GREATER_THAN:
+                    all = low > 0;
+                    none = high <= 0;
+                    break;
+                case GREATER_THAN_OR_EQUAL:
+                    all = low >= 0;
+                    none = high < 0;
+                    break;
+                default:
+                    return Rows.SOME;
+            }
+            if (none) {
+                return Rows.NONE;
+            }
+            return all && noNulls ? Rows.ALL : Rows.SOME;
+        }
+
+        /**
+         * Clé d'un littéral comparé à une colonne de type {@code kind} ; un
+         * littéral que DuckDB convertirait autrement (chaîne comparée à un
+         * nombre, horodatage avec fuseau...) donne {@code null}.
+         */
+        private static Object literal(SqlNode node, Kind kind) {
+            if (node.getKind() == SqlKind.MINUS_PREFIX && ((SqlCall) node).operand(0) instanceof SqlNumericLiteral) {
+                Object value = literal(((SqlCall) node).operand(0), kind);
+                return value == null ? null : ((BigDecimal) value).negate();
+            }
+            if (node instanceof SqlNumericLiteral) {
+                return kind == Kind.NUMBER ? ((SqlNumericLiteral) node).bigDecimalValue() : null;
+            }
+            if (!(node instanceof SqlLiteral)) {
+                return null;
+            }
+            SqlLiteral literal = (SqlLiteral) node;
+            if (literal.getTypeName() == SqlTypeName.BOOLEAN) {
+                return kind == Kind.BOOLEAN ? literal.getValueAs(Boolean.class) : null;
+            }
+            String text;
+            if (node instanceof SqlAbstractDateTimeLiteral) {
+                text = ((SqlAbstractDateTimeLiteral) node).toFormattedString();
+            } else if (literal.getTypeName().getFamily() == SqlTypeFamily.CHARACTER) {
+                text = literal.getValueAs(String.class);
+            } else {
+                return null;
+            }
+            switch (kind) {
+                case STRING:
+                    return node instanceof SqlAbstractDateTimeLiteral ? null : text;
+                case DATE:
+                    return kind.key(text);
+                case TIMESTAMP:
+                    // '2024-01-01' vaut minuit
+                    return kind.key(DATE_TEXT.matcher(text).matches() ? text + " 00:00:00" : text);
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * Colonne citée par {@code node}, en minuscules, éventuellement
+         * qualifiée par {@code alias}.
+         */
+        static String column(SqlNode node, String alias) {
+            if (!(node instanceof SqlIdentifier) || ((SqlIdentifier) node).isStar()) {
+                return null;
+            }
+            List<String> names = ((SqlIdentifier) node).names;
+            if (names.size() == 1) {
+                return names.get(0).toLowerCase(Locale.ROOT);
+            }
+            return names.size() == 2 && names.get(0).equalsIgnoreCase(alias) ? names.get(1).toLowerCase(Locale.ROOT) : null;
+        }
+    }
+
+    /**
+     * Pied d'une version d'un fichier : lignes par groupe et statistiques des
+     * colonnes déjà lues, par nom en minuscules.
+     */
+    private static final class Footer {
+        final long size;
+        final String version;
+        final long[] rows;
+        final Map<String, Column> columns;
+
+        Footer(long size, String version, long[] rows, Map<String, Column> columns) {
+            this.size = size;
+            this.version = version;
+            this.rows = rows;
+            this.columns = columns;
+        }
+
+        boolean matches(CacheStorage.StoredFile file) {
+            return size == file.size && version.equals(version(file));
+        }
+    }
+
+    /**
+     * Statistiques d'une colonne, par groupe de lignes.
+     */
+    private static final class Column {
+        // Colonne absente du fichier, ou nom porté par deux colonnes de casses différentes
+        static final Column ABSENT = new Column(null, 0);
+        static final Column AMBIGUOUS = new Column(null, 0);
+
+        final String physical;
+        final Long[] nulls;
+        final String[] min;
+        final String[] max;
+        final boolean[] exact;
+
+        Column(String physical, int groups) {
+            this.physical = physical;
+            this.nulls = new Long[groups];
+            this.min = new String[groups];
+            this.max = new String[groups];
+            this.exact = new boolean[groups];
+        }
+
+        static Column of(TreeMap<Long, Long> groups, Map<Long, Object[]> stats) {
+            Column column = null;
+            int g = 0;
+            for (Long group : groups.keySet()) {
+                Object[] values = stats.get(group);
+                if (values == null) {
+                    return ABSENT;
+                }
+                if (column == null) {
+                    column = new Column((String) values[0], groups.size());
+                }
+                column.nulls[g] = (Long) values[1];
+                column.min[g] = (String) values[2];
+                column.max[g] = (String) values[3];
+                column.exact[g] = (Boolean) values[4];
+                g++;
+            }
+            return column == null ? ABSENT : column;
+        }
+
+        /**
+         * @return les statistiques du groupe {@code g}, ou {@code null} si une
+         *         borne présente n'a pas la forme du type
+         */
+        Range range(int g, Kind kind) {
+            if (kind == null || kind == Kind.STRING && !exact[g]) {
+                return new Range(null, null, null, null, nulls[g]);
+            }
+            Object low = kind.key(min[g]);
+            Object high = kind.key(max[g]);
+            if (low == null && min[g] != null || high == null && max[g] != null) {
+                return null;
+            }
+            return new Range(low, high, min[g], max[g], nulls[g]);
+        }
+    }
+}
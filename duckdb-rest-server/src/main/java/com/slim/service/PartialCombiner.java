@@ -0,0 +1,453 @@
+package com.slim.service;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recombine les agrégats partiels des partitions d'un {@link SplitAggregate}.
+ * <p>
+ * Les résultats partiels sont lus colonne par colonne : {@code BIGINT} et
+ * {@code DOUBLE} (comptes, sommes de flottants, min/max numériques) dans des
+ * tableaux primitifs, les autres types (sommes {@code HUGEINT} et
+ * {@code DECIMAL}, clés) en objets. Chaque lot reçoit d'abord le numéro de
+ * groupe de ses lignes, puis chaque agrégat est replié d'une boucle sur sa
+ * colonne. Les valeurs recombinées gardent le type Java que DuckDB renvoie
+ * pour la requête entière : une somme de sommes {@code HUGEINT} reste un
+ * {@code BigInteger}, un compte un {@code Long}.
+ * <p>
+ * Pour un top-N, les lignes des morceaux sont gardées telles quelles, puis
+ * triées et limitées ; au fil des lots, seules les {@code OFFSET + LIMIT}
+ * premières sont conservées.
+ */
+final class PartialCombiner {
+
+    private final SplitAggregate split;
+    private final Map<Object, Integer> groupIds = new HashMap<>();
+    // Valeurs des clés, par colonne de clé puis par groupe
+    private final List<List<Object>> keyValues = new ArrayList<>();
+    private final Accumulator[] accumulators;
+    private int groups;
+    // Top-N : lignes reçues, élaguées au fil des lots
+    private final List<List<Object>> topRows = new ArrayList<>();
+
+    PartialCombiner(SplitAggregate split) {
+        this.split = split;
+        for (int k = 0; k < split.keys.size(); k++) {
+            keyValues.add(new ArrayList<>());
+        }
+        accumulators = new Accumulator[split.partials.size()];
+        for (int p = 0; p < accumulators.length; p++) {
+            accumulators[p] = new Accumulator(split.partials.get(p).op);
+        }
+        if (split.keys.isEmpty() && !split.topN) {
+            // Agrégat global : une ligne, même sans aucune ligne lue
+            groups = 1;
+            grow();
+        }
+    }
+
+    /**
+     * Lit le résultat d'une partition : les clés puis les agrégats partiels,
+     * dans l'ordre de {@link SplitAggregate#subquery}. Les clés sont lues en
+     * objets, même numériques, pour servir de clé de regroupement.
+     */
+    static Batch read(ResultSet rs, int keyCount) throws SQLException {
+        ResultSetMetaData meta = rs.getMetaData();
+        Column[] columns = new Column[meta.getColumnCount()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new Column(i < keyCount ? null : meta.getColumnTypeName(i + 1));
+        }
+        int rows = 0;
+        while (rs.next()) {
+            for (int i = 0; i < columns.length; i++) {
+                columns[i].read(rs, i + 1, rows);
+            }
+            rows++;
+        }
+        return new Batch(columns, rows);
+    }
+
+    /**
+     * Lot formé de lignes déjà lues, typées comme celles d'un ResultSet.
+     */
+    static Batch read(List<String> types, List<List<Object>> rows, int keyCount) {
+        Column[] columns = new Column[types.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = new Column(i < keyCount ? null : types.get(i));
+        }
+        for (int row = 0; row < rows.size(); row++) {
+            for (int i = 0; i < columns.length; i++) {
+                columns[i].set(row, rows.get(row).get(i));
+            }
+        }
+        return new Batch(columns, rows.size());
+    }
+
+    synchronized void add(Batch batch) {
+        if (split.topN) {
+            addRows(batch);
+            return;
+        }
+        int keyCount = keyValues.size();
+        int[] ids = new int[batch.rows];
+        if (keyCount > 0) {
+            for (int row = 0; row < batch.rows; row++) {
+                Object key = keyCount == 1 ? hashable(batch.columns[0].objects[row]) : compositeKey(batch, row, keyCount);
+                Integer id = groupIds.get(key);
+                if (id == null) {
+                    id = groups++;
+                    groupIds.put(key, id);
+                    for (int k = 0; k < keyCount; k++) {
+                        keyValues.get(k).add(batch.columns[k].objects[row]);
+                    }
+                }
+                ids[row] = id;
+            }
+            grow();
+        }
+        for (int p = 0; p < accumulators.length; p++) {
+            accumulators[p].add(ids, batch.columns[keyCount + p], batch.rows);
+        }
+    }
+
+    private void addRows(Batch batch) {
+        for (int row = 0; row < batch.rows; row++) {
+            List<Object> values = new ArrayList<>(batch.columns.length);
+            for (Column column : batch.columns) {
+                values.add(column.objects[row]);
+            }
+            topRows.add(values);
+        }
+        int keep = (int) Math.min(Integer.MAX_VALUE / 2, split.offset + split.limit);
+        if (topRows.size() > 2 * keep) {
+            topRows.sort(comparator(split.orders));
+            topRows.subList(keep, topRows.size()).clear();
+        }
+    }
+
+    /**
+     * @return les lignes du résultat, triées et limitées comme la requête
+     */
+    synchronized List<List<Object>> result() {
+        if (split.topN) {
+            return slice(new ArrayList<>(topRows));
+        }
+        List<List<Object>> rows = new ArrayList<>(groups);
+        int columns = split.keyOf.length;
+        for (int g = 0; g < groups; g++) {
+            List<Object> row = new ArrayList<>(columns);
+            for (int c = 0; c < columns; c++) {
+                row.add(split.keyOf[c] >= 0 ? keyValues.get(split.keyOf[c]).get(g) : value(split.aggregateOf[c], g));
+            }
+            rows.add(row);
+        }
+        return slice(rows);
+    }
+
+    private List<List<Object>> slice(List<List<Object>> rows) {
+        if (!split.orders.isEmpty()) {
+            rows.sort(comparator(split.orders));
+        }
+        int from = (int) Math.min(rows.size(), split.offset);
+        int to = split.limit < 0 ? rows.size() : (int) Math.min(rows.size(), from + split.limit);
+        return from == 0 && to == rows.size() ? rows : new ArrayList<>(rows.subList(from, to));
+    }
+
+    private Object value(SplitAggregate.Aggregate aggregate, int group) {
+        Object value = accumulators[aggregate.partial].get(group);
+        if (aggregate.op != SplitAggregate.Op.AVG) {
+            return value;
+        }
+        Object count = accumulators[aggregate.count].get(group);
+        if (value == null || count == null || ((Number) count).longValue() == 0) {
+            return null;
+        }
+        long n = ((Number) count).longValue();
+        if (value instanceof BigInteger) {
+            return new BigDecimal((BigInteger) value).divide(BigDecimal.valueOf(n), MathContext.DECIMAL128).doubleValue();
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).divide(BigDecimal.valueOf(n), MathContext.DECIMAL128).doubleValue();
+        }
+        return ((Number) value).doubleValue() / n;
+    }
+
+    private void grow() {
+        for (Accumulator accumulator : accumulators) {
+            accumulator.ensureCapacity(groups);
+        }
+    }
+
+    private static Object compositeKey(Batch batch, int row, int keyCount) {
+        Object[] key = new Object[keyCount];
+        for (int k = 0; k < keyCount; k++) {
+            key[k] = hashable(batch.columns[k].objects[row]);
+        }
+        return Arrays.asList(key);
+    }
+
+    // Un tableau n'a pas d'égalité par contenu
+    private static Object hashable(Object value) {
+        return value instanceof byte[] ? ByteBuffer.wrap((byte[]) value) : value;
+    }
+
+    private static Comparator<List<Object>> comparator(List<SplitAggregate.Order> orders) {
+        return (a, b) -> {
+            for (SplitAggregate.Order order : orders) {
+                Object x = a.get(order.column);
+                Object y = b.get(order.column);
+                int cmp;
+                if (x == null || y == null) {
+                    // NULL reste en tête ou en queue quel que soit le sens
+                    cmp = x == y ? 0 : (x == null) == order.nullsFirst ? -1 : 1;
+                } else {
+                    cmp = compare(x, y);
+                    if (order.descending) {
+                        cmp = -cmp;
+                    }
+                }
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        };
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static int compare(Object x, Object y) {
+        if (x.getClass() == y.getClass() && x instanceof Comparable) {
+            return ((Comparable) x).compareTo(y);
+        }
+        if (x instanceof Number && y instanceof Number) {
+            if (x instanceof Double || x instanceof Float || y instanceof Double || y instanceof Float) {
+                return Double.compare(((Number) x).doubleValue(), ((Number) y).doubleValue());
+            }
+            return new BigDecimal(x.toString()).compareTo(new BigDecimal(y.toString()));
+        }
+        throw new IllegalStateException("valeurs non comparables : " + x.getClass().getSimpleName()
+                                        + ", " + y.getClass().getSimpleName());
+    }
+
+    /**
+     * Colonne d'un résultat partiel.
+     */
+    static final class Column {
+        private static final int LONG = 0;
+        private static final int DOUBLE = 1;
+        private static final int OBJECT = 2;
+
+        private final int kind;
+        long[] longs;
+        double[] doubles;
+        Object[] objects;
+        boolean[] nulls = new boolean[16];
+
+        // type null : colonne lue en objets
+        Column(String type) {
+            kind = "BIGINT".equals(type) ? LONG : "DOUBLE".equals(type) ? DOUBLE : OBJECT;
+            if (kind == LONG) {
+                longs = new long[16];
+            } else if (kind == DOUBLE) {
+                doubles = new double[16];
+            } else {
+                objects = new Object[16];
+            }
+        }
+
+        void read(ResultSet rs, int index, int row) throws SQLException {
+            ensureCapacity(row);
+            if (kind == LONG) {
+                longs[row] = rs.getLong(index);
+            } else if (kind == DOUBLE) {
+                doubles[row] = rs.getDouble(index);
+            } else {
+                objects[row] = rs.getObject(index);
+            }
+            nulls[row] = rs.wasNull();
+        }
+
+        void set(int row, Object value) {
+            ensureCapacity(row);
+            nulls[row] = value == null;
+            if (value == null) {
+                return;
+            }
+            if (kind == LONG) {
+                longs[row] = ((Number) value).longValue();
+            } else if (kind == DOUBLE) {
+                doubles[row] = ((Number) value).doubleValue();
+            } else {
+                objects[row] = value;
+            }
+        }
+
+        private void ensureCapacity(int row) {
+            if (row == nulls.length) {
+                int capacity = row * 2;
+                nulls = Arrays.copyOf(nulls, capacity);
+                if (kind == LONG) {
+                    longs = Arrays.copyOf(longs, capacity);
+                } else if (kind == DOUBLE) {
+                    doubles = Arrays.copyOf(doubles, capacity);
+                } else {
+                    objects = Arrays.copyOf(objects, capacity);
+                }
+            }
+        }
+    }
+
+    static final class Batch {
+        final Column[] columns;
+        final int rows;
+
+        Batch(Column[] columns, int rows) {
+            this.columns = columns;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Un agrégat partiel replié par groupe : somme (aussi pour les comptes),
+     * minimum ou maximum.
+     */
+    private static final class Accumulator {
+        private final SplitAggregate.Op op;
+        private int kind = -1;
+        private long[] longs = new long[0];
+        private double[] doubles = new double[0];
+        private Object[] objects = new Object[0];
+        private boolean[] seen = new boolean[0];
+
+        Accumulator(SplitAggregate.Op op) {
+            this.op = op == SplitAggregate.Op.COUNT ? SplitAggregate.Op.SUM : op;
+        }
+
+        void ensureCapacity(int groups) {
+            if (seen.length < groups) {
+                int capacity = Math.max(groups, seen.length * 2);
+                seen = Arrays.copyOf(seen, capacity);
+                longs = Arrays.copyOf(longs, capacity);
+                doubles = Arrays.copyOf(doubles, capacity);
+                objects = Arrays.copyOf(objects, capacity);
+            }
+        }
+
+        void add(int[] groups, Column column, int rows) {
+            if (kind < 0) {
+                kind = column.kind;
+            } else if (kind != column.kind) {
+                throw new IllegalStateException("types de résultats partiels différents entre partitions");
+            }
+            if (kind == Column.LONG) {
+                addLongs(groups, column, rows);
+            } else if (kind == Column.DOUBLE) {
+                addDoubles(groups, column, rows);
+            } else {
+                addObjects(groups, column, rows);
+            }
+        }
+
+        private void addLongs(int[] groups, Column column, int rows) {
+            long[] values = column.longs;
+            boolean[] nulls = column.nulls;
+            for (int i = 0; i < rows; i++) {
+                if (nulls[i]) {
+                    continue;
+                }
+                int g = groups[i];
+                long v = values[i];
+                if (!seen[g]) {
+                    longs[g] = v;
+                    seen[g] = true;
+                } else if (op == SplitAggregate.Op.SUM) {
+                    longs[g] = Math.addExact(longs[g], v);
+                } else if (op == SplitAggregate.Op.MIN ? v < longs[g] : v > longs[g]) {
+                    longs[g] = v;
+                }
+            }
+        }
+
+        private void addDoubles(int[] groups, Column column, int rows) {
+            double[] values = column.doubles;
+            boolean[] nulls = column.nulls;
+            for (int i = 0; i < rows; i++) {
+                if (nulls[i]) {
+                    continue;
+                }
+                int g = groups[i];
+                double v = values[i];
+                if (!seen[g]) {
+                    doubles[g] = v;
+                    seen[g] = true;
+                } else if (op == SplitAggregate.Op.SUM) {
+                    doubles[g] += v;
+                } else {
+                    // NaN au-dessus de tout, comme dans DuckDB
+                    int cmp = Double.compare(v, doubles[g]);
+                    if (op == SplitAggregate.Op.MIN ? cmp < 0 : cmp > 0) {
+                        doubles[g] = v;
+                    }
+                }
+            }
+        }
+
+        private void addObjects(int[] groups, Column column, int rows) {
+            Object[] values = column.objects;
+            boolean[] nulls = column.nulls;
+            for (int i = 0; i < rows; i++) {
+                if (nulls[i] || values[i] == null) {
+                    continue;
+                }
+                int g = groups[i];
+                Object v = values[i];
+                if (!seen[g]) {
+                    objects[g] = v;
+                    seen[g] = true;
+                } else if (op == SplitAggregate.Op.SUM) {
+                    objects[g] = sum(objects[g], v);
+                } else {
+                    int cmp = compare(v, objects[g]);
+                    if (op == SplitAggregate.Op.MIN ? cmp < 0 : cmp > 0) {
+                        objects[g] = v;
+                    }
+                }
+            }
+        }
+
+        Object get(int group) {
+            if (!seen[group]) {
+                return null;
+            }
+            return kind == Column.LONG ? Long.valueOf(longs[group])
+                : kind == Column.DOUBLE ? Double.valueOf(doubles[group]) : objects[group];
+        }
+
+        private static Object sum(Object a, Object b) {
+            if (a instanceof BigInteger) {
+                return ((BigInteger) a).add((BigInteger) b);
+            }
+            if (a instanceof BigDecimal) {
+                return ((BigDecimal) a).add((BigDecimal) b);
+            }
+            if (a instanceof Integer) {
+                return Math.addExact((Integer) a, (Integer) b);
+            }
+            if (a instanceof Float) {
+                return (Float) a + (Float) b;
+            }
+            throw new IllegalStateException("somme partielle de type " + a.getClass().getSimpleName());
+        }
+    }
+}
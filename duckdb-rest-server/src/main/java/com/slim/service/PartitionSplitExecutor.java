@@ -0,0 +1,400 @@
+package com.slim.service;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.duckdb.DuckDBConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Exécution découpée des agrégats sur Parquet partitionné hive : les
+ * répertoires {@code colonne=valeur} de la première colonne de partition sont
+ * répartis, par taille, entre au plus {@code PARTITION_SPLIT_MAX} requêtes
+ * ({@link SplitAggregate}), lancées en même temps sur des duplications de la
+ * connexion, et leurs agrégats partiels recombinés par {@link PartialCombiner}.
+ * <p>
+ * Toutes les connexions partagent la base et son pool de threads
+ * ({@code DUCKDB_THREADS}) : le découpage ne gagne que là où un plan seul les
+ * occupe mal (peu de gros fichiers, latence S3, table de hachage trop grande
+ * pour la mémoire). Le choix est donc mesuré, par empreinte de requête
+ * ({@code PARTITION_SPLIT_MODE=auto}, défaut) : une requête n'est découpée
+ * qu'après une exécution en un seul plan d'au moins {@code PARTITION_SPLIT_MIN_MS}
+ * millisecondes ; un premier découpage mesure l'autre plan, puis le plus
+ * rapide des deux (moyennes glissantes) est retenu, l'autre étant rejoué toutes
+ * les {@code PARTITION_SPLIT_PROBE_EVERY} exécutions. {@code always} découpe
+ * toute requête éligible, {@code off} aucune.
+ * <p>
+ * Une requête dont le découpage échoue (colonne inconnue, type de résultat
+ * partiel inattendu) est exécutée en un seul plan et n'est plus découpée.
+ */
+@Service
+public class PartitionSplitExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(PartitionSplitExecutor.class);
+
+    enum Mode {
+        AUTO, ALWAYS, OFF
+    }
+
+    private static final Mode MODE = Mode.valueOf(System.getenv().getOrDefault("PARTITION_SPLIT_MODE", "auto").toUpperCase(Locale.ROOT));
+    private static final int MAX_SPLITS = Integer.parseInt(System.getenv().getOrDefault("PARTITION_SPLIT_MAX", "4"));
+    private static final long MIN_MS = Long.parseLong(System.getenv().getOrDefault("PARTITION_SPLIT_MIN_MS", "2000"));
+    private static final int PROBE_EVERY = Integer.parseInt(System.getenv().getOrDefault("PARTITION_SPLIT_PROBE_EVERY", "20"));
+    private static final int TRACKED = 2000;
+    // Poids de la dernière mesure dans les moyennes glissantes
+    private static final double ALPHA = 0.3;
+    private static final String HIVE_NULL = "__HIVE_DEFAULT_PARTITION__";
+
+    private final QueryFingerprint fingerprint;
+    private final ThreadPoolExecutor workers;
+    private final Map<String, Timing> timings = new LinkedHashMap<String, Timing>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Timing> eldest) {
+            return size() > TRACKED;
+        }
+    };
+
+    private final AtomicLong splits = new AtomicLong();
+    private final AtomicLong subqueries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public PartitionSplitExecutor(QueryFingerprint fingerprint) {
+        this.fingerprint = fingerprint;
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(Math.max(1, MAX_SPLITS), Math.max(1, MAX_SPLITS), 0L, TimeUnit.MILLISECONDS,
+                                              new LinkedBlockingQueue<>(),
+                                              r -> {
+                                                  Thread thread = new Thread(r, "partition-split-" + threads.incrementAndGet());
+                                                  thread.setDaemon(true);
+                                                  return thread;
+                                              });
+    }
+
+    /**
+     * Requêtes d'une exécution découpée.
+     */
+    public static final class Split {
+        final String fingerprint;
+        final SplitAggregate shape;
+        final String column;
+        final List<String> subqueries;
+
+        Split(String fingerprint, SplitAggregate shape, String column, List<String> subqueries) {
+            this.fingerprint = fingerprint;
+            this.shape = shape;
+            this.column = column;
+            this.subqueries = subqueries;
+        }
+
+        public int partitions() {
+            return subqueries.size();
+        }
+
+        public String column() {
+            return column;
+        }
+    }
+
+    /**
+     * @return le découpage de {@code sql}, ou {@code null} s'il ne se découpe
+     *         pas ou qu'un seul plan est (mesuré) plus rapide
+     */
+    public Split plan(String sql) {
+        if (MODE == Mode.OFF) {
+            return null;
+        }
+        String key = fingerprint.fingerprint(sql);
+        if (!chooseSplit(key)) {
+            return null;
+        }
+        SplitAggregate shape;
+        try {
+            shape = SplitAggregate.of(fingerprint.parse(sql));
+        } catch (RuntimeException e) {
+            logger.debug("Requête non découpable ({}) : {}", e.getMessage(), sql);
+            shape = null;
+        }
+        if (shape == null) {
+            ineligible(key);
+            return null;
+        }
+        try {
+            return partition(key, shape);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Partitions de {} illisibles : {}", shape.glob, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Lance les requêtes de {@code split}. Annuler le résultat interrompt
+     * celles en cours.
+     */
+    public CompletableFuture<List<List<Object>>> execute(Connection connection, Split split) throws SQLException {
+        DuckDBConnection base = connection.unwrap(DuckDBConnection.class);
+        PartialCombiner combiner = new PartialCombiner(split.shape);
+        CompletableFuture<List<List<Object>>> result = new CompletableFuture<>();
+        Set<Statement> running = ConcurrentHashMap.newKeySet();
+        AtomicInteger remaining = new AtomicInteger(split.subqueries.size());
+        long start = System.currentTimeMillis();
+        result.whenComplete((rows, error) -> {
+            if (error != null) {
+                for (Statement statement : running) {
+                    cancelQuietly(statement);
+                }
+            }
+        });
+        for (String sql : split.subqueries) {
+            workers.execute(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                try (Connection duplicate = base.duplicate(); Statement statement = duplicate.createStatement()) {
+                    running.add(statement);
+                    if (result.isDone()) {
+                        return;
+                    }
+                    try (ResultSet rs = statement.executeQuery(sql)) {
+                        combiner.add(PartialCombiner.read(rs, split.shape.objectColumns()));
+                    } finally {
+                        running.remove(statement);
+                    }
+                    subqueries.incrementAndGet();
+                    if (remaining.decrementAndGet() == 0) {
+                        List<List<Object>> rows = combiner.result();
+                        splits.incrementAndGet();
+                        recordSplit(split.fingerprint, System.currentTimeMillis() - start);
+                        result.complete(rows);
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    // Une requête interrompue par l'annulation du résultat n'est pas un échec du découpage
+                    if (result.completeExceptionally(e)) {
+                        failures.incrementAndGet();
+                        ineligible(split.fingerprint);
+                        logger.warn("Requête de partition en échec, plus de découpage pour cette requête : {} ({})",
+                                    e.getMessage(), sql);
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Durée d'une exécution en un seul plan.
+     */
+    public void recordSingle(String sql, long elapsedMs) {
+        if (MODE != Mode.AUTO) {
+            return;
+        }
+        String key = fingerprint.fingerprint(sql);
+        synchronized (this) {
+            Timing timing = timings.get(key);
+            if (timing == null) {
+                if (elapsedMs < MIN_MS) {
+                    return;
+                }
+                timing = new Timing();
+                timings.put(key, timing);
+            }
+            timing.singleMs = timing.singleRuns++ == 0 ? elapsedMs : timing.singleMs + ALPHA * (elapsedMs - timing.singleMs);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", MODE.name().toLowerCase(Locale.ROOT));
+        stats.put("max_splits", MAX_SPLITS);
+        stats.put("min_ms", MIN_MS);
+        stats.put("splits", splits.get());
+        stats.put("sub_queries", subqueries.get());
+        stats.put("failures", failures.get());
+        List<Map<String, Object>> queries = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, Timing> entry : timings.entrySet()) {
+                Timing timing = entry.getValue();
+                Map<String, Object> query = new LinkedHashMap<>();
+                query.put("fingerprint", entry.getKey());
+                query.put("eligible", !timing.ineligible);
+                query.put("single_runs", timing.singleRuns);
+                query.put("single_ms", Math.round(timing.singleMs));
+                query.put("split_runs", timing.splitRuns);
+                query.put("split_ms", Math.round(timing.splitMs));
+                queries.add(query);
+            }
+        }
+        stats.put("queries", queries);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private synchronized boolean chooseSplit(String key) {
+        Timing timing = timings.get(key);
+        if (MODE == Mode.ALWAYS) {
+            return timing == null || !timing.ineligible;
+        }
+        if (timing == null || timing.ineligible || timing.singleRuns == 0 || timing.singleMs < MIN_MS) {
+            return false;
+        }
+        if (timing.splitRuns == 0) {
+            return true;
+        }
+        boolean faster = timing.splitMs < timing.singleMs;
+        // De temps en temps l'autre plan est rejoué : les données et la charge changent
+        return ++timing.decisions % PROBE_EVERY == 0 ? !faster : faster;
+    }
+
+    private synchronized void recordSplit(String key, long elapsedMs) {
+        Timing timing = timings.get(key);
+        if (timing != null) {
+            timing.splitMs = timing.splitRuns++ == 0 ? elapsedMs : timing.splitMs + ALPHA * (elapsedMs - timing.splitMs);
+        }
+    }
+
+    private synchronized void ineligible(String key) {
+        Timing timing = timings.get(key);
+        if (timing == null) {
+            timing = new Timing();
+            timings.put(key, timing);
+        }
+        timing.ineligible = true;
+    }
+
+    /**
+     * Répartit les valeurs de la première colonne hive qui en a plusieurs (et
+     * que le {@code WHERE} ne fixe pas) entre les requêtes, la plus lourde
+     * d'abord dans la requête la moins chargée.
+     *
+     * @return {@code null} sans telle colonne
+     */
+    private Split partition(String key, SplitAggregate shape) throws IOException {
+        List<CacheStorage.StoredFile> files = SourceFiles.list(shape.glob);
+        if (files == null || files.size() < 2) {
+            return null;
+        }
+        // Octets par valeur, pour chaque colonne présente dans les répertoires de tous les fichiers
+        Map<String, Map<String, Long>> columns = new LinkedHashMap<>();
+        Map<String, Integer> fileCounts = new HashMap<>();
+        for (CacheStorage.StoredFile file : files) {
+            String dir = file.path.substring(0, Math.max(0, file.path.lastIndexOf('/')));
+            for (String segment : dir.split("/")) {
+                int eq = segment.indexOf('=');
+                if (eq > 0) {
+                    String column = segment.substring(0, eq);
+                    columns.computeIfAbsent(column, c -> new LinkedHashMap<>()).merge(segment.substring(eq + 1), file.size, Long::sum);
+                    fileCounts.merge(column, 1, Integer::sum);
+                }
+            }
+        }
+        for (Map.Entry<String, Map<String, Long>> column : columns.entrySet()) {
+            Map<String, Long> values = column.getValue();
+            if (values.size() < 2 || fileCounts.get(column.getKey()) != files.size()
+                || shape.fixedColumns.contains(column.getKey().toLowerCase(Locale.ROOT)) || !plainValues(values)) {
+                continue;
+            }
+            List<List<String>> bins = bins(values);
+            List<String> subqueries = new ArrayList<>();
+            for (List<String> bin : bins) {
+                subqueries.add(shape.subquery(column.getKey(), bin));
+            }
+            return new Split(key, shape, column.getKey(), subqueries);
+        }
+        return null;
+    }
+
+    /**
+     * Valeurs comparables telles quelles : ni encodées, ni partition nulle.
+     */
+    private static boolean plainValues(Map<String, Long> values) {
+        for (String value : values.keySet()) {
+            if (value.isEmpty() || value.indexOf('%') >= 0 || HIVE_NULL.equals(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<List<String>> bins(Map<String, Long> values) {
+        // 1 et 01 désignent la même valeur pour une colonne typée entier : toujours dans la même requête
+        Map<String, List<String>> sameValue = new LinkedHashMap<>();
+        Map<String, Long> bytes = new HashMap<>();
+        for (Map.Entry<String, Long> value : values.entrySet()) {
+            String normalized = normalize(value.getKey());
+            sameValue.computeIfAbsent(normalized, v -> new ArrayList<>()).add(value.getKey());
+            bytes.merge(normalized, value.getValue(), Long::sum);
+        }
+        List<String> order = new ArrayList<>(sameValue.keySet());
+        order.sort((a, b) -> Long.compare(bytes.get(b), bytes.get(a)));
+        int count = Math.min(Math.max(1, MAX_SPLITS), order.size());
+        List<List<String>> bins = new ArrayList<>();
+        long[] load = new long[count];
+        for (int i = 0; i < count; i++) {
+            bins.add(new ArrayList<>());
+        }
+        for (String value : order) {
+            int lightest = 0;
+            for (int i = 1; i < count; i++) {
+                if (load[i] < load[lightest]) {
+                    lightest = i;
+                }
+            }
+            bins.get(lightest).addAll(sameValue.get(value));
+            load[lightest] += bytes.get(value);
+        }
+        return bins;
+    }
+
+    private static String normalize(String value) {
+        try {
+            return new BigDecimal(value).stripTrailingZeros().toPlainString();
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
+
+    private static void cancelQuietly(Statement statement) {
+        try {
+            statement.cancel();
+        } catch (SQLException e) {
+            logger.debug("Interruption d'une requête de partition en échec : {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Durées mesurées d'une requête, en un seul plan et découpée.
+     */
+    private static final class Timing {
+        double singleMs;
+        long singleRuns;
+        double splitMs;
+        long splitRuns;
+        long decisions;
+        boolean ineligible;
+    }
+}
@@ -0,0 +1,424 @@
+package com.slim.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Niveau de cache partagé entre les backends derrière le même load balancer :
+ * chaque clé a un propriétaire, choisi par hachage cohérent sur la liste
+ * statique {@code CACHE_PEERS} (URLs de base, dont celle du nœud lui-même,
+ * donnée par {@code CACHE_PEER_SELF}). Ajouter ou retirer un nœud ne déplace
+ * qu'une part des clés.
+ * <p>
+ * Un nœud qui ne trouve pas un résultat dans son cache le demande à son
+ * propriétaire avant de l'exécuter. Le transfert est le fichier Parquet du
+ * résultat, précédé de son entrée de manifeste : il est installé dans le cache
+ * local, et lu comme un résultat local. Un résultat calculé par un autre nœud
+ * que son propriétaire lui est envoyé en arrière-plan, une fois écrit.
+ * <p>
+ * Un pair qui ne répond pas dans {@code CACHE_PEER_TIMEOUT_MS} est écarté
+ * {@code CACHE_PEER_RETRY_SECONDS} secondes : la requête s'exécute en local.
+ * Avec {@code CACHE_PEER_TOKEN}, les échanges portent ce secret partagé, et
+ * un envoi sans lui est refusé. Ce niveau demande un {@code CACHE_OUTPUT_BASE}
+ * local et non partagé ({@code CACHE_SHARED_MANIFEST}).
+ * <p>
+ * Trame d'un résultat : longueur de l'entrée (int), entrée en JSON (UTF-8),
+ * puis le fichier Parquet.
+ */
+@Service
+public class PeerCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(PeerCache.class);
+
+    public static final String TOKEN_HEADER = "X-DuckDB-Peer-Token";
+    public static final String MEDIA_TYPE = "application/vnd.duckdb.cache-entry";
+
+    private static final List<String> PEERS = Arrays.stream(System.getenv().getOrDefault("CACHE_PEERS", "").split(","))
+        .map(String::trim).filter(peer -> !peer.isEmpty()).map(PeerCache::trimSlash).collect(Collectors.toList());
+    private static final String SELF = trimSlash(System.getenv().getOrDefault("CACHE_PEER_SELF", "").trim());
+    private static final String TOKEN = System.getenv().getOrDefault("CACHE_PEER_TOKEN", "");
+    private static final int TIMEOUT_MS = Integer.parseInt(System.getenv().getOrDefault("CACHE_PEER_TIMEOUT_MS", "1000"));
+    private static final long RETRY_MS = Long.parseLong(System.getenv().getOrDefault("CACHE_PEER_RETRY_SECONDS", "30")) * 1000L;
+    private static final boolean REPLICATE = Boolean.parseBoolean(System.getenv().getOrDefault("CACHE_PEER_REPLICATE", "true"));
+    private static final int VIRTUAL_NODES = 64;
+    private static final int REPLICATION_QUEUE = 16;
+    // Une entrée de manifeste ne dépasse pas quelques Ko ; au-delà, la trame est invalide
+    private static final int MAX_ENTRY_BYTES = 16 * 1024 * 1024;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final CacheManifest manifest;
+    // Anneau de hachage cohérent : position -> URL du pair
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final Map<String, Long> downUntil = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor replicator;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong replicated = new AtomicLong();
+    private final AtomicLong replicationDropped = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+
+    public PeerCache(CacheManifest manifest) {
+        this.manifest = manifest;
+        for (String peer : PEERS) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(position(peer + "#" + i), peer);
+            }
+        }
+        this.replicator = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(REPLICATION_QUEUE),
+                                                 r -> {
+                                                     Thread thread = new Thread(r, "cache-peer-replicator");
+                                                     thread.setDaemon(true);
+                                                     return thread;
+                                                 });
+        if (!PEERS.isEmpty()) {
+            if (CacheManifest.isRemote(CacheManifest.CACHE_OUTPUT_BASE) || CacheManifest.SHARED) {
+                logger.warn("CACHE_PEERS ignoré : le cache {} est déjà partagé.", CacheManifest.CACHE_OUTPUT_BASE);
+            } else if (!PEERS.contains(SELF)) {
+                logger.warn("CACHE_PEER_SELF ({}) absent de CACHE_PEERS {} : ce nœud ne possède aucune clé.", SELF, PEERS);
+            } else {
+                logger.info("Cache partagé entre {} pairs, ce nœud : {}", PEERS.size(), SELF);
+            }
+        }
+    }
+
+    private static String trimSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    public boolean isEnabled() {
+        return PEERS.size() > 1 && !CacheManifest.isRemote(CacheManifest.CACHE_OUTPUT_BASE) && !CacheManifest.SHARED;
+    }
+
+    /**
+     * @return l'URL du pair propriétaire de {@code hash}, ou {@code null} si
+     *         c'est ce nœud (ou si le niveau est désactivé)
+     */
+    String owner(String hash) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Map.Entry<Long, String> slot = ring.ceilingEntry(position(hash));
+        String owner = (slot != null ? slot : ring.firstEntry()).getValue();
+        return owner.equals(SELF) ? null : owner;
+    }
+
+    private static long position(String key) {
+        // 64 premiers bits du SHA-256 : positions uniformes sur l'anneau
+        return Long.parseUnsignedLong(QueryFingerprint.sha256(key).substring(0, 16), 16);
+    }
+
+    private boolean isDown(String peer) {
+        Long until = downUntil.get(peer);
+        return until != null && System.currentTimeMillis() < until;
+    }
+
+    private void markDown(String peer, String reason) {
+        errors.incrementAndGet();
+        long now = System.currentTimeMillis();
+        Long previous = downUntil.put(peer, now + RETRY_MS);
+        if (previous == null || previous < now) {
+            logger.warn("Pair de cache {} écarté {} s : {}", peer, RETRY_MS / 1000, reason);
+        }
+    }
+
+    /**
+     * Demande le résultat {@code hash} à son propriétaire et l'installe dans
+     * le cache local.
+     *
+     * @return l'entrée installée, ou {@code null} (ce nœud est propriétaire,
+     *         pair écarté ou en échec, résultat absent)
+     */
+    public CacheManifest.Entry fetch(String hash) {
+        String peer = owner(hash);
+        if (peer == null) {
+            return null;
+        }
+        if (isDown(peer)) {
+            skipped.incrementAndGet();
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        HttpURLConnection connection = null;
+        try {
+            connection = open(peer + "/cache/peer/" + hash, "GET");
+            int status = connection.getResponseCode();
+            if (status == 404) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if (status != 200) {
+                markDown(peer, "HTTP " + status);
+                return null;
+            }
+            CacheManifest.Entry entry;
+            try (InputStream in = new BufferedInputStream(connection.getInputStream())) {
+                entry = install(hash, in);
+            }
+            downUntil.remove(peer);
+            hits.incrementAndGet();
+            bytesIn.addAndGet(entry.getSizeBytes());
+            logger.debug("Résultat {} reçu de {} en {} ms ({} octets).", hash, peer, System.currentTimeMillis() - start,
+                         entry.getSizeBytes());
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            markDown(peer, e.getMessage());
+            return null;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Envoie en arrière-plan un résultat qui vient d'être écrit à son
+     * propriétaire, s'il n'est pas ce nœud. Sans attente : file pleine ou pair
+     * écarté, l'envoi est abandonné.
+     */
+    public void replicate(CacheManifest.Entry entry) {
+        String peer = REPLICATE ? owner(entry.getHash()) : null;
+        if (peer == null || isDown(peer)) {
+            return;
+        }
+        try {
+            replicator.execute(() -> push(peer, entry));
+        } catch (RejectedExecutionException e) {
+            replicationDropped.incrementAndGet();
+        }
+    }
+
+    private void push(String peer, CacheManifest.Entry entry) {
+        if (!Files.isRegularFile(Paths.get(entry.getPath()))) {
+            // Évincé avant son envoi
+            return;
+        }
+        HttpURLConnection connection = null;
+        try {
+            connection = open(peer + "/cache/peer/" + entry.getHash(), "PUT");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", MEDIA_TYPE);
+            connection.setChunkedStreamingMode(64 * 1024);
+            try (OutputStream out = connection.getOutputStream()) {
+                if (write(entry, out) < 0) {
+                    return;
+                }
+            }
+            int status = connection.getResponseCode();
+            if (status / 100 != 2) {
+                markDown(peer, "HTTP " + status);
+                return;
+            }
+            replicated.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            markDown(peer, e.getMessage());
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Côté propriétaire : répond à {@link #fetch} avec la trame de {@code entry}.
+     *
+     * @return false si le fichier a disparu entre-temps
+     */
+    public boolean serve(CacheManifest.Entry entry, OutputStream out) throws IOException {
+        long size = write(entry, out);
+        if (size < 0) {
+            return false;
+        }
+        served.incrementAndGet();
+        bytesOut.addAndGet(size);
+        return true;
+    }
+
+    /**
+     * @return la taille du fichier écrit, ou -1 s'il a disparu entre-temps
+     */
+    private static long write(CacheManifest.Entry entry, OutputStream out) throws IOException {
+        Path file = Paths.get(entry.getPath());
+        if (!Files.isRegularFile(file)) {
+            return -1;
+        }
+        byte[] json = MAPPER.writeValueAsBytes(entry);
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        data.writeInt(json.length);
+        data.write(json);
+        long size = Files.copy(file, data);
+        data.flush();
+        return size;
+    }
+
+    /**
+     * Côté propriétaire : reçoit un résultat envoyé par {@link #replicate}.
+     * Un résultat déjà présent et valide est gardé tel quel.
+     */
+    public void receive(String hash, InputStream in, long ttlMs) throws IOException {
+        CacheManifest.Entry existing = manifest.peek(hash);
+        if (existing != null && System.currentTimeMillis() - existing.getCreatedAt() <= ttlMs) {
+            return;
+        }
+        install(hash, new BufferedInputStream(in));
+        received.incrementAndGet();
+    }
+
+    /**
+     * Écrit le fichier de la trame à côté de son nom définitif, le renomme et
+     * ajoute son entrée au manifeste.
+     */
+    private CacheManifest.Entry install(String hash, InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        int length = data.readInt();
+        if (length <= 0 || length > MAX_ENTRY_BYTES) {
+            throw new IOException("Trame de cache invalide (entrée de " + length + " octets)");
+        }
+        byte[] json = new byte[length];
+        data.readFully(json);
+        CacheManifest.Entry entry = MAPPER.readValue(json, CacheManifest.Entry.class);
+        if (!hash.equals(entry.getHash())) {
+            throw new IOException("Trame de cache pour " + entry.getHash() + " au lieu de " + hash);
+        }
+        String path = CacheManifest.pathFor(hash);
+        File target = new File(path);
+        target.getParentFile().mkdirs();
+        // Nom unique : deux réceptions du même résultat ne s'écrivent pas l'une sur l'autre
+        Path tmp = Files.createTempFile(target.getParentFile().toPath(), target.getName() + ".", ".peer.tmp");
+        try {
+            long size = Files.copy(data, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            entry.setPath(path);
+            entry.setSizeBytes(size);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        entry.setHits(0);
+        entry.setLastAccess(System.currentTimeMillis());
+        manifest.put(entry);
+        return entry;
+    }
+
+    /**
+     * Transmet une invalidation par préfixe aux autres pairs.
+     *
+     * @return les pairs qui l'ont appliquée
+     */
+    public List<String> broadcastInvalidate(String prefix) {
+        List<String> reached = new ArrayList<>();
+        if (!isEnabled()) {
+            return reached;
+        }
+        for (String peer : PEERS) {
+            if (peer.equals(SELF)) {
+                continue;
+            }
+            HttpURLConnection connection = null;
+            try {
+                connection = open(peer + "/ui/cache/invalidate?propagate=false&prefix="
+                                  + URLEncoder.encode(prefix, StandardCharsets.UTF_8.name()), "POST");
+                int status = connection.getResponseCode();
+                if (status / 100 == 2) {
+                    reached.add(peer);
+                } else {
+                    logger.warn("Invalidation de {} sur le pair {} en échec : HTTP {}", prefix, peer, status);
+                }
+            } catch (IOException e) {
+                logger.warn("Invalidation de {} sur le pair {} en échec : {}", prefix, peer, e.getMessage());
+            } finally {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * @return false si {@code CACHE_PEER_TOKEN} est défini et que {@code token}
+     *         ne lui correspond pas
+     */
+    public boolean accepts(String token) {
+        return TOKEN.isEmpty() || TOKEN.equals(token);
+    }
+
+    private static HttpURLConnection open(String url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(TIMEOUT_MS);
+        connection.setReadTimeout(TIMEOUT_MS);
+        if (!TOKEN.isEmpty()) {
+            connection.setRequestProperty(TOKEN_HEADER, TOKEN);
+        }
+        return connection;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("self", SELF);
+        stats.put("peers", PEERS);
+        long now = System.currentTimeMillis();
+        stats.put("down", downUntil.entrySet().stream().filter(e -> e.getValue() > now).map(Map.Entry::getKey)
+            .collect(Collectors.toList()));
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("errors", errors.get());
+        stats.put("skipped", skipped.get());
+        stats.put("bytes_in", bytesIn.get());
+        stats.put("served", served.get());
+        stats.put("bytes_out", bytesOut.get());
+        stats.put("replicated", replicated.get());
+        stats.put("replication_dropped", replicationDropped.get());
+        stats.put("received", received.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        replicator.shutdownNow();
+    }
+}
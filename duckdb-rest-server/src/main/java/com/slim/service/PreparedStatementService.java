@@ -0,0 +1,255 @@
+package com.slim.service;
+
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlFunction;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.SqlOrderBy;
+import org.apache.calcite.sql.SqlSelect;
+import org.duckdb.DuckDBResultSetMetaData;
+import org.duckdb.StatementReturnType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.slim.dto.ExecuteDuckDBResultSetMetaData;
+import com.slim.dto.ExecuteResponse;
+
+/**
+ * Statements préparés côté serveur : /jdbc/prepare décrit la requête (colonnes
+ * et paramètres) sans l'exécuter et renvoie un identifiant que le driver
+ * réutilise ensuite pour chaque exécution, avec de nouveaux paramètres.
+ * <p>
+ * Le handle ne garde pas de connexion ouverte : l'exécution se fait sur une
+ * connexion du pool, comme une requête classique.
+ */
+@Service
+public class PreparedStatementService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PreparedStatementService.class);
+
+    public static final String UNKNOWN_STATEMENT = "Unknown or expired statement: ";
+
+    private static final int MAX_STATEMENTS = Integer.parseInt(System.getenv().getOrDefault("PREPARED_MAX_OPEN", "1024"));
+    private static final long IDLE_TIMEOUT_MS = Long.parseLong(System.getenv().getOrDefault("PREPARED_IDLE_TIMEOUT_SECONDS", "1800")) * 1000L;
+
+    // Sondes de schéma (Spark, Tableau...) : SELECT ... WHERE 1=0 ou LIMIT 0 en fin de requête
+    private static final Pattern SCHEMA_PROBE = Pattern.compile(
+        "(?is)^\\s*(select|with|from)\\b.*\\b(where\\s*(\\(\\s*(1\\s*=\\s*0|0\\s*=\\s*1|false)\\s*\\)|1\\s*=\\s*0|0\\s*=\\s*1|false)|limit\\s+0)\\s*;?\\s*$");
+    private static final Pattern LIMIT_ZERO = Pattern.compile("(?is).*\\blimit\\s+0\\s*;?\\s*$");
+    private static final Pattern SET_OPERATION = Pattern.compile("(?i)\\b(union|intersect|except)\\b");
+
+    private final Map<String, PreparedHandle> statements = new ConcurrentHashMap<>();
+
+    /**
+     * Prépare la requête sans l'exécuter et renvoie les métadonnées du résultat
+     * et des paramètres. DuckDB lie la requête (schéma des fichiers compris)
+     * mais ne lit aucune donnée.
+     * <p>
+     * Quand le type du résultat dépend des paramètres (ex: {@code range(?)}),
+     * DuckDB ne le connaît qu'à l'exécution : si les paramètres sont fournis,
+     * la requête est exécutée avec {@code LIMIT 0} pour le résoudre.
+     */
+    public static ExecuteDuckDBResultSetMetaData describe(Connection connection, String sql, Object[] params) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            ParameterMetaData paramMeta = stmt.getParameterMetaData();
+            int paramCount = paramMeta.getParameterCount();
+            String[] paramTypes = new String[paramCount];
+            String[] paramDetails = new String[paramCount];
+            for (int i = 0; i < paramCount; i++) {
+                paramTypes[i] = paramMeta.getParameterTypeName(i + 1);
+                paramDetails[i] = paramMeta.getParameterClassName(i + 1);
+            }
+
+            ResultSetMetaData meta = stmt.getMetaData();
+            if (isUnresolved(meta) && params != null && params.length == paramCount) {
+                return resolveWithParams(connection, sql, params, paramTypes, paramDetails);
+            }
+            return metadata(meta, paramTypes, paramDetails);
+        }
+    }
+
+    private static ExecuteDuckDBResultSetMetaData resolveWithParams(Connection connection, String sql, Object[] params,
+                                                                    String[] paramTypes, String[] paramDetails) throws SQLException {
+        // Saut de ligne : un commentaire -- final ne masque pas la parenthèse fermante
+        String limitZero = "SELECT * FROM (" + sql.trim().replaceAll(";+$", "") + "\n) LIMIT 0";
+        try (PreparedStatement stmt = connection.prepareStatement(limitZero)) {
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                return metadata(rs.getMetaData(), paramTypes, paramDetails);
+            }
+        }
+    }
+
+    // DuckDB renvoie une unique colonne "unknown" de type UNKNOWN tant que le résultat n'est pas lié
+    static boolean isUnresolved(ResultSetMetaData meta) throws SQLException {
+        return meta != null && meta.getColumnCount() == 1 && "UNKNOWN".equals(meta.getColumnTypeName(1));
+    }
+
+    private static ExecuteDuckDBResultSetMetaData metadata(ResultSetMetaData meta, String[] paramTypes,
+                                                           String[] paramDetails) throws SQLException {
+        int colCount = meta == null ? 0 : meta.getColumnCount();
+        String[] columnNames = new String[colCount];
+        String[] columnTypes = new String[colCount];
+        String[] columnDetails = new String[colCount];
+        for (int i = 0; i < colCount; i++) {
+            columnNames[i] = meta.getColumnName(i + 1);
+            columnTypes[i] = meta.getColumnTypeName(i + 1);
+            columnDetails[i] = meta.getColumnClassName(i + 1);
+        }
+        // SELECT, DML (nombre de lignes modifiées) ou DDL, tel que connu de DuckDB dès le prepare
+        StatementReturnType returnType = meta == null ? StatementReturnType.NOTHING
+            : meta.unwrap(DuckDBResultSetMetaData.class).getReturnType();
+
+        return new ExecuteDuckDBResultSetMetaData(
+            paramTypes.length,
+            colCount,
+            columnNames,
+            columnTypes,
+            columnDetails,
+            returnType.name(),
+            paramTypes,
+            paramDetails
+        );
+    }
+
+    /**
+     * Un {@code WHERE false} ne vide le résultat que sans agrégation :
+     * {@code SELECT count(*) FROM t WHERE 1=0} renvoie une ligne. Faute de
+     * connaître tous les agrégats de DuckDB, toute fonction autre que CAST dans
+     * la liste du SELECT fait exécuter la requête normalement.
+     *
+     * @return true pour une requête qui ne sert qu'à connaître le schéma du
+     *         résultat et ne renvoie jamais de ligne
+     */
+    public static boolean isSchemaProbe(String sql, QueryFingerprint fingerprint) {
+        if (sql == null || !SCHEMA_PROBE.matcher(sql).matches() || SET_OPERATION.matcher(sql).find()) {
+            return false;
+        }
+        if (LIMIT_ZERO.matcher(sql).matches()) {
+            return true;
+        }
+        SqlNode node = fingerprint.parse(sql);
+        if (node instanceof SqlOrderBy) {
+            node = ((SqlOrderBy) node).query;
+        }
+        if (!(node instanceof SqlSelect)) {
+            return false;
+        }
+        SqlSelect select = (SqlSelect) node;
+        return select.getGroup() == null && select.getHaving() == null && !callsFunction(select.getSelectList());
+    }
+
+    private static boolean callsFunction(SqlNode node) {
+        if (node instanceof SqlNodeList) {
+            for (SqlNode child : (SqlNodeList) node) {
+                if (callsFunction(child)) {
+                    return true;
+                }
+            }
+        } else if (node instanceof SqlCall && !(node instanceof SqlSelect)) {
+            SqlCall call = (SqlCall) node;
+            if (call.getOperator() instanceof SqlFunction && call.getKind() != SqlKind.CAST) {
+                return true;
+            }
+            for (SqlNode operand : call.getOperandList()) {
+                if (callsFunction(operand)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Enregistre le statement décrit et renvoie sa description, avec son identifiant.
+     */
+    public ExecuteResponse register(String sql, ExecuteDuckDBResultSetMetaData metadata) {
+        if (statements.size() >= MAX_STATEMENTS) {
+            evictOldest();
+        }
+        String statementId = UUID.randomUUID().toString();
+        statements.put(statementId, new PreparedHandle(sql));
+        logger.debug("Statement {} préparé : {}", statementId, sql);
+
+        ExecuteResponse response = new ExecuteResponse(metadata, Collections.emptyList());
+        response.setStatementId(statementId);
+        return response;
+    }
+
+    /**
+     * @return le SQL du statement, ou {@code null} s'il est inconnu ou expiré
+     */
+    public String resolve(String statementId) {
+        PreparedHandle handle = statements.get(statementId);
+        if (handle == null) {
+            return null;
+        }
+        handle.lastAccess = System.currentTimeMillis();
+        return handle.sql;
+    }
+
+    public boolean close(String statementId) {
+        boolean closed = statements.remove(statementId) != null;
+        if (closed) {
+            logger.debug("Statement {} libéré.", statementId);
+        }
+        return closed;
+    }
+
+    public int preparedStatementCount() {
+        return statements.size();
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdleStatements() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, PreparedHandle>> it = statements.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().getValue().lastAccess > IDLE_TIMEOUT_MS) {
+                it.remove();
+            }
+        }
+    }
+
+    private void evictOldest() {
+        String oldestId = null;
+        long oldestAccess = Long.MAX_VALUE;
+        for (Map.Entry<String, PreparedHandle> entry : statements.entrySet()) {
+            if (entry.getValue().lastAccess < oldestAccess) {
+                oldestAccess = entry.getValue().lastAccess;
+                oldestId = entry.getKey();
+            }
+        }
+        if (oldestId != null) {
+            logger.warn("Limite de {} statements préparés atteinte, statement {} libéré.", MAX_STATEMENTS, oldestId);
+            statements.remove(oldestId);
+        }
+    }
+
+    private static final class PreparedHandle {
+        final String sql;
+        volatile long lastAccess = System.currentTimeMillis();
+
+        PreparedHandle(String sql) {
+            this.sql = sql;
+        }
+    }
+}
@@ -0,0 +1,580 @@
+package com.slim.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.calcite.avatica.util.Casing;
+import org.apache.calcite.avatica.util.Quoting;
+import org.apache.calcite.sql.SqlDynamicParam;
+import org.apache.calcite.sql.SqlLiteral;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.dialect.AnsiSqlDialect;
+import org.apache.calcite.sql.parser.SqlAbstractParserImpl;
+import org.apache.calcite.sql.parser.SqlParseException;
+import org.apache.calcite.sql.parser.SqlParser;
+import org.apache.calcite.sql.parser.SqlParserPos;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.sql.util.SqlShuttle;
+import org.apache.calcite.sql.validate.SqlConformanceEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Forme canonique d'une requête, pour les clés du cache, le partage des
+ * exécutions identiques et les statistiques par requête. Seule la clé change :
+ * c'est toujours le texte d'origine que DuckDB exécute.
+ * <p>
+ * Le SQL est d'abord découpé en jetons : commentaires et espaces disparaissent,
+ * les mots réservés de DuckDB passent en majuscules et les noms de fonctions en
+ * minuscules ; littéraux et identifiants restent tels quels (DuckDB renvoie
+ * les noms de colonnes comme ils sont écrits). Les jetons sont ensuite analysés par Calcite puis réécrits, ce qui
+ * efface en plus parenthèses et guillemets superflus, {@code AS} facultatifs
+ * et variantes de syntaxe ({@code LIMIT} / {@code FETCH}). Les fonctions table
+ * ({@code FROM read_parquet(...)}) sont présentées à Calcite sous la forme
+ * {@code FROM TABLE(read_parquet(...))}. Une requête que Calcite ne sait pas
+ * lire (syntaxe propre à DuckDB : {@code ::}, {@code EXCLUDE}, structures,
+ * division entière {@code //} que Calcite prendrait pour un commentaire...)
+ * garde la forme en jetons.
+ * <p>
+ * L'empreinte ({@link #fingerprint}) remplace en plus les littéraux par des
+ * paramètres quand {@code QUERY_FINGERPRINT_LITERALS=parameterize} (défaut) :
+ * un même tableau de bord filtré sur des valeurs différentes a une seule
+ * empreinte. Les clés du cache, elles, gardent toujours les littéraux.
+ */
+@Service
+public class QueryFingerprint {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryFingerprint.class);
+
+    // Mots réservés de DuckDB (catégories reserved et type_function de duckdb_keywords()) :
+    // jamais des noms de colonnes sans guillemets, leur casse est donc sans effet
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+        "ALL", "ANALYSE", "ANALYZE", "AND", "ANY", "ARRAY", "AS", "ASC", "ASYMMETRIC", "BOTH", "CASE", "CAST",
+        "CHECK", "COLLATE", "COLUMN", "CONSTRAINT", "CREATE", "DEFAULT", "DEFERRABLE", "DESC", "DESCRIBE",
+        "DISTINCT", "DO", "ELSE", "END", "EXCEPT", "FALSE", "FETCH", "FOR", "FOREIGN", "FROM", "GROUP", "HAVING",
+        "IN", "INITIALLY", "INTERSECT", "INTO", "LAMBDA", "LATERAL", "LEADING", "LIMIT", "NOT", "NULL", "OFFSET",
+        "ON", "ONLY", "OR", "ORDER", "PIVOT", "PIVOT_LONGER", "PIVOT_WIDER", "PLACING", "PRIMARY", "QUALIFY",
+        "REFERENCES", "RETURNING", "SELECT", "SHOW", "SOME", "SUMMARIZE", "SYMMETRIC", "TABLE", "THEN", "TO",
+        "TRAILING", "TRUE", "UNION", "UNIQUE", "UNPIVOT", "USING", "VARIADIC", "WHEN", "WHERE", "WINDOW", "WITH",
+        "ANTI", "ASOF", "AT", "AUTHORIZATION", "BINARY", "COLLATION", "COLUMNS", "CONCURRENTLY", "CROSS",
+        "FREEZE", "FULL", "GENERATED", "GLOB", "ILIKE", "INNER", "IS", "ISNULL", "JOIN", "LEFT", "LIKE", "MAP",
+        "NATURAL", "NOTNULL", "OUTER", "OVERLAPS", "POSITIONAL", "RIGHT", "SEMI", "SIMILAR", "STRUCT",
+        "TABLESAMPLE", "TRY_CAST", "UNPACK", "VERBOSE"));
+
+    // Mots réservés de Calcite qui sont aussi de la syntaxe pour DuckDB, sans y être réservés
+    private static final Set<String> SYNTAX_WORDS = new HashSet<>(Arrays.asList(
+        "BETWEEN", "BY", "INTERVAL", "DATE", "TIME", "TIMESTAMP", "OVER", "PARTITION", "ROWS", "RANGE", "NULLS",
+        "FIRST", "LAST", "ESCAPE", "EXISTS", "FILTER", "WITHIN", "PRECEDING", "FOLLOWING", "UNBOUNDED", "CURRENT",
+        "ROW", "NEXT", "VALUES", "RECURSIVE", "SETS", "ROLLUP", "CUBE", "GROUPING", "OF"));
+
+    private static final boolean PARAMETERIZE_LITERALS =
+        !"keep".equalsIgnoreCase(System.getenv().getOrDefault("QUERY_FINGERPRINT_LITERALS", "parameterize"));
+    // Analyser coûte plus qu'une lecture du cache mémoire : les formes récentes sont gardées
+    private static final int MEMO_SIZE = 4096;
+
+    private static final SqlParser.Config PARSER_CONFIG = SqlParser.config()
+        .withQuoting(Quoting.DOUBLE_QUOTE)
+        .withUnquotedCasing(Casing.UNCHANGED)
+        .withQuotedCasing(Casing.UNCHANGED)
+        .withCaseSensitive(true)
+        .withConformance(SqlConformanceEnum.LENIENT);
+    private static final SqlAbstractParserImpl.Metadata CALCITE_WORDS = SqlParser.create("", PARSER_CONFIG).getMetadata();
+
+    private final Map<String, Forms> memo = new LinkedHashMap<String, Forms>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Forms> eldest) {
+            return size() > MEMO_SIZE;
+        }
+    };
+
+    /**
+     * @return la forme canonique de {@code sql}, littéraux compris
+     */
+    public String canonical(String sql) {
+        return forms(sql).canonical;
+    }
+
+    /**
+     * @return l'empreinte SHA-256 de {@code sql}, littéraux remplacés selon
+     *         {@code QUERY_FINGERPRINT_LITERALS}
+     */
+    public String fingerprint(String sql) {
+        return forms(sql).fingerprint;
+    }
+
+    /**
+     * Arbre Calcite de {@code sql}, analysé comme pour la forme canonique.
+     *
+     * @return {@code null} si Calcite ne lit pas la requête
+     */
+    SqlNode parse(String sql) {
+        List<String> tokens = tokenize(sql.trim().replaceAll(";$", "").trim());
+        if (tokens == null) {
+            return null;
+        }
+        if (!calciteReadsAll(tokens)) {
+            return null;
+        }
+        try {
+            return SqlParser.create(String.join(" ", forCalcite(tokens)), PARSER_CONFIG).parseQuery();
+        } catch (SqlParseException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Arbre Calcite de {@code sql} avec, pour chaque jeton, sa place dans le
+     * texte d'origine : de quoi modifier la requête sur place, sans la
+     * réécrire depuis l'arbre.
+     *
+     * @return {@code null} si Calcite ne lit pas la requête
+     */
+    Source source(String sql) {
+        List<int[]> spans = new ArrayList<>();
+        List<String> tokens = tokenize(sql, spans);
+        if (tokens == null) {
+            return null;
+        }
+        if (!tokens.isEmpty() && ";".equals(tokens.get(tokens.size() - 1))) {
+            tokens.remove(tokens.size() - 1);
+            spans.remove(spans.size() - 1);
+        }
+        // Un arbre qui s'arrête avant la fin ferait réécrire une autre requête
+        if (!calciteReadsAll(tokens)) {
+            return null;
+        }
+        List<Integer> origins = new ArrayList<>();
+        List<String> calcite = forCalcite(tokens, origins);
+        SqlNode node;
+        try {
+            node = SqlParser.create(String.join(" ", calcite), PARSER_CONFIG).parseQuery();
+        } catch (SqlParseException | RuntimeException e) {
+            return null;
+        }
+        // Ligne et colonne de chaque jeton dans le texte lu par Calcite (tabulation comptée pour un caractère)
+        Map<Long, Integer> positions = new HashMap<>();
+        int line = 1;
+        int column = 1;
+        for (int k = 0; k < calcite.size(); k++) {
+            if (origins.get(k) >= 0) {
+                positions.put(((long) line << 32) | column, origins.get(k));
+            }
+            String token = calcite.get(k);
+            for (int c = 0; c < token.length(); c++) {
+                char ch = token.charAt(c);
+                if (ch == '\n' && c > 0 && token.charAt(c - 1) == '\r') {
+                    continue;
+                }
+                if (ch == '\n' || ch == '\r') {
+                    line++;
+                    column = 1;
+                } else {
+                    column++;
+                }
+            }
+            column++;
+        }
+        return new Source(sql, tokens, spans, node, positions);
+    }
+
+    private Forms forms(String sql) {
+        synchronized (memo) {
+            Forms forms = memo.get(sql);
+            if (forms != null) {
+                return forms;
+            }
+        }
+        Forms forms = compute(sql);
+        synchronized (memo) {
+            memo.put(sql, forms);
+        }
+        return forms;
+    }
+
+    private static Forms compute(String sql) {
+        String raw = sql.trim().replaceAll(";$", "").trim();
+        List<String> tokens = tokenize(raw);
+        if (tokens == null) {
+            // Chaîne ou commentaire non fermé : DuckDB refusera la requête, clé sur le texte brut
+            return new Forms(raw, sha256(raw));
+        }
+        if (!calciteReadsAll(tokens)) {
+            return lexicalForms(tokens);
+        }
+        SqlNode node;
+        String canonical;
+        try {
+            node = SqlParser.create(String.join(" ", forCalcite(tokens)), PARSER_CONFIG).parseQuery();
+            canonical = unparse(node);
+        } catch (SqlParseException | RuntimeException e) {
+            logger.debug("Requête non analysable par Calcite, clé sur les jetons : {}", e.getMessage());
+            return lexicalForms(tokens);
+        }
+        String parameterized = canonical;
+        if (PARAMETERIZE_LITERALS) {
+            try {
+                parameterized = unparse(node.accept(new LiteralParameterizer()));
+            } catch (RuntimeException e) {
+                // Littéral qu'un opérateur refuse de voir remplacé : empreinte sur la forme canonique
+                logger.debug("Littéraux non paramétrables : {}", e.getMessage());
+            }
+        }
+        return new Forms(canonical, sha256(parameterized));
+    }
+
+    private static Forms lexicalForms(List<String> tokens) {
+        String lexical = String.join(" ", tokens);
+        return new Forms(lexical, sha256(PARAMETERIZE_LITERALS ? String.join(" ", parameterize(tokens)) : lexical));
+    }
+
+    /**
+     * Découpe en jetons : mots, nombres, chaînes ({@code 'x'}, avec un
+     * préfixe collé comme {@code E'x'}), identifiants entre guillemets, chaînes
+     * {@code $$...$$}, parenthèses et séparateurs, suites de caractères
+     * d'opérateur. Les opérateurs ne sont pas redécoupés : {@code >=} et
+     * {@code > =} restent distincts.
+     *
+     * @return {@code null} si une chaîne ou un commentaire n'est pas fermé
+     */
+    static List<String> tokenize(String sql) {
+        return tokenize(sql, null);
+    }
+
+    /**
+     * @param spans si non {@code null}, reçoit pour chaque jeton ses bornes
+     *              {@code [début, fin)} dans {@code sql}
+     */
+    static List<String> tokenize(String sql, List<int[]> spans) {
+        List<String> tokens = new ArrayList<>();
+        int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            char next = i + 1 < n ? sql.charAt(i + 1) : 0;
+            int start = i;
+            int count = tokens.size();
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '-' && next == '-') {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? n : end + 1;
+            } else if (c == '/' && next == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                if (end < 0) {
+                    return null;
+                }
+                i = end + 2;
+            } else if (c == '\'' || c == '"') {
+                i = closingQuote(sql, i, c);
+                if (i < 0) {
+                    return null;
+                }
+                String quoted = sql.substring(start, i);
+                int last = tokens.size() - 1;
+                if (c == '\'' && last >= 0 && start > 0 && isWordChar(sql.charAt(start - 1))) {
+                    tokens.set(last, tokens.get(last) + quoted);
+                    if (spans != null) {
+                        spans.get(last)[1] = i;
+                    }
+                } else {
+                    tokens.add(quoted);
+                }
+            } else if (c == '$' && next == '$') {
+                int end = sql.indexOf("$$", i + 2);
+                if (end < 0) {
+                    return null;
+                }
+                i = end + 2;
+                tokens.add(sql.substring(start, i));
+            } else if (Character.isLetter(c) || c == '_') {
+                while (i < n && isWordChar(sql.charAt(i))) {
+                    i++;
+                }
+                tokens.add(word(sql.substring(start, i), tokens, i < n && sql.charAt(i) == '('));
+            } else if (Character.isDigit(c)) {
+                while (i < n && (isWordChar(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                tokens.add(sql.substring(start, i));
+            } else if ("(),;[]{}".indexOf(c) >= 0) {
+                i++;
+                tokens.add(String.valueOf(c));
+            } else {
+                while (i < n && isOperatorChar(sql.charAt(i))
+                       && !(i > start && sql.startsWith("--", i)) && !(i > start && sql.startsWith("/*", i))) {
+                    i++;
+                }
+                if (i == start) {
+                    i++;
+                }
+                tokens.add(sql.substring(start, i));
+            }
+            if (spans != null && tokens.size() > count) {
+                spans.add(new int[] {start, i});
+            }
+        }
+        return tokens;
+    }
+
+    private static int closingQuote(String sql, int open, char quote) {
+        int i = open + 1;
+        while (i < sql.length()) {
+            if (sql.charAt(i) == quote) {
+                // Guillemet doublé : échappement, la chaîne continue
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private static String word(String word, List<String> previous, boolean call) {
+        String upper = word.toUpperCase(Locale.ROOT);
+        if (KEYWORDS.contains(upper)) {
+            return upper;
+        }
+        // Nom de fonction : DuckDB l'écrit en minuscules, y compris dans les noms de colonnes générés
+        if (call) {
+            return word.toLowerCase(Locale.ROOT);
+        }
+        // BY n'est réservé qu'après GROUP, ORDER ou PARTITION
+        if ("BY".equals(upper) && !previous.isEmpty()) {
+            String before = previous.get(previous.size() - 1).toUpperCase(Locale.ROOT);
+            if ("GROUP".equals(before) || "ORDER".equals(before) || "PARTITION".equals(before)) {
+                return upper;
+            }
+        }
+        return word;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    private static boolean isOperatorChar(char c) {
+        return !Character.isWhitespace(c) && !isWordChar(c) && "'\"(),;[]{}".indexOf(c) < 0;
+    }
+
+    private static boolean isLiteral(String token) {
+        char first = token.charAt(0);
+        return Character.isDigit(first) || first == '\'' || token.startsWith("$$")
+            || (Character.isLetter(first) && token.endsWith("'") && token.indexOf('\'') > 0);
+    }
+
+    private static List<String> parameterize(List<String> tokens) {
+        List<String> result = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            result.add(isLiteral(token) ? "?" : token);
+        }
+        return result;
+    }
+
+    /**
+     * Jetons présentés à Calcite :
+     * <ul>
+     * <li>les identifiants que Calcite réserve sans que DuckDB le fasse
+     * ({@code year}, {@code value}...) sont mis entre guillemets ;</li>
+     * <li>{@code FROM f(...)} et {@code JOIN f(...)} deviennent
+     * {@code FROM TABLE(f(...))}, seule forme de fonction table que lit Calcite.</li>
+     * </ul>
+     */
+    private static List<String> forCalcite(List<String> tokens) {
+        return forCalcite(tokens, null);
+    }
+
+    /**
+     * @param origins si non {@code null}, reçoit pour chaque jeton présenté à
+     *                Calcite l'indice du jeton d'origine, {@code -1} pour ceux
+     *                ajoutés
+     */
+    private static List<String> forCalcite(List<String> tokens, List<Integer> origins) {
+        List<String> result = new ArrayList<>(tokens.size() + 4);
+        Deque<Integer> closeAt = new ArrayDeque<>();
+        int depth = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            boolean call = i + 1 < tokens.size() && "(".equals(tokens.get(i + 1));
+            boolean tableFunction = call && i > 0 && ("FROM".equals(tokens.get(i - 1)) || "JOIN".equals(tokens.get(i - 1)));
+            result.add(needsQuotes(token, call, tableFunction) ? '"' + token + '"' : token);
+            if (origins != null) {
+                origins.add(i);
+            }
+            if ("(".equals(token)) {
+                depth++;
+            } else if (")".equals(token)) {
+                depth--;
+                // Fin des arguments d'une fonction table : fermeture de son TABLE(
+                if (!closeAt.isEmpty() && closeAt.peek() == depth) {
+                    closeAt.pop();
+                    result.add(")");
+                    depth--;
+                }
+            }
+            if (("FROM".equals(token) || "JOIN".equals(token)) && i + 2 < tokens.size()
+                && Character.isLetter(tokens.get(i + 1).charAt(0)) && !KEYWORDS.contains(tokens.get(i + 1))
+                && "(".equals(tokens.get(i + 2))) {
+                result.add("TABLE");
+                result.add("(");
+                depth++;
+                closeAt.push(depth);
+            }
+            if (origins != null) {
+                while (origins.size() < result.size()) {
+                    origins.add(-1);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return {@code false} si un jeton hors chaîne contient {@code //},
+     *         {@code --} ou {@code /*} (division entière de DuckDB, chaîne
+     *         {@code $$...$$}) : Calcite y verrait un commentaire et
+     *         ignorerait la fin de la requête
+     */
+    private static boolean calciteReadsAll(List<String> tokens) {
+        for (String token : tokens) {
+            if (token.indexOf('\'') < 0 && token.charAt(0) != '"'
+                && (token.contains("//") || token.contains("--") || token.contains("/*"))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean needsQuotes(String token, boolean call, boolean tableFunction) {
+        char first = token.charAt(0);
+        if (!(Character.isLetter(first) || first == '_') || token.indexOf('\'') >= 0 || KEYWORDS.contains(token)) {
+            return false;
+        }
+        String upper = token.toUpperCase(Locale.ROOT);
+        if (!CALCITE_WORDS.isReservedWord(upper) || CALCITE_WORDS.isContextVariableName(upper)) {
+            return false;
+        }
+        if (tableFunction) {
+            return true;
+        }
+        if (call) {
+            return !CALCITE_WORDS.isReservedFunctionName(upper) && !SYNTAX_WORDS.contains(upper);
+        }
+        return !SYNTAX_WORDS.contains(upper);
+    }
+
+    private static String unparse(SqlNode node) {
+        return node.toSqlString(c -> c.withDialect(AnsiSqlDialect.DEFAULT)
+                                      .withAlwaysUseParentheses(false)
+                                      .withSelectListItemsOnSeparateLines(false)
+                                      .withUpdateSetListNewline(false)
+                                      .withIndentation(0)
+                                      .withClauseStartsLine(false)
+                                      .withClauseEndsLine(false)).getSql();
+    }
+
+    static String sha256(String text) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Remplace les littéraux par {@code ?} ; les symboles (drapeaux comme
+     * {@code DISTINCT}, unités de {@code EXTRACT}...) et les booléens, qui
+     * servent aussi d'options internes aux jointures, restent.
+     */
+    private static final class LiteralParameterizer extends SqlShuttle {
+        @Override
+        public SqlNode visit(SqlLiteral literal) {
+            if (literal.getTypeName() == SqlTypeName.SYMBOL || literal.getTypeName() == SqlTypeName.BOOLEAN) {
+                return literal;
+            }
+            return new SqlDynamicParam(0, SqlParserPos.ZERO);
+        }
+    }
+
+    /**
+     * Requête analysée et ses jetons, repérés dans le texte d'origine.
+     */
+    static final class Source {
+        final String sql;
+        final List<String> tokens;
+        final SqlNode node;
+        private final List<int[]> spans;
+        private final Map<Long, Integer> positions;
+
+        Source(String sql, List<String> tokens, List<int[]> spans, SqlNode node, Map<Long, Integer> positions) {
+            this.sql = sql;
+            this.tokens = tokens;
+            this.spans = spans;
+            this.node = node;
+            this.positions = positions;
+        }
+
+        /**
+         * @return l'indice du jeton où commence {@code node}, {@code -1} s'il
+         *         commence sur un jeton ajouté pour Calcite
+         */
+        int token(SqlNode node) {
+            SqlParserPos pos = node.getParserPosition();
+            Integer token = positions.get(((long) pos.getLineNum() << 32) | pos.getColumnNum());
+            return token == null ? -1 : token;
+        }
+
+        int start(int token) {
+            return spans.get(token)[0];
+        }
+
+        int end(int token) {
+            return spans.get(token)[1];
+        }
+
+        /**
+         * @return l'indice de la parenthèse fermant celle de {@code open}, {@code -1} si aucune
+         */
+        int closing(int open) {
+            int depth = 0;
+            for (int i = open; i < tokens.size(); i++) {
+                if ("(".equals(tokens.get(i))) {
+                    depth++;
+                } else if (")".equals(tokens.get(i)) && --depth == 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static final class Forms {
+        final String canonical;
+        final String fingerprint;
+
+        Forms(String canonical, String fingerprint) {
+            this.canonical = canonical;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.slim.service;
+
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.duckdb.DuckDBPreparedStatement;
+import org.duckdb.QueryProgress;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.slim.dto.QueryProgressResponse;
+
+/**
+ * Registre des requêtes en cours : chaque exécution reçoit un identifiant
+ * (celui du driver, ou un UUID) et son {@link Statement} reste annulable via
+ * {@link #cancel(String)} tant qu'elle tourne.
+ * <p>
+ * Le délai demandé par le client (borné par {@code QUERY_MAX_TIMEOUT_SECONDS},
+ * ou {@code QUERY_DEFAULT_TIMEOUT_SECONDS} s'il n'en envoie pas) devient une
+ * échéance : passé ce délai le serveur interrompt lui-même la requête, même si
+ * le client a disparu sans jamais appeler cancel.
+ * <p>
+ * L'avancement de chaque requête ({@link #progress(String)}) est lu dans DuckDB
+ * au plus une fois par {@code QUERY_PROGRESS_SAMPLE_MS} ; entre deux mesures,
+ * les clients qui interrogent reçoivent la dernière valeur.
+ */
+@Service
+public class QueryRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryRegistry.class);
+
+    public static final String QUERY_ID_HEADER = "X-DuckDB-Query-Id";
+    public static final String QUERY_TIMEOUT_HEADER = "X-DuckDB-Query-Timeout-Ms";
+
+    public static final String QUERY_TIMEOUT = "Query timeout exceeded";
+    public static final String QUERY_CANCELLED = "Query cancelled";
+
+    private static final long DEFAULT_TIMEOUT_MS = Long.parseLong(System.getenv().getOrDefault("QUERY_DEFAULT_TIMEOUT_SECONDS", "0")) * 1000L;
+    private static final long MAX_TIMEOUT_MS = Long.parseLong(System.getenv().getOrDefault("QUERY_MAX_TIMEOUT_SECONDS", "0")) * 1000L;
+    // Un cancel peut arriver avant l'enregistrement de la requête : il est gardé ce temps-là
+    private static final long EARLY_CANCEL_TTL_MS = 60_000L;
+    private static final long PROGRESS_SAMPLE_MS = Long.parseLong(System.getenv().getOrDefault("QUERY_PROGRESS_SAMPLE_MS", "200"));
+
+    private final Map<String, RunningQuery> queries = new ConcurrentHashMap<>();
+    private final Map<String, Long> earlyCancels = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "query-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param queryId   identifiant envoyé par le client, ou {@code null} pour en générer un
+     * @param timeoutMs délai demandé par le client, {@code null} ou {@code <= 0} pour le défaut serveur
+     * @return la requête enregistrée, à fermer en fin d'exécution
+     */
+    public RunningQuery register(String queryId, Statement statement, Long timeoutMs) {
+        return register(queryId, statement, null, timeoutMs);
+    }
+
+    /**
+     * Enregistre une requête qui attend le résultat d'une exécution identique
+     * déjà en cours : cancel et échéance annulent {@code waiting}, sans toucher
+     * à l'exécution partagée.
+     */
+    public RunningQuery registerWaiter(String queryId, CompletableFuture<?> waiting, Long timeoutMs) {
+        return register(queryId, null, waiting, timeoutMs);
+    }
+
+    private RunningQuery register(String queryId, Statement statement, CompletableFuture<?> waiting, Long timeoutMs) {
+        String id = queryId == null || queryId.isEmpty() ? UUID.randomUUID().toString() : queryId;
+        RunningQuery query = new RunningQuery(id, statement, waiting, effectiveTimeout(timeoutMs));
+        RunningQuery previous = queries.putIfAbsent(id, query);
+        if (previous != null) {
+            // Identifiant réutilisé par le client : cancel ne doit viser qu'une seule requête
+            query = new RunningQuery(UUID.randomUUID().toString(), statement, waiting, query.timeoutMs);
+            logger.warn("Identifiant de requête {} déjà en cours, remplacé par {}.", id, query.id);
+            queries.put(query.id, query);
+        }
+        if (previous == null && earlyCancels.remove(id) != null) {
+            query.cancel(QUERY_CANCELLED);
+        } else if (query.timeoutMs > 0) {
+            RunningQuery timed = query;
+            query.deadline = deadlines.schedule(() -> timed.cancel(QUERY_TIMEOUT + " (" + timed.timeoutMs + " ms)"),
+                                                query.timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        return query;
+    }
+
+    /**
+     * Interrompt la requête. Si elle n'est pas (encore) enregistrée, le cancel
+     * est retenu et s'appliquera dès son arrivée.
+     *
+     * @return false si aucune requête ne tourne sous cet identifiant
+     */
+    public boolean cancel(String queryId) {
+        RunningQuery query = queries.get(queryId);
+        if (query == null) {
+            earlyCancels.put(queryId, System.currentTimeMillis());
+            logger.info("Cancel de la requête {} reçu avant son exécution, conservé.", queryId);
+            return false;
+        }
+        query.cancel(QUERY_CANCELLED);
+        return true;
+    }
+
+    /**
+     * @return l'avancement de la requête, ou {@code null} si elle ne tourne pas
+     */
+    public QueryProgressResponse progress(String queryId) {
+        RunningQuery query = queries.get(queryId);
+        return query == null ? null : query.progress();
+    }
+
+    public int runningQueryCount() {
+        return queries.size();
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void evictEarlyCancels() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Long>> it = earlyCancels.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().getValue() > EARLY_CANCEL_TTL_MS) {
+                it.remove();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        deadlines.shutdownNow();
+    }
+
+    private static long effectiveTimeout(Long timeoutMs) {
+        long timeout = timeoutMs != null && timeoutMs > 0 ? timeoutMs : DEFAULT_TIMEOUT_MS;
+        if (MAX_TIMEOUT_MS > 0 && (timeout <= 0 || timeout > MAX_TIMEOUT_MS)) {
+            return MAX_TIMEOUT_MS;
+        }
+        return timeout;
+    }
+
+    /**
+     * Requête en cours ; {@link #close()} la retire du registre et annule son échéance.
+     */
+    public final class RunningQuery implements AutoCloseable {
+        private final String id;
+        private final Statement statement;
+        private final CompletableFuture<?> waiting;
+        private final long timeoutMs;
+        private volatile ScheduledFuture<?> deadline;
+        private volatile String cancelReason;
+        private volatile boolean closed;
+        private QueryProgressResponse progress;
+        private long progressSampledAt;
+
+        private RunningQuery(String id, Statement statement, CompletableFuture<?> waiting, long timeoutMs) {
+            this.id = id;
+            this.statement = statement;
+            this.waiting = waiting;
+            this.timeoutMs = timeoutMs;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public boolean isCancelled() {
+            return cancelReason != null;
+        }
+
+        /**
+         * @return le motif de l'annulation, à renvoyer au client à la place de
+         *         l'erreur d'interruption DuckDB, ou {@code null}
+         */
+        public String getCancelReason() {
+            return cancelReason;
+        }
+
+        /**
+         * DuckDB lit l'avancement sans attendre le thread qui exécute la requête.
+         */
+        private synchronized QueryProgressResponse progress() {
+            long now = System.currentTimeMillis();
+            if (closed || statement == null || (progress != null && now - progressSampledAt < PROGRESS_SAMPLE_MS)) {
+                return progress != null ? progress : new QueryProgressResponse(id, -1, 0, 0);
+            }
+            try {
+                QueryProgress sample = statement.unwrap(DuckDBPreparedStatement.class).getQueryProgress();
+                progress = new QueryProgressResponse(id, sample.getPercentage(), sample.getRowsProcessed(),
+                                                     sample.getTotalRowsToProcess());
+            } catch (Exception e) {
+                logger.debug("Avancement de la requête {} indisponible: {}", id, e.getMessage());
+                progress = new QueryProgressResponse(id, -1, 0, 0);
+            }
+            progressSampledAt = now;
+            return progress;
+        }
+
+        private synchronized void cancel(String reason) {
+            if (closed || cancelReason != null) {
+                return;
+            }
+            cancelReason = reason;
+            logger.warn("Requête {} interrompue : {}.", id, reason);
+            if (waiting != null) {
+                waiting.cancel(false);
+                return;
+            }
+            try {
+                statement.cancel();
+            } catch (Exception e) {
+                logger.warn("[QueryRegistry] Interruption de la requête {} en échec: {}", id, e.getMessage());
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            queries.remove(id, this);
+        }
+    }
+}
@@ -0,0 +1,736 @@
+package com.slim.service;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlJoin;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlLiteral;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.SqlNumericLiteral;
+import org.apache.calcite.sql.SqlOrderBy;
+import org.apache.calcite.sql.SqlSelect;
+import org.apache.calcite.sql.type.SqlTypeFamily;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Réécriture des requêtes avant leur exécution par DuckDB. Chaque règle se
+ * désactive via {@code QUERY_REWRITE_RULES} (liste séparée par des virgules,
+ * toutes par défaut, {@code none} pour aucune) :
+ * <ul>
+ * <li>{@code prune_columns} : le {@code SELECT *} d'une sous-requête du
+ * {@code FROM} se réduit aux colonnes que nomme la requête englobante ;</li>
+ * <li>{@code prune_partitions} : le glob de {@code read_parquet} se réduit
+ * aux répertoires hive ({@code cle=valeur}) retenus par les égalités et
+ * {@code IN} du {@code WHERE} ;</li>
+ * <li>{@code subquery_order} : l'{@code ORDER BY} sans {@code LIMIT} d'une
+ * sous-requête disparaît quand l'ordre de ses lignes est perdu ({@code IN},
+ * {@code EXISTS}, {@code FROM} d'une requête triée, regroupée ou réduite à des
+ * agrégats insensibles à l'ordre) ;</li>
+ * <li>{@code limit} : {@code LIMIT} ajouté par la console ({@code /ui/query})
+ * quand la requête n'en a pas ({@link #limit}).</li>
+ * </ul>
+ * Les règles repèrent leurs cibles dans l'arbre Calcite mais modifient le
+ * texte d'origine, jeton par jeton : tout le reste, et donc les noms de
+ * colonnes que DuckDB déduit des expressions, est inchangé. Une requête que
+ * Calcite ne lit pas part telle quelle. Clés du cache, empreintes et
+ * statistiques restent celles de la requête d'origine.
+ */
+@Service
+public class QueryRewriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryRewriter.class);
+
+    static final String PRUNE_COLUMNS = "prune_columns";
+    static final String PRUNE_PARTITIONS = "prune_partitions";
+    static final String SUBQUERY_ORDER = "subquery_order";
+    static final String LIMIT = "limit";
+    private static final List<String> ALL_RULES = Arrays.asList(PRUNE_COLUMNS, PRUNE_PARTITIONS, SUBQUERY_ORDER, LIMIT);
+
+    private static final Set<String> RULES = rules(System.getenv().getOrDefault("QUERY_REWRITE_RULES", String.join(",", ALL_RULES)));
+
+    private static final Set<String> READERS = new HashSet<>(Arrays.asList("read_parquet", "parquet_scan"));
+    // Options de read_parquet sans effet sur les fichiers lus ni sur le type des colonnes hive
+    private static final Set<String> NEUTRAL_OPTIONS = new HashSet<>(Arrays.asList(
+        "hive_partitioning", "filename", "file_row_number", "binary_as_string"));
+    // Fonctions dont le résultat dépend de l'ordre des lignes reçues
+    private static final Set<String> ORDER_SENSITIVE = new HashSet<>(Arrays.asList(
+        "first", "last", "any_value", "arbitrary", "list", "array_agg", "string_agg", "group_concat", "listagg",
+        "arg_min", "arg_max", "argmin", "argmax", "min_by", "max_by", "mode"));
+    // Agrégats dont le résultat ne dépend pas de l'ordre des lignes
+    private static final Set<String> ORDERLESS_AGGREGATES = new HashSet<>(Arrays.asList(
+        "count", "sum", "min", "max", "avg"));
+    // Mots qui, au premier niveau, interdisent d'ajouter un LIMIT
+    private static final Set<String> NO_LIMIT_AFTER = new HashSet<>(Arrays.asList(
+        "LIMIT", "FETCH", "OFFSET", ";", "INSERT", "UPDATE", "DELETE", "CREATE", "COPY"));
+    private static final Set<String> QUERY_STARTS = new HashSet<>(Arrays.asList("SELECT", "WITH", "FROM", "VALUES", "("));
+    private static final Pattern INTEGER = Pattern.compile("[-+]?[0-9]+");
+    // Valeurs hive que DuckDB pourrait typer (nombre, date, booléen...) : comparées en texte, elles tromperaient
+    private static final Pattern TYPED_VALUE = Pattern.compile("(?i)[-+0-9.].*|true|false|null|.*%.*");
+
+    private final QueryFingerprint fingerprint;
+
+    private final Map<String, AtomicLong> applied = new LinkedHashMap<>();
+    private final AtomicLong analyzed = new AtomicLong();
+    private final AtomicLong rewritten = new AtomicLong();
+    private final AtomicLong analysisMs = new AtomicLong();
+
+    public QueryRewriter(QueryFingerprint fingerprint) {
+        this.fingerprint = fingerprint;
+        for (String rule : ALL_RULES) {
+            applied.put(rule, new AtomicLong());
+        }
+        logger.info("Règles de réécriture actives : {}", RULES.isEmpty() ? "aucune" : String.join(", ", RULES));
+    }
+
+    private static Set<String> rules(String value) {
+        Set<String> rules = new LinkedHashSet<>();
+        for (String rule : value.split(",")) {
+            String name = rule.trim().toLowerCase(Locale.ROOT);
+            if (ALL_RULES.contains(name)) {
+                rules.add(name);
+            } else if (!name.isEmpty() && !"none".equals(name)) {
+                logger.warn("Règle de réécriture inconnue ignorée : {}", name);
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Applique les règles actives à {@code sql}.
+     *
+     * @param connection sert à décrire les sous-requêtes dont les colonnes sont élaguées
+     * @return la requête réécrite, ou {@code sql} si aucune règle ne s'applique
+     */
+    public String rewrite(Connection connection, String sql) {
+        if (!candidate(sql)) {
+            return sql;
+        }
+        long start = System.currentTimeMillis();
+        analyzed.incrementAndGet();
+        String result = null;
+        Rewrite rewrite = null;
+        QueryFingerprint.Source source = fingerprint.source(sql);
+        if (source != null && source.node.isA(SqlKind.QUERY)) {
+            rewrite = new Rewrite(connection, source);
+            try {
+                rewrite.walk(source.node, null);
+                result = rewrite.apply();
+            } catch (RuntimeException e) {
+                logger.debug("Réécriture abandonnée : {}", e.getMessage());
+                result = null;
+            }
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        analysisMs.addAndGet(elapsed);
+        if (result == null) {
+            return sql;
+        }
+        rewritten.incrementAndGet();
+        for (String rule : rewrite.rules) {
+            applied.get(rule).incrementAndGet();
+        }
+        logger.info("Requête réécrite ({}) en {} ms.\n  Avant : {}\n  Après : {}",
+                    String.join(", ", rewrite.rules), elapsed, sql, result);
+        return result;
+    }
+
+    /**
+     * Ajoute {@code LIMIT maxRows} à une requête qui renvoie des lignes sans
+     * en borner le nombre. Lue en jetons, la requête peut contenir
+     * {@code limit} dans une chaîne, un commentaire ou une sous-requête, et
+     * utiliser une syntaxe que Calcite ne lit pas.
+     *
+     * @return la requête bornée, ou {@code sql} si elle l'est déjà, n'est pas
+     *         une requête ou si la règle {@code limit} est désactivée
+     */
+    public String limit(String sql, int maxRows) {
+        if (!RULES.contains(LIMIT)) {
+            return sql;
+        }
+        List<int[]> spans = new ArrayList<>();
+        List<String> tokens = QueryFingerprint.tokenize(sql, spans);
+        if (tokens == null || tokens.isEmpty()) {
+            return sql;
+        }
+        int end = tokens.size();
+        if (";".equals(tokens.get(end - 1))) {
+            end--;
+        }
+        if (end == 0 || !QUERY_STARTS.contains(tokens.get(0).toUpperCase(Locale.ROOT))) {
+            return sql;
+        }
+        int depth = 0;
+        for (int i = 0; i < end; i++) {
+            String token = tokens.get(i);
+            if ("(".equals(token)) {
+                depth++;
+            } else if (")".equals(token)) {
+                depth--;
+            } else if (depth == 0 && NO_LIMIT_AFTER.contains(token.toUpperCase(Locale.ROOT))) {
+                return sql;
+            }
+        }
+        applied.get(LIMIT).incrementAndGet();
+        // Coupée après son dernier jeton : ni ';' ni commentaire final avant le LIMIT
+        return sql.substring(0, spans.get(end - 1)[1]) + " LIMIT " + maxRows;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("rules", new ArrayList<>(RULES));
+        stats.put("analyzed", analyzed.get());
+        stats.put("rewritten", rewritten.get());
+        stats.put("analysis_ms", analysisMs.get());
+        Map<String, Long> byRule = new LinkedHashMap<>();
+        for (Map.Entry<String, AtomicLong> rule : applied.entrySet()) {
+            byRule.put(rule.getKey(), rule.getValue().get());
+        }
+        stats.put("applied", byRule);
+        return stats;
+    }
+
+    /**
+     * Filtre sur le texte : évite d'analyser les requêtes qu'aucune règle ne
+     * peut toucher.
+     */
+    private static boolean candidate(String sql) {
+        String lower = sql.toLowerCase(Locale.ROOT);
+        if (RULES.contains(PRUNE_PARTITIONS) && lower.contains("where")
+            && (lower.contains("read_parquet") || lower.contains("parquet_scan"))) {
+            return true;
+        }
+        return (RULES.contains(PRUNE_COLUMNS) || RULES.contains(SUBQUERY_ORDER))
+            && lower.indexOf("select") != lower.lastIndexOf("select");
+    }
+
+    /**
+     * Modification du texte d'origine : {@code [start, end)} remplacé par {@code text}.
+     */
+    private static final class Edit {
+        final String rule;
+        final int start;
+        final int end;
+        final String text;
+
+        Edit(String rule, int start, int end, String text) {
+            this.rule = rule;
+            this.start = start;
+            this.end = end;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Parcours d'une requête : chaque {@code SELECT}, avec l'{@code ORDER BY}
+     * qui le trie, collecte les modifications de ses règles.
+     */
+    private static final class Rewrite {
+        final Connection connection;
+        final QueryFingerprint.Source source;
+        final List<Edit> edits = new ArrayList<>();
+        final Set<String> rules = new LinkedHashSet<>();
+
+        Rewrite(Connection connection, QueryFingerprint.Source source) {
+            this.connection = connection;
+            this.source = source;
+        }
+
+        void walk(SqlNode node, SqlNodeList order) {
+            if (node == null) {
+                return;
+            }
+            if (node instanceof SqlOrderBy) {
+                SqlOrderBy orderBy = (SqlOrderBy) node;
+                walk(orderBy.query, orderBy.orderList);
+                walk(orderBy.orderList, null);
+            } else if (node instanceof SqlSelect) {
+                SqlSelect select = (SqlSelect) node;
+                visit(select, order);
+                for (SqlNode child : select.getOperandList()) {
+                    walk(child, null);
+                }
+            } else if (node instanceof SqlNodeList) {
+                for (SqlNode child : (SqlNodeList) node) {
+                    walk(child, null);
+                }
+            } else if (node instanceof SqlCall) {
+                SqlCall call = (SqlCall) node;
+                // Sous-requête d'un IN ou d'un EXISTS : seul compte l'ensemble de ses lignes
+                if (RULES.contains(SUBQUERY_ORDER)
+                    && (call.getKind() == SqlKind.IN || call.getKind() == SqlKind.NOT_IN || call.getKind() == SqlKind.EXISTS
+                        || call.getKind() == SqlKind.SOME || call.getKind() == SqlKind.ALL)) {
+                    for (SqlNode operand : call.getOperandList()) {
+                        if (operand instanceof SqlOrderBy) {
+                            dropOrder((SqlOrderBy) operand);
+                        }
+                    }
+                }
+                for (SqlNode operand : call.getOperandList()) {
+                    walk(operand, null);
+                }
+            }
+        }
+
+        private void visit(SqlSelect select, SqlNodeList order) {
+            if (RULES.contains(PRUNE_PARTITIONS)) {
+                prunePartitions(select);
+            }
+            if (RULES.contains(SUBQUERY_ORDER) && orderLost(select, order)) {
+                List<SqlNode> items = new ArrayList<>();
+                fromItems(select.getFrom(), items);
+                for (SqlNode item : items) {
+                    if (item instanceof SqlOrderBy) {
+                        dropOrder((SqlOrderBy) item);
+                    }
+                }
+            }
+            if (RULES.contains(PRUNE_COLUMNS)) {
+                pruneColumns(select, order);
+            }
+        }
+
+        /**
+         * Vrai si l'ordre des lignes lues par {@code select} ne se voit pas
+         * dans son résultat.
+         */
+        private static boolean orderLost(SqlSelect select, SqlNodeList order) {
+            boolean sorted = order != null && order.size() > 0;
+            if (!sorted && select.getGroup() == null && !select.isDistinct() && !orderlessAggregates(select)) {
+                return false;
+            }
+            return !orderSensitive(select.getSelectList()) && !orderSensitive(select.getHaving())
+                && !orderSensitive(order);
+        }
+
+        private static boolean orderlessAggregates(SqlSelect select) {
+            for (SqlNode item : select.getSelectList()) {
+                SqlNode expr = SubsumptionCache.stripAlias(item);
+                if (!(expr instanceof SqlCall) || expr instanceof SqlSelect
+                    || !ORDERLESS_AGGREGATES.contains(SubsumptionCache.functionName((SqlCall) expr))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean orderSensitive(SqlNode node) {
+            if (node instanceof SqlNodeList) {
+                for (SqlNode child : (SqlNodeList) node) {
+                    if (orderSensitive(child)) {
+                        return true;
+                    }
+                }
+            } else if (node instanceof SqlCall) {
+                SqlCall call = (SqlCall) node;
+                if (call.getKind() == SqlKind.OVER || ORDER_SENSITIVE.contains(SubsumptionCache.functionName(call))) {
+                    return true;
+                }
+                for (SqlNode operand : call.getOperandList()) {
+                    if (orderSensitive(operand)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Sources du {@code FROM}, jointures dépliées et alias retirés.
+         */
+        private static void fromItems(SqlNode from, List<SqlNode> items) {
+            if (from instanceof SqlJoin) {
+                fromItems(((SqlJoin) from).getLeft(), items);
+                fromItems(((SqlJoin) from).getRight(), items);
+            } else if (from != null && from.getKind() == SqlKind.AS) {
+                items.add(((SqlCall) from).operand(0));
+            } else if (from != null) {
+                items.add(from);
+            }
+        }
+
+        /**
+         * Retire l'{@code ORDER BY} d'une sous-requête entre parenthèses.
+         */
+        private void dropOrder(SqlOrderBy orderBy) {
+            if (orderBy.fetch != null || orderBy.offset != null || !(orderBy.query instanceof SqlSelect)) {
+                return;
+            }
+            int first = source.token(orderBy.query);
+            int close = opened(first);
+            if (close < 0) {
+                return;
+            }
+            int orderAt = -1;
+            int depth = 0;
+            for (int i = first; i < close; i++) {
+                String token = source.tokens.get(i);
+                if ("(".equals(token)) {
+                    depth++;
+                } else if (")".equals(token)) {
+                    depth--;
+                } else if (depth == 0 && "ORDER".equals(token) && "BY".equals(source.tokens.get(i + 1))) {
+                    orderAt = i;
+                }
+            }
+            if (orderAt > first) {
+                edits.add(new Edit(SUBQUERY_ORDER, source.end(orderAt - 1), source.end(close - 1), ""));
+            }
+        }
+
+        /**
+         * @return l'indice de la parenthèse qui ferme celle précédant le jeton
+         *         {@code first}, {@code -1} si ce jeton ne suit pas une parenthèse
+         */
+        private int opened(int first) {
+            if (first <= 0 || !"(".equals(source.tokens.get(first - 1))) {
+                return -1;
+            }
+            return source.closing(first - 1);
+        }
+
+        /**
+         * {@code SELECT ... FROM (SELECT * FROM t ...) s} : le {@code *}
+         * devient la liste des colonnes de la sous-requête que {@code select}
+         * nomme quelque part. Les colonnes de la sous-requête sont lues par
+         * DuckDB : un nom qui n'en est pas une (alias, colonne d'une requête
+         * englobante) est simplement ignoré.
+         */
+        private void pruneColumns(SqlSelect select, SqlNodeList order) {
+            SqlNode from = select.getFrom();
+            String alias = null;
+            if (from != null && from.getKind() == SqlKind.AS) {
+                // s(a, b) renomme les colonnes par position : la liste doit rester entière
+                if (((SqlCall) from).operandCount() != 2) {
+                    return;
+                }
+                alias = ((SqlCall) from).operand(1).toString();
+                from = ((SqlCall) from).operand(0);
+            }
+            SqlNode query = from instanceof SqlOrderBy ? ((SqlOrderBy) from).query : from;
+            if (!(query instanceof SqlSelect)) {
+                return;
+            }
+            SqlSelect inner = (SqlSelect) query;
+            if (inner.isDistinct() || inner.getSelectList().size() != 1 || inner.getFrom() == null
+                || inner.getFrom() instanceof SqlJoin || !SubsumptionCache.isBareStar(inner.getSelectList().get(0))) {
+                return;
+            }
+            for (SqlNode item : select.getSelectList()) {
+                if (item instanceof SqlIdentifier && ((SqlIdentifier) item).isStar()) {
+                    return;
+                }
+            }
+            Set<String> names = new HashSet<>();
+            for (SqlNode part : Arrays.asList(select.getSelectList(), select.getWhere(), select.getGroup(),
+                                              select.getHaving(), select.getWindowList(), order)) {
+                if (!names(part, alias, names)) {
+                    return;
+                }
+            }
+            int star = source.token(inner.getSelectList().get(0));
+            int close = opened(source.token(inner));
+            if (names.isEmpty() || star < 0 || close < 0 || !"*".equals(source.tokens.get(star))) {
+                return;
+            }
+            String[] columns;
+            try {
+                columns = PreparedStatementService.describe(connection, source.sql.substring(
+                    source.start(source.token(inner)), source.end(close - 1)), null).getColumn_names();
+            } catch (SQLException e) {
+                logger.debug("Sous-requête non décrite, colonnes conservées : {}", e.getMessage());
+                return;
+            }
+            List<String> kept = new ArrayList<>();
+            for (String column : columns) {
+                if (names.contains(column.toLowerCase(Locale.ROOT))) {
+                    kept.add(SubsumptionCache.quote(column));
+                }
+            }
+            if (!kept.isEmpty() && kept.size() < columns.length) {
+                edits.add(new Edit(PRUNE_COLUMNS, source.start(star), source.end(star), String.join(", ", kept)));
+            }
+        }
+
+        /**
+         * Noms de colonnes cités par {@code node}, en minuscules : le premier
+         * composant d'un identifiant, le second s'il est qualifié par
+         * {@code alias}.
+         *
+         * @return {@code false} si {@code node} lit des colonnes sans les
+         *         nommer ({@code *} hors de {@code count(*)}, {@code COLUMNS(...)},
+         *         l'alias seul qui désigne la ligne entière)
+         */
+        private static boolean names(SqlNode node, String alias, Set<String> names) {
+            if (node instanceof SqlIdentifier) {
+                SqlIdentifier identifier = (SqlIdentifier) node;
+                if (identifier.isStar() || identifier.isSimple() && identifier.getSimple().equalsIgnoreCase(alias)) {
+                    return false;
+                }
+                String name = identifier.names.size() > 1 && identifier.names.get(0).equalsIgnoreCase(alias)
+                    ? identifier.names.get(1) : identifier.names.get(0);
+                names.add(name.toLowerCase(Locale.ROOT));
+            } else if (node instanceof SqlNodeList) {
+                for (SqlNode child : (SqlNodeList) node) {
+                    if (!names(child, alias, names)) {
+                        return false;
+                    }
+                }
+            } else if (node instanceof SqlCall) {
+                SqlCall call = (SqlCall) node;
+                String function = SubsumptionCache.functionName(call);
+                if ("columns".equals(function)) {
+                    return false;
+                }
+                if ("count".equals(function) && call.operandCount() == 1 && SubsumptionCache.isBareStar(call.operand(0))) {
+                    return true;
+                }
+                for (SqlNode operand : call.getOperandList()) {
+                    if (!names(operand, alias, names)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * {@code FROM read_parquet('glob') WHERE cle = v AND autre IN (...)} :
+         * seuls les fichiers dont les répertoires hive portent ces valeurs sont
+         * lus. Le glob devient la liste de leurs répertoires, chacun avec le
+         * dernier segment du glob d'origine ; le {@code WHERE} reste.
+         */
+        private void prunePartitions(SqlSelect select) {
+            SqlNode from = select.getFrom();
+            String alias = null;
+            if (from != null && from.getKind() == SqlKind.AS && ((SqlCall) from).operandCount() == 2) {
+                alias = ((SqlCall) from).operand(1).toString();
+                from = ((SqlCall) from).operand(0);
+            }
+            if (select.getWhere() == null || from == null || from.getKind() != SqlKind.COLLECTION_TABLE) {
+                return;
+            }
+            SqlNode call = ((SqlCall) from).operand(0);
+            if (!(call instanceof SqlCall) || !READERS.contains(SubsumptionCache.functionName((SqlCall) call))) {
+                return;
+            }
+            List<SqlNode> operands = ((SqlCall) call).getOperandList();
+            if (operands.isEmpty() || !(operands.get(0) instanceof SqlLiteral)
+                || ((SqlLiteral) operands.get(0)).getTypeName().getFamily() != SqlTypeFamily.CHARACTER) {
+                return;
+            }
+            for (SqlNode option : operands.subList(1, operands.size())) {
+                if (option.getKind() != SqlKind.EQUALS
+                    || !NEUTRAL_OPTIONS.contains(((SqlCall) option).operand(0).toString().toLowerCase(Locale.ROOT))
+                    || ("hive_partitioning".equalsIgnoreCase(((SqlCall) option).operand(0).toString())
+                        && !"TRUE".equalsIgnoreCase(SubsumptionCache.canonical(((SqlCall) option).operand(1))))) {
+                    return;
+                }
+            }
+            Map<String, Set<Object>> wanted = new HashMap<>();
+            constraints(select.getWhere(), alias, wanted);
+            int literal = source.token(operands.get(0));
+            if (wanted.isEmpty() || literal < 0) {
+                return;
+            }
+
+            String glob = ((SqlLiteral) operands.get(0)).getValueAs(String.class);
+            List<CacheStorage.StoredFile> files;
+            try {
+                files = SourceFiles.recentList(glob);
+            } catch (IOException e) {
+                logger.debug("Fichiers de {} non listés, partitions conservées : {}", glob, e.getMessage());
+                return;
+            }
+            if (files == null || files.isEmpty()) {
+                return;
+            }
+            List<Map<String, String>> partitions = new ArrayList<>();
+            for (CacheStorage.StoredFile file : files) {
+                partitions.add(SourceFiles.partitions(file.path));
+            }
+            List<CacheStorage.StoredFile> kept = new ArrayList<>(files);
+            List<Map<String, String>> keptPartitions = new ArrayList<>(partitions);
+            for (Map.Entry<String, Set<Object>> constraint : wanted.entrySet()) {
+                Set<String> values = accepted(constraint.getKey(), constraint.getValue(), partitions);
+                if (values == null) {
+                    continue;
+                }
+                for (int i = kept.size() - 1; i >= 0; i--) {
+                    if (!values.contains(keptPartitions.get(i).get(constraint.getKey()))) {
+                        kept.remove(i);
+                        keptPartitions.remove(i);
+                    }
+                }
+            }
+            if (kept.isEmpty() || kept.size() == files.size()) {
+                return;
+            }
+            String last = glob.substring(glob.lastIndexOf('/') + 1);
+            Set<String> narrowed = new LinkedHashSet<>();
+            for (CacheStorage.StoredFile file : kept) {
+                int slash = file.path.lastIndexOf('/');
+                boolean sameName = slash >= 0 && !last.isEmpty() && !last.contains("**")
+                    && SourceFiles.globRegex(last).matcher(file.path.substring(slash + 1)).matches();
+                narrowed.add(SplitAggregate.literal(sameName ? file.path.substring(0, slash + 1) + last : file.path));
+            }
+            edits.add(new Edit(PRUNE_PARTITIONS, source.start(literal), source.end(literal),
+                               "[" + String.join(", ", narrowed) + "]"));
+        }
+
+        /**
+         * Égalités et {@code IN} du {@code WHERE} entre une colonne et des
+         * littéraux entiers ou chaînes, par nom de colonne en minuscules.
+         * Plusieurs termes sur une même colonne se combinent par intersection.
+         */
+        private static void constraints(SqlNode where, String alias, Map<String, Set<Object>> wanted) {
+            if (where.getKind() == SqlKind.AND) {
+                for (SqlNode operand : ((SqlCall) where).getOperandList()) {
+                    constraints(operand, alias, wanted);
+                }
+                return;
+            }
+            String column = null;
+            Collection<SqlNode> literals = null;
+            if (where.getKind() == SqlKind.EQUALS) {
+                SqlNode left = ((SqlCall) where).operand(0);
+                SqlNode right = ((SqlCall) where).operand(1);
+                column = column(left, alias) != null ? column(left, alias) : column(right, alias);
+                literals = Arrays.asList(column(left, alias) != null ? right : left);
+            } else if (where.getKind() == SqlKind.IN && ((SqlCall) where).operand(1) instanceof SqlNodeList) {
+                column = column(((SqlCall) where).operand(0), alias);
+                literals = ((SqlNodeList) ((SqlCall) where).operand(1)).getList();
+            }
+            if (column == null) {
+                return;
+            }
+            Set<Object> values = new HashSet<>();
+            for (SqlNode literal : literals) {
+                Object value = value(literal);
+                if (value == null) {
+                    return;
+                }
+                values.add(value);
+            }
+            if (wanted.containsKey(column)) {
+                wanted.get(column).retainAll(values);
+            } else {
+                wanted.put(column, values);
+            }
+        }
+
+        private static String column(SqlNode node, String alias) {
+            if (!(node instanceof SqlIdentifier) || ((SqlIdentifier) node).isStar()) {
+                return null;
+            }
+            List<String> names = ((SqlIdentifier) node).names;
+            if (names.size() == 1) {
+                return names.get(0).toLowerCase(Locale.ROOT);
+            }
+            return names.size() == 2 && names.get(0).equalsIgnoreCase(alias) ? names.get(1).toLowerCase(Locale.ROOT) : null;
+        }
+
+        /**
+         * @return l'entier ({@link BigInteger}) ou la chaîne d'un littéral, {@code null} pour un autre nœud
+         */
+        private static Object value(SqlNode node) {
+            if (node instanceof SqlNumericLiteral && ((SqlNumericLiteral) node).isInteger()) {
+                return ((SqlNumericLiteral) node).bigDecimalValue().toBigInteger();
+            }
+            if (node instanceof SqlLiteral && ((SqlLiteral) node).getTypeName().getFamily() == SqlTypeFamily.CHARACTER) {
+                return ((SqlLiteral) node).getValueAs(String.class);
+            }
+            return null;
+        }
+
+        /**
+         * Valeurs de répertoire de {@code key} égales, pour DuckDB, à l'une de
+         * {@code values}. Des valeurs toutes entières sont typées
+         * {@code BIGINT} et comparées comme des nombres ; les autres ne sont
+         * comparées en texte que si DuckDB ne peut y voir ni nombre, ni date,
+         * ni booléen.
+         *
+         * @return {@code null} si la colonne n'est pas une partition de tous
+         *         les fichiers ou si la comparaison est incertaine
+         */
+        private static Set<String> accepted(String key, Set<Object> values, List<Map<String, String>> partitions) {
+            boolean integers = true;
+            boolean plain = true;
+            for (Map<String, String> partition : partitions) {
+                String value = partition.get(key);
+                if (value == null) {
+                    return null;
+                }
+                integers &= INTEGER.matcher(value).matches();
+                plain &= !TYPED_VALUE.matcher(value).matches();
+            }
+            Set<String> accepted = new HashSet<>();
+            for (Map<String, String> partition : partitions) {
+                String value = partition.get(key);
+                for (Object wanted : values) {
+                    if (integers) {
+                        BigInteger number = wanted instanceof BigInteger ? (BigInteger) wanted
+                            : INTEGER.matcher((String) wanted).matches() ? new BigInteger(((String) wanted).replace("+", "")) : null;
+                        if (number == null) {
+                            return null;
+                        }
+                        if (number.equals(new BigInteger(value.replace("+", "")))) {
+                            accepted.add(value);
+                        }
+                    } else if (plain && wanted instanceof String) {
+                        if (wanted.equals(value)) {
+                            accepted.add(value);
+                        }
+                    } else {
+                        return null;
+                    }
+                }
+            }
+            return accepted;
+        }
+
+        /**
+         * Applique les modifications, de la fin vers le début du texte ; une
+         * modification qui en chevauche une autre est abandonnée.
+         *
+         * @return la requête modifiée, ou {@code null} si rien n'a changé
+         */
+        String apply() {
+            if (edits.isEmpty()) {
+                return null;
+            }
+            edits.sort((a, b) -> Integer.compare(b.start, a.start));
+            StringBuilder sql = new StringBuilder(source.sql);
+            int limit = Integer.MAX_VALUE;
+            for (Edit edit : edits) {
+                if (edit.end > limit) {
+                    continue;
+                }
+                sql.replace(edit.start, edit.end, edit.text);
+                limit = edit.start;
+                rules.add(edit.rule);
+            }
+            return sql.toString();
+        }
+    }
+}
@@ -3,65 +3,254 @@ package com.slim.service;
 import com.slim.dto.ExecuteDuckDBResultSetMetaData;
 import com.slim.dto.ExecuteRequest;
 import com.slim.dto.ExecuteResponse;
+import com.slim.dto.FetchRequest;
 import org.duckdb.StatementReturnType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 @Service
 public class QueryService {
     private static final Logger logger = LoggerFactory.getLogger(QueryService.class);
 
-    private final DataSource dataSource;
+    private final SessionService sessionService;
 
     private final CacheService cacheService;
 
-    public QueryService(DataSource dataSource, CacheService cacheService) {
-        this.dataSource = dataSource;
+    private final CursorService cursorService;
+
+    private final PreparedStatementService preparedStatementService;
+
+    private final QueryRegistry queryRegistry;
+
+    private final QueryFingerprint fingerprint;
+
+    private final QueryStats queryStats;
+
+    private final PartitionSplitExecutor partitionSplit;
+    private final ScatterGatherCoordinator scatterGather;
+
+    private final QueryRewriter rewriter;
+
+    private final ParquetFooterIndex footerIndex;
+
+    // Exécutions partageables en cours, par SQL normalisé et paramètres
+    private final Map<List<Object>, CompletableFuture<ExecuteResponse>> inFlight = new ConcurrentHashMap<>();
+
+    public QueryService(SessionService sessionService, CacheService cacheService, CursorService cursorService,
+                        PreparedStatementService preparedStatementService, QueryRegistry queryRegistry,
+                        QueryFingerprint fingerprint, QueryStats queryStats, PartitionSplitExecutor partitionSplit,
+                        ScatterGatherCoordinator scatterGather, QueryRewriter rewriter, ParquetFooterIndex footerIndex) {
+        this.sessionService = sessionService;
         this.cacheService = cacheService;
+        this.cursorService = cursorService;
+        this.preparedStatementService = preparedStatementService;
+        this.queryRegistry = queryRegistry;
+        this.fingerprint = fingerprint;
+        this.queryStats = queryStats;
+        this.partitionSplit = partitionSplit;
+        this.scatterGather = scatterGather;
+        this.rewriter = rewriter;
+        this.footerIndex = footerIndex;
+    }
+
+    /**
+     * Décrit la requête (colonnes et paramètres) sans l'exécuter et l'enregistre
+     * comme statement préparé réutilisable par /jdbc/execute.
+     */
+    public ExecuteResponse prepare(ExecuteRequest request) {
+        return prepare(request, null);
+    }
+
+    /**
+     * @param sessionId session dont les tables temporaires et réglages sont visibles, ou {@code null}
+     */
+    public ExecuteResponse prepare(ExecuteRequest request, String sessionId) {
+        logger.info("[QueryService] Préparation SQL: {}", request.getSql());
+        try (Connection connection = sessionService.getConnection(sessionId)) {
+            ExecuteDuckDBResultSetMetaData metadata = PreparedStatementService.describe(connection, request.getSql(), request.getParams());
+            return preparedStatementService.register(request.getSql(), metadata);
+        } catch (Exception e) {
+            logger.error("[QueryService] Erreur: {}", e.getMessage(), e);
+            return new ExecuteResponse(e.getMessage());
+        }
+    }
+
+    public boolean closeStatement(String statementId) {
+        return preparedStatementService.close(statementId);
     }
 
     public ExecuteResponse execute(ExecuteRequest request) {
+        return execute(request, null, null, null);
+    }
+
+    /**
+     * @param sessionId session sur laquelle exécuter la requête, {@code null} pour une connexion du pool
+     * @param queryId   identifiant sous lequel la requête est annulable, {@code null} pour en générer un
+     * @param timeoutMs délai avant interruption par le serveur, {@code null} pour le défaut serveur
+     */
+    public ExecuteResponse execute(ExecuteRequest request, String sessionId, String queryId, Long timeoutMs) {
+        ExecuteResponse unknownStatement = resolveStatement(request);
+        if (unknownStatement != null) {
+            return unknownStatement;
+        }
         logger.info("[QueryService] Reçu requête SQL: {}", request.getSql());
+        // Hors session et hors curseur, un SELECT identique déjà en cours est partagé
+        if (sessionId == null && request.getFetchSize() <= 0 && isSelect(request.getSql())) {
+            return executeShared(request, queryId, timeoutMs);
+        }
+        return executeQuery(request, sessionId, queryId, timeoutMs);
+    }
+
+    private static boolean isSelect(String sql) {
+        String trimmed = sql.trim().toLowerCase();
+        return trimmed.startsWith("select") || trimmed.startsWith("with") || trimmed.startsWith("from");
+    }
 
-        try (Connection connection = dataSource.getConnection()) {
-
-            // 1. Vérifier le cache pour les SELECT sans paramètres
-            if (cacheService.shouldUseCache(request.getSql()) && (request.getParams() == null || request.getParams().length == 0)) {
-                List<String> cachedColumns = new ArrayList<>();
-                List<String> cachedTypes = new ArrayList<>();
-                List<String> cachedDetails = new ArrayList<>();
-                List<List<Object>> cachedRows = cacheService.tryReadCache(connection, request.getSql(), cachedColumns, cachedTypes, cachedDetails);
-                if (cachedRows != null) {
-                    logger.info("Résultat SELECT récupéré depuis le cache.");
-                    String[] columnNames = cachedColumns.toArray(new String[0]);
-                    String[] columnTypes = cachedTypes.toArray(new String[0]);
-                    String[] columnDetails = cachedDetails.toArray(new String[0]);
-                    ExecuteDuckDBResultSetMetaData metadata = new ExecuteDuckDBResultSetMetaData(
-                        0,
-                        columnNames.length,
-                        columnNames,
-                        columnTypes,
-                        columnDetails,
-                        StatementReturnType.QUERY_RESULT.name(),
-                        columnTypes,
-                        columnDetails
-                    );
-                    return new ExecuteResponse(metadata, cachedRows);
+    /**
+     * Single-flight : la première requête (le leader) s'exécute, les requêtes
+     * identiques (même SQL normalisé, mêmes paramètres) arrivées pendant ce
+     * temps attendent son résultat et le partagent. Chacune garde son propre
+     * cancel et son propre délai ; si le leader est interrompu par son client,
+     * les autres relancent l'exécution au lieu d'hériter de l'interruption.
+     */
+    private ExecuteResponse executeShared(ExecuteRequest request, String queryId, Long timeoutMs) {
+        List<Object> key = Arrays.asList(fingerprint.canonical(request.getSql()),
+                                         request.getParams() == null ? null : Arrays.asList(request.getParams()));
+        long start = System.currentTimeMillis();
+        while (true) {
+            CompletableFuture<ExecuteResponse> flight = new CompletableFuture<>();
+            CompletableFuture<ExecuteResponse> leader = inFlight.putIfAbsent(key, flight);
+            if (leader == null) {
+                ExecuteResponse response = null;
+                try {
+                    response = executeQuery(request, null, queryId, timeoutMs);
+                    return response;
+                } finally {
+                    // Retirée avant d'être complétée : une requête arrivée ensuite trouve le cache, pas ce vol
+                    inFlight.remove(key, flight);
+                    flight.complete(response);
                 }
             }
+            Long remainingMs = timeoutMs == null || timeoutMs <= 0 ? timeoutMs
+                : Long.valueOf(Math.max(1, timeoutMs - (System.currentTimeMillis() - start)));
+            ExecuteResponse shared = awaitLeader(leader, queryId, remainingMs);
+            if (shared != null) {
+                return shared;
+            }
+            logger.info("Exécution partagée interrompue par son client, relance de la requête.");
+        }
+    }
 
-            // 2. Exécution normale si pas de cache
-            try (PreparedStatement stmt = connection.prepareStatement(request.getSql())) {
+    /**
+     * @return le résultat du leader, ou {@code null} s'il a été interrompu
+     *         (cancel ou délai de son propre client)
+     */
+    private ExecuteResponse awaitLeader(CompletableFuture<ExecuteResponse> leader, String queryId, Long timeoutMs) {
+        // Future propre à cette requête : l'annuler n'annule pas le leader
+        CompletableFuture<ExecuteResponse> waiting = leader.thenApply(response -> response);
+        try (QueryRegistry.RunningQuery query = queryRegistry.registerWaiter(queryId, waiting, timeoutMs)) {
+            try {
+                ExecuteResponse response = waiting.get();
+                if (response == null || (response.isError() && isInterruption(response.getErrorMessage()))) {
+                    return null;
+                }
+                logger.info("Résultat partagé avec une exécution identique en cours.");
+                return response;
+            } catch (CancellationException e) {
+                return new ExecuteResponse(query.getCancelReason());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new ExecuteResponse(QueryRegistry.QUERY_CANCELLED);
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+    }
+
+    private static boolean isInterruption(String errorMessage) {
+        return errorMessage != null
+            && (errorMessage.startsWith(QueryRegistry.QUERY_CANCELLED) || errorMessage.startsWith(QueryRegistry.QUERY_TIMEOUT));
+    }
+
+    private ExecuteResponse executeQuery(ExecuteRequest request, String sessionId, String queryId, Long timeoutMs) {
+        Connection connection = null;
+        QueryRegistry.RunningQuery query = null;
+        // Passe à true quand un curseur devient propriétaire de la connexion et du statement
+        boolean handedOffToCursor = false;
+        try {
+            // Dans une session, le résultat peut dépendre de tables temporaires ou d'une transaction en cours
+            boolean shareable = sessionId == null && (request.getParams() == null || request.getParams().length == 0);
+            boolean useCache = shareable && cacheService.shouldUseCache(request.getSql());
+            // Niveau mémoire du cache : servi sans même prendre de connexion
+            if (useCache) {
+                ExecuteResponse cached = cacheService.readMemory(request.getSql());
+                if (cached != null) {
+                    logger.info("Résultat SELECT récupéré depuis le cache mémoire.");
+                    queryStats.recordCacheHit(fingerprint.fingerprint(request.getSql()), request.getSql());
+                    return cached;
+                }
+            }
+            // Un résultat découpé garde sa connexion dans un curseur : elle est prise hors du pool
+            connection = request.getFetchSize() > 0
+                ? sessionService.getCursorConnection(sessionId)
+                : sessionService.getConnection(sessionId);
+
+            // 0. Sonde de schéma : les métadonnées suffisent, rien n'est exécuté
+            if (PreparedStatementService.isSchemaProbe(request.getSql(), fingerprint)) {
+                return schemaProbeResponse(connection, request);
+            }
+
+            // 1. Vérifier le cache Parquet pour les SELECT sans paramètres (le niveau mémoire a déjà été lu)
+            if (useCache) {
+                ExecuteResponse cached = cacheService.tryReadCache(connection, request.getSql());
+                if (cached != null) {
+                    logger.info("Résultat SELECT récupéré depuis le cache Parquet.");
+                    queryStats.recordCacheHit(fingerprint.fingerprint(request.getSql()), request.getSql());
+                    return cached;
+                }
+            }
+
+            // 2. COUNT/MIN/MAX sur Parquet : réponse lue dans les pieds des fichiers, sans lire les données
+            boolean noParams = request.getParams() == null || request.getParams().length == 0;
+            String answered = noParams && isSelect(request.getSql()) ? footerIndex.answer(connection, request.getSql()) : null;
+
+            // 3. Agrégat sur Parquet : réparti entre les nœuds, ou découpé par partitions quand c'est mesuré plus rapide
+            boolean combinable = answered == null && shareable && request.getFetchSize() <= 0 && isSelect(request.getSql());
+            ScatterGatherCoordinator.Scatter scatter = combinable ? scatterGather.plan(request.getSql()) : null;
+            if (scatter != null) {
+                ExecuteResponse response = executeScatter(connection, scatter, request, queryId, timeoutMs, useCache);
+                if (response != null) {
+                    return response;
+                }
+            }
+            PartitionSplitExecutor.Split split = combinable ? partitionSplit.plan(request.getSql()) : null;
+            if (split != null) {
+                ExecuteResponse response = executeSplit(connection, split, request, queryId, timeoutMs, useCache);
+                if (response != null) {
+                    return response;
+                }
+            }
+
+            // 4. Exécution normale, de la réponse des pieds ou de la requête réécrite
+            //    (le cache et les statistiques gardent l'originale)
+            String sql = answered != null ? answered : rewriter.rewrite(connection, request.getSql());
+            PreparedStatement stmt = connection.prepareStatement(sql);
+            try {
                 if (request.getParams() != null) {
                     logger.debug("Appliquer {} paramètres à la requête.", request.getParams().length);
                     for (int i = 0; i < request.getParams().length; i++) {
@@ -69,92 +258,375 @@ public class QueryService {
                     }
                 }
 
+                // Le délai couvre l'exécution et le premier chunk ; les fetch suivants relèvent du curseur
+                query = startQuery(queryId, stmt, timeoutMs);
+                long executeStart = System.currentTimeMillis();
                 boolean hasResultSet = stmt.execute();
                 ExecuteDuckDBResultSetMetaData metadata;
                 List<List<Object>> rows = new ArrayList<>();
 
                 if (hasResultSet) {
                     logger.info("Exécution d'une requête SELECT.");
-                    try (ResultSet rs = stmt.getResultSet()) {
-                        ResultSetMetaData meta = rs.getMetaData();
-                        int colCount = meta.getColumnCount();
-
-                        String[] columnNames = new String[colCount];
-                        String[] columnTypes = new String[colCount];
-                        String[] columnDetails = new String[colCount];
-
-                        for (int i = 0; i < colCount; i++) {
-                            columnNames[i] = meta.getColumnName(i + 1);
-                            columnTypes[i] = meta.getColumnTypeName(i + 1);
-                            columnDetails[i] = meta.getColumnClassName(i + 1);
-                        }
+                    ResultSet rs = stmt.getResultSet();
+                    try {
+                        metadata = resultMetadata(stmt, rs.getMetaData());
+                        int colCount = metadata.getColumn_count();
 
-                        while (rs.next()) {
-                            List<Object> row = new ArrayList<>();
-                            for (int i = 1; i <= colCount; i++) {
-                                row.add(rs.getObject(i));
+                        // Résultat découpé : le curseur garde rs/stmt/connexion ouverts entre les fetch
+                        if (request.getFetchSize() > 0) {
+                            ExecuteResponse response = cursorService.open(connection, stmt, rs, metadata, request.getFetchSize());
+                            handedOffToCursor = true;
+                            if (query.isCancelled() && response.getCursorId() != null) {
+                                cursorService.close(response.getCursorId());
                             }
-                            rows.add(row);
+                            checkNotCancelled(query);
+                            return response;
                         }
 
+                        rows = CursorService.readRows(rs, colCount, 0);
+                        checkNotCancelled(query);
                         logger.info("Résultat SELECT : {} lignes, {} colonnes.", rows.size(), colCount);
-
-                        metadata = new ExecuteDuckDBResultSetMetaData(
-                            stmt.getParameterMetaData().getParameterCount(),
-                            colCount,
-                            columnNames,
-                            columnTypes,
-                            columnDetails,
-                            StatementReturnType.QUERY_RESULT.name(),
-                            columnTypes,
-                            columnDetails
-                        );
+                        long computeMs = System.currentTimeMillis() - executeStart;
+                        if (answered == null && !sql.equals(request.getSql())) {
+                            logger.info("Requête réécrite exécutée en {} ms.", computeMs);
+                        }
+                        long resultBytes = MemoryResultCache.estimateBytes(rows);
+                        queryStats.recordExecution(fingerprint.fingerprint(request.getSql()), request.getSql(),
+                                                   computeMs, rows.size(), resultBytes);
+                        if (shareable) {
+                            partitionSplit.recordSingle(request.getSql(), computeMs);
+                        }
 
                         // Mettre à jour le cache si applicable
-                        if (cacheService.shouldUseCache(request.getSql()) && (request.getParams() == null || request.getParams().length == 0)) {
-                            cacheService.performCache(connection, request.getSql());
+                        if (useCache) {
+                            cacheService.cacheResult(request.getSql(), metadata, rows, computeMs, resultBytes);
+                        }
+                    } finally {
+                        if (!handedOffToCursor) {
+                            rs.close();
                         }
                     }
                 } else {
-                    // Cas UPDATE/INSERT/DELETE ou DDL
-                    int updateCount = stmt.getUpdateCount();
-
-                    if (updateCount >= 0) {
-                        logger.info("Requête DML exécutée, lignes affectées : {}", updateCount);
-                        metadata = new ExecuteDuckDBResultSetMetaData(
-                            stmt.getParameterMetaData().getParameterCount(),
-                            1,
-                            new String[]{"affected_rows"},
-                            new String[]{"INTEGER"},
-                            new String[]{"java.lang.Integer"},
-                            StatementReturnType.CHANGED_ROWS.name(),
-                            new String[]{"INTEGER"},
-                            new String[]{"java.lang.Integer"}
-                        );
-                        rows.add(Arrays.asList(updateCount));
-                    } else {
-                        logger.info("Requête DDL exécutée.");
-                        metadata = new ExecuteDuckDBResultSetMetaData(
-                            stmt.getParameterMetaData().getParameterCount(),
-                            1,
-                            new String[]{"status"},
-                            new String[]{"VARCHAR"},
-                            new String[]{"java.lang.String"},
-                            StatementReturnType.NOTHING.name(),
-                            new String[]{"VARCHAR"},
-                            new String[]{"java.lang.String"}
-                        );
-                        rows.add(Arrays.asList("OK"));
-                    }
+                    return updateResponse(stmt);
                 }
 
                 logger.debug("Réponse JDBC construite et renvoyée.");
                 return new ExecuteResponse(metadata, rows);
+            } finally {
+                if (!handedOffToCursor) {
+                    stmt.close();
+                }
             }
 
         } catch (Exception e) {
             logger.error("[QueryService] Erreur: {}", e.getMessage(), e);
-            return new ExecuteResponse(e.getMessage());
+            return new ExecuteResponse(errorMessage(query, e));
+        } finally {
+            if (query != null) {
+                query.close();
+            }
+            if (connection != null && !handedOffToCursor) {
+                try {
+                    connection.close();
+                } catch (Exception e) {
+                    logger.warn("[QueryService] Fermeture de connexion en échec: {}", e.getMessage());
+                }
+            }
         }
     }
+
+    /**
+     * Exécute les requêtes de partition de {@code split} ; cancel et délai
+     * les interrompent toutes.
+     *
+     * @return {@code null} si le découpage a échoué : la requête s'exécute
+     *         alors en un seul plan
+     */
+    private ExecuteResponse executeSplit(Connection connection, PartitionSplitExecutor.Split split, ExecuteRequest request,
+                                         String queryId, Long timeoutMs, boolean useCache) throws SQLException {
+        return executeCombined(connection, request, queryId, timeoutMs, useCache, () -> partitionSplit.execute(connection, split),
+                               "découpé sur " + split.column() + " (" + split.partitions() + " requêtes)");
+    }
+
+    private ExecuteResponse executeScatter(Connection connection, ScatterGatherCoordinator.Scatter scatter, ExecuteRequest request,
+                                           String queryId, Long timeoutMs, boolean useCache) throws SQLException {
+        return executeCombined(connection, request, queryId, timeoutMs, useCache, () -> scatterGather.execute(connection, scatter),
+                               "réparti sur " + scatter.nodes() + " nœuds (" + scatter.fragments() + " fragments)");
+    }
+
+    /**
+     * Attend un résultat recombiné à partir de requêtes partielles, puis le
+     * traite comme une exécution normale (statistiques, cache).
+     *
+     * @return {@code null} si une requête partielle a échoué : la requête
+     *         s'exécute alors en un seul plan
+     */
+    private ExecuteResponse executeCombined(Connection connection, ExecuteRequest request, String queryId, Long timeoutMs,
+                                            boolean useCache, CombinedExecution start,
+                                            String how) throws SQLException {
+        ExecuteDuckDBResultSetMetaData metadata;
+        try (PreparedStatement stmt = connection.prepareStatement(request.getSql())) {
+            metadata = resultMetadata(stmt, stmt.getMetaData());
+        }
+        long executeStart = System.currentTimeMillis();
+        CompletableFuture<List<List<Object>>> running = start.start();
+        List<List<Object>> rows;
+        try (QueryRegistry.RunningQuery query = queryRegistry.registerWaiter(queryId, running, timeoutMs)) {
+            try {
+                rows = running.get();
+            } catch (CancellationException e) {
+                return new ExecuteResponse(query.getCancelReason());
+            } catch (InterruptedException e) {
+                running.cancel(false);
+                Thread.currentThread().interrupt();
+                return new ExecuteResponse(QueryRegistry.QUERY_CANCELLED);
+            } catch (ExecutionException e) {
+                logger.warn("Résultat SELECT {} en échec, exécution en un seul plan : {}", how, e.getCause().getMessage());
+                return null;
+            }
+        }
+        long computeMs = System.currentTimeMillis() - executeStart;
+        logger.info("Résultat SELECT {} : {} lignes en {} ms.", how, rows.size(), computeMs);
+        long resultBytes = MemoryResultCache.estimateBytes(rows);
+        queryStats.recordExecution(fingerprint.fingerprint(request.getSql()), request.getSql(), computeMs, rows.size(), resultBytes);
+        if (useCache) {
+            cacheService.cacheResult(request.getSql(), metadata, rows, computeMs, resultBytes);
+        }
+        return new ExecuteResponse(metadata, rows);
+    }
+
+    private interface CombinedExecution {
+        CompletableFuture<List<List<Object>>> start() throws SQLException;
+    }
+
+    /**
+     * Exécute un fragment envoyé par le coordinateur d'une requête répartie
+     * ({@link ScatterGatherCoordinator}) : exécution directe, sans cache, sans
+     * découpage ni nouvelle répartition.
+     */
+    public ExecuteResponse executeFragment(ExecuteRequest request, String queryId, Long timeoutMs) {
+        logger.info("[QueryService] Fragment reçu: {}", request.getSql());
+        QueryRegistry.RunningQuery query = null;
+        try (Connection connection = sessionService.getConnection(null);
+             PreparedStatement stmt = connection.prepareStatement(request.getSql())) {
+            query = startQuery(queryId, stmt, timeoutMs);
+            try (ResultSet rs = stmt.executeQuery()) {
+                ExecuteDuckDBResultSetMetaData metadata = resultMetadata(stmt, rs.getMetaData());
+                List<List<Object>> rows = CursorService.readRows(rs, metadata.getColumn_count(), 0);
+                checkNotCancelled(query);
+                return new ExecuteResponse(metadata, rows);
+            }
+        } catch (Exception e) {
+            logger.warn("[QueryService] Fragment en échec : {}", e.getMessage());
+            return new ExecuteResponse(errorMessage(query, e));
+        } finally {
+            if (query != null) {
+                query.close();
+            }
+        }
+    }
+
+    /**
+     * Variante de {@link #execute(ExecuteRequest)} pour les clients qui acceptent
+     * {@value ArrowResultStream#MEDIA_TYPE} : le ResultSet est exporté tel quel
+     * en Arrow IPC, par batchs de {@code fetchSize} lignes (2048 par défaut).
+     * Ce chemin ne lit ni n'alimente le cache parquet.
+     */
+    public ArrowResultStream executeArrow(ExecuteRequest request) {
+        return executeArrow(request, null, null, null);
+    }
+
+    /**
+     * Le délai couvre ici tout l'envoi du flux, la requête n'étant réellement
+     * calculée qu'au fil de l'export.
+     *
+     * @see #execute(ExecuteRequest, String, String, Long)
+     */
+    public ArrowResultStream executeArrow(ExecuteRequest request, String sessionId, String queryId, Long timeoutMs) {
+        ExecuteResponse unknownStatement = resolveStatement(request);
+        if (unknownStatement != null) {
+            return new ArrowResultStream(unknownStatement);
+        }
+        logger.info("[QueryService] Reçu requête SQL (Arrow): {}", request.getSql());
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+        QueryRegistry.RunningQuery query = null;
+        // Passe à true quand le flux Arrow devient propriétaire de la connexion, du statement et de la requête
+        boolean handedOffToStream = false;
+        try {
+            connection = sessionService.getConnection(sessionId);
+            if (PreparedStatementService.isSchemaProbe(request.getSql(), fingerprint)) {
+                return new ArrowResultStream(schemaProbeResponse(connection, request));
+            }
+            String sql = request.getParams() == null || request.getParams().length == 0
+                ? footerIndex.answer(connection, request.getSql()) : null;
+            if (sql == null) {
+                sql = rewriter.rewrite(connection, request.getSql());
+            }
+            stmt = connection.prepareStatement(sql);
+            // Métadonnées de la requête d'origine, connues dès le prepare (sauf si elles dépendent des paramètres)
+            ResultSetMetaData preparedMeta = stmt.getMetaData();
+            ExecuteDuckDBResultSetMetaData originalMeta = PreparedStatementService.isUnresolved(preparedMeta)
+                ? PreparedStatementService.describe(connection, sql, request.getParams())
+                : preparedMeta == null ? null : resultMetadata(stmt, preparedMeta);
+            String exportSql = originalMeta == null ? null : ArrowResultStream.widenSmallDecimals(sql, originalMeta);
+            if (exportSql != null) {
+                logger.debug("Export Arrow : DECIMAL élargis via {}", exportSql);
+                stmt.close();
+                stmt = connection.prepareStatement(exportSql);
+            }
+            if (request.getParams() != null) {
+                for (int i = 0; i < request.getParams().length; i++) {
+                    stmt.setObject(i + 1, request.getParams()[i]);
+                }
+            }
+
+            query = startQuery(queryId, stmt, timeoutMs);
+            if (!stmt.execute()) {
+                return new ArrowResultStream(updateResponse(stmt));
+            }
+            ResultSet rs = stmt.getResultSet();
+            int batchSize = request.getFetchSize() > 0 ? request.getFetchSize() : CursorService.DEFAULT_FETCH_SIZE;
+            ExecuteDuckDBResultSetMetaData metadata = exportSql != null ? originalMeta : resultMetadata(stmt, rs.getMetaData());
+            ArrowResultStream stream = new ArrowResultStream(connection, stmt, rs, metadata, batchSize, query);
+            handedOffToStream = true;
+            return stream;
+        } catch (Exception e) {
+            logger.error("[QueryService] Erreur: {}", e.getMessage(), e);
+            return new ArrowResultStream(new ExecuteResponse(errorMessage(query, e)));
+        } finally {
+            if (!handedOffToStream) {
+                for (AutoCloseable c : new AutoCloseable[] {query, stmt, connection}) {
+                    if (c == null) {
+                        continue;
+                    }
+                    try {
+                        c.close();
+                    } catch (Exception e) {
+                        logger.warn("[QueryService] Fermeture en échec: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Enregistre la requête avant son exécution ; un cancel reçu plus tôt
+     * l'arrête ici, DuckDB ignorant l'interruption d'un statement inactif.
+     */
+    private QueryRegistry.RunningQuery startQuery(String queryId, PreparedStatement stmt, Long timeoutMs) throws SQLException {
+        QueryRegistry.RunningQuery query = queryRegistry.register(queryId, stmt, timeoutMs);
+        if (query.isCancelled()) {
+            query.close();
+            throw new SQLException(query.getCancelReason());
+        }
+        return query;
+    }
+
+    // Un flux DuckDB interrompu se termine comme un résultat complet : seul le registre sait qu'il manque des lignes
+    private static void checkNotCancelled(QueryRegistry.RunningQuery query) throws SQLException {
+        if (query.isCancelled()) {
+            throw new SQLException(query.getCancelReason());
+        }
+    }
+
+    // Une requête interrompue par cancel ou échéance renvoie le motif plutôt que l'erreur DuckDB
+    private static String errorMessage(QueryRegistry.RunningQuery query, Exception e) {
+        if (query != null && query.isCancelled()) {
+            return query.getCancelReason();
+        }
+        return e.getMessage();
+    }
+
+    /**
+     * Remplace le SQL de la requête par celui du statement préparé référencé.
+     *
+     * @return une réponse d'erreur si le statement est inconnu ou expiré, sinon {@code null}
+     */
+    private ExecuteResponse resolveStatement(ExecuteRequest request) {
+        if (request.getStatementId() == null) {
+            return null;
+        }
+        String sql = preparedStatementService.resolve(request.getStatementId());
+        if (sql == null) {
+            return new ExecuteResponse(PreparedStatementService.UNKNOWN_STATEMENT + request.getStatementId());
+        }
+        request.setSql(sql);
+        return null;
+    }
+
+    private static ExecuteResponse schemaProbeResponse(Connection connection, ExecuteRequest request) throws SQLException {
+        logger.info("Sonde de schéma, réponse depuis les métadonnées du prepare.");
+        return new ExecuteResponse(PreparedStatementService.describe(connection, request.getSql(), request.getParams()), new ArrayList<>());
+    }
+
+    private static ExecuteDuckDBResultSetMetaData resultMetadata(PreparedStatement stmt, ResultSetMetaData meta) throws SQLException {
+        int colCount = meta.getColumnCount();
+
+        String[] columnNames = new String[colCount];
+        String[] columnTypes = new String[colCount];
+        String[] columnDetails = new String[colCount];
+
+        for (int i = 0; i < colCount; i++) {
+            columnNames[i] = meta.getColumnName(i + 1);
+            columnTypes[i] = meta.getColumnTypeName(i + 1);
+            columnDetails[i] = meta.getColumnClassName(i + 1);
+        }
+
+        return new ExecuteDuckDBResultSetMetaData(
+            stmt.getParameterMetaData().getParameterCount(),
+            colCount,
+            columnNames,
+            columnTypes,
+            columnDetails,
+            StatementReturnType.QUERY_RESULT.name(),
+            columnTypes,
+            columnDetails
+        );
+    }
+
+    // Cas UPDATE/INSERT/DELETE ou DDL
+    private static ExecuteResponse updateResponse(PreparedStatement stmt) throws SQLException {
+        ExecuteDuckDBResultSetMetaData metadata;
+        List<List<Object>> rows = new ArrayList<>();
+        int updateCount = stmt.getUpdateCount();
+
+        if (updateCount >= 0) {
+            logger.info("Requête DML exécutée, lignes affectées : {}", updateCount);
+            metadata = new ExecuteDuckDBResultSetMetaData(
+                stmt.getParameterMetaData().getParameterCount(),
+                1,
+                new String[]{"affected_rows"},
+                new String[]{"INTEGER"},
+                new String[]{"java.lang.Integer"},
+                StatementReturnType.CHANGED_ROWS.name(),
+                new String[]{"INTEGER"},
+                new String[]{"java.lang.Integer"}
+            );
+            rows.add(Arrays.asList(updateCount));
+        } else {
+            logger.info("Requête DDL exécutée.");
+            metadata = new ExecuteDuckDBResultSetMetaData(
+                stmt.getParameterMetaData().getParameterCount(),
+                1,
+                new String[]{"status"},
+                new String[]{"VARCHAR"},
+                new String[]{"java.lang.String"},
+                StatementReturnType.NOTHING.name(),
+                new String[]{"VARCHAR"},
+                new String[]{"java.lang.String"}
+            );
+            rows.add(Arrays.asList("OK"));
+        }
+        return new ExecuteResponse(metadata, rows);
+    }
+
+    public ExecuteResponse fetch(FetchRequest request) {
+        return cursorService.fetch(request.getCursorId(), request.getFetchSize());
+    }
+
+    public boolean closeCursor(String cursorId) {
+        return cursorService.close(cursorId);
+    }
 }
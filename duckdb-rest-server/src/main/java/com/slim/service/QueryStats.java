@@ -0,0 +1,119 @@
+package com.slim.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.stereotype.Service;
+
+/**
+ * Statistiques d'exécution par empreinte de requête ({@link QueryFingerprint}) :
+ * exécutions, lectures depuis le cache, durées, lignes et taille des
+ * résultats. Elles servent aussi à {@link CacheAdmission}. Les requêtes d'un
+ * même tableau de bord, quels que soient l'outil qui les écrit et les valeurs
+ * de leurs filtres, sont comptées ensemble.
+ * <p>
+ * Au plus {@code QUERY_STATS_MAX} empreintes sont suivies ; au-delà, les moins
+ * récemment vues sont oubliées.
+ */
+@Service
+public class QueryStats {
+
+    private static final int MAX_ENTRIES = Integer.parseInt(System.getenv().getOrDefault("QUERY_STATS_MAX", "2000"));
+
+    private final Map<String, Stat> stats = new LinkedHashMap<String, Stat>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Stat> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * @param bytes taille estimée du résultat ({@link MemoryResultCache#estimateBytes})
+     */
+    public synchronized void recordExecution(String fingerprint, String sql, long elapsedMs, long rows, long bytes) {
+        Stat stat = stat(fingerprint, sql);
+        stat.executions++;
+        stat.totalMs += elapsedMs;
+        stat.maxMs = Math.max(stat.maxMs, elapsedMs);
+        stat.rows += rows;
+        stat.bytes += bytes;
+    }
+
+    public synchronized void recordCacheHit(String fingerprint, String sql) {
+        stat(fingerprint, sql).cacheHits++;
+    }
+
+    /**
+     * @return demandes (exécutions et lectures du cache) et date de première
+     *         demande de l'empreinte, ou {@code null} si elle n'est pas suivie
+     */
+    public synchronized Usage usage(String fingerprint) {
+        Stat stat = stats.get(fingerprint);
+        return stat == null ? null : new Usage(stat.executions + stat.cacheHits, stat.firstSeen);
+    }
+
+    /**
+     * @return les {@code limit} empreintes les plus coûteuses, par temps
+     *         d'exécution cumulé
+     */
+    public synchronized List<Map<String, Object>> top(int limit) {
+        List<Map.Entry<String, Stat>> entries = new ArrayList<>(stats.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue().totalMs, a.getValue().totalMs));
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Map.Entry<String, Stat> entry : entries.subList(0, Math.min(limit, entries.size()))) {
+            Stat stat = entry.getValue();
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("fingerprint", entry.getKey());
+            row.put("sample_sql", stat.sampleSql);
+            row.put("executions", stat.executions);
+            row.put("cache_hits", stat.cacheHits);
+            row.put("total_ms", stat.totalMs);
+            row.put("avg_ms", stat.executions == 0 ? 0 : stat.totalMs / stat.executions);
+            row.put("max_ms", stat.maxMs);
+            row.put("rows", stat.rows);
+            row.put("avg_bytes", stat.executions == 0 ? 0 : stat.bytes / stat.executions);
+            row.put("first_seen", stat.firstSeen);
+            row.put("last_seen", stat.lastSeen);
+            result.add(row);
+        }
+        return result;
+    }
+
+    private Stat stat(String fingerprint, String sql) {
+        Stat stat = stats.get(fingerprint);
+        if (stat == null) {
+            stat = new Stat(sql);
+            stats.put(fingerprint, stat);
+        }
+        stat.lastSeen = System.currentTimeMillis();
+        return stat;
+    }
+
+    private static final class Stat {
+        final String sampleSql;
+        long executions;
+        long cacheHits;
+        long totalMs;
+        long maxMs;
+        long rows;
+        long bytes;
+        final long firstSeen = System.currentTimeMillis();
+        long lastSeen;
+
+        Stat(String sampleSql) {
+            this.sampleSql = sampleSql;
+        }
+    }
+
+    public static final class Usage {
+        public final long requests;
+        public final long firstSeen;
+
+        Usage(long requests, long firstSeen) {
+            this.requests = requests;
+            this.firstSeen = firstSeen;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.slim.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Cache sous un préfixe S3 (ou compatible : MinIO...). Appels REST signés en
+ * AWS Signature V4, sans SDK.
+ * <p>
+ * Configuration par variables d'environnement, sur le modèle des réglages
+ * {@code s3_*} de DuckDB : {@code S3_ENDPOINT} (vide pour AWS),
+ * {@code S3_REGION}, {@code S3_URL_STYLE} ({@code path} ou {@code vhost}),
+ * {@code S3_USE_SSL}, {@code S3_ACCESS_KEY_ID}, {@code S3_SECRET_ACCESS_KEY}
+ * et {@code S3_SESSION_TOKEN}, qui reprennent à défaut les variables
+ * {@code AWS_*} habituelles.
+ */
+class S3CacheStorage implements CacheStorage {
+
+    private static final String EMPTY_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter LIST_DATE = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+
+    private final String bucket;
+    private final String prefix;
+    private final String endpoint;
+    private final String region;
+    private final boolean pathStyle;
+    private final boolean useSsl;
+    private final String accessKey;
+    private final String secretKey;
+    private final String sessionToken;
+
+    S3CacheStorage(String base) {
+        String rest = base.substring("s3://".length());
+        int slash = rest.indexOf('/');
+        this.bucket = slash < 0 ? rest : rest.substring(0, slash);
+        String p = slash < 0 ? "" : rest.substring(slash + 1);
+        this.prefix = p.isEmpty() || p.endsWith("/") ? p : p + "/";
+        this.region = env("S3_REGION", env("AWS_REGION", "us-east-1"));
+        String configured = env("S3_ENDPOINT", "");
+        this.endpoint = configured.isEmpty() ? "s3." + region + ".amazonaws.com" : configured;
+        this.pathStyle = "path".equalsIgnoreCase(env("S3_URL_STYLE", configured.isEmpty() ? "vhost" : "path"));
+        this.useSsl = Boolean.parseBoolean(env("S3_USE_SSL", "true"));
+        this.accessKey = env("S3_ACCESS_KEY_ID", env("AWS_ACCESS_KEY_ID", ""));
+        this.secretKey = env("S3_SECRET_ACCESS_KEY", env("AWS_SECRET_ACCESS_KEY", ""));
+        this.sessionToken = env("S3_SESSION_TOKEN", env("AWS_SESSION_TOKEN", ""));
+    }
+
+    private static String env(String name, String defaultValue) {
+        return System.getenv().getOrDefault(name, defaultValue);
+    }
+
+    @Override
+    public List<StoredFile> list() throws IOException {
+        return list(prefix);
+    }
+
+    /**
+     * Objets du bucket dont la clé commence par {@code keyPrefix}, avec leur ETag.
+     */
+    List<StoredFile> list(String keyPrefix) throws IOException {
+        return listKeys(keyPrefix, null);
+    }
+
+    @Override
+    public List<StoredFile> list(String dir, String startAfter) throws IOException {
+        return listKeys(prefix + (dir.endsWith("/") ? dir : dir + "/"), startAfter == null ? null : key(startAfter));
+    }
+
+    /**
+     * S3 liste les clés dans l'ordre lexicographique : {@code start-after}
+     * ne renvoie que les suivantes.
+     */
+    private List<StoredFile> listKeys(String keyPrefix, String startAfterKey) throws IOException {
+        List<StoredFile> files = new ArrayList<>();
+        String continuation = null;
+        do {
+            Map<String, String> query = new TreeMap<>();
+            query.put("list-type", "2");
+            query.put("prefix", keyPrefix);
+            if (startAfterKey != null) {
+                query.put("start-after", startAfterKey);
+            }
+            if (continuation != null) {
+                query.put("continuation-token", continuation);
+            }
+            Document doc = parse(request("GET", "", query, null));
+            NodeList contents = doc.getElementsByTagName("Contents");
+            for (int i = 0; i < contents.getLength(); i++) {
+                Element item = (Element) contents.item(i);
+                String key = text(item, "Key");
+                files.add(new StoredFile("s3://" + bucket + "/" + key, Long.parseLong(text(item, "Size")),
+                                         Instant.from(LIST_DATE.parse(text(item, "LastModified"))).toEpochMilli(),
+                                         text(item, "ETag")));
+            }
+            continuation = "true".equals(text(doc.getDocumentElement(), "IsTruncated"))
+                ? text(doc.getDocumentElement(), "NextContinuationToken") : null;
+        } while (continuation != null);
+        return files;
+    }
+
+    @Override
+    public byte[] read(String path) throws IOException {
+        HttpURLConnection connection = open("GET", key(path), new TreeMap<>(), null, new TreeMap<>());
+        try {
+            int status = connection.getResponseCode();
+            if (status == 404) {
+                return null;
+            }
+            if (status / 100 != 2) {
+                throw new IOException("S3 GET " + path + " : HTTP " + status);
+            }
+            return readAll(connection.getInputStream());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public boolean write(String path, byte[] content, boolean exclusive) throws IOException {
+        // Un PUT S3 est atomique : l'objet n'est visible qu'une fois complet
+        Map<String, String> headers = new TreeMap<>();
+        if (exclusive) {
+            headers.put("if-none-match", "*");
+        }
+        HttpURLConnection connection = open("PUT", key(path), new TreeMap<>(), content, headers);
+        try {
+            int status = connection.getResponseCode();
+            // 412 : l'objet existe ; 409 : création concurrente en cours
+            if (exclusive && (status == 412 || status == 409)) {
+                return false;
+            }
+            if (status / 100 != 2) {
+                InputStream error = connection.getErrorStream();
+                throw new IOException("S3 PUT " + path + " : HTTP " + status
+                    + (error == null ? "" : " " + new String(readAll(error), StandardCharsets.UTF_8)));
+            }
+            return true;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public boolean delete(String path) throws IOException {
+        // S3 répond 204 que l'objet ait existé ou non
+        request("DELETE", key(path), new TreeMap<>(), null);
+        return true;
+    }
+
+    @Override
+    public long size(String path) throws IOException {
+        HttpURLConnection connection = open("HEAD", key(path), new TreeMap<>(), null);
+        try {
+            int status = connection.getResponseCode();
+            if (status == 404) {
+                return -1;
+            }
+            if (status / 100 != 2) {
+                throw new IOException("S3 HEAD " + path + " : HTTP " + status);
+            }
+            return connection.getContentLengthLong();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private String key(String path) {
+        String bucketPrefix = "s3://" + bucket + "/";
+        if (!path.startsWith(bucketPrefix)) {
+            throw new IllegalArgumentException("Chemin hors du bucket " + bucket + " : " + path);
+        }
+        return path.substring(bucketPrefix.length());
+    }
+
+    private byte[] request(String method, String key, Map<String, String> query, byte[] body) throws IOException {
+        HttpURLConnection connection = open(method, key, query, body);
+        try {
+            int status = connection.getResponseCode();
+            InputStream in = status / 100 == 2 ? connection.getInputStream() : connection.getErrorStream();
+            byte[] response = in == null ? new byte[0] : readAll(in);
+            if (status / 100 != 2) {
+                throw new IOException("S3 " + method + " " + bucket + "/" + key + " : HTTP " + status + " "
+                    + new String(response, StandardCharsets.UTF_8));
+            }
+            return response;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection open(String method, String key, Map<String, String> query, byte[] body) throws IOException {
+        return open(method, key, query, body, new TreeMap<>());
+    }
+
+    /**
+     * @param extraHeaders en-têtes signés en plus des en-têtes {@code x-amz-*},
+     *                     noms en minuscules
+     */
+    private HttpURLConnection open(String method, String key, Map<String, String> query, byte[] body,
+                                   Map<String, String> extraHeaders) throws IOException {
+        String host = pathStyle ? endpoint : bucket + "." + endpoint;
+        String path = "/" + (pathStyle ? bucket + "/" : "") + key;
+        String canonicalPath = encodePath(path);
+        String canonicalQuery = canonicalQuery(query);
+        URL url = new URL((useSsl ? "https" : "http") + "://" + host + canonicalPath
+                          + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery));
+
+        String payloadHash = body == null ? EMPTY_SHA256 : hex(sha256(body));
+        String amzDate = AMZ_DATE.format(Instant.now());
+        Map<String, String> headers = new TreeMap<>(extraHeaders);
+        headers.put("host", host);
+        headers.put("x-amz-content-sha256", payloadHash);
+        headers.put("x-amz-date", amzDate);
+        if (!sessionToken.isEmpty()) {
+            headers.put("x-amz-security-token", sessionToken);
+        }
+        String authorization = authorization(method, canonicalPath, canonicalQuery, headers, payloadHash, amzDate,
+                                              region, accessKey, secretKey);
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(10_000);
+        connection.setReadTimeout(60_000);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (!"host".equals(header.getKey())) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        connection.setRequestProperty("Authorization", authorization);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.getOutputStream().write(body);
+        }
+        return connection;
+    }
+
+    /**
+     * En-tête {@code Authorization} AWS Signature V4 pour S3 ; {@code headers}
+     * contient les en-têtes signés, noms en minuscules.
+     */
+    static String authorization(String method, String canonicalPath, String canonicalQuery, Map<String, String> headers,
+                                String payloadHash, String amzDate, String region, String accessKey, String secretKey) {
+        StringBuilder canonicalHeaders = new StringBuilder();
+        StringBuilder signedHeaders = new StringBuilder();
+        for (Map.Entry<String, String> header : new TreeMap<>(headers).entrySet()) {
+            canonicalHeaders.append(header.getKey()).append(':').append(header.getValue().trim()).append('\n');
+            if (signedHeaders.length() > 0) {
+                signedHeaders.append(';');
+            }
+            signedHeaders.append(header.getKey());
+        }
+        String canonicalRequest = method + "\n" + canonicalPath + "\n" + canonicalQuery + "\n"
+            + canonicalHeaders + "\n" + signedHeaders + "\n" + payloadHash;
+        String date = amzDate.substring(0, 8);
+        String scope = date + "/" + region + "/s3/aws4_request";
+        String stringToSign = "AWS4-HMAC-SHA256\n" + amzDate + "\n" + scope + "\n"
+            + hex(sha256(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+        byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+        key = hmac(key, region);
+        key = hmac(key, "s3");
+        key = hmac(key, "aws4_request");
+        return "AWS4-HMAC-SHA256 Credential=" + accessKey + "/" + scope + ", SignedHeaders=" + signedHeaders
+            + ", Signature=" + hex(hmac(key, stringToSign));
+    }
+
+    static String canonicalQuery(Map<String, String> query) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> param : new TreeMap<>(query).entrySet()) {
+            if (sb.length() > 0) {
+                sb.append('&');
+            }
+            sb.append(encode(param.getKey())).append('=').append(encode(param.getValue()));
+        }
+        return sb.toString();
+    }
+
+    static String encodePath(String path) {
+        return encode(path).replace("%2F", "/");
+    }
+
+    private static String encode(String value) {
+        try {
+            // Encodage URI de la signature V4 : seuls A-Z a-z 0-9 - _ . ~ restent tels quels
+            return URLEncoder.encode(value, "UTF-8").replace("+", "%20").replace("*", "%2A").replace("%7E", "~");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = input.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static Document parse(byte[] xml) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+        } catch (Exception e) {
+            throw new IOException("Réponse S3 illisible : " + e.getMessage(), e);
+        }
+    }
+
+    private static String text(Element parent, String tag) {
+        NodeList nodes = parent.getElementsByTagName(tag);
+        return nodes.getLength() == 0 ? null : nodes.item(0).getTextContent();
+    }
+}
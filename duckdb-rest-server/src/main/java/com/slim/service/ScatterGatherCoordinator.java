@@ -0,0 +1,686 @@
+package com.slim.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import org.duckdb.DuckDBConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.cfg.JsonNodeFeature;
+
+/**
+ * Exécution répartie (scatter-gather) d'un agrégat ou d'un top-N sur Parquet
+ * ({@link SplitAggregate}) entre les backends de {@code SCATTER_NODES}.
+ * <p>
+ * Le nœud qui reçoit la requête la coordonne : il liste les fichiers du glob,
+ * les répartit par taille en {@code SCATTER_FRAGMENTS_PER_NODE} fragments par
+ * nœud disponible, et envoie à chaque nœud la requête réécrite sur sa liste de
+ * fichiers ({@code POST /cluster/fragment}). Ses propres fragments (nœud
+ * {@code SCATTER_SELF}) s'exécutent en local, sur des duplications de la
+ * connexion. Les résultats partiels sont recombinés par {@link PartialCombiner}
+ * au fil de leur arrivée.
+ * <p>
+ * Un fragment en échec est relancé sur un autre nœud ; un nœud qui ne répond
+ * pas est en plus écarté {@code SCATTER_RETRY_SECONDS} secondes. Une fois la
+ * moitié des fragments terminés, un fragment plus long que
+ * {@code SCATTER_STRAGGLER_FACTOR} fois la durée médiane (et qu'au moins
+ * {@code SCATTER_STRAGGLER_MIN_MS}) est relancé en parallèle sur un autre
+ * nœud : le premier résultat est retenu, l'autre exécution annulée. Quand plus
+ * aucun nœud ne reste pour un fragment, la requête s'exécute en local en un
+ * seul plan.
+ * <p>
+ * Tous les nœuds doivent lire les fichiers sous les mêmes chemins (S3, montage
+ * partagé). Les résultats partiels voyagent en JSON avec leur type DuckDB :
+ * une colonne d'un autre type que booléen, entier, flottant, {@code DECIMAL},
+ * {@code VARCHAR} ou {@code DATE} fait exécuter la requête en local, et elle
+ * n'est plus répartie.
+ */
+@Service
+public class ScatterGatherCoordinator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScatterGatherCoordinator.class);
+
+    public static final String TOKEN_HEADER = "X-DuckDB-Scatter-Token";
+
+    private static final List<String> NODES = Arrays.stream(System.getenv().getOrDefault("SCATTER_NODES", "").split(","))
+        .map(String::trim).filter(node -> !node.isEmpty()).map(ScatterGatherCoordinator::trimSlash).collect(Collectors.toList());
+    private static final String SELF = trimSlash(System.getenv().getOrDefault("SCATTER_SELF", "").trim());
+    private static final String TOKEN = System.getenv().getOrDefault("SCATTER_TOKEN", "");
+    private static final int MIN_FILES = Integer.parseInt(System.getenv().getOrDefault("SCATTER_MIN_FILES", "2"));
+    private static final int FRAGMENTS_PER_NODE = Integer.parseInt(System.getenv().getOrDefault("SCATTER_FRAGMENTS_PER_NODE", "2"));
+    private static final long FRAGMENT_TIMEOUT_MS = Long.parseLong(System.getenv().getOrDefault("SCATTER_FRAGMENT_TIMEOUT_MS", "600000"));
+    private static final double STRAGGLER_FACTOR = Double.parseDouble(System.getenv().getOrDefault("SCATTER_STRAGGLER_FACTOR", "2"));
+    private static final long STRAGGLER_MIN_MS = Long.parseLong(System.getenv().getOrDefault("SCATTER_STRAGGLER_MIN_MS", "1000"));
+    private static final long RETRY_MS = Long.parseLong(System.getenv().getOrDefault("SCATTER_RETRY_SECONDS", "30")) * 1000L;
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    // Période de recherche des fragments lents
+    private static final long WATCH_MS = 100;
+    private static final int TRACKED = 2000;
+    private static final Pattern DECIMAL_TYPE = Pattern.compile("DECIMAL\\((\\d+),\\s*(\\d+)\\)");
+
+    // Nombres exacts : une somme HUGEINT ou DECIMAL ne passe pas par un double
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+        .enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)
+        .enable(DeserializationFeature.USE_BIG_INTEGER_FOR_INTS)
+        .configure(JsonNodeFeature.STRIP_TRAILING_BIGDECIMAL_ZEROES, false);
+
+    private final QueryFingerprint fingerprint;
+    private final ThreadPoolExecutor workers;
+    private final ScheduledThreadPoolExecutor watcher;
+    private final Map<String, Long> downUntil = new ConcurrentHashMap<>();
+    // Requêtes dont la répartition a échoué pour une raison qui se reproduirait
+    private final Set<String> ineligible = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > TRACKED;
+        }
+    });
+
+    private final AtomicLong scatters = new AtomicLong();
+    private final AtomicLong launched = new AtomicLong();
+    private final AtomicLong localFragments = new AtomicLong();
+    private final AtomicLong remoteFragments = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong speculative = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public ScatterGatherCoordinator(QueryFingerprint fingerprint) {
+        this.fingerprint = fingerprint;
+        AtomicInteger threads = new AtomicInteger();
+        // Un thread par fragment en cours : il attend la réponse du nœud ou de DuckDB
+        this.workers = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                                              r -> {
+                                                  Thread thread = new Thread(r, "scatter-gather-" + threads.incrementAndGet());
+                                                  thread.setDaemon(true);
+                                                  return thread;
+                                              });
+        this.watcher = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "scatter-gather-watch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher.setRemoveOnCancelPolicy(true);
+        if (isEnabled()) {
+            logger.info("Exécution répartie entre {} nœuds {}, ce nœud : {}", NODES.size(), NODES,
+                        NODES.contains(SELF) ? SELF : "coordinateur seul");
+        }
+    }
+
+    private static String trimSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    public boolean isEnabled() {
+        return NODES.size() > 1;
+    }
+
+    public boolean accepts(String token) {
+        return TOKEN.isEmpty() || TOKEN.equals(token);
+    }
+
+    /**
+     * Fragments d'une exécution répartie.
+     */
+    public static final class Scatter {
+        final String fingerprint;
+        final SplitAggregate shape;
+        final List<String> queries;
+        final List<String> nodes;
+
+        Scatter(String fingerprint, SplitAggregate shape, List<String> queries, List<String> nodes) {
+            this.fingerprint = fingerprint;
+            this.shape = shape;
+            this.queries = queries;
+            this.nodes = nodes;
+        }
+
+        public int fragments() {
+            return queries.size();
+        }
+
+        public int nodes() {
+            return nodes.size();
+        }
+    }
+
+    /**
+     * @return la répartition de {@code sql}, ou {@code null} si elle ne
+     *         s'applique pas (forme de requête, trop peu de fichiers ou de
+     *         nœuds disponibles)
+     */
+    public Scatter plan(String sql) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String key = fingerprint.fingerprint(sql);
+        synchronized (ineligible) {
+            if (ineligible.contains(key)) {
+                return null;
+            }
+        }
+        SplitAggregate shape;
+        try {
+            shape = SplitAggregate.of(fingerprint.parse(sql));
+        } catch (RuntimeException e) {
+            logger.debug("Requête non répartissable ({}) : {}", e.getMessage(), sql);
+            shape = null;
+        }
+        if (shape == null) {
+            ineligible(key);
+            return null;
+        }
+        List<String> nodes = NODES.stream().filter(node -> !isDown(node)).collect(Collectors.toList());
+        if (nodes.size() < 2) {
+            return null;
+        }
+        List<CacheStorage.StoredFile> files;
+        try {
+            files = SourceFiles.list(shape.glob);
+        } catch (IOException e) {
+            logger.debug("Fichiers de {} illisibles : {}", shape.glob, e.getMessage());
+            return null;
+        }
+        if (files == null || files.size() < Math.max(2, MIN_FILES)) {
+            return null;
+        }
+        // Plus gros fichiers d'abord, chacun dans le fragment le moins chargé
+        int count = Math.min(files.size(), nodes.size() * Math.max(1, FRAGMENTS_PER_NODE));
+        List<List<String>> bins = new ArrayList<>();
+        long[] loads = new long[count];
+        for (int i = 0; i < count; i++) {
+            bins.add(new ArrayList<>());
+        }
+        List<CacheStorage.StoredFile> bySize = new ArrayList<>(files);
+        bySize.sort(Comparator.comparingLong((CacheStorage.StoredFile file) -> file.size).reversed());
+        for (CacheStorage.StoredFile file : bySize) {
+            int target = 0;
+            for (int i = 1; i < count; i++) {
+                if (loads[i] < loads[target]) {
+                    target = i;
+                }
+            }
+            bins.get(target).add(file.path);
+            loads[target] += Math.max(1, file.size);
+        }
+        List<String> queries = new ArrayList<>(count);
+        for (List<String> bin : bins) {
+            Collections.sort(bin);
+            queries.add(shape.fragment(bin));
+        }
+        return new Scatter(key, shape, queries, nodes);
+    }
+
+    /**
+     * Lance les fragments de {@code scatter}, répartis à tour de rôle entre
+     * ses nœuds. Annuler le résultat interrompt ceux en cours.
+     */
+    public CompletableFuture<List<List<Object>>> execute(Connection connection, Scatter scatter) throws SQLException {
+        Run run = new Run(scatter, connection.unwrap(DuckDBConnection.class));
+        scatters.incrementAndGet();
+        synchronized (run) {
+            for (int i = 0; i < run.fragments.length; i++) {
+                run.launch(run.fragments[i], scatter.nodes.get(i % scatter.nodes.size()));
+            }
+        }
+        ScheduledFuture<?> watch = watcher.scheduleWithFixedDelay(run::relaunchStragglers, WATCH_MS, WATCH_MS, TimeUnit.MILLISECONDS);
+        run.result.whenComplete((rows, error) -> {
+            watch.cancel(false);
+            run.abortAll();
+        });
+        return run.result;
+    }
+
+    private boolean isDown(String node) {
+        Long until = downUntil.get(node);
+        return until != null && System.currentTimeMillis() < until;
+    }
+
+    private void markDown(String node, String reason) {
+        long now = System.currentTimeMillis();
+        Long previous = downUntil.put(node, now + RETRY_MS);
+        if (previous == null || previous < now) {
+            logger.warn("Nœud {} écarté {} s : {}", node, RETRY_MS / 1000, reason);
+        }
+    }
+
+    private void ineligible(String key) {
+        synchronized (ineligible) {
+            ineligible.add(key);
+        }
+    }
+
+    /**
+     * Une exécution répartie : ses fragments, leurs tentatives et le résultat
+     * en cours de recombinaison.
+     */
+    private final class Run {
+        final Scatter scatter;
+        final DuckDBConnection base;
+        final PartialCombiner combiner;
+        final CompletableFuture<List<List<Object>>> result = new CompletableFuture<>();
+        final Fragment[] fragments;
+        // Tentatives lancées par nœud, pour choisir le moins chargé
+        final Map<String, Integer> assigned = new HashMap<>();
+        final List<Long> durations = new ArrayList<>();
+        int remaining;
+
+        Run(Scatter scatter, DuckDBConnection base) {
+            this.scatter = scatter;
+            this.base = base;
+            this.combiner = new PartialCombiner(scatter.shape);
+            this.fragments = new Fragment[scatter.queries.size()];
+            for (int i = 0; i < fragments.length; i++) {
+                fragments[i] = new Fragment(i, scatter.queries.get(i));
+            }
+            this.remaining = fragments.length;
+        }
+
+        // Appelé sous le verrou de l'exécution
+        void launch(Fragment fragment, String node) {
+            Attempt attempt = new Attempt(node);
+            fragment.attempts.add(attempt);
+            fragment.tried.add(node);
+            assigned.merge(node, 1, Integer::sum);
+            launched.incrementAndGet();
+            workers.execute(() -> run(fragment, attempt));
+        }
+
+        private void run(Fragment fragment, Attempt attempt) {
+            if (result.isDone() || attempt.aborted) {
+                return;
+            }
+            PartialCombiner.Batch batch;
+            try {
+                batch = attempt.node.equals(SELF) ? runLocal(fragment, attempt) : runRemote(fragment, attempt);
+            } catch (UnsupportedTypeException e) {
+                fail(e, true);
+                return;
+            } catch (IOException | SQLException | RuntimeException e) {
+                failed(fragment, attempt, e);
+                return;
+            } finally {
+                attempt.finished = true;
+            }
+            succeeded(fragment, attempt, batch);
+        }
+
+        private PartialCombiner.Batch runLocal(Fragment fragment, Attempt attempt) throws SQLException {
+            try (Connection duplicate = base.duplicate(); Statement statement = duplicate.createStatement()) {
+                attempt.statement = statement;
+                if (attempt.aborted) {
+                    throw new SQLException(QueryRegistry.QUERY_CANCELLED);
+                }
+                try (ResultSet rs = statement.executeQuery(fragment.sql)) {
+                    PartialCombiner.Batch batch = PartialCombiner.read(rs, scatter.shape.objectColumns());
+                    localFragments.incrementAndGet();
+                    return batch;
+                }
+            }
+        }
+
+        private PartialCombiner.Batch runRemote(Fragment fragment, Attempt attempt) throws IOException {
+            HttpURLConnection connection = open(attempt.node + "/cluster/fragment", "POST");
+            attempt.http = connection;
+            try {
+                connection.setReadTimeout((int) Math.min(Integer.MAX_VALUE, FRAGMENT_TIMEOUT_MS + CONNECT_TIMEOUT_MS));
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/json");
+                connection.setRequestProperty(QueryRegistry.QUERY_ID_HEADER, attempt.queryId);
+                connection.setRequestProperty(QueryRegistry.QUERY_TIMEOUT_HEADER, String.valueOf(FRAGMENT_TIMEOUT_MS));
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(MAPPER.writeValueAsBytes(Collections.singletonMap("sql", fragment.sql)));
+                }
+                int status = connection.getResponseCode();
+                JsonNode body;
+                try (InputStream in = status / 100 == 2 ? connection.getInputStream() : connection.getErrorStream()) {
+                    body = in == null ? null : MAPPER.readTree(in);
+                }
+                if (status == 500 && body != null && body.path("error").asBoolean()) {
+                    // Erreur de la requête elle-même : le nœud répond, il n'est pas écarté
+                    throw new FragmentException(body.path("errorMessage").asText());
+                }
+                if (status != 200 || body == null) {
+                    throw new IOException("HTTP " + status);
+                }
+                PartialCombiner.Batch batch = decode(body, scatter.shape.objectColumns());
+                remoteFragments.incrementAndGet();
+                return batch;
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        synchronized void succeeded(Fragment fragment, Attempt attempt, PartialCombiner.Batch batch) {
+            if (fragment.done || result.isDone()) {
+                return;
+            }
+            fragment.done = true;
+            for (Attempt other : fragment.attempts) {
+                if (other != attempt) {
+                    abort(other);
+                }
+            }
+            durations.add(System.currentTimeMillis() - fragment.attempts.get(0).startedAt);
+            try {
+                combiner.add(batch);
+            } catch (RuntimeException e) {
+                fail(e, true);
+                return;
+            }
+            if (--remaining == 0) {
+                result.complete(combiner.result());
+            }
+        }
+
+        synchronized void failed(Fragment fragment, Attempt attempt, Exception e) {
+            if (fragment.done || result.isDone() || attempt.aborted) {
+                return;
+            }
+            attempt.failed = true;
+            if (!attempt.node.equals(SELF) && e instanceof IOException && !(e instanceof FragmentException)) {
+                markDown(attempt.node, e.getMessage());
+            }
+            logger.warn("Fragment {} en échec sur {} : {}", fragment.index, attempt.node, e.getMessage());
+            for (Attempt other : fragment.attempts) {
+                if (!other.finished && !other.failed) {
+                    // Une relance de ce fragment est encore en cours
+                    return;
+                }
+            }
+            String next = nextNode(fragment);
+            if (next == null) {
+                fail(e, e instanceof FragmentException || e instanceof SQLException);
+                return;
+            }
+            retries.incrementAndGet();
+            launch(fragment, next);
+        }
+
+        /**
+         * Relance une fois sur un autre nœud chaque fragment nettement plus
+         * long que la médiane de ceux déjà terminés.
+         */
+        synchronized void relaunchStragglers() {
+            if (result.isDone() || durations.size() * 2 < fragments.length) {
+                return;
+            }
+            List<Long> sorted = new ArrayList<>(durations);
+            Collections.sort(sorted);
+            long threshold = Math.max(STRAGGLER_MIN_MS, (long) (STRAGGLER_FACTOR * sorted.get(sorted.size() / 2)));
+            long now = System.currentTimeMillis();
+            for (Fragment fragment : fragments) {
+                if (fragment.done || fragment.speculated) {
+                    continue;
+                }
+                Attempt current = fragment.attempts.get(fragment.attempts.size() - 1);
+                if (now - current.startedAt <= threshold) {
+                    continue;
+                }
+                String next = nextNode(fragment);
+                if (next != null) {
+                    fragment.speculated = true;
+                    speculative.incrementAndGet();
+                    logger.info("Fragment {} lent sur {} ({} ms, médiane {} ms), relancé sur {}",
+                                fragment.index, current.node, now - current.startedAt, sorted.get(sorted.size() / 2), next);
+                    launch(fragment, next);
+                }
+            }
+        }
+
+        // Le nœud disponible le moins chargé qui n'a pas déjà reçu ce fragment
+        private String nextNode(Fragment fragment) {
+            String best = null;
+            for (String node : scatter.nodes) {
+                if (fragment.tried.contains(node) || !node.equals(SELF) && isDown(node)) {
+                    continue;
+                }
+                if (best == null || assigned.getOrDefault(node, 0) < assigned.getOrDefault(best, 0)) {
+                    best = node;
+                }
+            }
+            return best;
+        }
+
+        private void fail(Exception e, boolean permanent) {
+            if (result.completeExceptionally(e)) {
+                failures.incrementAndGet();
+                if (permanent) {
+                    ineligible(scatter.fingerprint);
+                }
+            }
+        }
+
+        void abortAll() {
+            List<Attempt> attempts = new ArrayList<>();
+            synchronized (this) {
+                for (Fragment fragment : fragments) {
+                    attempts.addAll(fragment.attempts);
+                }
+            }
+            for (Attempt attempt : attempts) {
+                abort(attempt);
+            }
+        }
+
+        private void abort(Attempt attempt) {
+            if (attempt.finished || attempt.aborted) {
+                return;
+            }
+            attempt.aborted = true;
+            Statement statement = attempt.statement;
+            if (statement != null) {
+                try {
+                    statement.cancel();
+                } catch (SQLException e) {
+                    logger.debug("Interruption d'un fragment local : {}", e.getMessage());
+                }
+            }
+            HttpURLConnection connection = attempt.http;
+            if (connection != null) {
+                // La requête continue sur le nœud sans son client : elle y est annulée
+                workers.execute(() -> cancelRemote(attempt.node, attempt.queryId));
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static void cancelRemote(String node, String queryId) {
+        HttpURLConnection connection = null;
+        try {
+            connection = open(node + "/jdbc/cancel/" + URLEncoder.encode(queryId, "UTF-8"), "POST");
+            connection.getResponseCode();
+        } catch (IOException e) {
+            logger.debug("Annulation du fragment {} sur {} impossible : {}", queryId, node, e.getMessage());
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static HttpURLConnection open(String url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(CONNECT_TIMEOUT_MS);
+        if (!TOKEN.isEmpty()) {
+            connection.setRequestProperty(TOKEN_HEADER, TOKEN);
+        }
+        return connection;
+    }
+
+    /**
+     * Réponse de {@code /cluster/fragment} en lot, valeurs retypées comme
+     * celles d'un ResultSet local.
+     */
+    static PartialCombiner.Batch decode(JsonNode body, int objectColumns) {
+        List<String> types = new ArrayList<>();
+        for (JsonNode type : body.path("metadata").path("column_types_string")) {
+            types.add(type.asText());
+        }
+        List<List<Object>> rows = new ArrayList<>();
+        for (JsonNode row : body.path("data")) {
+            List<Object> values = new ArrayList<>(types.size());
+            for (int i = 0; i < types.size(); i++) {
+                values.add(value(types.get(i), row.get(i)));
+            }
+            rows.add(values);
+        }
+        return PartialCombiner.read(types, rows, objectColumns);
+    }
+
+    private static Object value(String type, JsonNode node) {
+        if (node == null || node.isNull()) {
+            return null;
+        }
+        String name = type.toUpperCase(Locale.ROOT);
+        switch (name) {
+            case "BOOLEAN":
+                return node.booleanValue();
+            case "TINYINT":
+                return (byte) node.intValue();
+            case "SMALLINT":
+                return (short) node.intValue();
+            case "INTEGER":
+                return node.intValue();
+            case "BIGINT":
+                return node.longValue();
+            case "HUGEINT":
+                return node.bigIntegerValue();
+            // NaN et infinis arrivent en chaîne
+            case "FLOAT":
+                return node.isTextual() ? Float.valueOf(node.textValue()) : node.floatValue();
+            case "DOUBLE":
+                return node.isTextual() ? Double.valueOf(node.textValue()) : node.doubleValue();
+            case "VARCHAR":
+                return node.textValue();
+            case "DATE":
+                return LocalDate.parse(node.textValue());
+            default:
+                Matcher decimal = DECIMAL_TYPE.matcher(name);
+                if (decimal.matches()) {
+                    BigDecimal value = node.isTextual() ? new BigDecimal(node.textValue()) : node.decimalValue();
+                    return value.setScale(Integer.parseInt(decimal.group(2)));
+                }
+                throw new UnsupportedTypeException("type de résultat partiel non transférable : " + type);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("self", SELF);
+        stats.put("nodes", NODES);
+        long now = System.currentTimeMillis();
+        stats.put("down", downUntil.entrySet().stream().filter(e -> e.getValue() > now).map(Map.Entry::getKey)
+            .collect(Collectors.toList()));
+        stats.put("min_files", MIN_FILES);
+        stats.put("fragments_per_node", FRAGMENTS_PER_NODE);
+        stats.put("scatters", scatters.get());
+        stats.put("fragments_launched", launched.get());
+        stats.put("local_fragments", localFragments.get());
+        stats.put("remote_fragments", remoteFragments.get());
+        stats.put("retries", retries.get());
+        stats.put("speculative", speculative.get());
+        stats.put("failures", failures.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watcher.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Un fragment et ses tentatives, sous le verrou de son exécution.
+     */
+    private static final class Fragment {
+        final int index;
+        final String sql;
+        final List<Attempt> attempts = new ArrayList<>();
+        final Set<String> tried = new HashSet<>();
+        boolean done;
+        // Déjà relancé parce que lent
+        boolean speculated;
+
+        Fragment(int index, String sql) {
+            this.index = index;
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * Exécution d'un fragment sur un nœud.
+     */
+    private static final class Attempt {
+        final String node;
+        final String queryId = UUID.randomUUID().toString();
+        final long startedAt = System.currentTimeMillis();
+        volatile Statement statement;
+        volatile HttpURLConnection http;
+        volatile boolean finished;
+        volatile boolean aborted;
+        boolean failed;
+
+        Attempt(String node) {
+            this.node = node;
+        }
+    }
+
+    /**
+     * Le nœud a exécuté le fragment et renvoyé une erreur SQL.
+     */
+    private static final class FragmentException extends IOException {
+        FragmentException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class UnsupportedTypeException extends RuntimeException {
+        UnsupportedTypeException(String message) {
+            super(message);
+        }
+    }
+}
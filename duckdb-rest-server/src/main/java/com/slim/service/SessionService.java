@@ -0,0 +1,213 @@
+package com.slim.service;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import org.duckdb.DuckDBConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.slim.dto.SessionResponse;
+import com.zaxxer.hikari.HikariConfig;
+
+/**
+ * Sessions serveur : une connexion DuckDB réservée à une connexion JDBC du
+ * driver, pour que transactions, {@code SET}, tables temporaires et
+ * {@code USE} s'appliquent aux requêtes suivantes. Sans en-tête
+ * {@value #SESSION_ID_HEADER}, chaque requête prend une connexion quelconque du pool.
+ * <p>
+ * La connexion est dupliquée depuis le pool (elle n'en occupe pas une place)
+ * et reçoit le même SQL d'initialisation. Une session inactive depuis
+ * {@code SESSION_IDLE_TIMEOUT_SECONDS} est fermée, ce qui annule sa
+ * transaction en cours ; {@code SESSION_MAX_OPEN} limite leur nombre.
+ */
+@Service
+public class SessionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionService.class);
+
+    public static final String SESSION_ID_HEADER = "X-DuckDB-Session-Id";
+    public static final String UNKNOWN_SESSION = "Unknown or expired session: ";
+
+    private static final int MAX_SESSIONS = Integer.parseInt(System.getenv().getOrDefault("SESSION_MAX_OPEN", "64"));
+    private static final long IDLE_TIMEOUT_MS = Long.parseLong(System.getenv().getOrDefault("SESSION_IDLE_TIMEOUT_SECONDS", "600")) * 1000L;
+
+    private final DataSource dataSource;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    public SessionService(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public SessionResponse open() {
+        if (sessions.size() >= MAX_SESSIONS) {
+            return SessionResponse.error("Too many open sessions (" + MAX_SESSIONS + "), close connections or raise SESSION_MAX_OPEN");
+        }
+        Connection connection = null;
+        try {
+            connection = duplicate();
+            String sessionId = UUID.randomUUID().toString();
+            sessions.put(sessionId, new Session(connection));
+            logger.info("Session {} ouverte ({} sessions).", sessionId, sessions.size());
+            return SessionResponse.opened(sessionId);
+        } catch (SQLException e) {
+            logger.error("[SessionService] Ouverture en échec: {}", e.getMessage());
+            closeQuietly(connection);
+            return SessionResponse.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Connexion pour une requête : celle de la session si {@code sessionId} est
+     * renseigné, sinon une connexion du pool. Dans les deux cas l'appelant la
+     * ferme ; pour une session, close() ne fait que rendre la main.
+     */
+    public Connection getConnection(String sessionId) throws SQLException {
+        if (sessionId == null || sessionId.isEmpty()) {
+            return dataSource.getConnection();
+        }
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            throw new SQLException(UNKNOWN_SESSION + sessionId);
+        }
+        return session.lease();
+    }
+
+    /**
+     * Connexion pour une requête dont le résultat peut rester ouvert dans un
+     * curseur. Hors session, elle est dupliquée hors du pool, comme celle d'une
+     * session : un curseur la garde jusqu'à {@code CURSOR_IDLE_TIMEOUT_SECONDS},
+     * et {@code CURSOR_MAX_OPEN} curseurs épuiseraient sinon le pool.
+     */
+    public Connection getCursorConnection(String sessionId) throws SQLException {
+        if (sessionId != null && !sessionId.isEmpty()) {
+            return getConnection(sessionId);
+        }
+        return duplicate();
+    }
+
+    /**
+     * Nouvelle connexion DuckDB sur la base du pool, hors du pool, avec le
+     * {@code connectionInitSql} des connexions du pool.
+     */
+    private Connection duplicate() throws SQLException {
+        Connection connection;
+        try (Connection pooled = dataSource.getConnection()) {
+            connection = pooled.unwrap(DuckDBConnection.class).duplicate();
+        }
+        String initSql = dataSource instanceof HikariConfig ? ((HikariConfig) dataSource).getConnectionInitSql() : null;
+        if (initSql != null) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute(initSql);
+            } catch (SQLException e) {
+                closeQuietly(connection);
+                throw e;
+            }
+        }
+        return connection;
+    }
+
+    public boolean close(String sessionId) {
+        Session session = sessions.remove(sessionId);
+        if (session == null) {
+            return false;
+        }
+        // Une transaction encore ouverte est annulée avec la connexion
+        closeQuietly(session.connection);
+        logger.info("Session {} fermée.", sessionId);
+        return true;
+    }
+
+    public int openSessionCount() {
+        return sessions.size();
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdleSessions() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Session>> it = sessions.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Session> entry = it.next();
+            Session session = entry.getValue();
+            // Une requête, un curseur ou un flux encore ouvert sur la session la garde en vie
+            if (session.leases.get() == 0 && now - session.lastAccess > IDLE_TIMEOUT_MS) {
+                logger.warn("Session {} inactive depuis plus de {} ms, fermeture.", entry.getKey(), IDLE_TIMEOUT_MS);
+                close(entry.getKey());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        for (String sessionId : new ArrayList<>(sessions.keySet())) {
+            close(sessionId);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.debug("Fermeture ignorée: {}", e.getMessage());
+        }
+    }
+
+    private static final class Session {
+        final Connection connection;
+        final AtomicInteger leases = new AtomicInteger();
+        volatile long lastAccess = System.currentTimeMillis();
+
+        Session(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Vue de la connexion dont close() ne ferme rien : QueryService, les
+         * curseurs et les flux Arrow la traitent comme une connexion du pool.
+         */
+        Connection lease() {
+            leases.incrementAndGet();
+            lastAccess = System.currentTimeMillis();
+            boolean[] released = {false};
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            synchronized (released) {
+                                if (!released[0]) {
+                                    released[0] = true;
+                                    leases.decrementAndGet();
+                                    lastAccess = System.currentTimeMillis();
+                                }
+                            }
+                            return null;
+                        case "isClosed":
+                            return released[0] || connection.isClosed();
+                        default:
+                            try {
+                                return method.invoke(connection, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                    }
+                });
+        }
+    }
+}
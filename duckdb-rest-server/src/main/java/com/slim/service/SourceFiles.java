@@ -0,0 +1,413 @@
+package com.slim.service;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Fichiers lus par une requête, pour invalider les résultats en cache quand
+ * ils changent.
+ * <p>
+ * Les sources sont les arguments chaîne de {@code read_parquet} et
+ * {@code parquet_scan} : un chemin, un glob ou une liste, en local, sur S3 ou
+ * en HTTP(S). Leur état ({@link Snapshot}) résume, pour chaque fichier
+ * correspondant, son chemin, sa taille et son ETag (à défaut sa date de
+ * modification) : il change dès qu'un fichier est ajouté, retiré ou réécrit.
+ * Les tables DuckDB ne sont pas suivies.
+ */
+final class SourceFiles {
+
+    private static final Set<String> READERS = new HashSet<>(Arrays.asList("read_parquet", "parquet_scan"));
+    private static final long LIST_TTL_MS = Long.parseLong(System.getenv().getOrDefault("SOURCE_LIST_TTL_SECONDS", "5")) * 1000L;
+    private static final int LISTED_MAX = 256;
+
+    // Listes récentes par motif, les plus anciennes lues en premier
+    private static final Map<String, Listing> LISTED = new LinkedHashMap<String, Listing>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Listing> eldest) {
+            return size() > LISTED_MAX;
+        }
+    };
+
+    private SourceFiles() {
+    }
+
+    /**
+     * Motifs de fichiers lus par {@code sql}, tels qu'écrits dans la requête.
+     * Fonctionne aussi sur la forme canonique (clé du cache).
+     */
+    static List<String> patterns(String sql) {
+        List<String> tokens = QueryFingerprint.tokenize(sql);
+        if (tokens == null) {
+            return new ArrayList<>();
+        }
+        Set<String> patterns = new LinkedHashSet<>();
+        for (int i = 0; i + 2 < tokens.size(); i++) {
+            if (!READERS.contains(unquote(tokens.get(i)).toLowerCase(Locale.ROOT)) || !"(".equals(tokens.get(i + 1))) {
+                continue;
+            }
+            int j = i + 2;
+            if ("ARRAY".equalsIgnoreCase(tokens.get(j)) && j + 1 < tokens.size()) {
+                j++;
+            }
+            String literal = stringLiteral(tokens.get(j));
+            if (literal != null) {
+                patterns.add(literal);
+            } else if ("[".equals(tokens.get(j))) {
+                // Liste de fichiers : ['a.parquet', 'b.parquet']
+                for (j++; j < tokens.size() && !"]".equals(tokens.get(j)); j++) {
+                    literal = stringLiteral(tokens.get(j));
+                    if (literal != null) {
+                        patterns.add(literal);
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(patterns);
+    }
+
+    /**
+     * Vrai si des fichiers de {@code pattern} peuvent se trouver sous
+     * {@code prefix}, ou l'inverse. Les chemins locaux sont comparés en absolu.
+     */
+    static boolean overlaps(String pattern, String prefix) {
+        String path = absolute(pattern);
+        String under = absolute(prefix);
+        return path.startsWith(under) || under.startsWith(literalPrefix(path));
+    }
+
+    /**
+     * État courant des fichiers de {@code pattern}.
+     *
+     * @return {@code null} si ces fichiers ne peuvent pas être revalidés (glob
+     *         HTTP, autre protocole)
+     */
+    static Snapshot snapshot(String pattern) throws IOException {
+        List<CacheStorage.StoredFile> files = list(pattern);
+        if (files == null) {
+            return null;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        long lastModified = 0;
+        for (CacheStorage.StoredFile file : files) {
+            String version = file.etag != null ? file.etag : String.valueOf(file.lastModified);
+            digest.update((file.path + '\0' + file.size + '\0' + version + '\n').getBytes(StandardCharsets.UTF_8));
+            lastModified = Math.max(lastModified, file.lastModified);
+        }
+        StringBuilder signature = new StringBuilder();
+        for (byte b : digest.digest()) {
+            signature.append(String.format("%02x", b));
+        }
+        return new Snapshot(signature.toString(), files.size(), lastModified);
+    }
+
+    /**
+     * Fichiers de {@code pattern}, triés par chemin.
+     *
+     * @return {@code null} si ces fichiers ne peuvent pas être listés (glob
+     *         HTTP, autre protocole)
+     */
+    static List<CacheStorage.StoredFile> list(String pattern) throws IOException {
+        List<CacheStorage.StoredFile> files;
+        if (pattern.startsWith("s3://")) {
+            files = listS3(pattern);
+        } else if (pattern.startsWith("http://") || pattern.startsWith("https://")) {
+            if (isGlob(pattern)) {
+                return null;
+            }
+            files = head(pattern);
+        } else if (pattern.contains("://")) {
+            return null;
+        } else {
+            files = listLocal(pattern);
+        }
+        files.sort(Comparator.comparing(file -> file.path));
+        return files;
+    }
+
+    /**
+     * {@link #list(String)}, reprise si elle date de moins de
+     * {@code SOURCE_LIST_TTL_SECONDS} : la réduction des partitions ne refait
+     * pas un LIST S3 à chaque requête. Seuls les chemins y sont fiables : un
+     * fichier ajouté pendant ce délai peut être ignoré, et la taille ou l'ETag
+     * d'un fichier réécrit peuvent être anciens.
+     *
+     * @return une liste non modifiable, ou {@code null} comme {@link #list(String)}
+     */
+    static List<CacheStorage.StoredFile> recentList(String pattern) throws IOException {
+        if (LIST_TTL_MS <= 0) {
+            return list(pattern);
+        }
+        long now = System.currentTimeMillis();
+        synchronized (LISTED) {
+            Listing listing = LISTED.get(pattern);
+            if (listing != null && now - listing.listedAt < LIST_TTL_MS) {
+                return listing.files;
+            }
+        }
+        List<CacheStorage.StoredFile> files = list(pattern);
+        if (files == null) {
+            return null;
+        }
+        files = Collections.unmodifiableList(files);
+        synchronized (LISTED) {
+            LISTED.put(pattern, new Listing(files, now));
+        }
+        return files;
+    }
+
+    /**
+     * Oublie les listes récentes des motifs qui recouvrent {@code prefix}.
+     */
+    static void forgetListings(String prefix) {
+        synchronized (LISTED) {
+            LISTED.keySet().removeIf(pattern -> overlaps(pattern, prefix));
+        }
+    }
+
+    private static List<CacheStorage.StoredFile> listS3(String pattern) throws IOException {
+        String rest = pattern.substring("s3://".length());
+        int slash = rest.indexOf('/');
+        String bucket = slash < 0 ? rest : rest.substring(0, slash);
+        String keyPrefix = literalPrefix(slash < 0 ? "" : rest.substring(slash + 1));
+        Pattern regex = globRegex(pattern);
+        List<CacheStorage.StoredFile> files = new ArrayList<>();
+        for (CacheStorage.StoredFile file : new S3CacheStorage("s3://" + bucket).list(keyPrefix)) {
+            if (regex.matcher(file.path).matches()) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static List<CacheStorage.StoredFile> head(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("HEAD");
+        connection.setConnectTimeout(10_000);
+        connection.setReadTimeout(30_000);
+        try {
+            int status = connection.getResponseCode();
+            List<CacheStorage.StoredFile> files = new ArrayList<>();
+            if (status == 404) {
+                return files;
+            }
+            if (status / 100 != 2) {
+                throw new IOException("HEAD " + url + " : HTTP " + status);
+            }
+            files.add(new CacheStorage.StoredFile(url, connection.getContentLengthLong(), connection.getLastModified(),
+                                                  connection.getHeaderField("ETag")));
+            return files;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static List<CacheStorage.StoredFile> listLocal(String pattern) throws IOException {
+        List<CacheStorage.StoredFile> files = new ArrayList<>();
+        String literal = literalPrefix(pattern);
+        if (literal.length() == pattern.length()) {
+            Path path = Paths.get(pattern);
+            if (Files.isRegularFile(path)) {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                files.add(new CacheStorage.StoredFile(pattern, attrs.size(), attrs.lastModifiedTime().toMillis()));
+            }
+            return files;
+        }
+        int slash = literal.lastIndexOf('/');
+        Path base = Paths.get(slash < 0 ? "." : slash == 0 ? "/" : literal.substring(0, slash));
+        if (!Files.isDirectory(base)) {
+            return files;
+        }
+        // Sans **, le glob ne descend pas plus bas que son nombre de niveaux
+        String below = pattern.substring(slash + 1);
+        int depth = below.contains("**") ? Integer.MAX_VALUE : below.split("/", -1).length;
+        Pattern regex = globRegex(slash < 0 ? "./" + pattern : pattern);
+        try (Stream<Path> paths = Files.walk(base, depth)) {
+            paths.forEach(path -> {
+                if (!regex.matcher(path.toString()).matches()) {
+                    return;
+                }
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attrs.isRegularFile()) {
+                        files.add(new CacheStorage.StoredFile(path.toString(), attrs.size(), attrs.lastModifiedTime().toMillis()));
+                    }
+                } catch (IOException e) {
+                    // Fichier supprimé pendant le parcours
+                }
+            });
+        }
+        return files;
+    }
+
+    /**
+     * Répertoires {@code cle=valeur} du chemin, par clé en minuscules ;
+     * une clé répétée n'est pas retenue.
+     */
+    static Map<String, String> partitions(String path) {
+        Map<String, String> partitions = new HashMap<>();
+        Set<String> repeated = new HashSet<>();
+        String[] segments = path.split("/");
+        for (int i = 0; i < segments.length - 1; i++) {
+            int equals = segments[i].indexOf('=');
+            if (equals > 0) {
+                String key = segments[i].substring(0, equals).toLowerCase(Locale.ROOT);
+                if (partitions.put(key, segments[i].substring(equals + 1)) != null) {
+                    repeated.add(key);
+                }
+            }
+        }
+        partitions.keySet().removeAll(repeated);
+        return partitions;
+    }
+
+    private static boolean isGlob(String pattern) {
+        return literalPrefix(pattern).length() < pattern.length();
+    }
+
+    /**
+     * Début de {@code pattern} avant le premier caractère de glob.
+     */
+    static String literalPrefix(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            if ("*?[{".indexOf(pattern.charAt(i)) >= 0) {
+                return pattern.substring(0, i);
+            }
+        }
+        return pattern;
+    }
+
+    /**
+     * Glob DuckDB en expression régulière : {@code *} et {@code ?} restent
+     * dans un répertoire, {@code **} les traverse.
+     */
+    static Pattern globRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    i++;
+                    // **/ couvre aussi zéro répertoire
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                        i++;
+                        regex.append("(?:.*/)?");
+                    } else {
+                        regex.append(".*");
+                    }
+                } else {
+                    regex.append("[^/]*");
+                }
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else if (c == '[') {
+                int end = glob.indexOf(']', i + 1);
+                if (end < 0) {
+                    regex.append("\\[");
+                } else {
+                    String set = glob.substring(i + 1, end);
+                    regex.append('[').append(set.startsWith("!") ? "^" + set.substring(1) : set).append(']');
+                    i = end;
+                }
+            } else if (c == '{') {
+                int end = glob.indexOf('}', i + 1);
+                if (end < 0) {
+                    regex.append("\\{");
+                } else {
+                    regex.append("(?:");
+                    String[] options = glob.substring(i + 1, end).split(",", -1);
+                    for (int o = 0; o < options.length; o++) {
+                        regex.append(o > 0 ? "|" : "").append(Pattern.quote(options[o]));
+                    }
+                    regex.append(')');
+                    i = end;
+                }
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static String absolute(String path) {
+        if (path.contains("://")) {
+            return path;
+        }
+        try {
+            String absolute = Paths.get(path).toAbsolutePath().normalize().toString();
+            return path.endsWith("/") && !absolute.endsWith("/") ? absolute + "/" : absolute;
+        } catch (InvalidPathException e) {
+            return path;
+        }
+    }
+
+    private static String unquote(String token) {
+        return token.length() > 1 && token.startsWith("\"") && token.endsWith("\"")
+            ? token.substring(1, token.length() - 1) : token;
+    }
+
+    /**
+     * @return le contenu d'une chaîne {@code 'x'} (préfixe de type toléré), ou
+     *         {@code null}
+     */
+    private static String stringLiteral(String token) {
+        int open = token.indexOf('\'');
+        if (open < 0 || !token.endsWith("'") || token.length() - open < 2) {
+            return null;
+        }
+        return token.substring(open + 1, token.length() - 1).replace("''", "'");
+    }
+
+    /**
+     * État des fichiers d'un motif à un instant donné.
+     */
+    private static final class Listing {
+        final List<CacheStorage.StoredFile> files;
+        final long listedAt;
+
+        Listing(List<CacheStorage.StoredFile> files, long listedAt) {
+            this.files = files;
+            this.listedAt = listedAt;
+        }
+    }
+
+    static final class Snapshot {
+        final String signature;
+        final int files;
+        // Date de modification la plus récente, 0 sans fichier
+        final long lastModified;
+
+        Snapshot(String signature, int files, long lastModified) {
+            this.signature = signature;
+            this.files = files;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package com.slim.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlFunction;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlLiteral;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.SqlNumericLiteral;
+import org.apache.calcite.sql.SqlOrderBy;
+import org.apache.calcite.sql.SqlSelect;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.parser.SqlParserPos;
+import org.apache.calcite.sql.type.SqlTypeFamily;
+
+/**
+ * Forme d'un agrégat découpable par partitions ou par fichiers : un seul bloc
+ * {@code SELECT clés, agrégats FROM read_parquet('glob') [WHERE p] [GROUP BY clés]
+ * [ORDER BY ...] [LIMIT n]}, dont chaque élément est une clé de regroupement
+ * ou un agrégat {@code sum}, {@code count}, {@code min}, {@code max} ou
+ * {@code avg} sans {@code DISTINCT}.
+ * <p>
+ * Chaque morceau calcule les clés et les agrégats partiels ({@code avg}
+ * devient {@code sum} et {@code count}) ; {@link PartialCombiner} les
+ * recombine, puis trie et limite. Sans {@code HAVING} : le filtre porterait sur
+ * les agrégats recombinés.
+ * <p>
+ * Un top-N sans agrégat ({@code SELECT colonnes ... ORDER BY ... LIMIT n}) a
+ * aussi cette forme : chaque morceau renvoie ses {@code OFFSET + n} premières
+ * lignes, fusionnées puis triées à nouveau.
+ */
+final class SplitAggregate {
+
+    enum Op {
+        SUM, COUNT, MIN, MAX, AVG
+    }
+
+    private static final Set<String> READERS = new HashSet<>(Arrays.asList("read_parquet", "parquet_scan"));
+    private static final SqlParserPos POS = SqlParserPos.ZERO;
+
+    // Motif de fichiers lu et FROM d'origine
+    String glob;
+    private String from;
+    // FROM réécrit sur une liste de fichiers : lecteur, options, alias
+    private String reader;
+    private String options;
+    private String alias;
+    private String where;
+    // Top-N sans agrégat : colonnes du résultat, sous forme canonique
+    boolean topN;
+    private final List<String> items = new ArrayList<>();
+    // Clés de regroupement, sous forme canonique
+    final List<String> keys = new ArrayList<>();
+    // Agrégats calculés par partition, sans doublon
+    final List<Partial> partials = new ArrayList<>();
+    // Pour chaque colonne du résultat : une clé (>= 0) ou un agrégat
+    int[] keyOf;
+    Aggregate[] aggregateOf;
+    final List<Order> orders = new ArrayList<>();
+    long limit = -1;
+    long offset;
+    // Colonnes fixées par une égalité du WHERE : découper dessus ne répartirait rien
+    final Set<String> fixedColumns = new HashSet<>();
+
+    private SplitAggregate() {
+    }
+
+    /**
+     * @return {@code null} si la requête n'a pas cette forme
+     */
+    static SplitAggregate of(SqlNode node) {
+        SplitAggregate split = new SplitAggregate();
+        List<SqlNode> orderList = new ArrayList<>();
+        SqlNode fetch = null;
+        SqlNode offset = null;
+        if (node instanceof SqlOrderBy) {
+            SqlOrderBy orderBy = (SqlOrderBy) node;
+            orderList.addAll(orderBy.orderList.getList());
+            fetch = orderBy.fetch;
+            offset = orderBy.offset;
+            node = orderBy.query;
+        }
+        if (!(node instanceof SqlSelect)) {
+            return null;
+        }
+        SqlSelect select = (SqlSelect) node;
+        if (!SubsumptionCache.simple(select) || select.isDistinct() || select.getHaving() != null
+            || select.getQualify() != null || !split.readFrom(select.getFrom())) {
+            return null;
+        }
+        if (select.getOrderList() != null) {
+            orderList.addAll(select.getOrderList().getList());
+        }
+        fetch = fetch != null ? fetch : select.getFetch();
+        offset = offset != null ? offset : select.getOffset();
+
+        List<SqlNode> groups = SubsumptionCache.groupExprs(select);
+        for (SqlNode group : groups) {
+            split.keys.add(SubsumptionCache.canonical(group));
+        }
+        int columns = select.getSelectList().size();
+        split.keyOf = new int[columns];
+        split.aggregateOf = new Aggregate[columns];
+        Map<String, Integer> aliases = new LinkedHashMap<>();
+        List<String> expressions = new ArrayList<>();
+        boolean aggregated = false;
+        boolean plain = false;
+        for (int i = 0; i < columns; i++) {
+            SqlNode item = select.getSelectList().get(i);
+            if (item.getKind() == SqlKind.AS) {
+                aliases.put(((SqlCall) item).operand(1).toString().toLowerCase(Locale.ROOT), i);
+            }
+            SqlNode expr = SubsumptionCache.stripAlias(item);
+            String canonical = SubsumptionCache.canonical(expr);
+            expressions.add(canonical);
+            split.items.add(SubsumptionCache.canonical(item));
+            split.keyOf[i] = split.keys.indexOf(canonical);
+            if (split.keyOf[i] < 0) {
+                split.aggregateOf[i] = split.aggregate(expr);
+                if (split.aggregateOf[i] != null) {
+                    aggregated = true;
+                } else if (!groups.isEmpty() || !scalar(expr)) {
+                    return null;
+                } else {
+                    plain = true;
+                }
+            }
+        }
+        if (plain && aggregated || !plain && !aggregated && groups.isEmpty()) {
+            return null;
+        }
+        split.topN = plain;
+        for (SqlNode order : orderList) {
+            Order resolved = Order.of(order, aliases, expressions);
+            if (resolved == null) {
+                return null;
+            }
+            split.orders.add(resolved);
+        }
+        if (fetch != null) {
+            if (!(fetch instanceof SqlNumericLiteral)) {
+                return null;
+            }
+            split.limit = ((SqlLiteral) fetch).longValue(true);
+        }
+        if (offset != null) {
+            if (!(offset instanceof SqlNumericLiteral)) {
+                return null;
+            }
+            split.offset = ((SqlLiteral) offset).longValue(true);
+        }
+        // Sans tri ni limite, un top-N renverrait toutes les lignes
+        if (split.topN && (split.orders.isEmpty() || split.limit < 0)) {
+            return null;
+        }
+        if (select.getWhere() != null) {
+            split.where = SubsumptionCache.canonical(select.getWhere());
+            split.readEqualities(select.getWhere());
+        }
+        return split;
+    }
+
+    /**
+     * Requête d'une partition : les lignes dont {@code column} prend une des
+     * {@code values}, regroupées sur les clés, avec les agrégats partiels.
+     */
+    String subquery(String column, Collection<String> values) {
+        StringBuilder condition = new StringBuilder(SubsumptionCache.quote(column)).append(" IN (");
+        int i = 0;
+        for (String value : values) {
+            condition.append(i++ == 0 ? "" : ", ").append(literal(value));
+        }
+        return sql(from, condition.append(')').toString());
+    }
+
+    /**
+     * Requête d'un fragment : la même lecture, restreinte à {@code files}.
+     */
+    String fragment(Collection<String> files) {
+        StringBuilder read = new StringBuilder(SubsumptionCache.quote(reader)).append("([");
+        int i = 0;
+        for (String file : files) {
+            read.append(i++ == 0 ? "" : ", ").append(literal(file));
+        }
+        read.append(']').append(options).append(')');
+        return sql(alias == null ? read.toString() : read + " AS " + alias, null);
+    }
+
+    /**
+     * Colonnes lues en objets par {@link PartialCombiner#read} : les clés, ou
+     * toutes celles d'un top-N.
+     */
+    int objectColumns() {
+        return topN ? items.size() : keys.size();
+    }
+
+    private String sql(String source, String condition) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        if (topN) {
+            for (int i = 0; i < items.size(); i++) {
+                sql.append(i == 0 ? "" : ", ").append(items.get(i));
+            }
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append(keys.get(i)).append(" AS ").append(SubsumptionCache.quote("k" + i));
+        }
+        for (int i = 0; i < partials.size(); i++) {
+            sql.append(i == 0 && keys.isEmpty() ? "" : ", ").append(partials.get(i).sql)
+               .append(" AS ").append(SubsumptionCache.quote("p" + i));
+        }
+        sql.append(" FROM ").append(source);
+        if (where != null || condition != null) {
+            sql.append(" WHERE ");
+            if (where != null && condition != null) {
+                sql.append('(').append(where).append(") AND ").append(condition);
+            } else {
+                sql.append(where != null ? where : condition);
+            }
+        }
+        for (int k = 0; k < keys.size(); k++) {
+            sql.append(k == 0 ? " GROUP BY " : ", ").append(keys.get(k));
+        }
+        if (topN) {
+            // Chaque morceau garde ses OFFSET + LIMIT premières lignes, triées par position
+            for (int o = 0; o < orders.size(); o++) {
+                Order order = orders.get(o);
+                sql.append(o == 0 ? " ORDER BY " : ", ").append(order.column + 1)
+                   .append(order.descending ? " DESC" : " ASC").append(order.nullsFirst ? " NULLS FIRST" : " NULLS LAST");
+            }
+            sql.append(" LIMIT ").append(offset + limit);
+        }
+        return sql.toString();
+    }
+
+    static String literal(String value) {
+        return '\'' + value.replace("'", "''") + '\'';
+    }
+
+    /**
+     * {@code FROM read_parquet('glob', options) [AS alias]}, partitions hive
+     * non désactivées.
+     */
+    private boolean readFrom(SqlNode node) {
+        String alias = null;
+        if (node != null && node.getKind() == SqlKind.AS) {
+            List<SqlNode> operands = ((SqlCall) node).getOperandList();
+            if (operands.size() != 2) {
+                return false;
+            }
+            alias = SubsumptionCache.canonical(operands.get(1));
+            node = operands.get(0);
+        }
+        if (node == null || node.getKind() != SqlKind.COLLECTION_TABLE) {
+            return false;
+        }
+        SqlNode call = ((SqlCall) node).operand(0);
+        if (!(call instanceof SqlCall) || !READERS.contains(SubsumptionCache.functionName((SqlCall) call))) {
+            return false;
+        }
+        List<SqlNode> operands = ((SqlCall) call).getOperandList();
+        if (operands.isEmpty() || !(operands.get(0) instanceof SqlLiteral)
+            || ((SqlLiteral) operands.get(0)).getTypeName().getFamily() != SqlTypeFamily.CHARACTER) {
+            return false;
+        }
+        for (SqlNode option : operands.subList(1, operands.size())) {
+            if (option.getKind() == SqlKind.EQUALS
+                && "hive_partitioning".equalsIgnoreCase(((SqlCall) option).operand(0).toString())
+                && "FALSE".equalsIgnoreCase(SubsumptionCache.canonical(((SqlCall) option).operand(1)))) {
+                return false;
+            }
+        }
+        glob = ((SqlLiteral) operands.get(0)).getValueAs(String.class);
+        from = SubsumptionCache.canonical(call) + (alias == null ? "" : " AS " + alias);
+        reader = SubsumptionCache.functionName((SqlCall) call);
+        StringBuilder rest = new StringBuilder();
+        for (SqlNode option : operands.subList(1, operands.size())) {
+            rest.append(", ").append(SubsumptionCache.canonical(option));
+        }
+        options = rest.toString();
+        this.alias = alias;
+        return true;
+    }
+
+    /**
+     * @return l'agrégat recombinable {@code expr}, ou {@code null}
+     */
+    private Aggregate aggregate(SqlNode expr) {
+        if (!(expr instanceof SqlCall) || ((SqlCall) expr).getFunctionQuantifier() != null) {
+            return null;
+        }
+        SqlCall call = (SqlCall) expr;
+        Op op;
+        try {
+            op = Op.valueOf(SubsumptionCache.functionName(call).toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (call.operandCount() != 1 || (op != Op.COUNT && SubsumptionCache.isBareStar(call.operand(0)))) {
+            return null;
+        }
+        if (op == Op.AVG) {
+            SqlNode operand = call.operand(0);
+            return new Aggregate(op, partial(Op.SUM, SqlStdOperatorTable.SUM.createCall(POS, operand)),
+                                 partial(Op.COUNT, SqlStdOperatorTable.COUNT.createCall(POS, operand)));
+        }
+        return new Aggregate(op, partial(op, call), -1);
+    }
+
+    /**
+     * Vrai si {@code expr} se calcule ligne à ligne sans appel de fonction :
+     * colonnes, constantes, opérateurs, {@code CAST} et {@code CASE}. Une
+     * fonction peut être un agrégat ou une fenêtre, faux par morceau.
+     */
+    private static boolean scalar(SqlNode expr) {
+        if (expr instanceof SqlIdentifier) {
+            return !((SqlIdentifier) expr).isStar();
+        }
+        if (expr instanceof SqlNodeList) {
+            // Branches d'un CASE
+            for (SqlNode node : (SqlNodeList) expr) {
+                if (node != null && !scalar(node)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (!(expr instanceof SqlCall)) {
+            return true;
+        }
+        SqlCall call = (SqlCall) expr;
+        if (call.getOperator() instanceof SqlFunction && call.getKind() != SqlKind.CAST
+            || call.getKind() == SqlKind.OVER || call.getKind() == SqlKind.SELECT) {
+            return false;
+        }
+        for (SqlNode operand : call.getOperandList()) {
+            if (operand != null && !scalar(operand)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int partial(Op op, SqlNode call) {
+        String sql = SubsumptionCache.canonical(call);
+        for (int i = 0; i < partials.size(); i++) {
+            if (partials.get(i).sql.equals(sql)) {
+                return i;
+            }
+        }
+        partials.add(new Partial(op, sql));
+        return partials.size() - 1;
+    }
+
+    private void readEqualities(SqlNode where) {
+        List<SqlNode> pending = new ArrayList<>();
+        pending.add(where);
+        while (!pending.isEmpty()) {
+            SqlNode node = pending.remove(pending.size() - 1);
+            if (node.getKind() == SqlKind.AND) {
+                pending.addAll(((SqlCall) node).getOperandList());
+            } else if (node.getKind() == SqlKind.EQUALS || node.getKind() == SqlKind.IN) {
+                for (SqlNode operand : ((SqlCall) node).getOperandList()) {
+                    if (operand instanceof SqlIdentifier) {
+                        List<String> names = ((SqlIdentifier) operand).names;
+                        fixedColumns.add(names.get(names.size() - 1).toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Agrégat calculé par chaque partition.
+     */
+    static final class Partial {
+        // COUNT se recombine par somme
+        final Op op;
+        final String sql;
+
+        Partial(Op op, String sql) {
+            this.op = op;
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * Agrégat du résultat : un partiel, ou deux pour {@code avg}.
+     */
+    static final class Aggregate {
+        final Op op;
+        final int partial;
+        final int count;
+
+        Aggregate(Op op, int partial, int count) {
+            this.op = op;
+            this.partial = partial;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Tri sur une colonne du résultat ; {@code NULL} en dernier par défaut,
+     * comme DuckDB.
+     */
+    static final class Order {
+        final int column;
+        final boolean descending;
+        final boolean nullsFirst;
+
+        Order(int column, boolean descending, boolean nullsFirst) {
+            this.column = column;
+            this.descending = descending;
+            this.nullsFirst = nullsFirst;
+        }
+
+        static Order of(SqlNode node, Map<String, Integer> aliases, List<String> expressions) {
+            boolean descending = false;
+            Boolean nullsFirst = null;
+            while (node.getKind() == SqlKind.DESCENDING || node.getKind() == SqlKind.NULLS_FIRST
+                   || node.getKind() == SqlKind.NULLS_LAST) {
+                if (node.getKind() == SqlKind.DESCENDING) {
+                    descending = true;
+                } else if (nullsFirst == null) {
+                    nullsFirst = node.getKind() == SqlKind.NULLS_FIRST;
+                }
+                node = ((SqlCall) node).operand(0);
+            }
+            int column;
+            if (node instanceof SqlNumericLiteral) {
+                column = ((SqlLiteral) node).intValue(true) - 1;
+            } else if (node instanceof SqlIdentifier && ((SqlIdentifier) node).isSimple()
+                       && aliases.containsKey(((SqlIdentifier) node).getSimple().toLowerCase(Locale.ROOT))) {
+                column = aliases.get(((SqlIdentifier) node).getSimple().toLowerCase(Locale.ROOT));
+            } else {
+                column = expressions.indexOf(SubsumptionCache.canonical(node));
+            }
+            if (column < 0 || column >= expressions.size()) {
+                return null;
+            }
+            return new Order(column, descending, nullsFirst != null && nullsFirst);
+        }
+    }
+}
@@ -0,0 +1,793 @@
+package com.slim.service;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.calcite.sql.SqlBasicCall;
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlDataTypeSpec;
+import org.apache.calcite.sql.SqlDynamicParam;
+import org.apache.calcite.sql.SqlFunction;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlIntervalQualifier;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlLiteral;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.SqlOrderBy;
+import org.apache.calcite.sql.SqlSelect;
+import org.apache.calcite.sql.dialect.PostgresqlSqlDialect;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.parser.SqlParserPos;
+import org.apache.calcite.sql.util.SqlBasicVisitor;
+import org.apache.calcite.sql.util.SqlShuttle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import com.slim.dto.ExecuteDuckDBResultSetMetaData;
+
+/**
+ * Réponse aux requêtes plus étroites qu'un résultat en cache : un tableau de
+ * bord lance un agrégat large, puis l'affine par un filtre, moins de colonnes
+ * ou un regroupement plus grossier. Plutôt que relire la source, la requête
+ * résiduelle est exécutée sur le fichier Parquet du résultat en cache.
+ * <p>
+ * Une entrée {@code SELECT ... FROM f WHERE p GROUP BY g} répond à une requête
+ * sur le même {@code FROM} dont le {@code WHERE} contient tous les termes de
+ * {@code p} (reliés par {@code AND}), et :
+ * <ul>
+ * <li>sans agrégat dans l'entrée : dont les expressions ne lisent que des
+ * colonnes du résultat ;</li>
+ * <li>avec le même regroupement : dont les filtres supplémentaires ne portent
+ * que sur les clés de regroupement, et les agrégats sur ceux de l'entrée ;</li>
+ * <li>avec un regroupement sur une partie des clés : dont les agrégats se
+ * recombinent ({@code sum}, {@code count}, {@code min}, {@code max}).</li>
+ * </ul>
+ * La correspondance se fait sur l'arbre Calcite des deux requêtes, terme à
+ * terme sous leur forme canonique : sans catalogue des sources, il n'y a pas
+ * de plan relationnel à comparer. Les colonnes de la réponse prennent les noms
+ * et les types de la requête, décrite par DuckDB sans être exécutée.
+ * <p>
+ * Désactivé par {@code CACHE_SUBSUMPTION=false}.
+ */
+@Service
+public class SubsumptionCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubsumptionCache.class);
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getenv().getOrDefault("CACHE_SUBSUMPTION", "true"));
+    private static final SqlParserPos POS = SqlParserPos.ZERO;
+    // Agrégats qui se recalculent à partir de leurs résultats partiels
+    private static final Map<String, SqlFunction> ROLLUPS = new HashMap<>();
+    static {
+        ROLLUPS.put("sum", SqlStdOperatorTable.SUM);
+        ROLLUPS.put("count", SqlStdOperatorTable.SUM);
+        ROLLUPS.put("count_star", SqlStdOperatorTable.SUM);
+        ROLLUPS.put("min", SqlStdOperatorTable.MIN);
+        ROLLUPS.put("max", SqlStdOperatorTable.MAX);
+    }
+    private static final View NOT_A_VIEW = new View();
+
+    private final CacheManifest manifest;
+    private final QueryFingerprint fingerprint;
+
+    // Analyse des entrées, oubliée avec elles
+    private final Map<CacheManifest.Entry, View> views = Collections.synchronizedMap(new WeakHashMap<>());
+    // Noms des fonctions d'agrégat de DuckDB, lus au premier usage
+    private volatile Set<String> aggregates;
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong answered = new AtomicLong();
+
+    public SubsumptionCache(CacheManifest manifest, QueryFingerprint fingerprint) {
+        this.manifest = manifest;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Requête résiduelle et entrée qui la sert.
+     */
+    public static final class Derivation {
+        public final String sql;
+        public final CacheManifest.Entry source;
+
+        Derivation(String sql, CacheManifest.Entry source) {
+            this.sql = sql;
+            this.source = source;
+        }
+    }
+
+    /**
+     * Cherche une entrée Parquet non expirée dont {@code query} se déduit, la
+     * plus petite si plusieurs conviennent.
+     *
+     * @return la requête résiduelle sur le fichier de l'entrée, ou {@code null}
+     */
+    public Derivation derive(Connection con, String query, long ttlMs) {
+        if (!ENABLED || manifest.size() == 0) {
+            return null;
+        }
+        Query q = Query.of(fingerprint.parse(query));
+        if (q == null) {
+            return null;
+        }
+        lookups.incrementAndGet();
+        Set<String> aggregateNames;
+        try {
+            aggregateNames = aggregates(con);
+        } catch (SQLException e) {
+            logger.debug("Liste des agrégats illisible : {}", e.getMessage());
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        List<CacheManifest.Entry> candidates = new ArrayList<>();
+        for (CacheManifest.Entry entry : manifest.entries()) {
+            if (entry.getSql() != null && now - entry.getCreatedAt() <= ttlMs
+                && q.from.equals(view(entry, aggregateNames).from)) {
+                candidates.add(entry);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        candidates.sort((a, b) -> Long.compare(a.getSizeBytes(), b.getSizeBytes()));
+        ExecuteDuckDBResultSetMetaData described = null;
+        for (CacheManifest.Entry entry : candidates) {
+            try {
+                Residual residual = residual(view(entry, aggregateNames), q, aggregateNames);
+                if (residual == null) {
+                    continue;
+                }
+                if (!q.star && described == null) {
+                    described = PreparedStatementService.describe(con, query, null);
+                }
+                CacheManifest.Entry source = manifest.get(entry.getHash(), ttlMs);
+                if (source == null) {
+                    continue;
+                }
+                answered.incrementAndGet();
+                return new Derivation(residual.toSql(q, described, source.getPath()), source);
+            } catch (SQLException | RuntimeException e) {
+                logger.debug("Requête non déductible de l'entrée {} : {}", entry.getHash(), e.getMessage());
+                if (e instanceof SQLException) {
+                    // La requête elle-même ne se décrit pas : aucune entrée n'y répondra
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", ENABLED);
+        stats.put("lookups", lookups.get());
+        stats.put("answered", answered.get());
+        return stats;
+    }
+
+    private View view(CacheManifest.Entry entry, Set<String> aggregateNames) {
+        View view = views.get(entry);
+        if (view == null) {
+            view = View.of(fingerprint.parse(entry.getSql()), entry.getColumnNames(), aggregateNames);
+            views.put(entry, view);
+        }
+        return view;
+    }
+
+    private Set<String> aggregates(Connection con) throws SQLException {
+        Set<String> names = aggregates;
+        if (names == null) {
+            names = new HashSet<>();
+            try (Statement st = con.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT DISTINCT function_name FROM duckdb_functions() WHERE function_type = 'aggregate'")) {
+                while (rs.next()) {
+                    names.add(rs.getString(1).toLowerCase(Locale.ROOT));
+                }
+            }
+            aggregates = names;
+        }
+        return names;
+    }
+
+    /**
+     * Réécrit {@code q} sur les colonnes de {@code view}.
+     *
+     * @return {@code null} si {@code q} ne s'en déduit pas
+     */
+    private static Residual residual(View view, Query q, Set<String> aggregateNames) {
+        if (view == NOT_A_VIEW || !q.conjuncts.keySet().containsAll(view.conjuncts)) {
+            return null;
+        }
+        boolean qAggregated = q.group != null || q.containsAggregate(aggregateNames);
+        if (q.star && (!view.star || qAggregated)) {
+            return null;
+        }
+        Residual residual = new Residual();
+        Rewriter rewriter;
+        if (!view.aggregated) {
+            rewriter = new Rewriter(view.columns, Collections.emptyMap());
+            // Un alias calculé (upper(s) AS s) ne vaut pas la colonne source s
+            rewriter.allowed.addAll(view.passthrough);
+        } else {
+            if (!qAggregated) {
+                return null;
+            }
+            Set<String> qGroups = new LinkedHashSet<>();
+            for (SqlNode group : q.groupExprs()) {
+                qGroups.add(canonical(group));
+            }
+            if (!view.groups.containsAll(qGroups)) {
+                return null;
+            }
+            residual.rollup = !qGroups.equals(view.groups);
+            if (residual.rollup) {
+                Map<String, String> groupColumns = new HashMap<>();
+                for (String group : view.groups) {
+                    if (view.columns.containsKey(group)) {
+                        groupColumns.put(group, view.columns.get(group));
+                    }
+                }
+                rewriter = new Rewriter(groupColumns, view.rollups);
+            } else {
+                rewriter = new Rewriter(view.columns, Collections.emptyMap());
+            }
+            for (String group : view.groups) {
+                String column = view.columns.get(group);
+                if (column != null && view.passthrough.contains(column.toLowerCase(Locale.ROOT))) {
+                    rewriter.allowed.add(column.toLowerCase(Locale.ROOT));
+                }
+            }
+            rewriter.forbidden = aggregateNames;
+        }
+
+        for (Map.Entry<String, SqlNode> conjunct : q.conjuncts.entrySet()) {
+            if (!view.conjuncts.contains(conjunct.getKey())) {
+                // Après agrégation, un filtre ne se rejoue que sur les clés de regroupement
+                SqlNode rewritten = rewriter.apply(conjunct.getValue());
+                if (rewritten == null) {
+                    return null;
+                }
+                residual.where.add(rewritten);
+            }
+        }
+        if (!q.star) {
+            for (SqlNode item : q.select.getSelectList()) {
+                SqlNode rewritten = rewriter.apply(stripAlias(item));
+                if (rewritten == null) {
+                    return null;
+                }
+                residual.items.add(rewritten);
+            }
+        }
+        // GROUP BY, HAVING et ORDER BY peuvent aussi nommer les colonnes de la requête
+        for (SqlNode item : q.select.getSelectList()) {
+            if (item.getKind() == SqlKind.AS) {
+                rewriter.allowed.add(((SqlCall) item).operand(1).toString().toLowerCase(Locale.ROOT));
+            }
+        }
+        if (q.group != null && (!view.aggregated || residual.rollup)) {
+            for (SqlNode group : q.group) {
+                SqlNode rewritten = rewriter.apply(group);
+                if (rewritten == null) {
+                    return null;
+                }
+                residual.group.add(rewritten);
+            }
+        }
+        if (q.select.getHaving() != null) {
+            SqlNode rewritten = rewriter.apply(q.select.getHaving());
+            if (rewritten == null) {
+                return null;
+            }
+            if (view.aggregated && !residual.rollup) {
+                // Une ligne par groupe : le HAVING devient un filtre
+                residual.where.add(rewritten);
+            } else {
+                residual.having = rewritten;
+            }
+        }
+        for (SqlNode order : q.orderList) {
+            SqlNode rewritten = rewriter.apply(order);
+            if (rewritten == null) {
+                return null;
+            }
+            residual.orderBy.add(rewritten);
+        }
+        residual.distinct = q.select.isDistinct();
+        residual.fetch = q.fetch;
+        residual.offset = q.offset;
+        return residual;
+    }
+
+    static SqlNode stripAlias(SqlNode item) {
+        return item.getKind() == SqlKind.AS ? ((SqlCall) item).operand(0) : item;
+    }
+
+    static String canonical(SqlNode node) {
+        return node.toSqlString(c -> c.withDialect(PostgresqlSqlDialect.DEFAULT)
+                                      .withAlwaysUseParentheses(false)
+                                      .withSelectListItemsOnSeparateLines(false)
+                                      .withIndentation(0)
+                                      .withClauseStartsLine(false)
+                                      .withClauseEndsLine(false)).getSql();
+    }
+
+    static String quote(String identifier) {
+        return '"' + identifier.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Termes d'une conjonction, par forme canonique.
+     */
+    private static Map<String, SqlNode> conjuncts(SqlNode where) {
+        Map<String, SqlNode> terms = new LinkedHashMap<>();
+        List<SqlNode> pending = new ArrayList<>();
+        if (where != null) {
+            pending.add(where);
+        }
+        while (!pending.isEmpty()) {
+            SqlNode node = pending.remove(pending.size() - 1);
+            if (node.getKind() == SqlKind.AND) {
+                pending.addAll(((SqlCall) node).getOperandList());
+            } else {
+                terms.put(canonical(node), node);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Clés de regroupement, un numéro de colonne remplacé par l'expression
+     * qu'il désigne.
+     */
+    static List<SqlNode> groupExprs(SqlSelect select) {
+        List<SqlNode> exprs = new ArrayList<>();
+        if (select.getGroup() == null) {
+            return exprs;
+        }
+        for (SqlNode group : select.getGroup()) {
+            if (group instanceof SqlLiteral && ((SqlLiteral) group).getValue() instanceof Number) {
+                int ordinal = ((SqlLiteral) group).intValue(true);
+                exprs.add(stripAlias(select.getSelectList().get(ordinal - 1)));
+            } else {
+                exprs.add(group);
+            }
+        }
+        return exprs;
+    }
+
+    /**
+     * Requête mono-bloc dont la structure est lisible : ni sous-requête, ni
+     * fenêtre, ni ensembles de regroupement.
+     */
+    static boolean simple(SqlSelect select) {
+        if (select.getFrom() == null || (select.getWindowList() != null && select.getWindowList().size() > 0)) {
+            return false;
+        }
+        List<SqlNode> parts = new ArrayList<>(select.getSelectList().getList());
+        parts.add(select.getWhere());
+        parts.add(select.getHaving());
+        if (select.getGroup() != null) {
+            parts.addAll(select.getGroup().getList());
+        }
+        for (SqlNode part : parts) {
+            if (part != null && !part.accept(new Structure())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Vrai si l'expression ne contient ni sous-requête, ni fenêtre, ni
+     * ensemble de regroupement.
+     */
+    private static final class Structure extends SqlBasicVisitor<Boolean> {
+        @Override
+        public Boolean visit(SqlCall call) {
+            SqlKind kind = call.getKind();
+            if (kind == SqlKind.SELECT || kind == SqlKind.OVER || kind == SqlKind.WINDOW || kind == SqlKind.ROLLUP
+                || kind == SqlKind.CUBE || kind == SqlKind.GROUPING_SETS || kind == SqlKind.UNION
+                || kind == SqlKind.EXCEPT || kind == SqlKind.INTERSECT || call instanceof SqlOrderBy) {
+                return false;
+            }
+            for (SqlNode operand : call.getOperandList()) {
+                if (operand != null && !operand.accept(this)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Boolean visit(SqlNodeList nodeList) {
+            for (SqlNode node : nodeList) {
+                if (node != null && !node.accept(this)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Boolean visit(SqlLiteral literal) {
+            return true;
+        }
+
+        @Override
+        public Boolean visit(SqlIdentifier id) {
+            return true;
+        }
+
+        @Override
+        public Boolean visit(SqlDataTypeSpec type) {
+            return true;
+        }
+
+        @Override
+        public Boolean visit(SqlDynamicParam param) {
+            return false;
+        }
+
+        @Override
+        public Boolean visit(SqlIntervalQualifier intervalQualifier) {
+            return true;
+        }
+    }
+
+    /**
+     * {@code *} seul, sans préfixe de table.
+     */
+    static boolean isBareStar(SqlNode node) {
+        return node instanceof SqlIdentifier && ((SqlIdentifier) node).isStar() && ((SqlIdentifier) node).names.size() <= 1;
+    }
+
+    static String functionName(SqlCall call) {
+        return call.getOperator().getName().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Entrée en cache, analysée : colonnes du résultat par expression, clés de
+     * regroupement, agrégats recombinables, termes du {@code WHERE}.
+     */
+    private static final class View {
+        String from;
+        boolean star;
+        boolean aggregated;
+        final Map<String, String> columns = new HashMap<>();
+        final Set<String> outputs = new HashSet<>();
+        // Colonnes qui reprennent telle quelle la colonne source de même nom
+        final Set<String> passthrough = new HashSet<>();
+        final Set<String> groups = new LinkedHashSet<>();
+        final Map<String, Rollup> rollups = new HashMap<>();
+        Set<String> conjuncts;
+
+        static View of(SqlNode node, String[] columnNames, Set<String> aggregateNames) {
+            if (node instanceof SqlOrderBy) {
+                SqlOrderBy orderBy = (SqlOrderBy) node;
+                // Un résultat tronqué ne contient pas tout ce qu'il filtre
+                if (orderBy.fetch != null || orderBy.offset != null) {
+                    return NOT_A_VIEW;
+                }
+                node = orderBy.query;
+            }
+            if (!(node instanceof SqlSelect) || columnNames == null) {
+                return NOT_A_VIEW;
+            }
+            SqlSelect select = (SqlSelect) node;
+            if (!simple(select) || select.isDistinct() || select.getHaving() != null
+                || select.getFetch() != null || select.getOffset() != null) {
+                return NOT_A_VIEW;
+            }
+            View view = new View();
+            for (String name : columnNames) {
+                if (!view.outputs.add(name.toLowerCase(Locale.ROOT))) {
+                    return NOT_A_VIEW;
+                }
+            }
+            SqlNodeList items = select.getSelectList();
+            if (items.size() == 1 && isBareStar(items.get(0))) {
+                view.star = true;
+                view.passthrough.addAll(view.outputs);
+            } else if (items.size() == columnNames.length) {
+                for (int i = 0; i < items.size(); i++) {
+                    SqlNode expr = stripAlias(items.get(i));
+                    if (expr instanceof SqlIdentifier && ((SqlIdentifier) expr).isStar()) {
+                        return NOT_A_VIEW;
+                    }
+                    if (expr instanceof SqlIdentifier && ((SqlIdentifier) expr).isSimple()
+                        && ((SqlIdentifier) expr).getSimple().equalsIgnoreCase(columnNames[i])) {
+                        view.passthrough.add(columnNames[i].toLowerCase(Locale.ROOT));
+                    }
+                    String key = canonical(expr);
+                    view.columns.putIfAbsent(key, columnNames[i]);
+                    String function = expr instanceof SqlCall && ((SqlCall) expr).getFunctionQuantifier() == null
+                        ? functionName((SqlCall) expr) : null;
+                    if (ROLLUPS.containsKey(function)) {
+                        view.rollups.put(key, new Rollup(ROLLUPS.get(function), columnNames[i],
+                                                         "count".equals(function) || "count_star".equals(function)));
+                    }
+                }
+            } else {
+                return NOT_A_VIEW;
+            }
+            view.aggregated = select.getGroup() != null || new Rewriter.Checker(null, aggregateNames).containsAggregate(items);
+            if (view.star && view.aggregated) {
+                return NOT_A_VIEW;
+            }
+            for (SqlNode group : groupExprs(select)) {
+                view.groups.add(canonical(group));
+            }
+            view.from = canonical(select.getFrom());
+            view.conjuncts = conjuncts(select.getWhere()).keySet();
+            return view;
+        }
+    }
+
+    private static final class Rollup {
+        final SqlFunction function;
+        final String column;
+        // Un comptage vaut 0, et non NULL, quand aucun groupe ne reste
+        final boolean count;
+
+        Rollup(SqlFunction function, String column, boolean count) {
+            this.function = function;
+            this.column = column;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Requête entrante, décomposée.
+     */
+    private static final class Query {
+        String from;
+        SqlSelect select;
+        boolean star;
+        SqlNodeList group;
+        Map<String, SqlNode> conjuncts;
+        List<SqlNode> orderList = new ArrayList<>();
+        SqlNode fetch;
+        SqlNode offset;
+
+        static Query of(SqlNode node) {
+            Query q = new Query();
+            if (node instanceof SqlOrderBy) {
+                SqlOrderBy orderBy = (SqlOrderBy) node;
+                q.orderList.addAll(orderBy.orderList.getList());
+                q.fetch = orderBy.fetch;
+                q.offset = orderBy.offset;
+                node = orderBy.query;
+            }
+            if (!(node instanceof SqlSelect)) {
+                return null;
+            }
+            q.select = (SqlSelect) node;
+            if (!simple(q.select)) {
+                return null;
+            }
+            if (q.select.getOrderList() != null) {
+                q.orderList.addAll(q.select.getOrderList().getList());
+            }
+            q.fetch = q.fetch != null ? q.fetch : q.select.getFetch();
+            q.offset = q.offset != null ? q.offset : q.select.getOffset();
+            for (SqlNode order : q.orderList) {
+                if (!order.accept(new Structure())) {
+                    return null;
+                }
+            }
+            SqlNodeList items = q.select.getSelectList();
+            for (SqlNode item : items) {
+                if (stripAlias(item) instanceof SqlIdentifier && ((SqlIdentifier) stripAlias(item)).isStar()) {
+                    if (items.size() > 1 || !isBareStar(item)) {
+                        return null;
+                    }
+                    q.star = true;
+                }
+            }
+            q.group = q.select.getGroup();
+            q.from = canonical(q.select.getFrom());
+            q.conjuncts = conjuncts(q.select.getWhere());
+            return q;
+        }
+
+        List<SqlNode> groupExprs() {
+            return SubsumptionCache.groupExprs(select);
+        }
+
+        boolean containsAggregate(Set<String> aggregateNames) {
+            List<SqlNode> parts = new ArrayList<>(select.getSelectList().getList());
+            parts.add(select.getHaving());
+            parts.addAll(orderList);
+            for (SqlNode part : parts) {
+                if (part != null && new Rewriter.Checker(null, aggregateNames).containsAggregate(part)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Remplace les expressions de l'entrée par ses colonnes, et en mode
+     * recombinaison ses agrégats par leur agrégat des résultats partiels. Le
+     * reste de l'expression ne doit lire que des colonnes autorisées.
+     */
+    private static final class Rewriter extends SqlShuttle {
+        final Map<String, String> columns;
+        final Map<String, Rollup> rollups;
+        final Set<String> allowed = new HashSet<>();
+        Set<String> forbidden = Collections.emptySet();
+        final Set<SqlNode> created = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        Rewriter(Map<String, String> columns, Map<String, Rollup> rollups) {
+            this.columns = columns;
+            this.rollups = rollups;
+        }
+
+        /**
+         * @return l'expression réécrite, ou {@code null} si elle lit autre
+         *         chose que le résultat en cache
+         */
+        SqlNode apply(SqlNode node) {
+            SqlNode rewritten = node.accept(this);
+            return new Checker(this, forbidden).valid(rewritten) ? rewritten : null;
+        }
+
+        @Override
+        public SqlNode visit(SqlIdentifier id) {
+            String column = columns.get(canonical(id));
+            return column == null ? id : column(column);
+        }
+
+        @Override
+        public SqlNode visit(SqlCall call) {
+            String key = canonical(call);
+            Rollup rollup = rollups.get(key);
+            if (rollup != null) {
+                SqlBasicCall combined = (SqlBasicCall) rollup.function.createCall(POS, column(rollup.column));
+                if (rollup.count) {
+                    combined = (SqlBasicCall) SqlStdOperatorTable.COALESCE.createCall(POS, combined,
+                                                                                     SqlLiteral.createExactNumeric("0", POS));
+                }
+                created.add(combined);
+                return combined;
+            }
+            String column = columns.get(key);
+            return column == null ? super.visit(call) : column(column);
+        }
+
+        private SqlIdentifier column(String name) {
+            SqlIdentifier id = new SqlIdentifier(name, POS);
+            created.add(id);
+            return id;
+        }
+
+        /**
+         * Vérifie qu'une expression réécrite ne lit que des colonnes
+         * autorisées et n'appelle aucun agrégat interdit.
+         */
+        private static final class Checker extends SqlBasicVisitor<Void> {
+            private final Rewriter rewriter;
+            private final Set<String> aggregateNames;
+            boolean valid = true;
+            boolean aggregate;
+
+            Checker(Rewriter rewriter, Set<String> aggregateNames) {
+                this.rewriter = rewriter;
+                this.aggregateNames = aggregateNames;
+            }
+
+            boolean valid(SqlNode node) {
+                node.accept(this);
+                return valid;
+            }
+
+            boolean containsAggregate(SqlNode node) {
+                node.accept(this);
+                return aggregate;
+            }
+
+            @Override
+            public Void visit(SqlCall call) {
+                if (rewriter != null && rewriter.created.contains(call)) {
+                    aggregate = true;
+                    return null;
+                }
+                if (aggregateNames.contains(functionName(call))) {
+                    aggregate = true;
+                    if (rewriter != null) {
+                        valid = false;
+                    }
+                }
+                return super.visit(call);
+            }
+
+            @Override
+            public Void visit(SqlIdentifier id) {
+                if (rewriter == null || rewriter.created.contains(id)) {
+                    return null;
+                }
+                // count(*) : l'étoile désigne les lignes, pas une colonne
+                if (!isBareStar(id) && !(id.isSimple() && rewriter.allowed.contains(id.getSimple().toLowerCase(Locale.ROOT)))) {
+                    valid = false;
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Requête résiduelle, éléments réécrits sur les colonnes de l'entrée.
+     */
+    private static final class Residual {
+        boolean rollup;
+        boolean distinct;
+        final List<SqlNode> items = new ArrayList<>();
+        final List<SqlNode> where = new ArrayList<>();
+        final List<SqlNode> group = new ArrayList<>();
+        SqlNode having;
+        final List<SqlNode> orderBy = new ArrayList<>();
+        SqlNode fetch;
+        SqlNode offset;
+
+        String toSql(Query q, ExecuteDuckDBResultSetMetaData described, String path) {
+            StringBuilder sql = new StringBuilder("SELECT ");
+            if (distinct) {
+                sql.append("DISTINCT ");
+            }
+            if (q.star) {
+                sql.append("* EXCLUDE (cached_at)");
+            } else {
+                String[] names = described.getColumn_names();
+                String[] types = described.getColumn_types_string();
+                if (names == null || names.length != items.size()) {
+                    throw new IllegalStateException("colonnes décrites : " + (names == null ? 0 : names.length));
+                }
+                // Noms et types de la requête d'origine : count recombiné par sum, par exemple, change de type
+                for (int i = 0; i < items.size(); i++) {
+                    sql.append(i == 0 ? "" : ", ").append("CAST(").append(canonical(items.get(i))).append(" AS ")
+                       .append(types[i]).append(") AS ").append(quote(names[i]));
+                }
+            }
+            sql.append(" FROM read_parquet('").append(path.replace("'", "''")).append("')");
+            append(sql, " WHERE ", " AND ", where, true);
+            append(sql, " GROUP BY ", ", ", group, false);
+            if (having != null) {
+                sql.append(" HAVING ").append(canonical(having));
+            }
+            append(sql, " ORDER BY ", ", ", orderBy, false);
+            if (fetch != null) {
+                sql.append(" LIMIT ").append(canonical(fetch));
+            }
+            if (offset != null) {
+                sql.append(" OFFSET ").append(canonical(offset));
+            }
+            return sql.toString();
+        }
+
+        private static void append(StringBuilder sql, String keyword, String separator, List<SqlNode> nodes, boolean parenthesize) {
+            for (int i = 0; i < nodes.size(); i++) {
+                String text = canonical(nodes.get(i));
+                sql.append(i == 0 ? keyword : separator).append(parenthesize ? "(" + text + ")" : text);
+            }
+        }
+    }
+}